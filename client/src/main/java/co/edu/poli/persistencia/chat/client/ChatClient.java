@@ -1,14 +1,35 @@
 package co.edu.poli.persistencia.chat.client;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 /**
  * La clase ChatClient es responsable de establecer una conexión con un servidor de chat y manejar los mensajes entrantes y salientes.
+ * Puede usar el protocolo de texto (una línea por mensaje) o el protocolo binario de tramas ({@link ChatFrame}).
+ * Responde automáticamente los pings con los que el servidor comprueba que la conexión sigue viva.
+ * <p>
+ * Si la conexión se cae, {@link #readMessages()} se reconecta con esperas exponenciales con variación aleatoria
+ * (entre {@code chat.reconnect.initialDelayMs} y {@code chat.reconnect.maxDelayMs}, propiedades del sistema, por
+ * defecto 500 ms y 30 s) y reanuda la sesión: el servidor numera los mensajes de la sesión y el cliente le indica el
+ * último que procesó, así el servidor reenvía los que faltan sin repetir ninguno. Mientras no hay conexión, los
+ * mensajes enviados esperan en el cliente, hasta {@code chat.offlineMessages} (por defecto 1000), y salen al
+ * reconectarse.
  *
  * @author Autor
  * @version 1.0
@@ -16,73 +37,609 @@ import java.util.function.Consumer;
  */
 public class ChatClient {
 
-    private final Socket socket;
-    private final BufferedReader buffReader;
-    private final PrintWriter buffWriter;
+    /**
+     * Los cambios en la conexión que se notifican con {@link #setConnectionHandler}.
+     */
+    public enum ConnectionEvent {
+        /** La conexión se cayó; el cliente intenta reconectarse. */
+        DISCONNECTED,
+        /** El cliente se reconectó. */
+        RECONNECTED,
+        /** El servidor ya no tenía la sesión y empezó una nueva: los mensajes enviados mientras tanto se perdieron. */
+        SESSION_LOST,
+        /** La conexión terminó y no se reconectará, porque el usuario se despidió o el apodo está en uso. */
+        CLOSED
+    }
+
+    private static final long RECONNECT_INITIAL_DELAY_MILLIS =
+            Math.max(1, Long.getLong("chat.reconnect.initialDelayMs", 500));
+
+    private static final long RECONNECT_MAX_DELAY_MILLIS =
+            Math.max(RECONNECT_INITIAL_DELAY_MILLIS, Long.getLong("chat.reconnect.maxDelayMs", 30_000));
+
+    private static final int MAX_OFFLINE_MESSAGES = Math.max(1, Integer.getInteger("chat.offlineMessages", 1000));
+
+    private final String host;
+    private final int port;
+    private final String nickname;
+    private final boolean binaryProtocol;
+
+    // La conexión actual; se reemplaza al reconectarse, con el candado del cliente tomado
+    private Socket socket;
+    private volatile boolean connected;
+
+    // Verdadero cuando el cliente no debe reconectarse
+    private volatile boolean closed;
+
+    // Protocolo de texto
+    private BufferedReader buffReader;
+    private PrintWriter buffWriter;
+
+    // Protocolo binario
+    private DataInputStream frameReader;
+    private DataOutputStream frameWriter;
+    private boolean preambleRead;
+
+    // Mensajes enviados sin conexión, en orden; protegidos por el candado del cliente
+    private final ArrayDeque<String> offlineMessages = new ArrayDeque<>();
+
+    // La sesión que se reanuda al reconectarse y la secuencia del último mensaje reanudable procesado; solo los usa
+    // el hilo que lee del servidor
+    private String sessionToken;
+    private long acknowledgedSequence;
 
     private final Consumer<String> activeUserHandler;
 
+    private final Consumer<String> presenceChangesHandler;
+
     private final Consumer<String> messageHandler;
 
+    // Manejadores del historial; si no se establecen, el historial llega como mensajes normales
+    private volatile Consumer<String> historyHandler;
+
+    private volatile BiConsumer<String, Long> historyEndHandler;
+
+    // Manejadores de las búsquedas; si no se establecen, los resultados llegan como mensajes normales
+    private volatile Consumer<String> searchHandler;
+
+    private volatile Consumer<Long> searchEndHandler;
+
+    private volatile Consumer<ConnectionEvent> connectionHandler;
+
+    /**
+     * Inicializa una nueva instancia de la clase ChatClient que usa el protocolo de texto.
+     *
+     * @param host              El nombre del host o la dirección IP del servidor al que se va a conectar.
+     * @param port              El número de puerto del servidor.
+     * @param nickname          El apodo que se utilizará para el usuario actual.
+     * @param activeUserHandler Una función Consumer que manejará la lista completa de usuarios activos en el chat.
+     * @param presenceChangesHandler Una función Consumer que manejará los cambios incrementales de usuarios activos
+     *                               (por ejemplo "+ana, -luis").
+     * @param messageHandler    Una función Consumer que manejará los mensajes entrantes del chat.
+     * @throws IOException      Si hay un error de E/S al conectarse con el servidor.
+     */
+    public ChatClient(String host,
+                      int port,
+                      String nickname,
+                      Consumer<String> activeUserHandler,
+                      Consumer<String> presenceChangesHandler,
+                      Consumer<String> messageHandler
+    ) throws IOException {
+        this(host, port, nickname, false, activeUserHandler, presenceChangesHandler, messageHandler);
+    }
+
     /**
      * Inicializa una nueva instancia de la clase ChatClient.
      *
      * @param host              El nombre del host o la dirección IP del servidor al que se va a conectar.
      * @param port              El número de puerto del servidor.
      * @param nickname          El apodo que se utilizará para el usuario actual.
-     * @param activeUserHandler Una función Consumer que manejará las actualizaciones de usuarios activos en el chat.
+     * @param binaryProtocol    Verdadero para usar el protocolo binario de tramas; falso para el de texto.
+     * @param activeUserHandler Una función Consumer que manejará la lista completa de usuarios activos en el chat.
+     * @param presenceChangesHandler Una función Consumer que manejará los cambios incrementales de usuarios activos
+     *                               (por ejemplo "+ana, -luis").
      * @param messageHandler    Una función Consumer que manejará los mensajes entrantes del chat.
      * @throws IOException      Si hay un error de E/S al conectarse con el servidor.
      */
     public ChatClient(String host,
                       int port,
                       String nickname,
+                      boolean binaryProtocol,
                       Consumer<String> activeUserHandler,
+                      Consumer<String> presenceChangesHandler,
                       Consumer<String> messageHandler
     ) throws IOException {
-        socket = new Socket(host, port);
-        buffWriter = new PrintWriter(socket.getOutputStream(), true);
-        buffReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        buffWriter.println(nickname);
+        this.host = host;
+        this.port = port;
+        this.nickname = nickname;
+        this.binaryProtocol = binaryProtocol;
         this.activeUserHandler = activeUserHandler;
+        this.presenceChangesHandler = presenceChangesHandler;
         this.messageHandler = messageHandler;
+        connect();
         System.out.println("Connected to server.");
     }
 
     /**
-     * Devuelve si el socket está actualmente conectado.
+     * Abre una conexión con el servidor y envía el saludo: el apodo o, si ya hay una sesión, la sesión a reanudar
+     * con la secuencia del último mensaje procesado. Luego envía los mensajes que esperaban la conexión.
+     *
+     * @throws IOException si no se puede conectar con el servidor.
+     */
+    private void connect() throws IOException {
+        Socket newSocket = new Socket(host, port);
+        String resume = sessionToken == null ? null : sessionToken + " " + acknowledgedSequence;
+        synchronized (this) {
+            try {
+                socket = newSocket;
+                if (binaryProtocol) {
+                    frameWriter = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    frameReader = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    preambleRead = false;
+                    frameWriter.write(ChatFrame.PREAMBLE);
+                    writeFrame(new ChatFrame(ChatFrame.HELLO, nickname, "", resume == null ? "" : resume));
+                } else {
+                    buffWriter = new PrintWriter(socket.getOutputStream(), true);
+                    buffReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                    writeLine(resume == null ? nickname : "/resume " + nickname + " " + resume);
+                }
+                // Un mensaje sale de la espera solo cuando se escribió; si la conexión se vuelve a caer, los demás
+                // siguen esperando
+                while (!offlineMessages.isEmpty()) {
+                    write(offlineMessages.peek());
+                    offlineMessages.poll();
+                }
+                connected = true;
+            } catch (IOException e) {
+                newSocket.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Devuelve si el cliente tiene una conexión con el servidor.
      *
-     * @return verdadero si el socket está conectado, falso en caso contrario.
+     * @return verdadero si el cliente está conectado, falso si se está reconectando o la conexión terminó.
      */
     public boolean isConnected() {
-        return socket.isConnected();
+        return connected;
+    }
+
+    /**
+     * Establece el manejador que recibe los cambios en la conexión, por ejemplo para avisar al usuario que el cliente
+     * se está reconectando. Se invoca desde el hilo que lee del servidor.
+     *
+     * @param connectionHandler Una función Consumer que manejará cada cambio en la conexión.
+     */
+    public void setConnectionHandler(Consumer<ConnectionEvent> connectionHandler) {
+        this.connectionHandler = connectionHandler;
+    }
+
+    /**
+     * Cierra la conexión sin despedirse del servidor. El cliente no se reconecta.
+     */
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            connected = false;
+            closeSocket();
+        }
+    }
+
+    /**
+     * Establece los manejadores que reciben las páginas del historial pedidas con {@link #requestHistory}.
+     *
+     * @param historyHandler    Una función Consumer que manejará cada mensaje del historial, del más antiguo al más
+     *                          reciente.
+     * @param historyEndHandler Una función BiConsumer que recibe la conversación y el identificador con el que se pide
+     *                          la página anterior al terminar cada página; el identificador es 0 si no hay más mensajes.
+     */
+    public void setHistoryHandlers(Consumer<String> historyHandler, BiConsumer<String, Long> historyEndHandler) {
+        this.historyHandler = historyHandler;
+        this.historyEndHandler = historyEndHandler;
     }
 
     /**
-     * Enviar un mensaje utilizando la conexión establecida.
+     * Pide al servidor una página del historial de una conversación.
+     *
+     * @param conversation "@usuario" para la conversación privada con ese usuario o "#sala" para una sala.
+     * @param beforeId     la página termina antes de este mensaje; 0 para la página más reciente.
+     * @param limit        la cantidad máxima de mensajes de la página.
+     * @throws IOException si ocurre un error en el envío de la petición.
+     */
+    public void requestHistory(String conversation, long beforeId, int limit) throws IOException {
+        sendMessage("/history " + conversation + " " + limit + " " + beforeId);
+    }
+
+    /**
+     * Establece los manejadores que reciben las páginas de resultados pedidas con {@link #search}.
+     *
+     * @param searchHandler    Una función Consumer que manejará cada mensaje encontrado, del más reciente al más
+     *                         antiguo.
+     * @param searchEndHandler Una función Consumer que recibe el identificador con el que se pide la página siguiente
+     *                         al terminar cada página; el identificador es 0 si no hay más resultados.
+     */
+    public void setSearchHandlers(Consumer<String> searchHandler, Consumer<Long> searchEndHandler) {
+        this.searchHandler = searchHandler;
+        this.searchEndHandler = searchEndHandler;
+    }
+
+    /**
+     * Pide al servidor una página de los mensajes de sus conversaciones que contienen todas las palabras buscadas.
+     * Las mayúsculas y las tildes no importan.
+     *
+     * @param query    las palabras a buscar.
+     * @param beforeId la página termina antes de este mensaje; 0 para empezar por el más reciente.
+     * @param limit    la cantidad máxima de mensajes de la página.
+     * @throws IOException si ocurre un error en el envío de la petición.
+     */
+    public void search(String query, long beforeId, int limit) throws IOException {
+        // Un salto de línea en la búsqueda la cortaría en el protocolo de texto
+        String words = query.replace('\r', ' ').replace('\n', ' ');
+        sendMessage("/search count=" + limit + " before=" + beforeId + " " + words);
+    }
+
+    /**
+     * Enviar un mensaje utilizando la conexión establecida. Si no hay conexión, o se cae al enviarlo, el mensaje
+     * espera a que el cliente se reconecte.
      *
      * @param msg el mensaje a enviar
-     * @throws IOException si ocurre un error en el envío del mensaje.
+     * @throws IOException si no hay conexión y ya hay demasiados mensajes esperándola.
      */
-    public void sendMessage(String msg) throws IOException {
-        buffWriter.println(msg);
+    public synchronized void sendMessage(String msg) throws IOException {
+        boolean bye = toFrame(msg).getType() == ChatFrame.BYE;
+        if (bye) {
+            // El servidor cerrará la conexión; no hay que reconectarse
+            closed = true;
+        }
+        if (!connected) {
+            if (bye) {
+                closeSocket();
+                return;
+            }
+            if (offlineMessages.size() >= MAX_OFFLINE_MESSAGES) {
+                throw new IOException("Too many messages waiting for the connection");
+            }
+            offlineMessages.add(msg);
+            System.out.println("Queued message until reconnected: " + msg);
+            return;
+        }
+        try {
+            write(msg);
+        } catch (IOException e) {
+            // El hilo lector nota el cierre y se reconecta; el mensaje sale entonces
+            System.out.println("Connection lost while sending: " + e.getMessage());
+            offlineMessages.add(msg);
+            connected = false;
+            closeSocket();
+            return;
+        }
         System.out.println("Sent message: " + msg);
     }
 
+    // Se invoca con el candado del cliente tomado
+    private void write(String msg) throws IOException {
+        if (binaryProtocol) {
+            writeFrame(toFrame(msg));
+        } else {
+            writeLine(msg);
+        }
+    }
+
+    // PrintWriter no lanza excepciones; el error se consulta después de escribir
+    private synchronized void writeLine(String line) throws IOException {
+        buffWriter.println(line);
+        if (buffWriter.checkError()) {
+            throw new IOException("Could not write to the server");
+        }
+    }
+
+    /**
+     * Convierte un mensaje escrito por el usuario en la trama equivalente: "@usuario: mensaje" es un mensaje privado,
+     * "#sala: mensaje" es un mensaje a una sala y "chao" termina la conexión; cualquier otro texto (como los comandos
+     * "/join sala") se envía como una línea.
+     *
+     * @param msg el mensaje escrito por el usuario.
+     * @return la trama a enviar.
+     */
+    private ChatFrame toFrame(String msg) {
+        if (msg.startsWith("@")) {
+            int separator = msg.indexOf(':');
+            if (separator > 1) {
+                String recipient = msg.substring(1, separator);
+                String text = msg.substring(separator + 1);
+                if (text.startsWith(" ")) {
+                    text = text.substring(1);
+                }
+                if (text.equals("chao")) {
+                    return new ChatFrame(ChatFrame.BYE, "", "", "");
+                }
+                return new ChatFrame(ChatFrame.PRIVATE, "", recipient, text);
+            }
+        } else if (msg.startsWith("#")) {
+            int separator = msg.indexOf(':');
+            if (separator > 1) {
+                String text = msg.substring(separator + 1);
+                if (text.startsWith(" ")) {
+                    text = text.substring(1);
+                }
+                return new ChatFrame(ChatFrame.ROOM, "", msg.substring(1, separator), text);
+            }
+        } else if (msg.equals("chao")) {
+            return new ChatFrame(ChatFrame.BYE, "", "", "");
+        }
+        return new ChatFrame(ChatFrame.LINE, "", "", msg);
+    }
+
+    private synchronized void writeFrame(ChatFrame frame) throws IOException {
+        frame.write(frameWriter);
+        frameWriter.flush();
+    }
+
+    // Se invoca con el candado del cliente tomado
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.out.println("Error closing the connection: " + e.getMessage());
+        }
+    }
+
     /**
-     * Lee los mensajes de texto enviados por el servidor y realiza diferentes acciones según el contenido del mensaje.
+     * Lee los mensajes enviados por el servidor y realiza diferentes acciones según el contenido del mensaje. Si la
+     * conexión se cae, se reconecta y reanuda la sesión; solo termina cuando el cliente se cierra, el usuario se
+     * despide o el servidor rechaza el apodo.
      *
      * @throws IOException si ocurre un error durante la lectura de los mensajes.
      */
     public void readMessages() throws IOException {
+        while (true) {
+            try {
+                if (binaryProtocol) {
+                    readFrames();
+                } else {
+                    readLines();
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    System.out.println("Connection lost: " + e.getMessage());
+                }
+            }
+            synchronized (this) {
+                connected = false;
+                closeSocket();
+            }
+            if (closed || !reconnect()) {
+                notifyConnection(ConnectionEvent.CLOSED);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Intenta reconectarse hasta lograrlo o hasta que el cliente se cierre. Antes de cada intento espera un tiempo
+     * aleatorio entre la mitad y el total de una espera que se duplica con cada fallo, así los clientes que perdieron
+     * la conexión al mismo tiempo no vuelven todos a la vez.
+     *
+     * @return verdadero si el cliente se reconectó.
+     */
+    private boolean reconnect() {
+        notifyConnection(ConnectionEvent.DISCONNECTED);
+        long delay = RECONNECT_INITIAL_DELAY_MILLIS;
+        while (!closed) {
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(delay / 2, delay + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (closed) {
+                return false;
+            }
+            try {
+                connect();
+                System.out.println("Reconnected to server.");
+                notifyConnection(ConnectionEvent.RECONNECTED);
+                return true;
+            } catch (IOException e) {
+                System.out.println("Reconnection failed: " + e.getMessage());
+                delay = Math.min(RECONNECT_MAX_DELAY_MILLIS, delay * 2);
+            }
+        }
+        return false;
+    }
+
+    private void notifyConnection(ConnectionEvent event) {
+        Consumer<ConnectionEvent> handler = connectionHandler;
+        if (handler != null) {
+            handler.accept(event);
+        }
+    }
+
+    /**
+     * Lee las líneas del protocolo de texto hasta que el servidor cierra la conexión.
+     *
+     * @throws IOException si ocurre un error durante la lectura de los mensajes.
+     */
+    private void readLines() throws IOException {
         String serverMsg;
         while ((serverMsg = buffReader.readLine()) != null) {
+            if (serverMsg.equals("Ping")) {
+                writeLine("/pong");
+                continue;
+            }
+            if (serverMsg.equals("Pong")) {
+                continue;
+            }
             System.out.println(serverMsg);
             if (serverMsg.startsWith("Active Users: ")) {
                 activeUserHandler.accept(serverMsg.substring(14));
+            } else if (serverMsg.startsWith("Presence: ")) {
+                presenceChangesHandler.accept(serverMsg.substring(10));
+            } else if (serverMsg.startsWith("Session ")) {
+                handleSession(serverMsg.substring(8));
             } else {
-                messageHandler.accept(serverMsg); // Procesa el mensaje
+                if (serverMsg.startsWith("History #")) {
+                    handleHistory(serverMsg);
+                } else if (serverMsg.startsWith("History end ")) {
+                    handleHistoryEnd(serverMsg);
+                } else if (serverMsg.startsWith("Search #")) {
+                    handleSearchResult(serverMsg);
+                } else if (serverMsg.startsWith("Search end ")) {
+                    handleSearchEnd(serverMsg);
+                } else {
+                    handleLine(serverMsg); // Procesa el mensaje
+                }
+                acknowledgedSequence++;
             }
         }
     }
+
+    /**
+     * Lee las tramas enviadas por el servidor y las entrega a los mismos manejadores que el protocolo de texto.
+     *
+     * @throws IOException si ocurre un error durante la lectura o el servidor no confirma el protocolo binario.
+     */
+    private void readFrames() throws IOException {
+        if (!preambleRead) {
+            byte[] preamble = new byte[ChatFrame.PREAMBLE.length];
+            frameReader.readFully(preamble);
+            if (!Arrays.equals(preamble, ChatFrame.PREAMBLE)) {
+                throw new IOException("Server did not accept the binary protocol");
+            }
+            preambleRead = true;
+        }
+        ChatFrame frame;
+        while ((frame = ChatFrame.read(frameReader)) != null) {
+            switch (frame.getType()) {
+                case ChatFrame.PRESENCE_SNAPSHOT:
+                    activeUserHandler.accept(frame.getBody().replace("\n", ", "));
+                    continue;
+                case ChatFrame.PRESENCE_CHANGES:
+                    presenceChangesHandler.accept(frame.getBody().replace("\n", ", "));
+                    continue;
+                case ChatFrame.SESSION:
+                    handleSession(frame.getBody());
+                    continue;
+                case ChatFrame.PING:
+                    writeFrame(new ChatFrame(ChatFrame.PONG, "", "", ""));
+                    continue;
+                case ChatFrame.PONG:
+                    continue;
+                case ChatFrame.PRIVATE:
+                    messageHandler.accept("[" + frame.getSender() + "(Private)]: " + frame.getBody());
+                    break;
+                case ChatFrame.ROOM:
+                    messageHandler.accept("[#" + frame.getRecipient() + "] " + frame.getSender() + ": " + frame.getBody());
+                    break;
+                case ChatFrame.HISTORY:
+                    handleHistory(toRecordLine("History", frame));
+                    break;
+                case ChatFrame.SEARCH:
+                    handleSearchResult(toRecordLine("Search", frame));
+                    break;
+                case ChatFrame.ERROR:
+                    messageHandler.accept("Error: " + frame.getBody());
+                    break;
+                case ChatFrame.LINE:
+                    if (frame.getBody().startsWith("History end ")) {
+                        handleHistoryEnd(frame.getBody());
+                    } else if (frame.getBody().startsWith("Search end ")) {
+                        handleSearchEnd(frame.getBody());
+                    } else {
+                        handleLine(frame.getBody());
+                    }
+                    break;
+                default:
+                    System.out.println("Ignoring frame of type " + frame.getType());
+            }
+            // Los mensajes que llegan hasta aquí tienen secuencia en la sesión
+            acknowledgedSequence++;
+        }
+    }
+
+    private void handleLine(String line) {
+        if (line.startsWith("Nickname already in use")) {
+            // Reconectarse con el mismo apodo volvería a fallar
+            closed = true;
+        }
+        messageHandler.accept(line);
+    }
+
+    // "token secuencia": la secuencia es la del último mensaje que el servidor da por recibido
+    private void handleSession(String body) {
+        String[] parts = body.split(" ");
+        if (parts.length != 2) {
+            System.out.println("Ignoring malformed session: " + body);
+            return;
+        }
+        long sequence;
+        try {
+            sequence = Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring malformed session: " + body);
+            return;
+        }
+        if (sessionToken != null && !sessionToken.equals(parts[0])) {
+            notifyConnection(ConnectionEvent.SESSION_LOST);
+        } else if (sessionToken != null && sequence > acknowledgedSequence) {
+            // Los mensajes intermedios ya no estaban en el búfer del servidor
+            System.out.println("Session resumed; " + (sequence - acknowledgedSequence) + " messages were lost");
+        }
+        sessionToken = parts[0];
+        acknowledgedSequence = sequence;
+    }
+
+    // Misma representación que usa el servidor en el protocolo de texto:
+    // "History #id [fecha] remitente -> destinatario: mensaje", o "Search #id ..." para los resultados de búsqueda
+    private static String toRecordLine(String prefix, ChatFrame frame) {
+        byte[] body = frame.getBodyBytes();
+        ByteBuffer header = ByteBuffer.wrap(body);
+        long id = header.getLong();
+        long timestamp = header.getLong();
+        String text = new String(body, 16, body.length - 16, StandardCharsets.UTF_8);
+        return prefix + " #" + id + " [" + new SimpleDateFormat("yyyy-MM-dd HH:mm").format(new Date(timestamp)) + "] "
+                + frame.getSender() + " -> " + frame.getRecipient() + ": " + text;
+    }
+
+    private void handleHistory(String line) {
+        Consumer<String> handler = historyHandler;
+        (handler != null ? handler : messageHandler).accept(line);
+    }
+
+    // "History end conversación antesDe"
+    private void handleHistoryEnd(String line) {
+        BiConsumer<String, Long> handler = historyEndHandler;
+        String[] parts = line.split(" ");
+        if (handler == null || parts.length != 4) {
+            messageHandler.accept(line);
+            return;
+        }
+        try {
+            handler.accept(parts[2], Long.parseLong(parts[3]));
+        } catch (NumberFormatException e) {
+            messageHandler.accept(line);
+        }
+    }
+
+    private void handleSearchResult(String line) {
+        Consumer<String> handler = searchHandler;
+        (handler != null ? handler : messageHandler).accept(line);
+    }
+
+    // "Search end antesDe"
+    private void handleSearchEnd(String line) {
+        Consumer<Long> handler = searchEndHandler;
+        String[] parts = line.split(" ");
+        if (handler == null || parts.length != 3) {
+            messageHandler.accept(line);
+            return;
+        }
+        try {
+            handler.accept(Long.parseLong(parts[2]));
+        } catch (NumberFormatException e) {
+            messageHandler.accept(line);
+        }
+    }
 }
\ No newline at end of file
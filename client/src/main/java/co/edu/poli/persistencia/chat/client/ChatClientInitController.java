@@ -5,16 +5,28 @@ import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
+import javafx.geometry.Orientation;
+import javafx.scene.Node;
 import javafx.scene.control.*;
+import javafx.scene.control.skin.VirtualFlow;
+import javafx.scene.input.ScrollEvent;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Controlador inicial para el cliente del chat.
+ * <p>
+ * Los mensajes se muestran en una lista virtualizada, que solo crea las celdas visibles, y se conservan a lo sumo
+ * los últimos {@code chat.scrollback} mensajes (propiedad del sistema, por defecto 5000). Los mensajes que llegan del
+ * servidor se entregan a la lista en lotes, a lo sumo uno por pulso de la interfaz ({@link MessageBatcher}).
  *
  * @author Autor
  * @version 1.0
@@ -24,6 +36,9 @@ public class ChatClientInitController {
 
     private static final Logger logger = LogManager.getLogger(ChatClientInitController.class);
 
+    // Cantidad máxima de mensajes que se conservan en el chat; los más antiguos se descartan
+    private static final int SCROLLBACK_LIMIT = Math.max(1, Integer.getInteger("chat.scrollback", 5000));
+
     // Elementos FXML:
     @FXML
     private TextField ipField;
@@ -37,6 +52,9 @@ public class ChatClientInitController {
     @FXML
     private TextField messageInput;
 
+    @FXML
+    private TextField searchInput;
+
     @FXML
     private Button connectButton;
 
@@ -44,7 +62,13 @@ public class ChatClientInitController {
     private Label statusLabel;
 
     @FXML
-    private TextArea chatArea;
+    private ListView<String> chatList;
+
+    // Los mensajes que muestra la lista del chat
+    private ObservableList<String> chatLines;
+
+    // Junta los mensajes entrantes y los agrega a la lista en lotes
+    private final MessageBatcher chatBatcher = new MessageBatcher(this::appendChatLines);
 
     // Cliente del chat:
     ChatClient client;
@@ -59,14 +83,125 @@ public class ChatClientInitController {
     // ObservableList to hold the active users
     ObservableList<String> activeUsers;
 
+    // Cantidad de mensajes de cada página del historial
+    private static final int HISTORY_PAGE_SIZE = 50;
+
+    // Conversación cuyo historial se muestra, por ejemplo "@ana"
+    private String historyConversation;
+
+    // Identificador con el que se pide la página anterior; 0 si ya no hay más mensajes
+    private long historyBeforeId;
+
+    private boolean loadingHistory;
+
+    // Mensajes de la página que se está recibiendo; solo los usa el hilo que lee del servidor
+    private final List<String> historyPage = new ArrayList<>();
+
+    // Cantidad de resultados de cada página de una búsqueda
+    private static final int SEARCH_PAGE_SIZE = 20;
+
+    // Búsqueda cuyos resultados se muestran
+    private String searchQuery;
+
+    // Identificador con el que se pide la página siguiente de la búsqueda; 0 si ya no hay más resultados
+    private long searchBeforeId;
+
+    private boolean searching;
+
+    // Resultados de la página que se está recibiendo; solo los usa el hilo que lee del servidor
+    private final List<String> searchPage = new ArrayList<>();
+
     /**
      * Inicializa la lista activeUsers y la establece como los elementos para la ListView activeUsersList.
+     * Al seleccionar un usuario se carga la página más reciente de su conversación, y al desplazarse hasta el
+     * principio del chat se cargan las páginas anteriores.
      * Este método normalmente es llamado después de que el archivo FXML ha sido cargado y el controlador ha sido creado.
      */
     @FXML
     protected void initialize() {
+        chatLines = FXCollections.observableArrayList();
+        chatList.setItems(chatLines);
+        chatList.setCellFactory(list -> new ChatLineCell());
         activeUsers = FXCollections.observableArrayList();
         activeUsersList.setItems(activeUsers);
+        activeUsersList.valueProperty().addListener((observable, previousUser, user) -> {
+            if (user != null && !user.isEmpty()) {
+                historyConversation = "@" + user;
+                historyBeforeId = 0;
+                requestHistoryPage();
+            }
+        });
+        // La barra de desplazamiento existe desde que la lista tiene su skin
+        chatList.skinProperty().addListener((observable, previousSkin, skin) -> {
+            for (Node node : chatList.lookupAll(".scroll-bar")) {
+                if (node instanceof ScrollBar && ((ScrollBar) node).getOrientation() == Orientation.VERTICAL) {
+                    ScrollBar scrollBar = (ScrollBar) node;
+                    scrollBar.valueProperty().addListener((valueObservable, previousValue, value) -> {
+                        if (value.doubleValue() <= scrollBar.getMin()) {
+                            requestPreviousHistoryPage();
+                        }
+                    });
+                }
+            }
+        });
+        // Si el chat aún no se desplaza, la rueda hacia arriba también pide la página anterior
+        chatList.addEventFilter(ScrollEvent.SCROLL, event -> {
+            if (event.getDeltaY() > 0 && isFirstLineVisible()) {
+                requestPreviousHistoryPage();
+            }
+        });
+    }
+
+    /**
+     * Celda de la lista del chat; ajusta las líneas largas al ancho de la lista en lugar de cortarlas.
+     */
+    private static class ChatLineCell extends ListCell<String> {
+
+        ChatLineCell() {
+            setWrapText(true);
+            // Sin ancho preferido la celda toma el ancho de la lista y el texto se ajusta a él
+            setPrefWidth(0);
+        }
+
+        @Override
+        protected void updateItem(String line, boolean empty) {
+            super.updateItem(line, empty);
+            setText(empty ? null : line);
+        }
+    }
+
+    /**
+     * Agrega un lote de mensajes al final del chat y descarta los más antiguos que superan el límite. Si el usuario
+     * estaba viendo el final del chat, la lista lo sigue mostrando.
+     *
+     * @param lines los mensajes, en orden de llegada.
+     */
+    private void appendChatLines(List<String> lines) {
+        boolean followingLastLine = isLastLineVisible();
+        if (lines.size() >= SCROLLBACK_LIMIT) {
+            chatLines.setAll(lines.subList(lines.size() - SCROLLBACK_LIMIT, lines.size()));
+        } else {
+            int excess = chatLines.size() + lines.size() - SCROLLBACK_LIMIT;
+            if (excess > 0) {
+                chatLines.remove(0, excess);
+            }
+            chatLines.addAll(lines);
+        }
+        if (followingLastLine) {
+            chatList.scrollTo(chatLines.size() - 1);
+        }
+    }
+
+    private boolean isFirstLineVisible() {
+        VirtualFlow<?> flow = (VirtualFlow<?>) chatList.lookup(".virtual-flow");
+        IndexedCell<?> first = flow == null ? null : flow.getFirstVisibleCell();
+        return first == null || first.getIndex() <= 0;
+    }
+
+    private boolean isLastLineVisible() {
+        VirtualFlow<?> flow = (VirtualFlow<?>) chatList.lookup(".virtual-flow");
+        IndexedCell<?> last = flow == null ? null : flow.getLastVisibleCell();
+        return last == null || last.getIndex() >= chatLines.size() - 1;
     }
 
     /**
@@ -84,24 +219,41 @@ public class ChatClientInitController {
             nickname = nicknameField.getText();
             String ip = ipField.getText();
             int port = Integer.parseInt(portField.getText());
-            client = new ChatClient(ip, port, nickname,
+            // El protocolo binario evita que el servidor tenga que analizar y reescribir cada mensaje
+            client = new ChatClient(ip, port, nickname, true,
                     users -> Platform.runLater(() -> updateActiveUsers(users)),
-                    msg -> Platform.runLater(() -> chatArea.appendText(msg + "\n")));
+                    changes -> Platform.runLater(() -> applyPresenceChanges(changes)),
+                    chatBatcher::offer);
+            // La página del historial se junta en el hilo lector y se muestra completa con una sola tarea
+            client.setHistoryHandlers(historyPage::add, (conversation, beforeId) -> {
+                List<String> page = new ArrayList<>(historyPage);
+                historyPage.clear();
+                Platform.runLater(() -> onHistoryPageEnd(conversation, beforeId, page));
+            });
+            client.setSearchHandlers(searchPage::add, beforeId -> {
+                List<String> page = new ArrayList<>(searchPage);
+                searchPage.clear();
+                Platform.runLater(() -> onSearchPageEnd(beforeId, page));
+            });
+
+            client.setConnectionHandler(event -> Platform.runLater(() -> onConnectionEvent(event)));
 
             // Deshabilita el botón de conexión y cambia la etiqueta de estado después de la conexión
             connectButton.setDisable(true);
             statusLabel.setText("Usuario conectado");
-            chatArea.appendText(String.format("Te acabas de conectar...\n"));
+            chatBatcher.offer("Te acabas de conectar...");
 
-            new Thread(() -> {
+            // El cliente se reconecta por su cuenta; la lectura solo termina cuando la conexión se cierra
+            ChatClient connectedClient = client;
+            Thread reader = new Thread(() -> {
                 try {
-                    while (true) {
-                        client.readMessages();
-                    }
+                    connectedClient.readMessages();
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    logger.error("Error reading from the server: " + e.getMessage());
                 }
-            }).start();
+            }, "chat-reader");
+            reader.setDaemon(true);
+            reader.start();
         } catch (IOException e) {
             // Revisa el error, habilita el botón de conexión y muestra el error en la etiqueta de estado si la conexión falla
             connectButton.setDisable(false);
@@ -109,12 +261,39 @@ public class ChatClientInitController {
         }
     }
 
+    /**
+     * Muestra los cambios en la conexión con el servidor. Cuando la conexión termina se habilita de nuevo el botón
+     * conectar.
+     *
+     * @param event El cambio en la conexión.
+     */
+    private void onConnectionEvent(ChatClient.ConnectionEvent event) {
+        switch (event) {
+            case DISCONNECTED:
+                statusLabel.setText("Conexión perdida, reconectando...");
+                chatBatcher.offer("Se perdió la conexión con el servidor. Reconectando...");
+                break;
+            case RECONNECTED:
+                statusLabel.setText("Usuario conectado");
+                chatBatcher.offer("Te reconectaste.");
+                break;
+            case SESSION_LOST:
+                chatBatcher.offer("No se pudo reanudar la sesión; pueden faltar mensajes recibidos mientras tanto.");
+                break;
+            case CLOSED:
+                statusLabel.setText("Desconectado");
+                connectButton.setDisable(false);
+                break;
+        }
+        logger.info("Connection event: " + event);
+    }
+
     /**
      * Manejador de eventos para el botón enviar.
      * Este método envía un mensaje al servidor de chat utilizando el nombre de usuario seleccionado y el mensaje ingresado.
      * Si el nombre de usuario y mensaje no son null ni están vacíos, el método añadirá el nombre de usuario al mensaje.
-     * Si el cliente está conectado, el método enviará el mensaje al servidor a través del cliente.
-     * Finalmente, el método limpiará el campo de entrada de mensajes.
+     * El método enviará el mensaje al servidor a través del cliente; si el cliente se está reconectando, el mensaje
+     * sale al reconectarse. Finalmente, el método limpiará el campo de entrada de mensajes.
      *
      * @param actionEvent El evento que ha disparado el método.
      * @throws IOException Si ocurre un error durante el proceso de envío del mensaje.
@@ -127,46 +306,180 @@ public class ChatClientInitController {
             message = "@" + targetNickname + ": " + message;
         }
 
-        if(client != null && client.isConnected()){
-            client.sendMessage(message);
+        if (client != null) {
+            try {
+                client.sendMessage(message);
+            } catch (IOException e) {
+                statusLabel.setText("No se pudo enviar el mensaje: " + e.getMessage());
+                return;
+            }
         }
 
         messageInput.clear();
     }
 
     /**
-     * Actualiza la lista de usuarios activos.
+     * Manejador de eventos para el botón buscar y la tecla Enter en el campo de búsqueda.
+     * Busca en las conversaciones del usuario los mensajes que contienen todas las palabras escritas. Si la búsqueda
+     * es la misma que la anterior y quedan resultados, pide la página siguiente; si no, empieza por los mensajes más
+     * recientes.
+     *
+     * @param actionEvent El evento que ha disparado el método.
+     */
+    public void onSearchButtonClick(ActionEvent actionEvent) {
+        String query = searchInput.getText().trim();
+        if (query.isEmpty() || client == null || searching) {
+            return;
+        }
+        long beforeId = query.equals(searchQuery) ? searchBeforeId : 0;
+        try {
+            searching = true;
+            client.search(query, beforeId, SEARCH_PAGE_SIZE);
+            searchQuery = query;
+            searchBeforeId = beforeId;
+        } catch (IOException e) {
+            searching = false;
+            statusLabel.setText("No se pudo buscar: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Muestra al final del chat una página de resultados de la búsqueda, del mensaje más reciente al más antiguo.
+     *
+     * @param beforeId El identificador con el que se pide la página siguiente, o 0 si no hay más resultados.
+     * @param page     Los mensajes encontrados.
+     */
+    private void onSearchPageEnd(long beforeId, List<String> page) {
+        searching = false;
+        boolean firstPage = searchBeforeId == 0;
+        searchBeforeId = beforeId;
+        List<String> lines = new ArrayList<>(page.size() + 2);
+        if (page.isEmpty()) {
+            lines.add((firstPage ? "Sin resultados para: " : "No hay más resultados para: ") + searchQuery);
+        } else {
+            lines.add("Resultados de la búsqueda: " + searchQuery);
+            lines.addAll(page);
+        }
+        if (beforeId > 0) {
+            lines.add("Presiona Buscar de nuevo para ver más resultados.");
+        }
+        appendChatLines(lines);
+    }
+
+    /**
+     * Actualiza la lista de usuarios activos a partir de la lista completa enviada por el servidor.
+     * Solo se quitan y agregan los usuarios que cambiaron, sin vaciar la lista.
      *
      * @param userList Una cadena que representa la lista de usuarios activos separados por comas.
      */
     public void updateActiveUsers(String userList) {
-        Platform.runLater(() -> {
-            // Guarda el usuario seleccionado
-            String previousUser = activeUsersList.getValue();
+        Set<String> users = new LinkedHashSet<>(Arrays.asList(userList.split(", ")));
+        users.remove("");
 
-            activeUsers.clear();
-            String[] users = userList.split(", ");
+        // Removiendo el nickname propio de la lista
+        users.remove(nickname);
 
-            // Creando un ArrayList a partir del array users. Esto permitirá
-            // utilizar el método remove() del ArrayList
-            ArrayList<String> activeUsersList = new ArrayList<>(Arrays.asList(users));
+        // Se quitan los usuarios que ya no están y se agregan los nuevos; el usuario seleccionado se conserva
+        activeUsers.retainAll(users);
+        users.removeAll(new HashSet<>(activeUsers));
+        activeUsers.addAll(users);
 
-            // Removiendo el nickname del ArrayList
-            activeUsersList.remove(nickname);
+        String activeUsersStr = String.join(", ", activeUsers);
+        chatBatcher.offer(String.format("Usuarios conectados: %s", activeUsersStr));
 
-            // Agregar de vuelta los usuarios a activeUsers
-            activeUsers.addAll(activeUsersList);
+        // Log Entry for Active Users Update
+        logger.info(String.format("Active user list updated: %s", activeUsersStr));
+    }
 
-            // Coloca de nuevo el usuario anteriormente seleccionado
-            if(activeUsers.contains(previousUser)) {
-                this.activeUsersList.setValue(previousUser);
+    /**
+     * Aplica los cambios incrementales en la lista de usuarios activos enviados por el servidor.
+     * Cada cambio es "+apodo" si el usuario se conectó o "-apodo" si se desconectó; aplicar un cambio
+     * que ya se refleja en la lista no tiene efecto.
+     *
+     * @param changes Una cadena con los cambios separados por comas, por ejemplo "+ana, -luis".
+     */
+    public void applyPresenceChanges(String changes) {
+        Set<String> currentUsers = new HashSet<>(activeUsers);
+        Set<String> joined = new LinkedHashSet<>();
+        Set<String> left = new LinkedHashSet<>();
+        for (String change : changes.split(", ")) {
+            if (change.length() < 2) {
+                continue;
+            }
+            String user = change.substring(1);
+            if (user.equals(nickname)) {
+                continue;
             }
+            if (change.charAt(0) == '+') {
+                left.remove(user);
+                if (!currentUsers.contains(user)) {
+                    joined.add(user);
+                }
+            } else {
+                joined.remove(user);
+                if (currentUsers.contains(user)) {
+                    left.add(user);
+                }
+            }
+        }
 
-            String activeUsersStr = String.join(", ", activeUsersList);
-            chatArea.appendText(String.format("Usuarios conectados: %s\n", activeUsersStr));
+        // Un solo cambio por operación sobre la lista observable
+        activeUsers.removeAll(left);
+        activeUsers.addAll(joined);
 
-            // Log Entry for Active Users Update
-            logger.info(String.format("Active user list updated: %s", activeUsersStr));
-        });
+        if (!joined.isEmpty()) {
+            chatBatcher.offer(String.format("Se conectaron: %s", String.join(", ", joined)));
+        }
+        if (!left.isEmpty()) {
+            chatBatcher.offer(String.format("Se desconectaron: %s", String.join(", ", left)));
+        }
+        logger.info(String.format("Active user list changed: %s", changes));
+    }
+
+    private void requestPreviousHistoryPage() {
+        if (historyConversation != null && historyBeforeId > 0) {
+            requestHistoryPage();
+        }
+    }
+
+    private void requestHistoryPage() {
+        if (loadingHistory || client == null || !client.isConnected()) {
+            return;
+        }
+        try {
+            loadingHistory = true;
+            client.requestHistory(historyConversation, historyBeforeId, HISTORY_PAGE_SIZE);
+        } catch (IOException e) {
+            loadingHistory = false;
+            logger.error("Could not request history: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Muestra la página del historial recibida al principio del chat, encima de los mensajes ya mostrados.
+     * Si el chat llega al límite de mensajes, se descartan los más antiguos de la página y no se piden más.
+     *
+     * @param conversation La conversación de la página.
+     * @param beforeId     El identificador con el que se pide la página anterior, o 0 si no hay más mensajes.
+     * @param page         Los mensajes de la página, del más antiguo al más reciente.
+     */
+    private void onHistoryPageEnd(String conversation, long beforeId, List<String> page) {
+        loadingHistory = false;
+        if (!conversation.equals(historyConversation)) {
+            // El usuario cambió de conversación mientras llegaba la página
+            requestHistoryPage();
+            return;
+        }
+        historyBeforeId = beforeId;
+        int room = Math.max(0, SCROLLBACK_LIMIT - chatLines.size());
+        if (page.size() > room) {
+            page = page.subList(page.size() - room, page.size());
+            historyBeforeId = 0;
+        }
+        if (!page.isEmpty()) {
+            chatLines.addAll(0, page);
+            // La línea que estaba arriba sigue arriba, así la vista no salta al agregar la página
+            chatList.scrollTo(page.size());
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,167 @@
+package co.edu.poli.persistencia.chat.client;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * La clase ChatFrame representa una trama del protocolo binario del servidor. Cada trama tiene el formato:
+ * <pre>
+ * int32   longitud del resto de la trama
+ * uint8   tipo
+ * uint16  longitud del remitente, seguida del remitente en UTF-8
+ * uint16  longitud del destinatario, seguida del destinatario en UTF-8
+ * bytes   cuerpo en UTF-8 (lo que queda de la trama)
+ * </pre>
+ * El cuerpo de las tramas {@link #HISTORY} y {@link #SEARCH} empieza con la secuencia (int64) y la marca de tiempo (int64) del mensaje.
+ * El cuerpo de las tramas {@link #SESSION} es "token secuencia", con lo que el cliente reanuda su sesión si se
+ * reconecta.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class ChatFrame {
+
+    static final int HELLO = 1;
+    static final int LINE = 2;
+    static final int PRIVATE = 3;
+    static final int PRESENCE_SNAPSHOT = 4;
+    static final int PRESENCE_CHANGES = 5;
+    static final int BYE = 6;
+    static final int ROOM = 7;
+    static final int HISTORY = 8;
+    static final int PING = 9;
+    static final int PONG = 10;
+    static final int ERROR = 11;
+    static final int SESSION = 12;
+    static final int SEARCH = 13;
+
+    /**
+     * Bytes con los que el cliente pide el protocolo binario y con los que el servidor lo confirma.
+     */
+    static final byte[] PREAMBLE = {0, 'C', 'H', 'T', 1};
+
+    private static final int MAX_LENGTH = 64 * 1024;
+
+    private static final int MIN_LENGTH = 5;
+
+    private final int type;
+
+    private final String sender;
+
+    private final String recipient;
+
+    private final byte[] body;
+
+    /**
+     * Inicializa una nueva instancia de la clase ChatFrame.
+     *
+     * @param type      El tipo de la trama.
+     * @param sender    El remitente, o una cadena vacía si no aplica.
+     * @param recipient El destinatario, o una cadena vacía si no aplica.
+     * @param body      El cuerpo de la trama.
+     */
+    ChatFrame(int type, String sender, String recipient, String body) {
+        this(type, sender, recipient, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private ChatFrame(int type, String sender, String recipient, byte[] body) {
+        this.type = type;
+        this.sender = sender;
+        this.recipient = recipient;
+        this.body = body;
+    }
+
+    /**
+     * Lee una trama completa del servidor.
+     *
+     * @param in el flujo de entrada del socket.
+     * @return la trama leída, o null si el servidor cerró la conexión.
+     * @throws IOException si ocurre un error de lectura o la trama está mal formada.
+     */
+    static ChatFrame read(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < MIN_LENGTH || length > MAX_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        int type = in.readUnsignedByte();
+        int senderLength = in.readUnsignedShort();
+        String sender = readString(in, senderLength);
+        int recipientLength = in.readUnsignedShort();
+        String recipient = readString(in, recipientLength);
+        int bodyLength = length - MIN_LENGTH - senderLength - recipientLength;
+        if (bodyLength < 0) {
+            throw new IOException("Malformed frame");
+        }
+        byte[] body = new byte[bodyLength];
+        in.readFully(body);
+        return new ChatFrame(type, sender, recipient, body);
+    }
+
+    /**
+     * Escribe la trama, incluyendo su prefijo de longitud. No vacía el flujo.
+     *
+     * @param out el flujo de salida del socket.
+     * @throws IOException si ocurre un error de escritura.
+     */
+    void write(DataOutputStream out) throws IOException {
+        byte[] senderBytes = sender.getBytes(StandardCharsets.UTF_8);
+        byte[] recipientBytes = recipient.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(MIN_LENGTH + senderBytes.length + recipientBytes.length + body.length);
+        out.writeByte(type);
+        out.writeShort(senderBytes.length);
+        out.write(senderBytes);
+        out.writeShort(recipientBytes.length);
+        out.write(recipientBytes);
+        out.write(body);
+    }
+
+    private static String readString(DataInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return el tipo de la trama.
+     */
+    int getType() {
+        return type;
+    }
+
+    /**
+     * @return el remitente de la trama.
+     */
+    String getSender() {
+        return sender;
+    }
+
+    /**
+     * @return el destinatario de la trama.
+     */
+    String getRecipient() {
+        return recipient;
+    }
+
+    /**
+     * @return el cuerpo de la trama.
+     */
+    String getBody() {
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return el cuerpo de la trama sin decodificar.
+     */
+    byte[] getBodyBytes() {
+        return body;
+    }
+}
\ No newline at end of file
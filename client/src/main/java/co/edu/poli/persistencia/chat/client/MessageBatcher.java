@@ -0,0 +1,82 @@
+package co.edu.poli.persistencia.chat.client;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * La clase MessageBatcher junta los mensajes que llegan desde el hilo que lee del servidor y los entrega al hilo de
+ * JavaFX en lotes, a lo sumo uno por pulso de la interfaz.
+ * <p>
+ * Con una tarea de {@link Platform#runLater} por mensaje, una ráfaga de cientos de mensajes por segundo llena la cola
+ * del hilo de JavaFX y cada mensaje modifica la vista por separado. Aquí los mensajes esperan en una cola concurrente
+ * y un {@link AnimationTimer}, que corre una vez por pulso solo mientras hay mensajes, los entrega todos juntos.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class MessageBatcher {
+
+    private final Queue<String> pendingMessages = new ConcurrentLinkedQueue<>();
+
+    // Verdadero mientras el temporizador está iniciado o a punto de iniciarse
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final Consumer<List<String>> batchHandler;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            drain();
+        }
+    };
+
+    /**
+     * Inicializa una nueva instancia de la clase MessageBatcher.
+     *
+     * @param batchHandler recibe cada lote de mensajes, en orden de llegada, en el hilo de JavaFX.
+     */
+    MessageBatcher(Consumer<List<String>> batchHandler) {
+        this.batchHandler = batchHandler;
+    }
+
+    /**
+     * Agrega un mensaje al próximo lote. Se puede llamar desde cualquier hilo.
+     *
+     * @param message el mensaje.
+     */
+    void offer(String message) {
+        pendingMessages.add(message);
+        if (draining.compareAndSet(false, true)) {
+            // AnimationTimer solo se puede iniciar desde el hilo de JavaFX
+            Platform.runLater(timer::start);
+        }
+    }
+
+    // Se ejecuta en el hilo de JavaFX, una vez por pulso mientras el temporizador está iniciado
+    private void drain() {
+        List<String> batch = new ArrayList<>();
+        String message;
+        while ((message = pendingMessages.poll()) != null) {
+            batch.add(message);
+        }
+        if (!batch.isEmpty()) {
+            batchHandler.accept(batch);
+            // El temporizador sigue un pulso más por si la ráfaga continúa
+            return;
+        }
+        timer.stop();
+        draining.set(false);
+        // Un mensaje pudo llegar después de vaciar la cola y antes de marcar el temporizador como detenido
+        if (!pendingMessages.isEmpty() && draining.compareAndSet(false, true)) {
+            timer.start();
+        }
+    }
+}
\ No newline at end of file
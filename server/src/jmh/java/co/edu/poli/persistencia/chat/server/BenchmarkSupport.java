@@ -0,0 +1,127 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Utilidades comunes de los benchmarks del servidor.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Deja solo las advertencias y errores en el registro de log4j, incluida la bitácora de auditoría. El servidor
+     * audita cada mensaje enrutado y, con la consola como destino, esa escritura ocultaría el costo de lo que se mide.
+     */
+    static void quietLogging() {
+        Configurator.setAllLevels(LogManager.ROOT_LOGGER_NAME, Level.WARN);
+    }
+
+    /**
+     * Construye las opciones del servidor sin registro de mensajes ni buzones, para no medir el disco.
+     *
+     * @param extraOptions opciones adicionales, con el formato de la línea de comandos.
+     * @return las opciones del servidor.
+     */
+    static ServerOptions inMemoryOptions(String... extraOptions) {
+        String[] args = new String[extraOptions.length + 2];
+        args[0] = "--log-dir=";
+        args[1] = "--mailbox-dir=";
+        System.arraycopy(extraOptions, 0, args, 2, extraOptions.length);
+        return ServerOptions.parse(args);
+    }
+
+    /**
+     * Crea una cola de salida de un cliente que nunca se desconecta por lento.
+     *
+     * @param router el enrutador del chat.
+     * @param wireFormat el formato del cliente.
+     * @return la cola de salida.
+     */
+    static OutboundQueue outboundQueue(ChatRouter router, WireFormat wireFormat) {
+        OutboundQueue queue = router.createOutboundQueue(() -> {
+        }, () -> {
+        });
+        queue.setWireFormat(wireFormat);
+        return queue;
+    }
+
+    /**
+     * Vacía una cola de salida codificando cada mensaje, como lo haría el escritor del cliente.
+     *
+     * @param queue la cola de salida.
+     * @return la cantidad de bytes codificados.
+     */
+    static int drain(OutboundQueue queue) {
+        int bytes = 0;
+        OutboundMessage message;
+        while ((message = queue.poll()) != null) {
+            bytes += message.getBytes(queue.getWireFormat()).length;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return un puerto local libre.
+     * @throws IOException si no se puede abrir un socket.
+     */
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Conecta un cliente del protocolo binario y espera a que el servidor lo registre, es decir, a que reciba su
+     * lista de usuarios activos.
+     *
+     * @param port el puerto del servidor.
+     * @param nickname el apodo del cliente.
+     * @return el socket conectado.
+     * @throws IOException si no se puede conectar o el servidor rechaza el saludo.
+     */
+    static Socket connectBinary(int port, String nickname) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        socket.setTcpNoDelay(true);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.write(Frame.PREAMBLE);
+        out.write(Frame.encode(FrameType.HELLO, nickname, null, new byte[0], 0, 0));
+        out.flush();
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] preamble = new byte[Frame.PREAMBLE.length];
+        in.readFully(preamble);
+        Frame.checkPreamble(preamble, 0);
+        while (readFrameType(in) != FrameType.PRESENCE_SNAPSHOT.getCode()) {
+            // Se ignoran las tramas anteriores a la lista de usuarios
+        }
+        return socket;
+    }
+
+    /**
+     * Lee una trama completa y devuelve su tipo.
+     *
+     * @param in el flujo de entrada del socket.
+     * @return el código del tipo de la trama.
+     * @throws IOException si la conexión se cierra o la trama es inválida.
+     */
+    static int readFrameType(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        Frame.checkLength(length);
+        int type = in.readUnsignedByte();
+        in.skipNBytes(length - 1);
+        return type;
+    }
+}
\ No newline at end of file
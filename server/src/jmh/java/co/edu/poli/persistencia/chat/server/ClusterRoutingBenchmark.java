@@ -0,0 +1,87 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mide la latencia que agrega el clúster al enrutado de un mensaje privado: dos nodos en la misma JVM unidos por un
+ * {@link LocalClusterBus}, y un mensaje desde un usuario del primer nodo hasta que llega a la cola de salida del
+ * destinatario, conectado en el mismo nodo ({@code local}) o en el otro ({@code remote}).
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClusterRoutingBenchmark {
+
+    private static final String TEXT = "Hola, ¿nos vemos a las 3 para revisar el informe de persistencia?";
+
+    @Param({"local", "remote"})
+    public String target;
+
+    private ChatRouter firstNode;
+    private ChatRouter secondNode;
+
+    private ClientSession sender;
+    private OutboundQueue senderQueue;
+    private OutboundQueue recipientQueue;
+
+    private Frame privateFrame;
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkSupport.quietLogging();
+        ClusterBus bus = new LocalClusterBus();
+        firstNode = new ChatRouter(BenchmarkSupport.inMemoryOptions(), bus, "node-0");
+        secondNode = new ChatRouter(BenchmarkSupport.inMemoryOptions(), bus, "node-1");
+        sender = register(firstNode, "ana");
+        senderQueue = sender.getOutboundQueue();
+        recipientQueue = register("local".equals(target) ? firstNode : secondNode, "bob").getOutboundQueue();
+
+        byte[] body = TEXT.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = Frame.encode(FrameType.PRIVATE, null, "bob", body, 0, body.length);
+        privateFrame = Frame.decode(frame, 4, frame.length - 4);
+    }
+
+    private static ClientSession register(ChatRouter router, String nickname) {
+        OutboundQueue queue = BenchmarkSupport.outboundQueue(router, WireFormat.BINARY);
+        return router.registerClient(nickname, queue);
+    }
+
+    @TearDown
+    public void tearDown() {
+        firstNode.leaveCluster();
+        secondNode.leaveCluster();
+    }
+
+    @Benchmark
+    public int privateMessage() {
+        firstNode.handleClientFrame(sender, privateFrame);
+        OutboundMessage message;
+        while ((message = recipientQueue.poll()) == null) {
+            // El nodo remoto entrega el mensaje en el hilo del bus
+            Thread.yield();
+        }
+        return message.getBytes(WireFormat.BINARY).length + BenchmarkSupport.drain(senderQueue);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,100 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mide el rendimiento del enrutamiento de mensajes privados binarios según el nivel de la auditoría de mensajes
+ * ({@link MessageAudit}) y según si los loggers son asíncronos, como en el servidor, o síncronos. La bitácora se
+ * escribe en {@code build/tmp/jmh-audit.log} con la configuración {@code log4j2-benchmark.properties}.
+ * <p>
+ * Con los loggers asíncronos el hilo que enruta solo copia el evento en el ring buffer; si el archivo no alcanza a
+ * escribir todos los eventos, el buffer se llena y los eventos se descartan en lugar de frenar el enrutamiento.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+public class LoggingOverheadBenchmark {
+
+    private static final String CONFIGURATION = "-Dlog4j2.configurationFile=log4j2-benchmark.properties";
+
+    /**
+     * El enrutador compartido por todos los hilos.
+     */
+    @State(Scope.Benchmark)
+    public static class Router {
+        @Param({"off", "metadata", "full"})
+        public String audit;
+
+        ChatRouter router;
+        final AtomicInteger pairIds = new AtomicInteger();
+
+        @Setup
+        public void setUp() throws IOException {
+            router = new ChatRouter(BenchmarkSupport.inMemoryOptions("--metrics=off", "--message-audit=" + audit));
+        }
+    }
+
+    /**
+     * Un emisor y un destinatario por hilo.
+     */
+    @State(Scope.Thread)
+    public static class Pair {
+        ClientSession sender;
+        OutboundQueue senderQueue;
+        OutboundQueue recipientQueue;
+        Frame privateFrame;
+
+        @Setup
+        public void setUp(Router router) throws IOException {
+            int id = router.pairIds.incrementAndGet();
+            String recipient = "recipient" + id;
+            senderQueue = BenchmarkSupport.outboundQueue(router.router, WireFormat.BINARY);
+            recipientQueue = BenchmarkSupport.outboundQueue(router.router, WireFormat.BINARY);
+            sender = router.router.registerClient("sender" + id, senderQueue);
+            router.router.registerClient(recipient, recipientQueue);
+            byte[] body = "Hola, ¿nos vemos a las 3?".getBytes(StandardCharsets.UTF_8);
+            byte[] frame = Frame.encode(FrameType.PRIVATE, null, recipient, body, 0, body.length);
+            privateFrame = Frame.decode(frame, 4, frame.length - 4);
+        }
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = CONFIGURATION)
+    public int asyncLoggers(Router router, Pair pair) {
+        return route(router, pair);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {CONFIGURATION,
+            "-Dlog4j2.contextSelector=org.apache.logging.log4j.core.selector.ClassLoaderContextSelector"})
+    public int syncLoggers(Router router, Pair pair) {
+        return route(router, pair);
+    }
+
+    private static int route(Router router, Pair pair) {
+        router.router.handleClientFrame(pair.sender, pair.privateFrame);
+        return BenchmarkSupport.drain(pair.recipientQueue) + BenchmarkSupport.drain(pair.senderQueue);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,135 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mide el enrutado de mensajes privados de extremo a extremo sobre sockets locales, con cada motor del servidor:
+ * un cliente envía una trama PRIVATE y espera a que la reciban el destinatario y su propia copia. Se mide un
+ * mensaje a la vez (latencia) y ráfagas de mensajes (rendimiento).
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Cada motor en su propia JVM: el servidor sigue atendiendo hasta que termina el proceso
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoopbackRoutingBenchmark {
+
+    private static final int BURST = 100;
+
+    @Param({"blocking", "virtual", "nio"})
+    public String engine;
+
+    private Socket sender;
+    private Socket recipient;
+
+    private OutputStream senderOut;
+    private DataInputStream senderIn;
+    private DataInputStream recipientIn;
+
+    private byte[] privateFrame;
+
+    private byte[] burst;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkSupport.quietLogging();
+        int port = BenchmarkSupport.freePort();
+        ServerOptions options = BenchmarkSupport.inMemoryOptions("--engine=" + engine);
+        Thread serverThread;
+        if (options.getEngine() == ServerEngine.NIO) {
+            NioChatServer server = new NioChatServer(port, options);
+            serverThread = new Thread(() -> serve(server::serveClients), "benchmark-server");
+        } else {
+            ServerChat server = new ServerChat(port, options);
+            serverThread = new Thread(() -> serve(server::serveClients), "benchmark-server");
+        }
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        recipient = BenchmarkSupport.connectBinary(port, "bob");
+        sender = BenchmarkSupport.connectBinary(port, "ana");
+        senderOut = new BufferedOutputStream(sender.getOutputStream());
+        senderIn = new DataInputStream(new BufferedInputStream(sender.getInputStream()));
+        recipientIn = new DataInputStream(new BufferedInputStream(recipient.getInputStream()));
+
+        byte[] body = "Hola Bob, ¿nos vemos a las 3?".getBytes(StandardCharsets.UTF_8);
+        privateFrame = Frame.encode(FrameType.PRIVATE, null, "bob", body, 0, body.length);
+        burst = new byte[privateFrame.length * BURST];
+        for (int i = 0; i < BURST; i++) {
+            System.arraycopy(privateFrame, 0, burst, i * privateFrame.length, privateFrame.length);
+        }
+    }
+
+    private interface Serve {
+        void run() throws IOException;
+    }
+
+    private static void serve(Serve serve) {
+        try {
+            serve.run();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sender.close();
+        recipient.close();
+    }
+
+    @Benchmark
+    public int privateMessageRoundTrip() throws IOException {
+        senderOut.write(privateFrame);
+        senderOut.flush();
+        return awaitPrivate(recipientIn) + awaitPrivate(senderIn);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public int privateMessageBurst() throws IOException {
+        senderOut.write(burst);
+        senderOut.flush();
+        int received = 0;
+        for (int i = 0; i < BURST; i++) {
+            received += awaitPrivate(recipientIn) + awaitPrivate(senderIn);
+        }
+        return received;
+    }
+
+    // Lee hasta la siguiente trama PRIVATE; se ignoran los cambios de presencia
+    private static int awaitPrivate(DataInputStream in) throws IOException {
+        while (BenchmarkSupport.readFrameType(in) != FrameType.PRIVATE.getCode()) {
+            // Se sigue leyendo
+        }
+        return 1;
+    }
+}
\ No newline at end of file
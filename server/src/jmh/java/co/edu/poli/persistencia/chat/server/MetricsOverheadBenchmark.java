@@ -0,0 +1,95 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mide el costo de las métricas del servidor ({@link ServerMetrics}) en el camino de un mensaje privado binario:
+ * la misma ruta con las métricas habilitadas y deshabilitadas, con un hilo y con ocho hilos que actualizan los
+ * mismos contadores a la vez. Cada hilo tiene su propio par de usuarios.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsOverheadBenchmark {
+
+    /**
+     * El enrutador compartido por todos los hilos.
+     */
+    @State(Scope.Benchmark)
+    public static class Router {
+        @Param({"on", "off"})
+        public String metrics;
+
+        ChatRouter router;
+        final AtomicInteger pairIds = new AtomicInteger();
+
+        @Setup
+        public void setUp() throws IOException {
+            BenchmarkSupport.quietLogging();
+            router = new ChatRouter(BenchmarkSupport.inMemoryOptions("--metrics=" + metrics));
+        }
+    }
+
+    /**
+     * Un emisor y un destinatario por hilo.
+     */
+    @State(Scope.Thread)
+    public static class Pair {
+        ClientSession sender;
+        OutboundQueue senderQueue;
+        OutboundQueue recipientQueue;
+        Frame privateFrame;
+
+        @Setup
+        public void setUp(Router router) throws IOException {
+            int id = router.pairIds.incrementAndGet();
+            String recipient = "recipient" + id;
+            senderQueue = BenchmarkSupport.outboundQueue(router.router, WireFormat.BINARY);
+            recipientQueue = BenchmarkSupport.outboundQueue(router.router, WireFormat.BINARY);
+            sender = router.router.registerClient("sender" + id, senderQueue);
+            router.router.registerClient(recipient, recipientQueue);
+            byte[] body = "Hola, ¿nos vemos a las 3?".getBytes(StandardCharsets.UTF_8);
+            byte[] frame = Frame.encode(FrameType.PRIVATE, null, recipient, body, 0, body.length);
+            privateFrame = Frame.decode(frame, 4, frame.length - 4);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int privateMessage(Router router, Pair pair) {
+        return route(router, pair);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public int privateMessageContended(Router router, Pair pair) {
+        return route(router, pair);
+    }
+
+    private static int route(Router router, Pair pair) {
+        router.router.handleClientFrame(pair.sender, pair.privateFrame);
+        return BenchmarkSupport.drain(pair.recipientQueue) + BenchmarkSupport.drain(pair.senderQueue);
+    }
+}
\ No newline at end of file
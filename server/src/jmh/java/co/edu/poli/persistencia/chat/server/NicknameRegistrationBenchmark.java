@@ -0,0 +1,81 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mide el registro y la salida de apodos en {@link ChatRouter}: el reclamo del apodo en el registro de sesiones y el
+ * aviso de presencia, con un solo hilo y con varios hilos que registran apodos a la vez.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NicknameRegistrationBenchmark {
+
+    /**
+     * El enrutador compartido por todos los hilos.
+     */
+    @State(Scope.Benchmark)
+    public static class Router {
+        ChatRouter router;
+        final AtomicInteger clientIds = new AtomicInteger();
+
+        @Setup
+        public void setUp() throws IOException {
+            BenchmarkSupport.quietLogging();
+            router = new ChatRouter(BenchmarkSupport.inMemoryOptions());
+        }
+    }
+
+    /**
+     * Un cliente por hilo, con su propio apodo.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        String nickname;
+        OutboundQueue queue;
+
+        @Setup
+        public void setUp(Router router) {
+            nickname = "user" + router.clientIds.incrementAndGet();
+            queue = BenchmarkSupport.outboundQueue(router.router, WireFormat.TEXT);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int registerAndRemove(Router router, Client client) {
+        return registerAndRemoveClient(router, client);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public int registerAndRemoveContended(Router router, Client client) {
+        return registerAndRemoveClient(router, client);
+    }
+
+    private static int registerAndRemoveClient(Router router, Client client) {
+        ClientSession session = router.router.registerClient(client.nickname, client.queue);
+        router.router.removeClient(session);
+        return (session == null ? 1 : 0) + BenchmarkSupport.drain(client.queue);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,70 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mide la construcción de la lista de usuarios activos que envía {@link PresenceBroadcaster}: la lista completa que
+ * recibe un cliente nuevo, en ambos formatos, frente al cambio incremental que reciben los demás clientes.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PresenceSnapshotBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int users;
+
+    private final ConcurrentHashMap<String, OutboundQueue> activeClientsWriters = new ConcurrentHashMap<>();
+
+    @Setup
+    public void setUp() {
+        OutboundQueue queue = new OutboundQueue(1, 1, OutboundQueue.OverflowPolicy.DROP_OLDEST, new OutboundStats(),
+                () -> {
+                }, () -> {
+                }, ignored -> {
+                });
+        for (int i = 0; i < users; i++) {
+            activeClientsWriters.put("usuario" + i, queue);
+        }
+    }
+
+    @Benchmark
+    public byte[] snapshotText() {
+        return OutboundMessage.presenceSnapshot(new ArrayList<>(activeClientsWriters.keySet()))
+                .getBytes(WireFormat.TEXT);
+    }
+
+    @Benchmark
+    public byte[] snapshotBinary() {
+        return OutboundMessage.presenceSnapshot(new ArrayList<>(activeClientsWriters.keySet()))
+                .getBytes(WireFormat.BINARY);
+    }
+
+    @Benchmark
+    public byte[] changesText() {
+        return OutboundMessage.presenceChanges(Collections.singletonList("+usuario" + users))
+                .getBytes(WireFormat.TEXT);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,81 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mide el procesamiento de un mensaje privado dentro del servidor, sin sockets: el análisis de "@usuario: mensaje"
+ * en {@link ChatRouter#handleClientMessage} o la trama PRIVATE en {@link ChatRouter#handleClientFrame}, el enrutado
+ * a la cola del destinatario y del emisor, y la codificación que hace el escritor de cada cliente.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PrivateMessageBenchmark {
+
+    private static final String TEXT = "Hola Bob, ¿nos vemos a las 3 para revisar el informe de persistencia?";
+
+    private ChatRouter router;
+
+    private ClientSession anaText;
+    private ClientSession bobText;
+
+    private ClientSession carlosBinary;
+    private ClientSession dianaBinary;
+
+    private String textMessage;
+
+    private Frame privateFrame;
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkSupport.quietLogging();
+        router = new ChatRouter(BenchmarkSupport.inMemoryOptions());
+        anaText = register("ana", WireFormat.TEXT);
+        bobText = register("bob", WireFormat.TEXT);
+        carlosBinary = register("carlos", WireFormat.BINARY);
+        dianaBinary = register("diana", WireFormat.BINARY);
+
+        textMessage = "@bob: " + TEXT;
+        byte[] body = TEXT.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = Frame.encode(FrameType.PRIVATE, null, "diana", body, 0, body.length);
+        privateFrame = Frame.decode(frame, 4, frame.length - 4);
+    }
+
+    private ClientSession register(String nickname, WireFormat wireFormat) {
+        OutboundQueue queue = BenchmarkSupport.outboundQueue(router, wireFormat);
+        return router.registerClient(nickname, queue);
+    }
+
+    @Benchmark
+    public int textPrivateMessage() {
+        router.handleClientMessage(anaText, textMessage);
+        return BenchmarkSupport.drain(bobText.getOutboundQueue()) + BenchmarkSupport.drain(anaText.getOutboundQueue());
+    }
+
+    @Benchmark
+    public int binaryPrivateMessage() {
+        router.handleClientFrame(carlosBinary, privateFrame);
+        return BenchmarkSupport.drain(dianaBinary.getOutboundQueue())
+                + BenchmarkSupport.drain(carlosBinary.getOutboundQueue());
+    }
+}
\ No newline at end of file
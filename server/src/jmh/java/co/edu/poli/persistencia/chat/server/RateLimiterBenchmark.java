@@ -0,0 +1,63 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mide el costo por mensaje de {@link RateLimiter#tryAcquire}: sin límites, con límites que el tráfico no alcanza
+ * ({@code open}) y con un cliente que inunda al servidor y cuyos mensajes se rechazan ({@code flooding}). Cada hilo
+ * tiene su propio limitador, como cada conexión; con {@code -prof gc} se comprueba que no se reserva memoria.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RateLimiterBenchmark {
+
+    @Param({"disabled", "open", "flooding"})
+    public String limits;
+
+    private RateLimiter rateLimiter;
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkSupport.quietLogging();
+        ServerOptions options;
+        switch (limits) {
+            case "disabled":
+                options = BenchmarkSupport.inMemoryOptions("--rate-limit-messages=0", "--rate-limit-bytes=0");
+                break;
+            case "open":
+                options = BenchmarkSupport.inMemoryOptions("--rate-limit-messages=1000000000",
+                        "--rate-limit-bytes=1000000000000");
+                break;
+            default:
+                options = BenchmarkSupport.inMemoryOptions("--rate-limit-messages=1", "--rate-limit-bytes=64");
+        }
+        ChatRouter router = new ChatRouter(options);
+        rateLimiter = router.createRateLimiter(BenchmarkSupport.outboundQueue(router, WireFormat.BINARY));
+    }
+
+    @Benchmark
+    public boolean tryAcquire() {
+        return rateLimiter.tryAcquire(64);
+    }
+}
\ No newline at end of file
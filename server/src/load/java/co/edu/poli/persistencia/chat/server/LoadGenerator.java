@@ -0,0 +1,267 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Configurator;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * La clase LoadGenerator es una herramienta de línea de comandos, sin interfaz gráfica, para pruebas de capacidad:
+ * simula miles de usuarios desde una sola JVM contra un servidor externo o uno embebido en la interfaz local, y
+ * reporta la latencia de conexión, la latencia de los mensajes de extremo a extremo (percentiles) y el rendimiento.
+ * Las opciones se describen en {@link LoadOptions}.
+ * <p>
+ * Los mensajes se envían a una tasa constante: el instante de cada envío se fija de antemano y la latencia se mide
+ * desde ese instante, así un servidor que se atrasa no reduce la carga ni oculta sus demoras.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+public class LoadGenerator {
+
+    private static final Logger logger = LogManager.getLogger(LoadGenerator.class);
+
+    // Tiempo máximo de espera de los mensajes en vuelo al terminar el tráfico
+    private static final long DRAIN_TIMEOUT_MILLIS = 5000;
+
+    // Intentos de reconexión cuando el servidor aún no libera el apodo del usuario desconectado
+    private static final int RECONNECT_ATTEMPTS = 5;
+
+    private final LoadOptions options;
+
+    private final LoadStats stats = new LoadStats();
+
+    private final List<SimulatedUser> users = new ArrayList<>();
+
+    private String host;
+
+    private int port;
+
+    /**
+     * Inicializa una nueva instancia de la clase LoadGenerator.
+     *
+     * @param options las opciones de la prueba.
+     */
+    LoadGenerator(LoadOptions options) {
+        this.options = options;
+        for (int i = 0; i < options.getUsers(); i++) {
+            users.add(new SimulatedUser("load" + i, stats));
+        }
+    }
+
+    /**
+     * Ejecuta el escenario configurado e imprime el resultado.
+     *
+     * @throws IOException si no se puede iniciar el servidor embebido.
+     */
+    void run() throws IOException {
+        host = options.getHost();
+        port = options.getPort();
+        if (options.getEmbeddedEngine() != null) {
+            startEmbeddedServer();
+        }
+
+        System.out.printf("Scenario %s: %d users against %s:%d%n",
+                options.getScenario().name().toLowerCase().replace('_', '-'), users.size(), host, port);
+        double connectSeconds = connectAll();
+        double trafficSeconds = 0;
+        if (options.getScenario() != LoadOptions.Scenario.LOGIN_STORM) {
+            trafficSeconds = runTraffic(options.getScenario() == LoadOptions.Scenario.CHURN);
+        }
+        for (SimulatedUser user : users) {
+            user.close();
+        }
+
+        System.out.printf("Logins: %.1f/s over %.2f s%n", users.size() / connectSeconds, connectSeconds);
+        stats.print(System.out, trafficSeconds);
+    }
+
+    private void startEmbeddedServer() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        host = "127.0.0.1";
+        // Sin límites de tráfico ni de conexiones, para medir la capacidad del servidor; las opciones del servidor
+        // que se pasen después los reemplazan
+        String[] defaults = {
+                "--engine=" + options.getEmbeddedEngine().name().toLowerCase(),
+                "--max-connections=0", "--rate-limit-messages=0", "--rate-limit-bytes=0"
+        };
+        String[] serverArgs = new String[defaults.length + options.getServerArgs().length];
+        System.arraycopy(defaults, 0, serverArgs, 0, defaults.length);
+        System.arraycopy(options.getServerArgs(), 0, serverArgs, defaults.length, options.getServerArgs().length);
+        ServerOptions serverOptions = ServerOptions.parse(serverArgs);
+
+        // El servidor audita cada mensaje; en la consola eso competiría con la carga que se mide
+        Configurator.setAllLevels(LogManager.ROOT_LOGGER_NAME, Level.WARN);
+        Thread serverThread;
+        if (serverOptions.getEngine() == ServerEngine.NIO) {
+            NioChatServer server = new NioChatServer(port, serverOptions);
+            serverThread = new Thread(() -> serve(server::serveClients), "embedded-server");
+        } else {
+            ServerChat server = new ServerChat(port, serverOptions);
+            serverThread = new Thread(() -> serve(server::serveClients), "embedded-server");
+        }
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    private interface Serve {
+        void run() throws IOException;
+    }
+
+    private static void serve(Serve serve) {
+        try {
+            serve.run();
+        } catch (IOException e) {
+            logger.error("Embedded server error: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Conecta a todos los usuarios a la vez, cada uno en un hilo virtual.
+     *
+     * @return los segundos que tardaron todas las conexiones.
+     */
+    private double connectAll() {
+        long start = System.nanoTime();
+        AtomicInteger connected = new AtomicInteger();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (SimulatedUser user : users) {
+                executor.execute(() -> {
+                    if (connect(user)) {
+                        connected.incrementAndGet();
+                    }
+                });
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Connected %d of %d users%n", connected.get(), users.size());
+        return seconds;
+    }
+
+    private boolean connect(SimulatedUser user) {
+        for (int attempt = 0; attempt < RECONNECT_ATTEMPTS; attempt++) {
+            try {
+                if (user.connect(host, port, (int) options.getConnectTimeoutMillis())) {
+                    return true;
+                }
+                stats.recordNicknameConflict();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10L << attempt));
+            } catch (IOException e) {
+                stats.recordConnectFailure();
+                logger.warn("Could not connect {}: {}", user.getNickname(), e.getMessage());
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Envía mensajes privados entre usuarios elegidos al azar a la tasa configurada y, si se pide, desconecta y
+     * reconecta usuarios al azar en paralelo. Al final espera a que lleguen los mensajes en vuelo.
+     *
+     * @param churn verdadero para desconectar y reconectar usuarios durante el tráfico.
+     * @return los segundos que duró el tráfico.
+     */
+    private double runTraffic(boolean churn) {
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(options.getDurationSeconds());
+        Thread churnThread = churn ? Thread.ofVirtual().name("load-churn").start(() -> churn(end)) : null;
+
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / options.getRate();
+        long next = start;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (next < end) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            SimulatedUser sender = users.get(random.nextInt(users.size()));
+            SimulatedUser recipient = users.get(random.nextInt(users.size()));
+            if (sender != recipient && sender.isConnected() && recipient.isConnected()) {
+                sender.send(recipient.getNickname(), next, options.getMessageBytes());
+            }
+            next += intervalNanos;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        if (churnThread != null) {
+            try {
+                churnThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        awaitInFlightMessages();
+        return seconds;
+    }
+
+    private void churn(long end) {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / options.getChurnRate();
+        long next = System.nanoTime();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Set<SimulatedUser> churning = ConcurrentHashMap.newKeySet();
+        // Cada reconexión en su propio hilo virtual, para mantener la tasa aunque las reconexiones tarden
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            while (next < end) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                SimulatedUser user = users.get(random.nextInt(users.size()));
+                if (user.isConnected() && churning.add(user)) {
+                    executor.execute(() -> {
+                        user.disconnect();
+                        connect(user);
+                        churning.remove(user);
+                    });
+                }
+                next += intervalNanos;
+            }
+        }
+    }
+
+    private void awaitInFlightMessages() {
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        long received = -1;
+        while (System.currentTimeMillis() < deadline && stats.getReceivedMessages() < stats.getSentMessages()) {
+            // Si no llega nada durante un intervalo, los mensajes restantes se perdieron (por ejemplo por las
+            // desconexiones del escenario churn)
+            long current = stats.getReceivedMessages();
+            if (current == received) {
+                break;
+            }
+            received = current;
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(500));
+        }
+    }
+
+    /**
+     * Método principal del generador de carga.
+     *
+     * @param args las opciones de la prueba (ver {@link LoadOptions}).
+     */
+    public static void main(String[] args) {
+        try {
+            new LoadGenerator(LoadOptions.parse(args)).run();
+        } catch (IOException | IllegalArgumentException e) {
+            logger.info("Load generator error: {}", e.getMessage());
+            System.exit(1);
+        }
+    }
+}
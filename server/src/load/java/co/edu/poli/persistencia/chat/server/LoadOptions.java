@@ -0,0 +1,240 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.util.Arrays;
+
+/**
+ * Las opciones del generador de carga, leídas desde la línea de comandos con el formato {@code --opcion=valor}.
+ * Los argumentos que siguen a {@code --} se pasan al servidor embebido (ver {@link ServerOptions}).
+ * <p>
+ * Opciones soportadas:
+ * <ul>
+ *     <li>{@code --scenario=login-storm|steady|churn}: el escenario a ejecutar (por defecto {@code steady}).</li>
+ *     <li>{@code --users=N}: la cantidad de usuarios simulados (por defecto 1000).</li>
+ *     <li>{@code --rate=N}: los mensajes privados por segundo entre todos los usuarios (por defecto 1000).</li>
+ *     <li>{@code --duration-s=N}: los segundos que dura el tráfico de los escenarios {@code steady} y {@code churn}
+ *     (por defecto 30).</li>
+ *     <li>{@code --message-bytes=N}: el tamaño del cuerpo de cada mensaje, al menos 8 (por defecto 64).</li>
+ *     <li>{@code --churn-rate=N}: las desconexiones y reconexiones por segundo del escenario {@code churn}
+ *     (por defecto 10).</li>
+ *     <li>{@code --host=HOST} y {@code --port=N}: el servidor a probar (por defecto 127.0.0.1:8888).</li>
+ *     <li>{@code --embedded=blocking|virtual|nio}: inicia un servidor en la misma JVM, en un puerto libre de la
+ *     interfaz local, en lugar de conectarse a {@code --host}.</li>
+ *     <li>{@code --connect-timeout-ms=N}: el tiempo máximo para conectarse y ser registrado (por defecto 10000).</li>
+ * </ul>
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class LoadOptions {
+
+    /**
+     * Los escenarios de carga.
+     */
+    enum Scenario {
+        /**
+         * Todos los usuarios se conectan a la vez; se mide la latencia de conexión.
+         */
+        LOGIN_STORM,
+
+        /**
+         * Los usuarios se conectan y luego intercambian mensajes privados a una tasa constante.
+         */
+        STEADY,
+
+        /**
+         * Como {@link #STEADY}, pero algunos usuarios se desconectan y vuelven a conectarse continuamente.
+         */
+        CHURN;
+
+        /**
+         * Obtiene el escenario a partir de su nombre ("login-storm", "steady" o "churn").
+         *
+         * @param name el nombre del escenario.
+         * @return el escenario correspondiente.
+         * @throws IllegalArgumentException si el nombre no corresponde a ningún escenario.
+         */
+        static Scenario fromName(String name) {
+            for (Scenario scenario : values()) {
+                if (scenario.name().replace('_', '-').equalsIgnoreCase(name)) {
+                    return scenario;
+                }
+            }
+            throw new IllegalArgumentException("Unknown scenario: " + name);
+        }
+    }
+
+    private Scenario scenario = Scenario.STEADY;
+
+    private int users = 1000;
+
+    private int rate = 1000;
+
+    private long durationSeconds = 30;
+
+    private int messageBytes = 64;
+
+    private int churnRate = 10;
+
+    private String host = "127.0.0.1";
+
+    private int port = 8888;
+
+    private ServerEngine embeddedEngine;
+
+    private long connectTimeoutMillis = 10000;
+
+    private String[] serverArgs = new String[0];
+
+    /**
+     * Construye las opciones a partir de los argumentos de la línea de comandos.
+     *
+     * @param args los argumentos pasados al programa.
+     * @return las opciones leídas.
+     * @throws IllegalArgumentException si alguna opción es desconocida o tiene un valor inválido.
+     */
+    static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--")) {
+                options.serverArgs = Arrays.copyOfRange(args, i + 1, args.length);
+                break;
+            }
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Invalid option: " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch (name) {
+                case "scenario":
+                    options.scenario = Scenario.fromName(value);
+                    break;
+                case "users":
+                    options.users = parsePositive(name, value);
+                    break;
+                case "rate":
+                    options.rate = parsePositive(name, value);
+                    break;
+                case "duration-s":
+                    options.durationSeconds = parsePositive(name, value);
+                    break;
+                case "message-bytes":
+                    options.messageBytes = parsePositive(name, value);
+                    if (options.messageBytes < 8) {
+                        throw new IllegalArgumentException("Option " + name + " must be at least 8: " + value);
+                    }
+                    break;
+                case "churn-rate":
+                    options.churnRate = parsePositive(name, value);
+                    break;
+                case "host":
+                    options.host = value;
+                    break;
+                case "port":
+                    options.port = parsePositive(name, value);
+                    break;
+                case "embedded":
+                    options.embeddedEngine = ServerEngine.fromName(value);
+                    break;
+                case "connect-timeout-ms":
+                    options.connectTimeoutMillis = parsePositive(name, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (options.users < 2 && options.scenario != Scenario.LOGIN_STORM) {
+            throw new IllegalArgumentException("Scenario " + options.scenario + " needs at least 2 users");
+        }
+        return options;
+    }
+
+    private static int parsePositive(String name, String value) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number > 0) {
+                return number;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Option " + name + " must be a positive number: " + value);
+    }
+
+    /**
+     * @return el escenario a ejecutar.
+     */
+    Scenario getScenario() {
+        return scenario;
+    }
+
+    /**
+     * @return la cantidad de usuarios simulados.
+     */
+    int getUsers() {
+        return users;
+    }
+
+    /**
+     * @return los mensajes privados por segundo entre todos los usuarios.
+     */
+    int getRate() {
+        return rate;
+    }
+
+    /**
+     * @return los segundos que dura el tráfico.
+     */
+    long getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    /**
+     * @return el tamaño del cuerpo de cada mensaje.
+     */
+    int getMessageBytes() {
+        return messageBytes;
+    }
+
+    /**
+     * @return las desconexiones y reconexiones por segundo del escenario {@link Scenario#CHURN}.
+     */
+    int getChurnRate() {
+        return churnRate;
+    }
+
+    /**
+     * @return el servidor a probar.
+     */
+    String getHost() {
+        return host;
+    }
+
+    /**
+     * @return el puerto del servidor a probar.
+     */
+    int getPort() {
+        return port;
+    }
+
+    /**
+     * @return el motor del servidor embebido, o null si se prueba un servidor externo.
+     */
+    ServerEngine getEmbeddedEngine() {
+        return embeddedEngine;
+    }
+
+    /**
+     * @return el tiempo máximo para conectarse y ser registrado.
+     */
+    long getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * @return las opciones del servidor embebido.
+     */
+    String[] getServerArgs() {
+        return serverArgs;
+    }
+}
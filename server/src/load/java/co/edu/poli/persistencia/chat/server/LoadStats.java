@@ -0,0 +1,131 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Las mediciones de una prueba de carga: histogramas de latencia (en microsegundos) y contadores de mensajes y
+ * errores. Todos los métodos pueden invocarse desde cualquier hilo.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class LoadStats {
+
+    // Tres dígitos significativos; los histogramas crecen solos si una latencia supera su rango
+    private final Histogram connectLatency = new ConcurrentHistogram(3);
+
+    private final Histogram messageLatency = new ConcurrentHistogram(3);
+
+    private final LongAdder sentMessages = new LongAdder();
+
+    private final LongAdder receivedMessages = new LongAdder();
+
+    private final LongAdder connectFailures = new LongAdder();
+
+    private final LongAdder nicknameConflicts = new LongAdder();
+
+    private final LongAdder sendErrors = new LongAdder();
+
+    private final LongAdder unexpectedDisconnects = new LongAdder();
+
+    /**
+     * @param latencyNanos el tiempo desde que se abrió el socket hasta que el usuario quedó registrado.
+     */
+    void recordConnect(long latencyNanos) {
+        connectLatency.recordValue(Math.max(1, latencyNanos / 1000));
+    }
+
+    /**
+     * Cuenta una conexión que falló o no se registró a tiempo.
+     */
+    void recordConnectFailure() {
+        connectFailures.increment();
+    }
+
+    /**
+     * Cuenta una reconexión rechazada porque el servidor aún no liberaba el apodo.
+     */
+    void recordNicknameConflict() {
+        nicknameConflicts.increment();
+    }
+
+    /**
+     * Cuenta un mensaje enviado.
+     */
+    void recordSent() {
+        sentMessages.increment();
+    }
+
+    /**
+     * Cuenta un mensaje que no se pudo enviar.
+     */
+    void recordSendError() {
+        sendErrors.increment();
+    }
+
+    /**
+     * @param latencyNanos el tiempo desde el instante en que debía enviarse el mensaje hasta que llegó.
+     */
+    void recordReceived(long latencyNanos) {
+        receivedMessages.increment();
+        messageLatency.recordValue(Math.max(1, latencyNanos / 1000));
+    }
+
+    /**
+     * Cuenta una conexión que el servidor cerró sin que el usuario se despidiera.
+     */
+    void recordUnexpectedDisconnect() {
+        unexpectedDisconnects.increment();
+    }
+
+    /**
+     * @return la cantidad de mensajes enviados.
+     */
+    long getSentMessages() {
+        return sentMessages.sum();
+    }
+
+    /**
+     * @return la cantidad de mensajes recibidos por sus destinatarios.
+     */
+    long getReceivedMessages() {
+        return receivedMessages.sum();
+    }
+
+    /**
+     * Imprime el resumen de la prueba.
+     *
+     * @param out el flujo donde se imprime.
+     * @param trafficSeconds los segundos que duró el tráfico de mensajes, para calcular el rendimiento.
+     */
+    void print(PrintStream out, double trafficSeconds) {
+        printLatency(out, "Connect latency", connectLatency);
+        printLatency(out, "Message latency", messageLatency);
+        if (trafficSeconds > 0) {
+            out.printf("Throughput: sent %.1f msg/s, received %.1f msg/s%n",
+                    getSentMessages() / trafficSeconds, getReceivedMessages() / trafficSeconds);
+        }
+        out.printf("Messages: sent %d, received %d%n", getSentMessages(), getReceivedMessages());
+        out.printf("Errors: connect failures %d, nickname conflicts %d, send errors %d, unexpected disconnects %d%n",
+                connectFailures.sum(), nicknameConflicts.sum(), sendErrors.sum(), unexpectedDisconnects.sum());
+    }
+
+    private static void printLatency(PrintStream out, String name, Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            out.printf("%s: no samples%n", name);
+            return;
+        }
+        out.printf("%s (ms, n=%d): p50 %.3f  p90 %.3f  p99 %.3f  p99.9 %.3f  max %.3f%n", name,
+                histogram.getTotalCount(),
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(90) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0);
+    }
+}
@@ -0,0 +1,223 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * La clase SimulatedUser es un usuario simulado del generador de carga. Habla el protocolo binario igual que
+ * {@code ChatClient}: envía el preámbulo y el saludo, y luego tramas PRIVATE. Cada usuario lee sus mensajes en su
+ * propio hilo virtual, así una JVM puede simular miles de usuarios.
+ * <p>
+ * El cuerpo de cada mensaje empieza con el instante en que debía enviarse ({@link System#nanoTime()}); el
+ * destinatario calcula la latencia desde ese instante, de modo que los retrasos del propio generador también se
+ * cuentan en lugar de ocultarse.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class SimulatedUser {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final String nickname;
+
+    private final LoadStats stats;
+
+    // Protege la escritura en el socket: el generador y el hilo de desconexiones pueden usarlo a la vez
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private Socket socket;
+
+    private DataOutputStream out;
+
+    private Thread reader;
+
+    private volatile boolean connected;
+
+    /**
+     * Inicializa una nueva instancia de la clase SimulatedUser.
+     *
+     * @param nickname el apodo del usuario.
+     * @param stats las mediciones de la prueba.
+     */
+    SimulatedUser(String nickname, LoadStats stats) {
+        this.nickname = nickname;
+        this.stats = stats;
+    }
+
+    /**
+     * @return el apodo del usuario.
+     */
+    String getNickname() {
+        return nickname;
+    }
+
+    /**
+     * @return verdadero si el usuario está conectado y registrado.
+     */
+    boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Se conecta al servidor y espera a ser registrado, es decir, a recibir la lista de usuarios activos.
+     * La latencia de conexión cuenta desde que se abre el socket hasta ese momento.
+     *
+     * @param host el servidor.
+     * @param port el puerto del servidor.
+     * @param timeoutMillis el tiempo máximo para conectarse y ser registrado.
+     * @return falso si el servidor rechazó el apodo por estar en uso; verdadero si el usuario quedó conectado.
+     * @throws IOException si no se puede conectar o el servidor no responde a tiempo.
+     */
+    boolean connect(String host, int port, int timeoutMillis) throws IOException {
+        long start = System.nanoTime();
+        Socket newSocket = new Socket();
+        try {
+            newSocket.setTcpNoDelay(true);
+            newSocket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            newSocket.setSoTimeout(timeoutMillis);
+            DataOutputStream newOut = new DataOutputStream(new BufferedOutputStream(newSocket.getOutputStream()));
+            newOut.write(Frame.PREAMBLE);
+            newOut.write(Frame.encode(FrameType.HELLO, nickname, null, EMPTY, 0, 0));
+            newOut.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(newSocket.getInputStream()));
+            byte[] preamble = new byte[Frame.PREAMBLE.length];
+            in.readFully(preamble);
+            Frame.checkPreamble(preamble, 0);
+            Frame frame;
+            while ((frame = readFrame(in)).getType() != FrameType.PRESENCE_SNAPSHOT) {
+                if (frame.getType() == FrameType.LINE && frame.getBodyAsString().startsWith("Nickname already in use")) {
+                    newSocket.close();
+                    return false;
+                }
+            }
+            newSocket.setSoTimeout(0);
+
+            socket = newSocket;
+            out = newOut;
+            connected = true;
+            stats.recordConnect(System.nanoTime() - start);
+            reader = Thread.ofVirtual().name("load-" + nickname).start(() -> readMessages(in));
+            return true;
+        } catch (SocketTimeoutException e) {
+            newSocket.close();
+            throw new IOException("Timed out waiting for " + nickname + " to be registered", e);
+        } catch (IOException e) {
+            newSocket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Envía un mensaje privado.
+     *
+     * @param recipientNickname el apodo del destinatario.
+     * @param intendedNanos el instante en que debía enviarse el mensaje, según {@link System#nanoTime()}.
+     * @param messageBytes el tamaño del cuerpo del mensaje, al menos 8.
+     */
+    void send(String recipientNickname, long intendedNanos, int messageBytes) {
+        byte[] body = new byte[messageBytes];
+        ByteBuffer.wrap(body).putLong(intendedNanos);
+        byte[] frame = Frame.encode(FrameType.PRIVATE, null, recipientNickname, body, 0, body.length);
+        writeLock.lock();
+        try {
+            if (!connected) {
+                return;
+            }
+            out.write(frame);
+            out.flush();
+            stats.recordSent();
+        } catch (IOException e) {
+            stats.recordSendError();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Se despide del servidor y cierra la conexión después de que el servidor la cierre.
+     */
+    void disconnect() {
+        writeLock.lock();
+        try {
+            if (!connected) {
+                return;
+            }
+            connected = false;
+            out.write(Frame.encode(FrameType.BYE, null, null, EMPTY, 0, 0));
+            out.flush();
+        } catch (IOException ignored) {
+        } finally {
+            writeLock.unlock();
+        }
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        close();
+    }
+
+    /**
+     * Cierra la conexión sin despedirse.
+     */
+    void close() {
+        connected = false;
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void readMessages(DataInputStream in) {
+        try {
+            while (true) {
+                Frame frame = readFrame(in);
+                // La copia que el servidor devuelve al emisor tiene otro destinatario y no se cuenta
+                if (frame.getType() == FrameType.PRIVATE && frame.getRecipient().equals(nickname)) {
+                    long intendedNanos = ByteBuffer.wrap(frame.getData(), frame.getBodyOffset(), 8).getLong();
+                    stats.recordReceived(System.nanoTime() - intendedNanos);
+                } else if (frame.getType() == FrameType.PING) {
+                    pong();
+                }
+            }
+        } catch (IOException e) {
+            if (connected) {
+                connected = false;
+                stats.recordUnexpectedDisconnect();
+            }
+        }
+    }
+
+    // Responde al ping con el que el servidor comprueba a los usuarios que no envían mensajes
+    private void pong() {
+        writeLock.lock();
+        try {
+            out.write(Frame.encode(FrameType.PONG, null, null, EMPTY, 0, 0));
+            out.flush();
+        } catch (IOException ignored) {
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static Frame readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        Frame.checkLength(length);
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return Frame.decode(data, 0, length);
+    }
+}
@@ -0,0 +1,920 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * La clase ChatRouter contiene el estado compartido del chat (los clientes activos) y la lógica del protocolo
+ * que es común a todos los motores del servidor: registro de apodos, lista de usuarios activos, mensajes privados
+ * y salas.
+ * <p>
+ * Comandos del protocolo de texto: "@usuario: mensaje" envía un mensaje privado, "#sala: mensaje" publica en una
+ * sala, "/join sala" y "/leave sala" entran y salen de una sala, "/rooms" lista las salas, "/history" envía una
+ * página del historial de una conversación, "/search" busca en las conversaciones del cliente, "/send" pide enviar
+ * un archivo (ver {@link FileTransferServer}), "/ping" pide un "Pong", "/pong" responde al "Ping" del servidor y
+ * "chao" termina la conexión. Un cliente que se reconecta puede reanudar su sesión con "/resume" en lugar del apodo
+ * (ver {@link ClientHello}).
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class ChatRouter {
+
+    private static final Logger logger = LogManager.getLogger(ChatRouter.class);
+
+    // Tamaño por defecto y máximo de una página del historial
+    private static final int DEFAULT_HISTORY_PAGE = 50;
+    private static final int MAX_HISTORY_PAGE = 200;
+
+    // La respuesta a las conexiones que superan el límite; va en el protocolo de texto porque aún no se sabe cuál
+    // usa el cliente
+    private static final byte[] SERVER_FULL_REPLY =
+            OutboundMessage.error("Server is full. Try again later.").getBytes(WireFormat.TEXT);
+
+    // Los clientes activos: la sesión de cada apodo en uso, con su respectiva cola de salida
+    // OutboundQueue se utiliza para enviar mensajes a los clientes sin bloquear al hilo que los envía, sin importar el motor.
+    private final SessionRegistry sessionRegistry = new SessionRegistry();
+
+    private final ServerOptions options;
+
+    private final OutboundStats outboundStats = new OutboundStats();
+
+    // Las conexiones admitidas que aún no se cierran, para el límite de conexiones simultáneas
+    private final AtomicInteger openConnections = new AtomicInteger();
+
+    // Las métricas del servidor, publicadas por JMX y opcionalmente por HTTP
+    private final ServerMetrics metrics;
+
+    // Las salas y sus miembros
+    private final RoomRegistry roomRegistry = new RoomRegistry();
+
+    // El registro durable de los mensajes enrutados, o null si no se registran
+    private final MessageLog messageLog;
+
+    // Los buzones de los usuarios desconectados, o null si no se guardan sus mensajes
+    private final MailboxStore mailboxStore;
+
+    // La conexión con los demás nodos del clúster, o null si el servidor no es parte de un clúster
+    private final ClusterNode clusterNode;
+
+    // Escribe los mensajes enrutados en la bitácora de auditoría, según el nivel y la muestra configurados
+    private final MessageAudit messageAudit;
+
+    // Lee las páginas del historial fuera de los hilos que atienden a los clientes
+    private final ExecutorService historyExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "history-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Envía los cambios de la lista de usuarios activos, agrupados en ventanas cortas
+    private final PresenceBroadcaster presenceBroadcaster;
+
+    // Envía pings a los clientes inactivos y cierra las conexiones muertas
+    private final HeartbeatMonitor heartbeatMonitor;
+
+    // Los búferes de las sesiones que los clientes pueden reanudar al reconectarse
+    private final ResumeRegistry resumeRegistry;
+
+    // Transfiere los archivos entre usuarios por su propio puerto, o null si no se transfieren archivos
+    private final FileTransferServer fileTransfers;
+
+    /**
+     * Inicializa una nueva instancia de la clase ChatRouter.
+     *
+     * @param options las opciones del servidor, con los límites de las colas de salida, la ventana de presencia
+     *                y la configuración del registro de mensajes.
+     * @throws IOException si no se puede abrir el registro de mensajes.
+     */
+    ChatRouter(ServerOptions options) throws IOException {
+        this(options, null, null);
+    }
+
+    /**
+     * Inicializa una nueva instancia de la clase ChatRouter como nodo de un clúster.
+     *
+     * @param options las opciones del servidor, con los límites de las colas de salida, la ventana de presencia
+     *                y la configuración del registro de mensajes.
+     * @param clusterBus el bus del clúster, o null si el servidor no es parte de un clúster.
+     * @param nodeId el identificador del nodo en el clúster; se ignora sin bus.
+     * @throws IOException si no se puede abrir el registro de mensajes.
+     */
+    ChatRouter(ServerOptions options, ClusterBus clusterBus, String nodeId) throws IOException {
+        this.options = options;
+        this.clusterNode = clusterBus == null ? null : new ClusterNode(clusterBus, nodeId, this);
+        this.messageAudit = new MessageAudit(options.getMessageAuditLevel(), options.getMessageAuditSample());
+        this.metrics = new ServerMetrics(options.isMetricsEnabled(), outboundStats, sessionRegistry::size);
+        if (options.isMetricsEnabled() && options.getMetricsPort() > 0) {
+            new MetricsEndpoint(options.getMetricsPort(), metrics);
+        }
+        this.heartbeatMonitor = new HeartbeatMonitor(options.getPingIntervalMillis(), options.getIdleTimeoutMillis(),
+                metrics);
+        this.resumeRegistry = new ResumeRegistry(options.getResumeBufferMessages(), options.getResumeWindowMillis());
+        this.presenceBroadcaster = new PresenceBroadcaster(sessionRegistry,
+                clusterNode == null ? sessionRegistry::nicknames : clusterNode::nicknames,
+                options.getPresenceWindowMillis(), options.getOutboundMaxMessages(), options.getOutboundMaxBytes(),
+                metrics);
+        if (options.getLogDirectory().isEmpty()) {
+            this.messageLog = null;
+        } else {
+            this.messageLog = new MessageLog(Paths.get(options.getLogDirectory()), options.getLogDurability(),
+                    options.getLogSegmentBytes(), options.getLogFlushIntervalMillis(),
+                    TimeUnit.HOURS.toMillis(options.getLogRetentionHours()), options.getLogRetentionBytes(),
+                    options.isSearchEnabled());
+            // Al terminar el proceso se sincronizan los mensajes que aún no llegaron al disco
+            Runtime.getRuntime().addShutdownHook(new Thread(messageLog::close, "message-log-shutdown"));
+        }
+        if (options.getMailboxDirectory().isEmpty()) {
+            this.mailboxStore = null;
+        } else {
+            this.mailboxStore = new MailboxStore(Paths.get(options.getMailboxDirectory()),
+                    options.getMailboxMaxMessages(), TimeUnit.HOURS.toMillis(options.getMailboxTtlHours()),
+                    options.getLogDurability() == MessageLog.Durability.PER_MESSAGE);
+        }
+        if (options.getFilePort() > 0) {
+            this.fileTransfers = new FileTransferServer(options.getFilePort(), Paths.get(options.getFileDirectory()),
+                    options.getFileMaxBytes(), options.getFileBandwidthBytes(), options.getFileMaxTransfers(),
+                    TimeUnit.HOURS.toMillis(options.getFileTtlHours()), metrics, this::onFileUploaded);
+        } else {
+            this.fileTransfers = null;
+        }
+        if (clusterNode != null) {
+            clusterNode.start();
+        }
+    }
+
+    /**
+     * Crea la cola de salida de un nuevo cliente con los límites configurados.
+     *
+     * @param onAvailable se invoca cuando la cola deja de estar vacía.
+     * @param onSlowConsumer se invoca cuando el cliente debe desconectarse por no leer a tiempo.
+     * @return la cola de salida del cliente.
+     */
+    OutboundQueue createOutboundQueue(Runnable onAvailable, Runnable onSlowConsumer) {
+        return new OutboundQueue(options.getOutboundMaxMessages(), options.getOutboundMaxBytes(),
+                options.getOutboundOverflowPolicy(), outboundStats, onAvailable, onSlowConsumer,
+                presenceBroadcaster::resendSnapshot);
+    }
+
+    /**
+     * Decide si se admite una conexión recién aceptada, según el límite de conexiones simultáneas. Una conexión
+     * admitida debe avisar su cierre con {@link #connectionClosed()}; una rechazada debe recibir
+     * {@link #getServerFullReply()} y cerrarse.
+     *
+     * @return verdadero si la conexión se admite.
+     */
+    boolean admitConnection() {
+        int maxConnections = options.getMaxConnections();
+        if (maxConnections > 0 && openConnections.incrementAndGet() > maxConnections) {
+            openConnections.decrementAndGet();
+            metrics.onConnectionRejected();
+            return false;
+        }
+        metrics.onConnectionAccepted();
+        return true;
+    }
+
+    /**
+     * Registra el cierre de una conexión admitida con {@link #admitConnection()}.
+     */
+    void connectionClosed() {
+        if (options.getMaxConnections() > 0) {
+            openConnections.decrementAndGet();
+        }
+        metrics.onConnectionClosed();
+    }
+
+    /**
+     * @return los bytes con los que se responde a una conexión rechazada por el límite de conexiones; no deben
+     * modificarse.
+     */
+    byte[] getServerFullReply() {
+        return SERVER_FULL_REPLY;
+    }
+
+    /**
+     * Crea el limitador de tráfico de una conexión, con los límites configurados.
+     *
+     * @param clientOutputQueue la cola de salida del cliente, que recibe el error cuando se rechazan sus mensajes.
+     * @return el limitador, que solo debe usar el hilo que lee los mensajes de la conexión.
+     */
+    RateLimiter createRateLimiter(OutboundQueue clientOutputQueue) {
+        return new RateLimiter(options.getRateLimitMessages(), options.getRateLimitBytes(),
+                options.getRateLimitBurstSeconds(), clientOutputQueue, metrics);
+    }
+
+    /**
+     * Empieza a vigilar la actividad de una conexión recién aceptada, para enviarle pings y cerrarla si deja de
+     * responder.
+     *
+     * @param clientOutputQueue la cola de salida del cliente.
+     * @param closer cierra la conexión sin bloquearse; se ejecuta en el hilo de la rueda de tiempo.
+     * @return el latido de la conexión, que registra cada lectura y se detiene al cerrarla.
+     */
+    HeartbeatMonitor.Heartbeat watchConnection(OutboundQueue clientOutputQueue, Runnable closer) {
+        return heartbeatMonitor.watch(clientOutputQueue, closer);
+    }
+
+    /**
+     * @return los contadores agregados de las colas de salida.
+     */
+    OutboundStats getOutboundStats() {
+        return outboundStats;
+    }
+
+    /**
+     * @return las métricas del servidor.
+     */
+    ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Registra a un cliente que inicia una sesión nueva; no se puede cerrar su conexión desde otra sesión.
+     *
+     * @param clientNickname El apodo solicitado por el cliente.
+     * @param clientOutputQueue Es utilizada para enviar mensajes al cliente.
+     * @return La sesión del cliente, o null si el apodo no es válido o está en uso.
+     * @see #registerClient(ClientHello, OutboundQueue, Runnable)
+     */
+    ClientSession registerClient(String clientNickname, OutboundQueue clientOutputQueue) {
+        return registerClient(ClientHello.of(clientNickname), clientOutputQueue, () -> { });
+    }
+
+    /**
+     * Registra a un cliente con el apodo solicitado, si no está en uso (sin distinguir mayúsculas). El cliente
+     * recibirá la lista completa de usuarios activos y los demás clientes el cambio, en la siguiente ventana.
+     * Si el cliente tiene mensajes guardados en su buzón, se le entregan a continuación, y también los avisos de los
+     * archivos que le enviaron y aún no descarga.
+     * <p>
+     * Si las sesiones se pueden reanudar, el cliente recibe primero el token de su sesión
+     * ({@link OutboundMessage#session}), una vez que obtiene su apodo. Un cliente que se reconecta con el token y la
+     * secuencia del último mensaje que recibió recupera su sesión: si el servidor aún no había notado la caída de la
+     * conexión anterior, esa conexión se cierra para liberar el apodo y, si lo obtiene, se le reenvían los mensajes
+     * que no alcanzó a recibir y vuelve a sus salas.
+     * <p>
+     * El apodo se reclama sin candados, así los registros no se esperan entre sí ni esperan la difusión de la
+     * presencia. En un clúster el apodo también se reclama en el directorio del clúster.
+     *
+     * @param hello El saludo del cliente, con el apodo solicitado y la sesión que quiere reanudar.
+     * @param clientOutputQueue Es utilizada para enviar mensajes al cliente.
+     * @param closer Cierra la conexión del cliente sin bloquearse.
+     * @return La sesión del cliente, o null si el apodo no es válido o está en uso.
+     */
+    ClientSession registerClient(ClientHello hello, OutboundQueue clientOutputQueue, Runnable closer) {
+        String clientNickname = hello.getNickname();
+        if (!SessionRegistry.isValidNickname(clientNickname)) {
+            clientOutputQueue.offer(OutboundMessage.line("Invalid nickname: it must have between 1 and "
+                    + SessionRegistry.MAX_NICKNAME_LENGTH + " bytes. Disconnecting..."));
+            return null;
+        }
+        boolean resumable = resumeRegistry.isEnabled();
+        ReplayBuffer replayBuffer = null;
+        if (resumable) {
+            replayBuffer = hello.getToken() == null ? null
+                    : resumeRegistry.find(SessionRegistry.keyOf(clientNickname), hello.getToken());
+            if (replayBuffer != null) {
+                closeStaleSession(clientNickname, replayBuffer);
+            }
+            // El token y los mensajes reenviados van antes que cualquier mensaje que llegue al registrar la sesión
+            clientOutputQueue.hold();
+        }
+
+        ClientSession session = sessionRegistry.register(clientNickname, clientOutputQueue, closer);
+        if (session != null && clusterNode != null && !clusterNode.claim(session)) {
+            sessionRegistry.unregister(session);
+            session = null;
+        }
+        if (session == null) {
+            metrics.onNicknameCollision();
+            if (resumable) {
+                clientOutputQueue.release(List.of());
+            }
+            clientOutputQueue.offer(OutboundMessage.line("Nickname already in use. Disconnecting..."));
+            return null;
+        }
+        if (resumable) {
+            List<OutboundMessage> replay = replayBuffer == null ? null
+                    : replayBuffer.attach(clientOutputQueue, hello.getAcknowledgedSequence());
+            if (replay == null) {
+                replayBuffer = resumeRegistry.create(clientOutputQueue);
+            }
+            clientOutputQueue.setReplayBuffer(replayBuffer);
+            List<OutboundMessage> first = new ArrayList<>();
+            first.add(OutboundMessage.session(replayBuffer.getToken(), replayBuffer.getLastSequence()));
+            if (replay != null) {
+                first.addAll(replay);
+            }
+            clientOutputQueue.release(first);
+            resumeRegistry.attached(session.getKey(), replayBuffer);
+            if (replay != null) {
+                for (String roomName : replayBuffer.takeRooms()) {
+                    roomRegistry.join(session, roomName);
+                }
+                metrics.onSessionResumed(replay.size());
+                logger.info("Client [{}] resumed its session; {} messages replayed", clientNickname, replay.size());
+            }
+        }
+        presenceBroadcaster.clientJoined(clientNickname, clientOutputQueue);
+        if (clusterNode != null) {
+            clusterNode.announce(clientNickname);
+        }
+        if (mailboxStore != null) {
+            mailboxStore.deliver(clientNickname, clientOutputQueue);
+            String mailboxNode = clusterNode == null ? null : clusterNode.remoteMailboxNodeOf(clientNickname);
+            if (mailboxNode != null) {
+                clusterNode.requestMailbox(mailboxNode, clientNickname);
+            }
+        }
+        if (fileTransfers != null) {
+            for (FileTransfer transfer : fileTransfers.pendingFor(clientNickname)) {
+                clientOutputQueue.offer(transfer.offer(fileTransfers.getPort()));
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Cierra la conexión anterior de una sesión que se quiere reanudar, si sigue registrada porque el servidor aún no
+     * notó que se cayó, para que la nueva conexión pueda obtener el apodo. La sesión queda desconectada y se puede
+     * reanudar aunque la nueva conexión no obtenga el apodo.
+     *
+     * @param clientNickname El apodo del cliente.
+     * @param replayBuffer El búfer de la sesión a reanudar.
+     */
+    private void closeStaleSession(String clientNickname, ReplayBuffer replayBuffer) {
+        ClientSession stale = sessionRegistry.get(clientNickname);
+        if (stale != null && stale.getOutboundQueue().getReplayBuffer() == replayBuffer) {
+            removeClient(stale);
+            stale.close();
+        }
+    }
+
+    /**
+     * Elimina a un cliente de la lista de clientes activos y notifica a los demás clientes. Solo se elimina la
+     * sesión indicada: si el apodo ya pertenece a una sesión más reciente, no se modifica. Si la sesión se puede
+     * reanudar, su búfer se conserva durante la ventana de reanudación.
+     * <p>
+     * Una sesión puede darse de baja desde dos hilos a la vez, por ejemplo el lector de una conexión caída y la
+     * reanudación de su sesión en otra conexión; solo el que la saca del registro hace el resto de la baja.
+     *
+     * @param session La sesión del cliente que se desconecta, o null si nunca se registró.
+     */
+    void removeClient(ClientSession session) {
+        if (session != null && sessionRegistry.unregister(session)) {
+            List<String> rooms = roomRegistry.leaveAll(session);
+            presenceBroadcaster.clientLeft(session.getNickname());
+            if (clusterNode != null) {
+                clusterNode.release(session);
+                clusterNode.announce(session.getNickname());
+            }
+            ReplayBuffer replayBuffer = session.getOutboundQueue().getReplayBuffer();
+            if (replayBuffer != null) {
+                resumeRegistry.detached(session.getKey(), replayBuffer, session.getOutboundQueue(), rooms);
+            }
+        }
+    }
+
+    /**
+     * Entrega a un usuario local un mensaje privado reenviado por otro nodo del clúster. Si el usuario no está
+     * conectado, el mensaje va a su buzón: se guarda si este nodo lo guarda, o se reenvía al nodo que lo guarda. Sin
+     * buzones, el remitente recibe el aviso en su nodo.
+     *
+     * @param frame la trama del mensaje, con el remitente y el destinatario.
+     */
+    void deliverClusterMessage(Frame frame) {
+        ClientSession recipient = sessionRegistry.get(frame.getRecipient());
+        if (recipient != null) {
+            recipient.getOutboundQueue().offer(
+                    OutboundMessage.privateMessage(frame.getSender(), recipient.getNickname(), frame));
+        } else if (mailboxStore != null) {
+            OutboundMessage privateMessage =
+                    OutboundMessage.privateMessage(frame.getSender(), frame.getRecipient(), frame);
+            String mailboxNode = clusterNode.remoteMailboxNodeOf(frame.getRecipient());
+            if (mailboxNode != null) {
+                clusterNode.forward(mailboxNode, privateMessage);
+            } else {
+                mailboxStore.store(privateMessage, line -> clusterNode.sendLine(frame.getSender(), line),
+                        () -> deliverMailbox(frame.getRecipient()));
+            }
+        } else {
+            clusterNode.sendLine(frame.getSender(), "User " + frame.getRecipient() + " is not connected.");
+        }
+    }
+
+    /**
+     * Entrega el buzón que guarda este nodo a un usuario que se conectó en otro nodo del clúster.
+     *
+     * @param nickname el apodo del usuario.
+     * @param targetNodeId el nodo donde se conectó el usuario.
+     */
+    void deliverClusterMailbox(String nickname, String targetNodeId) {
+        if (mailboxStore != null) {
+            mailboxStore.deliver(nickname, clusterNode.remoteRecipient(targetNodeId, nickname));
+        }
+    }
+
+    /**
+     * Encola para un usuario local una parte del buzón que guarda otro nodo del clúster.
+     *
+     * @param nickname el apodo del usuario.
+     * @param messages los mensajes de la parte, en orden.
+     * @param accepted recibe la cantidad de mensajes, desde el primero, que quedaron en la cola del usuario; cero si
+     * el usuario ya no está conectado en este nodo.
+     */
+    void deliverClusterMailboxChunk(String nickname, List<OutboundMessage> messages, IntConsumer accepted) {
+        ClientSession session = sessionRegistry.get(nickname);
+        if (session == null) {
+            accepted.accept(0);
+        } else {
+            new MailboxStore.QueueRecipient(session.getOutboundQueue()).offer(messages, accepted);
+        }
+    }
+
+    /**
+     * @param nickname el apodo de un usuario local.
+     * @return verdadero si la cola del usuario tiene espacio para otra parte de su buzón.
+     */
+    boolean hasMailboxCapacity(String nickname) {
+        ClientSession session = sessionRegistry.get(nickname);
+        return session != null
+                && session.getOutboundQueue().hasCapacityFor(MailboxStore.CHUNK_MESSAGES, MailboxStore.CHUNK_BYTES);
+    }
+
+    // Entrega el buzón que guarda este nodo si el usuario se conectó mientras se guardaba un mensaje, aquí o en
+    // otro nodo del clúster
+    private void deliverMailbox(String nickname) {
+        ClientSession connected = sessionRegistry.get(nickname);
+        if (connected != null) {
+            mailboxStore.deliver(connected.getNickname(), connected.getOutboundQueue());
+            return;
+        }
+        String remoteNode = clusterNode == null ? null : clusterNode.remoteNodeOf(nickname);
+        if (remoteNode != null) {
+            deliverClusterMailbox(nickname, remoteNode);
+        }
+    }
+
+    /**
+     * Entrega a un usuario local una respuesta del servidor enviada por otro nodo del clúster.
+     *
+     * @param nickname el apodo del usuario.
+     * @param line la respuesta.
+     */
+    void deliverClusterLine(String nickname, String line) {
+        ClientSession session = sessionRegistry.get(nickname);
+        if (session != null) {
+            session.getOutboundQueue().offer(OutboundMessage.line(line));
+        }
+    }
+
+    /**
+     * Registra el cambio de presencia de un usuario de otro nodo del clúster.
+     *
+     * @param nickname el apodo del usuario.
+     * @param connected verdadero si el usuario está conectado según el directorio del clúster.
+     */
+    void onClusterPresence(String nickname, boolean connected) {
+        presenceBroadcaster.clientChanged(nickname, connected);
+    }
+
+    /**
+     * Saca al servidor del clúster, si es parte de uno, y libera los apodos de sus usuarios.
+     */
+    void leaveCluster() {
+        if (clusterNode != null) {
+            clusterNode.stop();
+        }
+    }
+
+    /**
+     * Procesa una línea enviada por un cliente del protocolo de texto.
+     *
+     * @param session La sesión del cliente que envía el mensaje.
+     * @param clientMessage La línea recibida.
+     * @return Falso si el cliente pidió terminar la conexión; verdadero en caso contrario.
+     */
+    boolean handleClientMessage(ClientSession session, String clientMessage) {
+        long start = metrics.startTimer();
+        String clientNickname = session.getNickname();
+        OutboundQueue clientOutputQueue = session.getOutboundQueue();
+        if (clientMessage.equalsIgnoreCase("chao")) {
+            logger.info("Client [{}]: chao", clientNickname);
+            return false; // terminar la conexión
+        } else if (clientMessage.startsWith("@")) {
+            // El mensaje tiene el formato "@username: mensaje"
+            int separator = clientMessage.indexOf(':');
+            if (separator < 0) {
+                return true;
+            }
+            String recipientNickname = clientMessage.substring(1, separator);
+            String text = clientMessage.substring(separator + 1);
+            if (text.trim().equalsIgnoreCase("chao")) {
+                return false;
+            }
+            if (text.startsWith(" ")) {
+                text = text.substring(1);
+            }
+            ClientSession recipient = sessionRegistry.get(recipientNickname);
+            String recipientName = recipient != null ? recipient.getNickname() : recipientNickname;
+            sendPrivateMessage(recipient, recipientName,
+                    OutboundMessage.privateMessage(clientNickname, recipientName, text), clientOutputQueue);
+            metrics.onMessageRouted(start);
+        } else if (clientMessage.startsWith("#")) {
+            // El mensaje tiene el formato "#sala: mensaje"
+            int separator = clientMessage.indexOf(':');
+            if (separator < 0) {
+                return true;
+            }
+            String roomName = clientMessage.substring(1, separator);
+            String text = clientMessage.substring(separator + 1);
+            if (text.startsWith(" ")) {
+                text = text.substring(1);
+            }
+            publishToRoom(session, roomName, OutboundMessage.roomMessage(clientNickname, roomName, text));
+            metrics.onMessageRouted(start);
+        } else if (clientMessage.startsWith("/")) {
+            logger.debug("Client [{}]: {}", clientNickname, clientMessage);
+            handleCommand(session, clientMessage);
+        }
+        return true;
+    }
+
+    /**
+     * Procesa los comandos: "/join sala", "/leave sala", "/rooms", "/history conversación [cantidad] [antesDe]",
+     * "/search [count=N] [before=ID] palabras", "/send usuario tamaño nombre", "/ping" y "/pong".
+     *
+     * @param session La sesión del cliente que envía el comando; su cola de salida recibe la respuesta.
+     * @param command La línea con el comando.
+     */
+    private void handleCommand(ClientSession session, String command) {
+        String clientNickname = session.getNickname();
+        OutboundQueue clientOutputQueue = session.getOutboundQueue();
+        String[] parts = command.trim().split("\\s+", 2);
+        String roomName = parts.length > 1 ? stripRoomPrefix(parts[1]) : "";
+        switch (parts[0].toLowerCase()) {
+            case "/join":
+                if (!RoomRegistry.isValidName(roomName)) {
+                    clientOutputQueue.offer(OutboundMessage.line("Invalid room name: " + roomName));
+                    return;
+                }
+                int members = roomRegistry.join(session, roomName);
+                clientOutputQueue.offer(OutboundMessage.line("Joined #" + roomName + " (" + members + " members)"));
+                break;
+            case "/leave":
+                if (roomRegistry.leave(session, roomName)) {
+                    clientOutputQueue.offer(OutboundMessage.line("Left #" + roomName));
+                } else {
+                    clientOutputQueue.offer(OutboundMessage.line("You are not in #" + roomName));
+                }
+                break;
+            case "/rooms":
+                clientOutputQueue.offer(OutboundMessage.line("Rooms: " + String.join(", ", roomRegistry.list())));
+                break;
+            case "/ping":
+                clientOutputQueue.offer(OutboundMessage.pong());
+                break;
+            case "/pong":
+                // La respuesta a un ping; la lectura ya se registró como actividad de la conexión
+                break;
+            case "/history":
+                sendHistory(session, parts.length > 1 ? parts[1].split("\\s+") : new String[0]);
+                break;
+            case "/search":
+                sendSearch(session, parts.length > 1 ? parts[1] : "");
+                break;
+            case "/send":
+                requestFileTransfer(clientNickname, parts.length > 1 ? parts[1] : "", clientOutputQueue);
+                break;
+            default:
+                clientOutputQueue.offer(OutboundMessage.line("Unknown command: " + parts[0]));
+        }
+    }
+
+    /**
+     * Envía al cliente una página del historial de una conversación: "@usuario" para su conversación privada con
+     * ese usuario o "#sala" para una sala de la que es miembro. Los mensajes se envían del más antiguo al más
+     * reciente y la página termina con la línea "History end conversación antesDe", donde antesDe es el valor para
+     * pedir la página anterior, o 0 si no hay más mensajes. La lectura se hace en el hilo del historial.
+     *
+     * @param session La sesión del cliente.
+     * @param arguments La conversación y, opcionalmente, la cantidad de mensajes y la secuencia antes de la que
+     *                  termina la página.
+     */
+    private void sendHistory(ClientSession session, String[] arguments) {
+        String clientNickname = session.getNickname();
+        OutboundQueue clientOutputQueue = session.getOutboundQueue();
+        if (messageLog == null) {
+            clientOutputQueue.offer(OutboundMessage.line("History is not available."));
+            return;
+        }
+        String target = arguments.length > 0 ? arguments[0] : "";
+        int limit;
+        long beforeSequence;
+        try {
+            limit = arguments.length > 1 ? Integer.parseInt(arguments[1]) : DEFAULT_HISTORY_PAGE;
+            beforeSequence = arguments.length > 2 ? Long.parseLong(arguments[2]) : 0;
+        } catch (NumberFormatException e) {
+            clientOutputQueue.offer(OutboundMessage.line("Usage: /history @user|#room [count] [beforeId]"));
+            return;
+        }
+        limit = Math.max(1, Math.min(limit, MAX_HISTORY_PAGE));
+
+        String conversation;
+        if (target.startsWith("@") && target.length() > 1) {
+            conversation = HistoryIndex.privateConversation(clientNickname, target.substring(1));
+        } else if (target.startsWith("#") && target.length() > 1) {
+            if (!roomRegistry.isMember(session, target.substring(1))) {
+                clientOutputQueue.offer(OutboundMessage.line("You are not in " + target));
+                return;
+            }
+            conversation = HistoryIndex.roomConversation(target.substring(1));
+        } else {
+            clientOutputQueue.offer(OutboundMessage.line("Usage: /history @user|#room [count] [beforeId]"));
+            return;
+        }
+
+        int pageSize = limit;
+        historyExecutor.execute(() -> {
+            try {
+                List<LogSegment.LogRecord> page = messageLog.readHistory(conversation, beforeSequence, pageSize);
+                for (LogSegment.LogRecord record : page) {
+                    clientOutputQueue.offer(OutboundMessage.history(record));
+                }
+                long previousPage = page.size() < pageSize ? 0 : page.get(0).sequence;
+                clientOutputQueue.offer(OutboundMessage.line("History end " + target + " " + previousPage));
+            } catch (IOException e) {
+                logger.error("Could not read history for {}: {}", clientNickname, e.getMessage());
+                clientOutputQueue.offer(OutboundMessage.line("History end " + target + " 0"));
+            }
+        });
+    }
+
+    /**
+     * Envía al cliente una página de los mensajes que contienen todas las palabras de la búsqueda, en sus
+     * conversaciones privadas, en las salas donde escribió y en las salas de las que es miembro. Los mensajes se
+     * envían del más reciente al más antiguo y la página termina con la línea "Search end antesDe", donde antesDe es
+     * el valor de {@code before} para pedir la página siguiente, o 0 si no hay más mensajes. La búsqueda se hace en
+     * el hilo del historial.
+     *
+     * @param session La sesión del cliente.
+     * @param arguments Las opciones {@code count=N} y {@code before=ID}, si las hay, seguidas de las palabras.
+     */
+    private void sendSearch(ClientSession session, String arguments) {
+        String clientNickname = session.getNickname();
+        OutboundQueue clientOutputQueue = session.getOutboundQueue();
+        if (messageLog == null || !options.isSearchEnabled()) {
+            clientOutputQueue.offer(OutboundMessage.line("Search is not available."));
+            return;
+        }
+        String[] words = arguments.trim().split("\\s+");
+        int limit = DEFAULT_HISTORY_PAGE;
+        long beforeSequence = 0;
+        int first = 0;
+        try {
+            for (; first < words.length; first++) {
+                if (words[first].startsWith("count=")) {
+                    limit = Integer.parseInt(words[first].substring(6));
+                } else if (words[first].startsWith("before=")) {
+                    beforeSequence = Long.parseLong(words[first].substring(7));
+                } else {
+                    break;
+                }
+            }
+        } catch (NumberFormatException e) {
+            first = words.length;
+        }
+        Set<String> terms = SearchIndex.terms(String.join(" ", Arrays.asList(words).subList(first, words.length)));
+        if (terms.isEmpty() || terms.size() > SearchIndex.MAX_QUERY_TERMS) {
+            clientOutputQueue.offer(OutboundMessage.line("Usage: /search [count=N] [before=ID] words (up to "
+                    + SearchIndex.MAX_QUERY_TERMS + ")"));
+            return;
+        }
+        int pageSize = Math.max(1, Math.min(limit, MAX_HISTORY_PAGE));
+        long before = beforeSequence;
+        List<String> rooms = roomRegistry.roomsOf(session);
+        historyExecutor.execute(() -> {
+            try {
+                MessageLog.SearchPage page = messageLog.search(clientNickname, rooms, terms, before, pageSize);
+                for (LogSegment.LogRecord record : page.records) {
+                    clientOutputQueue.offer(OutboundMessage.searchResult(record));
+                }
+                clientOutputQueue.offer(OutboundMessage.line("Search end " + page.nextBeforeSequence));
+            } catch (IOException e) {
+                logger.error("Could not search for {}: {}", clientNickname, e.getMessage());
+                clientOutputQueue.offer(OutboundMessage.line("Search end 0"));
+            }
+        });
+    }
+
+    /**
+     * Crea la transferencia de un archivo y le responde al emisor "File upload id token puerto", con lo que sube el
+     * archivo por el puerto de transferencias. El destinatario puede estar desconectado: recibe el aviso al
+     * conectarse a este servidor.
+     *
+     * @param clientNickname El apodo del emisor.
+     * @param arguments El destinatario, el tamaño del archivo y su nombre, que puede tener espacios.
+     * @param clientOutputQueue La cola de salida del emisor.
+     */
+    private void requestFileTransfer(String clientNickname, String arguments, OutboundQueue clientOutputQueue) {
+        if (fileTransfers == null) {
+            clientOutputQueue.offer(OutboundMessage.line("File transfer is not available."));
+            return;
+        }
+        String[] parts = arguments.split(" ", 3);
+        long size;
+        try {
+            size = parts.length == 3 ? Long.parseLong(parts[1]) : -1;
+        } catch (NumberFormatException e) {
+            size = -1;
+        }
+        String recipient = parts.length == 3 && parts[0].startsWith("@") ? parts[0].substring(1) : parts[0];
+        String fileName = parts.length == 3 ? parts[2].trim() : "";
+        if (size <= 0 || recipient.isEmpty() || fileName.isEmpty() || hasControlCharacters(fileName)) {
+            clientOutputQueue.offer(OutboundMessage.line("Usage: /send user size name"));
+            return;
+        }
+        if (size > fileTransfers.getMaxBytes()) {
+            clientOutputQueue.offer(OutboundMessage.line("File is too large; the limit is "
+                    + fileTransfers.getMaxBytes() + " bytes."));
+            return;
+        }
+        if (SessionRegistry.keyOf(recipient).equals(SessionRegistry.keyOf(clientNickname))) {
+            clientOutputQueue.offer(OutboundMessage.line("You cannot send a file to yourself."));
+            return;
+        }
+        ClientSession recipientSession = sessionRegistry.get(recipient);
+        String recipientName = recipientSession != null ? recipientSession.getNickname() : recipient;
+        FileTransfer transfer = fileTransfers.create(clientNickname, recipientName, fileName, size);
+        logger.info("Client [{}] is sending file {} to [{}] ({} bytes)", clientNickname, transfer.getId(),
+                recipientName, size);
+        clientOutputQueue.offer(OutboundMessage.line("File upload " + transfer.getId() + " "
+                + transfer.getUploadToken() + " " + fileTransfers.getPort()));
+    }
+
+    // El nombre viaja en una línea del protocolo de texto
+    private static boolean hasControlCharacters(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isISOControl(text.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Avisa al emisor y, si está conectado, al destinatario que el archivo está listo para descargarse
+    private void onFileUploaded(FileTransfer transfer) {
+        ClientSession sender = sessionRegistry.get(transfer.getSender());
+        if (sender != null) {
+            sender.getOutboundQueue().offer(OutboundMessage.line("File sent " + transfer.getId() + " to "
+                    + transfer.getRecipient()));
+        }
+        ClientSession recipient = sessionRegistry.get(transfer.getRecipient());
+        if (recipient != null) {
+            recipient.getOutboundQueue().offer(transfer.offer(fileTransfers.getPort()));
+        }
+    }
+
+    private static String stripRoomPrefix(String roomName) {
+        return roomName.startsWith("#") ? roomName.substring(1) : roomName;
+    }
+
+    /**
+     * Procesa una trama enviada por un cliente del protocolo binario. Los mensajes privados se enrutan leyendo
+     * solo la cabecera de la trama; su cuerpo se reenvía sin decodificarlo.
+     *
+     * @param session La sesión del cliente que envía la trama.
+     * @param frame La trama recibida.
+     * @return Falso si el cliente pidió terminar la conexión; verdadero en caso contrario.
+     */
+    boolean handleClientFrame(ClientSession session, Frame frame) {
+        long start = metrics.startTimer();
+        String clientNickname = session.getNickname();
+        OutboundQueue clientOutputQueue = session.getOutboundQueue();
+        switch (frame.getType()) {
+            case PRIVATE:
+                // El remitente siempre es el apodo de la conexión, no el que venga en la trama
+                ClientSession recipient = sessionRegistry.get(frame.getRecipient());
+                String recipientName = recipient != null ? recipient.getNickname() : frame.getRecipient();
+                sendPrivateMessage(recipient, recipientName,
+                        OutboundMessage.privateMessage(clientNickname, recipientName, frame), clientOutputQueue);
+                metrics.onMessageRouted(start);
+                return true;
+            case ROOM:
+                publishToRoom(session, frame.getRecipient(),
+                        OutboundMessage.roomMessage(clientNickname, frame.getRecipient(), frame));
+                metrics.onMessageRouted(start);
+                return true;
+            case LINE:
+                return handleClientMessage(session, frame.getBodyAsString());
+            case PING:
+                clientOutputQueue.offer(OutboundMessage.pong());
+                return true;
+            case PONG:
+                return true;
+            case BYE:
+                logger.info("Client [{}]: chao", clientNickname);
+                return false;
+            default:
+                logger.info("Client [{}] sent an unexpected {} frame", clientNickname, frame.getType());
+                return true;
+        }
+    }
+
+    /**
+     * Envía un mensaje privado al destinatario indicado y una copia al emisor. Si el destinatario está conectado en
+     * otro nodo del clúster, el mensaje se reenvía a ese nodo. Si no está conectado, el mensaje se guarda en su
+     * buzón, en el nodo del clúster que lo guarda, y el emisor recibe el resultado.
+     *
+     * @param recipient La sesión del destinatario, o null si no está conectado.
+     * @param recipientNickname El apodo del destinatario.
+     * @param privateMessage El mensaje a enviar.
+     * @param senderQueue La cola de salida del emisor utilizada para enviar mensajes al propio emisor.
+     */
+    private void sendPrivateMessage(ClientSession recipient, String recipientNickname, OutboundMessage privateMessage,
+                                    OutboundQueue senderQueue) {
+        if (!privateMessage.fitsInFrame()) {
+            senderQueue.offer(OutboundMessage.line("Message too long; it was not sent."));
+            return;
+        }
+        if (recipient != null) {
+            OutboundQueue recipientQueue = recipient.getOutboundQueue();
+            logAndDeliver(privateMessage, senderQueue, () -> {
+                recipientQueue.offer(privateMessage);
+                senderQueue.offer(privateMessage);
+            });
+            return;
+        }
+        String remoteNode = clusterNode == null ? null : clusterNode.remoteNodeOf(recipientNickname);
+        if (remoteNode != null) {
+            logAndDeliver(privateMessage, senderQueue, () -> {
+                clusterNode.forward(remoteNode, privateMessage);
+                senderQueue.offer(privateMessage);
+            });
+        } else if (mailboxStore != null) {
+            String mailboxNode = clusterNode == null ? null : clusterNode.remoteMailboxNodeOf(recipientNickname);
+            if (mailboxNode != null) {
+                // El buzón del destinatario lo guarda otro nodo, que le responde al emisor
+                logAndDeliver(privateMessage, senderQueue, () -> clusterNode.forward(mailboxNode, privateMessage));
+            } else {
+                logAndDeliver(privateMessage, senderQueue, () -> mailboxStore.store(privateMessage,
+                        line -> senderQueue.offer(OutboundMessage.line(line)),
+                        () -> deliverMailbox(recipientNickname)));
+            }
+        } else {
+            senderQueue.offer(OutboundMessage.line("User " + recipientNickname + " is not connected."));
+        }
+    }
+
+    /**
+     * Publica un mensaje en una sala. El mismo mensaje se encola para todos los miembros, incluido el emisor.
+     *
+     * @param session La sesión del emisor; su cola de salida recibe el error si no es miembro de la sala.
+     * @param roomName El nombre de la sala.
+     * @param roomMessage El mensaje a publicar.
+     */
+    private void publishToRoom(ClientSession session, String roomName, OutboundMessage roomMessage) {
+        if (!roomMessage.fitsInFrame()) {
+            session.getOutboundQueue().offer(OutboundMessage.line("Message too long; it was not sent."));
+            return;
+        }
+        if (!roomRegistry.isMember(session, roomName)) {
+            session.getOutboundQueue().offer(OutboundMessage.line("You are not in #" + roomName));
+            return;
+        }
+        logAndDeliver(roomMessage, session.getOutboundQueue(), () -> roomRegistry.publish(session, roomName, roomMessage));
+    }
+
+    /**
+     * Audita un mensaje, lo agrega al registro, si está habilitado, y lo entrega. Según la durabilidad del registro,
+     * la entrega se hace de inmediato o después de que el mensaje llegue al disco. Si el registro rechaza el mensaje,
+     * no se entrega y el emisor recibe el error.
+     *
+     * @param message El mensaje enrutado.
+     * @param senderQueue La cola de salida del emisor, que recibe el error si el mensaje no se pudo registrar.
+     * @param delivery Encola el mensaje para sus destinatarios.
+     */
+    private void logAndDeliver(OutboundMessage message, OutboundQueue senderQueue, Runnable delivery) {
+        if (messageLog != null && messageLog.append(message, delivery) < 0) {
+            senderQueue.offer(OutboundMessage.line("Could not save your message; it was not delivered."));
+            return;
+        }
+        messageAudit.record(message);
+        if (messageLog == null) {
+            delivery.run();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,100 @@
+package co.edu.poli.persistencia.chat.server;
+
+/**
+ * La clase ClientHello representa el saludo con el que un cliente se registra: su apodo y, si se está reconectando,
+ * el token de la sesión que quiere reanudar y la secuencia del último mensaje que recibió.
+ * <p>
+ * En el protocolo de texto el saludo es la primera línea: el apodo, o "/resume apodo token secuencia". En el binario
+ * es la trama {@link FrameType#HELLO}, cuyo remitente es el apodo y cuyo cuerpo, si no está vacío, es
+ * "token secuencia".
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+final class ClientHello {
+
+    private static final String RESUME_COMMAND = "/resume ";
+
+    private final String nickname;
+
+    private final String token;
+
+    private final long acknowledgedSequence;
+
+    private ClientHello(String nickname, String token, long acknowledgedSequence) {
+        this.nickname = nickname;
+        this.token = token;
+        this.acknowledgedSequence = acknowledgedSequence;
+    }
+
+    /**
+     * Crea el saludo de un cliente que inicia una sesión nueva.
+     *
+     * @param nickname el apodo solicitado.
+     * @return el saludo.
+     */
+    static ClientHello of(String nickname) {
+        return new ClientHello(nickname, null, 0);
+    }
+
+    /**
+     * Lee el saludo del protocolo de texto.
+     *
+     * @param line la primera línea del cliente.
+     * @return el saludo; si la línea no es una reanudación válida, toda la línea es el apodo.
+     */
+    static ClientHello fromLine(String line) {
+        if (line.startsWith(RESUME_COMMAND)) {
+            String[] parts = line.substring(RESUME_COMMAND.length()).split(" ");
+            if (parts.length == 3) {
+                ClientHello hello = resume(parts[0], parts[1], parts[2]);
+                if (hello != null) {
+                    return hello;
+                }
+            }
+        }
+        return of(line);
+    }
+
+    /**
+     * Lee el saludo del protocolo binario.
+     *
+     * @param frame la trama {@link FrameType#HELLO}.
+     * @return el saludo; si el cuerpo no es una reanudación válida, se inicia una sesión nueva.
+     */
+    static ClientHello fromFrame(Frame frame) {
+        String[] parts = frame.getBodyAsString().split(" ");
+        ClientHello hello = parts.length == 2 ? resume(frame.getSender(), parts[0], parts[1]) : null;
+        return hello != null ? hello : of(frame.getSender());
+    }
+
+    private static ClientHello resume(String nickname, String token, String sequence) {
+        try {
+            return new ClientHello(nickname, token, Long.parseLong(sequence));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return el apodo solicitado.
+     */
+    String getNickname() {
+        return nickname;
+    }
+
+    /**
+     * @return el token de la sesión a reanudar, o null si el cliente inicia una sesión nueva.
+     */
+    String getToken() {
+        return token;
+    }
+
+    /**
+     * @return la secuencia del último mensaje que el cliente recibió en la sesión a reanudar.
+     */
+    long getAcknowledgedSequence() {
+        return acknowledgedSequence;
+    }
+}
\ No newline at end of file
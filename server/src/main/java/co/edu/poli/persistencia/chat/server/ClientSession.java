@@ -0,0 +1,66 @@
+package co.edu.poli.persistencia.chat.server;
+
+/**
+ * La clase ClientSession representa la conexión de un usuario registrado con un apodo: el apodo tal como lo
+ * escribió el usuario, su cola de salida y cómo cerrar la conexión.
+ * <p>
+ * Cada conexión registrada tiene su propia sesión, aunque reutilice el apodo de una conexión anterior. Las sesiones se
+ * comparan por identidad, así la salida de una sesión vieja nunca borra a la sesión nueva del mismo apodo.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+final class ClientSession {
+
+    private final String nickname;
+
+    private final String key;
+
+    private final OutboundQueue outboundQueue;
+
+    private final Runnable closer;
+
+    /**
+     * Crea la sesión de un usuario.
+     *
+     * @param nickname el apodo del usuario, tal como lo escribió.
+     * @param key la clave del apodo en el registro, sin distinguir mayúsculas.
+     * @param outboundQueue la cola de salida del usuario.
+     * @param closer cierra la conexión del usuario sin bloquearse.
+     */
+    ClientSession(String nickname, String key, OutboundQueue outboundQueue, Runnable closer) {
+        this.nickname = nickname;
+        this.key = key;
+        this.outboundQueue = outboundQueue;
+        this.closer = closer;
+    }
+
+    /**
+     * @return el apodo del usuario, tal como lo escribió al conectarse.
+     */
+    String getNickname() {
+        return nickname;
+    }
+
+    /**
+     * @return la clave del apodo en el registro de sesiones.
+     */
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * @return la cola de salida del usuario.
+     */
+    OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    /**
+     * Cierra la conexión del usuario, por ejemplo porque el mismo usuario reanudó su sesión desde otra conexión.
+     */
+    void close() {
+        closer.run();
+    }
+}
\ No newline at end of file
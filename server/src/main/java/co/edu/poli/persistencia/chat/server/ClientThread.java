@@ -1,175 +1,353 @@
 package co.edu.poli.persistencia.chat.server;
 
-import org.apache.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
- * La clase ClientThread representa un hilo de cliente que maneja la comunicación entre el servidor y un solo cliente.
+ * La clase ClientThread representa la tarea que maneja la comunicación entre el servidor y un solo cliente.
+ * El servidor la ejecuta en un hilo de plataforma o en un hilo virtual, según el motor elegido.
+ * <p>
+ * La tarea lee las líneas del cliente; los mensajes hacia el cliente pasan por su {@link OutboundQueue} y los
+ * escribe una segunda tarea, de modo que un cliente lento solo se detiene a sí mismo.
  *
  * @author Autor
  * @version 1.0
  * @since 2023.11.06
  */
-class ClientThread extends Thread {
+class ClientThread implements Runnable {
 
-    private static final Logger logger = Logger.getLogger(ClientThread.class);
+    private static final Logger logger = LogManager.getLogger(ClientThread.class);
+
+    // Tiempo máximo que se espera a que el escritor envíe los mensajes pendientes al cerrar la conexión
+    private static final long WRITER_LINGER_SECONDS = 5;
+
+    private static final int READ_BUFFER_SIZE = 4 * 1024;
 
     // La conexión del cliente
     private final Socket clientSocket;
 
-    // La lista de clientes activos con su respectiva capa de escritura
-    // PrintWriter se utiliza para enviar mensajes a los clientes conectados al servidor en una aplicación de chat de múltiples hilos.
-    private final ConcurrentHashMap<String, PrintWriter> activeClientsWriters;
+    // El estado compartido del chat y la lógica del protocolo común a todos los motores
+    private final ChatRouter router;
+
+    // El ejecutor en el que corre la tarea que escribe los mensajes de la cola de salida
+    private final ExecutorService writerExecutor;
+
+    // La cola de mensajes pendientes por enviar al cliente
+    private final OutboundQueue clientOutputQueue;
+
+    // Registra la actividad de la conexión; si el cliente deja de enviar datos, la rueda de tiempo cierra el socket
+    private final HeartbeatMonitor.Heartbeat heartbeat;
 
-    private String clientNickname;
+    // Limita los mensajes del cliente; solo lo usa el hilo de esta tarea
+    private final RateLimiter rateLimiter;
+
+    // La sesión del cliente, o null mientras no se haya registrado con un apodo libre
+    private ClientSession session;
 
     /**
      * Inicializa una nueva instancia de la clase ClientThread.
      *
      * @param clientSocket El socket del cliente.
-     * @param activeClientsWriters Un ConcurrentHashMap en el que la clave representa el nombre de usuario
-     * y el valor el PrintWriter asociado a ese usuario.
+     * @param router El enrutador que mantiene a los clientes activos.
+     * @param writerExecutor El ejecutor en el que corre el escritor de la cola de salida.
      */
-    public ClientThread(Socket clientSocket, ConcurrentHashMap<String, PrintWriter> activeClientsWriters) {
+    public ClientThread(Socket clientSocket, ChatRouter router, ExecutorService writerExecutor) {
         this.clientSocket = clientSocket;
-        this.activeClientsWriters = activeClientsWriters;
+        this.router = router;
+        this.writerExecutor = writerExecutor;
+        this.clientOutputQueue = router.createOutboundQueue(() -> { }, this::closeSocket);
+        this.heartbeat = router.watchConnection(clientOutputQueue, this::closeSocket);
+        this.rateLimiter = router.createRateLimiter(clientOutputQueue);
     }
 
     /**
-     * Es invocado cuando se inicia un nuevo hilo de ejecución.
+     * Es invocado cuando el ejecutor del servidor inicia la tarea del cliente.
      */
     @Override
     public void run() {
+        Future<?> writer = null;
         try {
+            writer = writerExecutor.submit(this::writeOutboundMessages);
             processClient();
         } catch (IOException e) {
-            logger.info("An error occurred: " + e.getMessage());
+            logger.info("An error occurred: {}", e.getMessage());
         } finally {
             // Cierra el cliente y notifica a los demás clientes
-            if (clientNickname != null) {
-                activeClientsWriters.remove(clientNickname);
-            }
-            try {
-                clientSocket.close();
-            } catch (IOException ignored) {
-            }
-
-            sendActiveUsersToAllClients();
+            heartbeat.stop();
+            router.removeClient(session);
+            clientOutputQueue.close();
+            awaitWriter(writer);
+            closeSocket();
+            router.connectionClosed();
         }
     }
 
     /**
-     * Procesa la comunicación con el cliente.
+     * Procesa la comunicación con el cliente. Los primeros bytes indican el protocolo: el preámbulo binario
+     * ({@link Frame#PREAMBLE}) o, en el protocolo de texto, la línea con el apodo.
      *
      * @throws IOException Si ocurre un error de entrada/salida durante la comunicación con el cliente.
      */
     private void processClient() throws IOException {
-        // Creando las capas de escritura y lectura para el cliente
-        try (BufferedReader clientInputReader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-             PrintWriter clientOutputWriter = new PrintWriter(clientSocket.getOutputStream(), true)) {
+        // Creando la capa de lectura para el cliente. No se cierra aquí: cerrarla cerraría el socket antes de que
+        // el escritor envíe los mensajes pendientes; el socket se cierra en run()
+        BufferedInputStream clientInputStream = new BufferedInputStream(
+                new CountingInputStream(clientSocket.getInputStream(), router.getMetrics(), heartbeat));
 
-            // Inicializando el nickname del cliente
-            clientNickname = clientInputReader.readLine();
+        clientInputStream.mark(1);
+        int firstByte = clientInputStream.read();
+        if (firstByte < 0) return;
+        clientInputStream.reset();
 
-            // Esta parte se encarga de verificar si el nickname ya está en uso
-            if (isNicknameInUse(clientOutputWriter)) return;
-
-            // Inicio del ciclo que maneja los mensajes del cliente
-            handleClientMessage(clientInputReader, clientOutputWriter);
+        if (firstByte == Frame.PREAMBLE[0]) {
+            processBinaryClient(new DataInputStream(clientInputStream));
+        } else {
+            processTextClient(new LineReader(clientInputStream));
         }
     }
 
     /**
-     * Chequea si un apodo se encuentra actualmente en uso.
+     * Procesa la comunicación con un cliente del protocolo de texto.
      *
-     * @param clientOutputWriter Es utilizado para enviar mensajes al cliente.
-     * @return Verdadero si el apodo está en uso; falso en caso contrario.
+     * @param clientInputReader El lector de líneas del cliente.
+     * @throws IOException Si ocurre un error de entrada/salida durante la comunicación con el cliente.
      */
-    private boolean isNicknameInUse(PrintWriter clientOutputWriter) {
-        synchronized (activeClientsWriters) {
-            if (activeClientsWriters.containsKey(clientNickname)) {
-                clientOutputWriter.println("Nickname already in use. Disconnecting...");
-                return true;
-            } else {
-                activeClientsWriters.put(clientNickname, clientOutputWriter);
-                sendActiveUsersToAllClients();
+    private void processTextClient(LineReader clientInputReader) throws IOException {
+        // Inicializando el nickname del cliente; la primera línea también puede reanudar una sesión
+        String helloLine = clientInputReader.readLine();
+        if (helloLine == null) return;
+        ClientHello hello = ClientHello.fromLine(helloLine);
+
+        // Esta parte se encarga de verificar si el nickname ya está en uso
+        session = router.registerClient(hello, clientOutputQueue, this::closeSocket);
+        if (session == null) return;
+
+        // Inicio del ciclo que maneja los mensajes del cliente
+        handleClientMessage(clientInputReader);
+    }
+
+    /**
+     * Procesa la comunicación con un cliente del protocolo binario.
+     *
+     * @param clientInputStream El flujo de entrada del cliente, posicionado al inicio del preámbulo.
+     * @throws IOException Si ocurre un error de entrada/salida o el cliente envía una trama mal formada.
+     */
+    private void processBinaryClient(DataInputStream clientInputStream) throws IOException {
+        byte[] preamble = new byte[Frame.PREAMBLE.length];
+        clientInputStream.readFully(preamble);
+        Frame.checkPreamble(preamble, 0);
+
+        // La primera trama debe ser el saludo con el nickname del cliente
+        Frame helloFrame = readFrame(clientInputStream);
+        if (helloFrame == null) return;
+        if (helloFrame.getType() != FrameType.HELLO) {
+            throw new IOException("Expected HELLO frame but got " + helloFrame.getType());
+        }
+        ClientHello hello = ClientHello.fromFrame(helloFrame);
+        clientOutputQueue.setWireFormat(WireFormat.BINARY);
+        clientOutputQueue.offer(OutboundMessage.handshake());
+
+        // Esta parte se encarga de verificar si el nickname ya está en uso
+        session = router.registerClient(hello, clientOutputQueue, this::closeSocket);
+        if (session == null) return;
+
+        // Inicio del ciclo que maneja las tramas del cliente
+        Frame frame;
+        while ((frame = readFrame(clientInputStream)) != null) {
+            if (!rateLimiter.tryAcquire(frame)) {
+                continue; // la trama se descarta; el limitador ya avisó al cliente
+            }
+            if (!router.handleClientFrame(session, frame)) {
+                break; // salir del bucle y terminar la conexión
             }
         }
-        return false;
+    }
+
+    /**
+     * Lee una trama completa del cliente.
+     *
+     * @param clientInputStream El flujo de entrada del cliente.
+     * @return la trama leída, o null si el cliente cerró la conexión.
+     * @throws IOException Si ocurre un error de entrada/salida o la trama está mal formada.
+     */
+    private Frame readFrame(DataInputStream clientInputStream) throws IOException {
+        int length;
+        try {
+            length = clientInputStream.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        Frame.checkLength(length);
+        byte[] frameBytes = new byte[length];
+        clientInputStream.readFully(frameBytes);
+        return Frame.decode(frameBytes, 0, length);
     }
 
     /**
      * Recibe los mensajes del cliente.
      *
-     * @param clientInputReader El BufferedReader del cliente.
-     * @param clientOutputWriter El PrintWriter del cliente.
-     * @throws IOException si se presenta un error al leer desde cliente.
+     * @param clientInputReader El lector de líneas del cliente.
+     * @throws IOException si se presenta un error al leer desde cliente o una línea supera la longitud máxima.
      */
-    private void handleClientMessage(BufferedReader clientInputReader, PrintWriter clientOutputWriter) throws IOException {
+    private void handleClientMessage(LineReader clientInputReader) throws IOException {
         String clientMessage;
         while ((clientMessage = clientInputReader.readLine()) != null) {
-            logger.info("Client [" + clientNickname + "]: " + clientMessage);
-            if (clientMessage.equalsIgnoreCase("chao")) {
+            if (!rateLimiter.tryAcquire(clientMessage, clientInputReader.lastLineLength())) {
+                continue; // el mensaje se descarta; el limitador ya avisó al cliente
+            }
+            if (!router.handleClientMessage(session, clientMessage)) {
                 break; // salir del bucle y terminar la conexión
-            } else if (clientMessage.startsWith("@")) {
-                if (clientMessage.split(":")[1].trim().equalsIgnoreCase("chao")) {
-                    break;
-                } else {
-                    sendPrivateMessage(clientNickname, clientMessage, clientOutputWriter);
+            }
+        }
+    }
+
+    /**
+     * Escribe en el socket los mensajes de la cola de salida hasta que la cola se cierra.
+     * Solo se hace flush cuando la cola queda vacía, así una ráfaga de mensajes sale en pocas escrituras.
+     */
+    private void writeOutboundMessages() {
+        try {
+            OutputStream clientOutputStream = new BufferedOutputStream(clientSocket.getOutputStream());
+            OutboundMessage message;
+            while ((message = clientOutputQueue.take()) != null) {
+                byte[] bytes = message.getBytes(clientOutputQueue.getWireFormat());
+                clientOutputStream.write(bytes);
+                router.getMetrics().onBytesOut(bytes.length);
+                if (clientOutputQueue.isEmpty()) {
+                    clientOutputStream.flush();
                 }
             }
+            clientOutputStream.flush();
+        } catch (IOException | InterruptedException e) {
+            // El cliente dejó de recibir: se cierra el socket para que el lector también termine
+            clientOutputQueue.discard();
+            closeSocket();
+        }
+    }
+
+    private void awaitWriter(Future<?> writer) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.get(WRITER_LINGER_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            clientOutputQueue.discard();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
     /**
-     * Envía a todos los clientes la lista de usuarios activos.
+     * Lee las líneas del protocolo de texto con un límite de longitud, igual que el motor NIO: a diferencia de
+     * BufferedReader.readLine(), una línea demasiado larga termina la conexión en lugar de acumularse completa en
+     * memoria antes de llegar al limitador.
      */
-    private void sendActiveUsersToAllClients() {
-        // Crear un StringBuilder para construir la cadena que contendrá la lista de usuarios activos
-        StringBuilder activeUsersList = new StringBuilder("Active Users: ");
+    private static final class LineReader {
+
+        private final InputStream in;
+
+        private final LineDecoder lineDecoder = new LineDecoder(LineDecoder.MAX_LINE_LENGTH);
+
+        private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+
+        // Líneas completas decodificadas que aún no se han entregado, y sus longitudes en bytes
+        private final ArrayDeque<String> lines = new ArrayDeque<>();
+        private final ArrayDeque<Integer> lengths = new ArrayDeque<>();
+
+        // Longitud en bytes de la última línea entregada
+        private int lastLineLength;
 
-        // Iterar sobre el conjunto de nombres de usuarios en activeClientsWriters
-        for (String activeUserNickname : activeClientsWriters.keySet()) {
-            // Añadir cada nombre de usuario y una coma a la cadena activeUsersList
-            activeUsersList.append(activeUserNickname).append(", ");
+        LineReader(InputStream in) {
+            this.in = in;
         }
 
-        // Si activeClientsWriters no está vacío, entonces habríamos añadido algunas comas adicionales al final de activeUsersList
-        // Por lo tanto, eliminamos los dos últimos caracteres de activeUsersList
-        if (!activeClientsWriters.isEmpty()) {
-            activeUsersList.delete(activeUsersList.length() - 2, activeUsersList.length());
+        /**
+         * @return la siguiente línea sin el separador, o null si el cliente cerró la conexión.
+         * @throws IOException si ocurre un error de lectura o la línea supera la longitud máxima.
+         */
+        String readLine() throws IOException {
+            while (lines.isEmpty()) {
+                int read = in.read(readBuffer);
+                if (read < 0) {
+                    return null;
+                }
+                lineDecoder.decode(ByteBuffer.wrap(readBuffer, 0, read), (line, length) -> {
+                    lines.add(line);
+                    lengths.add(length);
+                    return true;
+                });
+            }
+            lastLineLength = lengths.poll();
+            return lines.poll();
         }
 
-        // Iterar sobre todos los PrintWriter en los valores de activeClientsWriters
-        for (PrintWriter clientWriter : activeClientsWriters.values()) {
-            // Para cada PrintWriter (que probablemente se utilice para enviar mensajes a un cliente), llamamos a su método println
-            // para enviar la cadena activeUsersList a ese cliente
-            clientWriter.println(activeUsersList);
+        /**
+         * @return los bytes en UTF-8 de la última línea que devolvió {@link #readLine()}, sin el separador.
+         */
+        int lastLineLength() {
+            return lastLineLength;
         }
     }
 
     /**
-     * Envía un mensaje privado desde el emisor al destinatario indicado.
-     *
-     * @param senderNickname El apodo del emisor.
-     * @param message El mensaje a enviar (en el formato "@username: mensaje").
-     * @param senderWriter El PrintWriter del emisor utilizado para enviar mensajes al propio emisor.
+     * Cuenta en las métricas del servidor los bytes leídos del socket y registra la actividad de la conexión. Se
+     * ubica debajo del BufferedInputStream, así se actualiza una vez por lectura del socket y no por cada byte.
      */
-    private void sendPrivateMessage(String senderNickname, String message, PrintWriter senderWriter) {
-        String[] messageParts = message.split(":", 2);
-        String recipientNickname = messageParts[0].substring(1);
-
-        // La verificación de que el usuario al que se desea enviar el mensaje existe
-        if (messageParts.length > 1 && activeClientsWriters.containsKey(recipientNickname)) {
-            String privateMessage = "[" + senderNickname + "(Private)]: " + messageParts[1];
-            activeClientsWriters.get(recipientNickname).println(privateMessage);
-            senderWriter.println(privateMessage);
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private final ServerMetrics metrics;
+
+        private final HeartbeatMonitor.Heartbeat heartbeat;
+
+        CountingInputStream(InputStream in, ServerMetrics metrics, HeartbeatMonitor.Heartbeat heartbeat) {
+            super(in);
+            this.metrics = metrics;
+            this.heartbeat = heartbeat;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                metrics.onBytesIn(1);
+                heartbeat.touch();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                metrics.onBytesIn(read);
+                heartbeat.touch();
+            }
+            return read;
+        }
+    }
+
+    private void closeSocket() {
+        try {
+            clientSocket.close();
+        } catch (IOException ignored) {
         }
     }
 }
\ No newline at end of file
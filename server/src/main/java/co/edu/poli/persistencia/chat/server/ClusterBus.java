@@ -0,0 +1,99 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.util.Collection;
+
+/**
+ * La interfaz ClusterBus conecta a los nodos de un clúster de servidores de chat. Tiene dos partes:
+ * <ul>
+ *     <li>El directorio del clúster, que asigna cada apodo al nodo donde está conectado el usuario. Un apodo se
+ *     reclama de forma atómica: a lo sumo un nodo lo tiene a la vez.</li>
+ *     <li>El transporte de tramas ({@link Frame}) entre nodos: mensajes privados para usuarios remotos y avisos de
+ *     presencia. Las tramas de un nodo a otro llegan en el orden en que se enviaron.</li>
+ * </ul>
+ * Las implementaciones deben ser seguras para usarse desde varios hilos. {@link LocalClusterBus} conecta nodos que
+ * corren en la misma JVM.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+public interface ClusterBus {
+
+    /**
+     * Recibe las tramas que otros nodos le envían a un nodo.
+     */
+    interface Listener {
+        /**
+         * Se invoca con cada trama recibida, en el orden en que la envió cada nodo.
+         *
+         * @param frame los bytes de la trama, con su prefijo de longitud.
+         */
+        void onFrame(byte[] frame);
+    }
+
+    /**
+     * Agrega un nodo al clúster.
+     *
+     * @param nodeId el identificador del nodo, único en el clúster.
+     * @param listener recibe las tramas dirigidas al nodo.
+     */
+    void join(String nodeId, Listener listener);
+
+    /**
+     * Saca a un nodo del clúster y libera los apodos que tenía. Los demás nodos reciben el aviso de presencia de
+     * cada apodo liberado.
+     *
+     * @param nodeId el identificador del nodo.
+     */
+    void leave(String nodeId);
+
+    /**
+     * @return los identificadores de los nodos que forman parte del clúster.
+     */
+    Collection<String> nodeIds();
+
+    /**
+     * Reclama un apodo para un nodo.
+     *
+     * @param key la clave del apodo, sin distinguir mayúsculas.
+     * @param nickname el apodo tal como lo escribió el usuario.
+     * @param nodeId el nodo donde está conectado el usuario.
+     * @return verdadero si el apodo quedó asignado al nodo; falso si otro nodo ya lo tiene.
+     */
+    boolean claim(String key, String nickname, String nodeId);
+
+    /**
+     * Libera un apodo, solo si sigue asignado al nodo indicado.
+     *
+     * @param key la clave del apodo.
+     * @param nodeId el nodo que lo tenía.
+     */
+    void release(String key, String nodeId);
+
+    /**
+     * @param key la clave de un apodo.
+     * @return el nodo donde está conectado el usuario, o null si no está conectado en el clúster.
+     */
+    String ownerOf(String key);
+
+    /**
+     * @return los apodos conectados en todo el clúster.
+     */
+    Collection<String> nicknames();
+
+    /**
+     * Envía una trama a un nodo.
+     *
+     * @param nodeId el nodo de destino.
+     * @param frame los bytes de la trama, con su prefijo de longitud.
+     */
+    void send(String nodeId, byte[] frame);
+
+    /**
+     * Envía una trama a todos los nodos, menos al que la envía.
+     *
+     * @param fromNodeId el nodo que envía la trama.
+     * @param frame los bytes de la trama, con su prefijo de longitud.
+     */
+    void broadcast(String fromNodeId, byte[] frame);
+}
\ No newline at end of file
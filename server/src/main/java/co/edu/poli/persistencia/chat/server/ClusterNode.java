@@ -0,0 +1,435 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/**
+ * La clase ClusterNode es la parte de un {@link ChatRouter} que habla con los demás nodos del clúster por medio de un
+ * {@link ClusterBus}: reclama en el directorio los apodos de los usuarios locales, reenvía los mensajes privados para
+ * usuarios de otros nodos y avisa los cambios de presencia.
+ * <p>
+ * El buzón de un usuario desconectado lo guarda un solo nodo, elegido con un hash de rendezvous de la clave del apodo
+ * sobre los nodos del clúster: todos los nodos eligen el mismo sin coordinarse. Si los nodos del clúster cambian,
+ * los mensajes ya guardados se quedan en el nodo que los guardó hasta que el usuario se conecte a él.
+ * <p>
+ * Los mensajes entre nodos son tramas del protocolo binario ({@link Frame}):
+ * <ul>
+ *     <li>{@link FrameType#PRIVATE}: un mensaje privado, con el remitente y el destinatario.</li>
+ *     <li>{@link FrameType#LINE}: una respuesta del servidor para el usuario indicado como destinatario.</li>
+ *     <li>{@link FrameType#MAILBOX}: un usuario se conectó en el nodo indicado como destinatario y le pide su buzón
+ *     al nodo que lo guarda.</li>
+ *     <li>{@link FrameType#MAILBOX_CHUNK} y {@link FrameType#MAILBOX_ACK}: una parte del buzón y su confirmación. El
+ *     nodo que guarda el buzón envía la parte siguiente, y lo acorta, solo después de saber cuántos mensajes de la
+ *     anterior quedaron en la cola del usuario.</li>
+ *     <li>{@link FrameType#PRESENCE_CHANGES}: el apodo de un usuario que se conectó o se desconectó. El aviso no dice
+ *     cuál de las dos cosas pasó: quien lo recibe lo consulta en el directorio, así los avisos que llegan en
+ *     desorden desde distintos nodos siempre terminan en el estado del directorio.</li>
+ * </ul>
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+final class ClusterNode implements ClusterBus.Listener {
+
+    private static final Logger logger = LogManager.getLogger(ClusterNode.class);
+
+    private final ClusterBus bus;
+
+    private final String nodeId;
+
+    private final ChatRouter router;
+
+    // Número de la próxima parte de buzón que envía este nodo
+    private final AtomicLong nextChunkId = new AtomicLong();
+
+    // La parte de buzón que espera confirmación, por clave de apodo; cada usuario recibe una entrega a la vez
+    private final ConcurrentHashMap<String, PendingChunk> pendingChunks = new ConcurrentHashMap<>();
+
+    // Una parte de buzón enviada a otro nodo: su número, su destino y quien espera la cantidad de mensajes aceptados
+    private static final class PendingChunk {
+        final long id;
+        final RemoteRecipient recipient;
+        final IntConsumer accepted;
+
+        PendingChunk(long id, RemoteRecipient recipient, IntConsumer accepted) {
+            this.id = id;
+            this.recipient = recipient;
+            this.accepted = accepted;
+        }
+    }
+
+    // El destino de la entrega de un buzón a un usuario conectado en otro nodo. Cada confirmación dice si la cola
+    // del usuario tiene espacio para otra parte; mientras no lo tenga, cada consulta de espacio envía una parte
+    // vacía, a lo sumo una a la vez, cuya confirmación vuelve a informarlo
+    private final class RemoteRecipient implements MailboxStore.Recipient {
+        final String targetNodeId;
+        final String nickname;
+        final String key;
+        volatile boolean capacity = true;
+        final AtomicBoolean probing = new AtomicBoolean();
+
+        RemoteRecipient(String targetNodeId, String nickname) {
+            this.targetNodeId = targetNodeId;
+            this.nickname = nickname;
+            this.key = SessionRegistry.keyOf(nickname);
+        }
+
+        @Override
+        public boolean isClosed() {
+            return !targetNodeId.equals(bus.ownerOf(key));
+        }
+
+        @Override
+        public boolean hasCapacityFor(int messageCount, long byteCount) {
+            if (capacity) {
+                return true;
+            }
+            if (probing.compareAndSet(false, true)) {
+                offerChunk(this, List.of(), 0, accepted -> probing.set(false));
+            }
+            return false;
+        }
+
+        @Override
+        public void offer(List<OutboundMessage> messages, IntConsumer accepted) {
+            if (messages.isEmpty()) {
+                accepted.accept(0);
+            } else {
+                offerChunk(this, messages, 0, accepted);
+            }
+        }
+    }
+
+    /**
+     * Crea la parte del clúster de un enrutador. El nodo se une al clúster con {@link #start()}.
+     *
+     * @param bus el bus del clúster.
+     * @param nodeId el identificador del nodo, único en el clúster.
+     * @param router el enrutador del nodo, que recibe los mensajes de los demás nodos.
+     */
+    ClusterNode(ClusterBus bus, String nodeId, ChatRouter router) {
+        this.bus = bus;
+        this.nodeId = nodeId;
+        this.router = router;
+    }
+
+    /**
+     * Crea el aviso de presencia de un apodo.
+     *
+     * @param nickname el apodo que se conectó o se desconectó.
+     * @return los bytes de la trama.
+     */
+    static byte[] presenceFrame(String nickname) {
+        byte[] body = nickname.getBytes(StandardCharsets.UTF_8);
+        return Frame.encode(FrameType.PRESENCE_CHANGES, null, null, body, 0, body.length);
+    }
+
+    /**
+     * Une el nodo al clúster; desde aquí recibe las tramas de los demás nodos.
+     */
+    void start() {
+        bus.join(nodeId, this);
+    }
+
+    /**
+     * Saca el nodo del clúster y libera los apodos de sus usuarios.
+     */
+    void stop() {
+        bus.leave(nodeId);
+    }
+
+    /**
+     * @return el identificador del nodo.
+     */
+    String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Reclama en el directorio del clúster el apodo de una sesión local.
+     *
+     * @param session la sesión recién registrada en el nodo.
+     * @return verdadero si el apodo quedó asignado al nodo; falso si está en uso en otro nodo.
+     */
+    boolean claim(ClientSession session) {
+        return bus.claim(session.getKey(), session.getNickname(), nodeId);
+    }
+
+    /**
+     * Libera en el directorio del clúster el apodo de una sesión local.
+     *
+     * @param session la sesión que termina.
+     */
+    void release(ClientSession session) {
+        bus.release(session.getKey(), nodeId);
+    }
+
+    /**
+     * Avisa a los demás nodos que un usuario local se conectó o se desconectó. Debe llamarse después de actualizar
+     * el directorio.
+     *
+     * @param nickname el apodo del usuario.
+     */
+    void announce(String nickname) {
+        bus.broadcast(nodeId, presenceFrame(nickname));
+    }
+
+    /**
+     * Busca el nodo de un usuario que no está conectado en este nodo.
+     *
+     * @param nickname el apodo, sin importar mayúsculas.
+     * @return el nodo donde está conectado el usuario, o null si no está conectado en otro nodo.
+     */
+    String remoteNodeOf(String nickname) {
+        String owner = bus.ownerOf(SessionRegistry.keyOf(nickname));
+        return owner == null || owner.equals(nodeId) ? null : owner;
+    }
+
+    /**
+     * Busca el nodo que guarda el buzón de un usuario, si no es este nodo. Cada nodo tiene un peso para la clave del
+     * apodo, y el buzón lo guarda el de mayor peso.
+     *
+     * @param nickname el apodo, sin importar mayúsculas.
+     * @return el nodo que guarda el buzón del usuario, o null si lo guarda este nodo.
+     */
+    String remoteMailboxNodeOf(String nickname) {
+        String key = SessionRegistry.keyOf(nickname);
+        String owner = nodeId;
+        long ownerWeight = weight(nodeId, key);
+        for (String candidate : bus.nodeIds()) {
+            long candidateWeight = weight(candidate, key);
+            if (candidateWeight > ownerWeight || candidateWeight == ownerWeight && candidate.compareTo(owner) < 0) {
+                owner = candidate;
+                ownerWeight = candidateWeight;
+            }
+        }
+        return owner.equals(nodeId) ? null : owner;
+    }
+
+    // El peso de un nodo para una clave: String.hashCode es el mismo en todas las JVM, y la mezcla de 64 bits
+    // (la de MurmurHash3) reparte las claves entre los nodos de forma pareja
+    private static long weight(String candidateNodeId, String key) {
+        long hash = ((long) candidateNodeId.hashCode() << 32) ^ (key.hashCode() & 0xFFFFFFFFL);
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * @param nickname un apodo.
+     * @return verdadero si el usuario está conectado en algún nodo del clúster.
+     */
+    boolean isConnected(String nickname) {
+        return bus.ownerOf(SessionRegistry.keyOf(nickname)) != null;
+    }
+
+    /**
+     * @return los apodos conectados en todo el clúster.
+     */
+    Collection<String> nicknames() {
+        return bus.nicknames();
+    }
+
+    /**
+     * Reenvía un mensaje privado al nodo de su destinatario. El cuerpo se copia sin volver a codificarlo.
+     *
+     * @param targetNodeId el nodo del destinatario.
+     * @param message el mensaje privado.
+     */
+    void forward(String targetNodeId, OutboundMessage message) {
+        bus.send(targetNodeId, Frame.encode(FrameType.PRIVATE, message.getSender(), message.getRecipient(),
+                message.getBody(), message.getBodyOffset(), message.getBodyLength()));
+    }
+
+    /**
+     * Le pide al nodo que guarda el buzón de un usuario local que se lo entregue.
+     *
+     * @param mailboxNodeId el nodo que guarda el buzón.
+     * @param nickname el apodo del usuario, recién conectado en este nodo.
+     */
+    void requestMailbox(String mailboxNodeId, String nickname) {
+        bus.send(mailboxNodeId, Frame.encode(FrameType.MAILBOX, nickname, nodeId, new byte[0], 0, 0));
+    }
+
+    /**
+     * Crea el destino de la entrega del buzón de un usuario conectado en otro nodo. Cada parte viaja por el bus en
+     * una o más tramas {@link FrameType#MAILBOX_CHUNK}, que se envían de a una: la siguiente sale cuando el otro nodo
+     * confirma cuántos mensajes de la anterior quedaron en la cola del usuario y si esa cola tiene espacio para otra
+     * parte. Un mensaje que no cabe solo en una trama se rechaza, igual que lo rechazaría la cola del usuario.
+     *
+     * @param targetNodeId el nodo donde se conectó el usuario.
+     * @param nickname el apodo del usuario.
+     * @return el destino de la entrega; se cierra cuando el usuario deja de estar conectado en ese nodo.
+     */
+    MailboxStore.Recipient remoteRecipient(String targetNodeId, String nickname) {
+        return new RemoteRecipient(targetNodeId, nickname);
+    }
+
+    // Envía en una trama los mensajes desde la posición indicada que quepan en ella y, cuando el otro nodo confirma
+    // que los aceptó todos, los siguientes. Una lista vacía se envía como una parte vacía
+    private void offerChunk(RemoteRecipient recipient, List<OutboundMessage> messages, int from,
+                            IntConsumer accepted) {
+        String nickname = recipient.nickname;
+        int room = Frame.MAX_LENGTH - Frame.headerLength(nickname, nodeId) - Long.BYTES;
+        List<byte[]> frames = new ArrayList<>();
+        int length = 0;
+        for (int i = from; i < messages.size(); i++) {
+            byte[] frame = encodeForChunk(messages.get(i), nickname);
+            if (frame == null || length + frame.length > room) {
+                break;
+            }
+            frames.add(frame);
+            length += frame.length;
+        }
+        if (frames.isEmpty() && from < messages.size()) {
+            logger.warn("A mailbox message for {} does not fit in a cluster frame", nickname);
+            accepted.accept(from);
+            return;
+        }
+
+        long id = nextChunkId.incrementAndGet();
+        ByteBuffer body = ByteBuffer.allocate(Long.BYTES + length).putLong(id);
+        for (byte[] frame : frames) {
+            body.put(frame);
+        }
+        int end = from + frames.size();
+        pendingChunks.put(recipient.key, new PendingChunk(id, recipient, count -> {
+            if (from + count == end && end < messages.size()) {
+                offerChunk(recipient, messages, end, accepted);
+            } else {
+                accepted.accept(from + count);
+            }
+        }));
+        bus.send(recipient.targetNodeId, Frame.encode(FrameType.MAILBOX_CHUNK, nickname, nodeId, body.array(), 0,
+                body.capacity()));
+    }
+
+    // La trama de un mensaje dentro de una parte de buzón, o null si no cabe en una trama
+    private static byte[] encodeForChunk(OutboundMessage message, String nickname) {
+        FrameType type = message.getType() == FrameType.PRIVATE ? FrameType.PRIVATE : FrameType.LINE;
+        String sender = type == FrameType.PRIVATE ? message.getSender() : null;
+        if (Frame.headerLength(sender, nickname) + message.getBodyLength() > Frame.MAX_LENGTH) {
+            return null;
+        }
+        return Frame.encode(type, sender, nickname, message.getBody(), message.getBodyOffset(),
+                message.getBodyLength());
+    }
+
+    // Entrega al usuario local una parte de buzón enviada por el nodo que lo guarda y le confirma el resultado
+    private void deliverChunk(Frame frame) {
+        String nickname = frame.getSender();
+        String mailboxNodeId = frame.getRecipient();
+        if (frame.getBodyLength() < Long.BYTES) {
+            logger.error("Discarded a malformed mailbox chunk for {}", nickname);
+            return;
+        }
+        byte[] data = frame.getData();
+        int position = frame.getBodyOffset();
+        int end = position + frame.getBodyLength();
+        long id = ByteBuffer.wrap(data, position, Long.BYTES).getLong();
+        position += Long.BYTES;
+
+        List<OutboundMessage> messages = new ArrayList<>();
+        try {
+            while (position < end) {
+                int length = Frame.readLength(data, position);
+                Frame message = Frame.decode(data, position + 4, length);
+                messages.add(message.getType() == FrameType.PRIVATE
+                        ? OutboundMessage.privateMessage(message.getSender(), message.getRecipient(), message)
+                        : OutboundMessage.line(message.getBodyAsString()));
+                position += 4 + length;
+            }
+        } catch (IOException e) {
+            logger.error("Discarded a malformed mailbox chunk for {}: {}", nickname, e.getMessage());
+            messages.clear();
+        }
+        router.deliverClusterMailboxChunk(nickname, messages, count -> {
+            byte capacity = (byte) (router.hasMailboxCapacity(nickname) ? 1 : 0);
+            byte[] body = ByteBuffer.allocate(Long.BYTES + Integer.BYTES + 1).putLong(id).putInt(count).put(capacity)
+                    .array();
+            bus.send(mailboxNodeId, Frame.encode(FrameType.MAILBOX_ACK, nickname, null, body, 0, body.length));
+        });
+    }
+
+    // Continúa la entrega de un buzón cuando el otro nodo confirma una parte. Una confirmación que no corresponde
+    // a la parte pendiente llega tarde, de una entrega que ya terminó, y se descarta
+    private void chunkAcknowledged(Frame frame) {
+        if (frame.getBodyLength() != Long.BYTES + Integer.BYTES + 1) {
+            logger.error("Discarded a malformed mailbox acknowledgement for {}", frame.getSender());
+            return;
+        }
+        ByteBuffer body = ByteBuffer.wrap(frame.getData(), frame.getBodyOffset(), frame.getBodyLength());
+        long id = body.getLong();
+        int count = body.getInt();
+        boolean capacity = body.get() != 0;
+        String key = SessionRegistry.keyOf(frame.getSender());
+        PendingChunk pending = pendingChunks.get(key);
+        if (pending != null && pending.id == id && pendingChunks.remove(key, pending)) {
+            pending.recipient.capacity = capacity;
+            pending.accepted.accept(count);
+        }
+    }
+
+    /**
+     * Envía una respuesta del servidor a un usuario conectado en otro nodo.
+     *
+     * @param nickname el apodo del usuario.
+     * @param line la respuesta.
+     */
+    void sendLine(String nickname, String line) {
+        String targetNodeId = remoteNodeOf(nickname);
+        if (targetNodeId != null) {
+            byte[] body = line.getBytes(StandardCharsets.UTF_8);
+            bus.send(targetNodeId, Frame.encode(FrameType.LINE, null, nickname, body, 0, body.length));
+        }
+    }
+
+    @Override
+    public void onFrame(byte[] data) {
+        Frame frame;
+        try {
+            frame = Frame.decode(data, 4, data.length - 4);
+        } catch (IOException e) {
+            logger.error("Discarded a malformed cluster frame: {}", e.getMessage());
+            return;
+        }
+        switch (frame.getType()) {
+            case PRIVATE:
+                router.deliverClusterMessage(frame);
+                break;
+            case LINE:
+                router.deliverClusterLine(frame.getRecipient(), frame.getBodyAsString());
+                break;
+            case MAILBOX:
+                router.deliverClusterMailbox(frame.getSender(), frame.getRecipient());
+                break;
+            case MAILBOX_CHUNK:
+                deliverChunk(frame);
+                break;
+            case MAILBOX_ACK:
+                chunkAcknowledged(frame);
+                break;
+            case PRESENCE_CHANGES:
+                String nickname = frame.getBodyAsString();
+                router.onClusterPresence(nickname, isConnected(nickname));
+                break;
+            default:
+                logger.warn("Discarded an unexpected {} cluster frame", frame.getType());
+        }
+    }
+}
\ No newline at end of file
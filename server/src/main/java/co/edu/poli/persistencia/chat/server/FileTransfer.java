@@ -0,0 +1,191 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * La clase FileTransfer representa un archivo que un usuario envía a otro: quién lo envía, a quién, su nombre y
+ * tamaño, y el archivo de paso ({@code spool}) donde el servidor guarda lo que se ha subido.
+ * <p>
+ * El emisor sube el archivo con el token de subida y el destinatario lo descarga con el token de descarga; cada uno
+ * solo conoce el suyo. Los bytes subidos son el tamaño del archivo de paso, así una subida interrumpida se reanuda
+ * desde donde quedó.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+final class FileTransfer {
+
+    private final String id;
+
+    private final String uploadToken;
+
+    private final String downloadToken;
+
+    private final String sender;
+
+    private final String recipient;
+
+    private final String fileName;
+
+    private final long size;
+
+    private final Path spool;
+
+    private final long createdAtMillis;
+
+    // Solo una conexión a la vez puede subir el archivo
+    private final AtomicBoolean uploading = new AtomicBoolean();
+
+    private final AtomicBoolean uploaded = new AtomicBoolean();
+
+    private volatile boolean downloaded;
+
+    /**
+     * Crea una transferencia que aún no tiene bytes subidos.
+     *
+     * @param id el identificador de la transferencia.
+     * @param uploadToken el token con el que el emisor sube el archivo.
+     * @param downloadToken el token con el que el destinatario descarga el archivo.
+     * @param sender el apodo del emisor.
+     * @param recipient el apodo del destinatario.
+     * @param fileName el nombre del archivo, tal como lo envió el emisor.
+     * @param size el tamaño del archivo en bytes.
+     * @param spool el archivo de paso.
+     * @param createdAtMillis el momento en que se creó la transferencia.
+     */
+    FileTransfer(String id, String uploadToken, String downloadToken, String sender, String recipient,
+                 String fileName, long size, Path spool, long createdAtMillis) {
+        this.id = id;
+        this.uploadToken = uploadToken;
+        this.downloadToken = downloadToken;
+        this.sender = sender;
+        this.recipient = recipient;
+        this.fileName = fileName;
+        this.size = size;
+        this.spool = spool;
+        this.createdAtMillis = createdAtMillis;
+    }
+
+    /**
+     * @return el identificador de la transferencia.
+     */
+    String getId() {
+        return id;
+    }
+
+    /**
+     * @return el token con el que el emisor sube el archivo.
+     */
+    String getUploadToken() {
+        return uploadToken;
+    }
+
+    /**
+     * @return el token con el que el destinatario descarga el archivo.
+     */
+    String getDownloadToken() {
+        return downloadToken;
+    }
+
+    /**
+     * @return el apodo del emisor.
+     */
+    String getSender() {
+        return sender;
+    }
+
+    /**
+     * @return el apodo del destinatario.
+     */
+    String getRecipient() {
+        return recipient;
+    }
+
+    /**
+     * @return el nombre del archivo.
+     */
+    String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return el tamaño del archivo en bytes.
+     */
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * @return el archivo de paso.
+     */
+    Path getSpool() {
+        return spool;
+    }
+
+    /**
+     * @return el momento en que se creó la transferencia.
+     */
+    long getCreatedAtMillis() {
+        return createdAtMillis;
+    }
+
+    /**
+     * Reserva la subida para una conexión.
+     *
+     * @return falso si otra conexión ya está subiendo el archivo.
+     */
+    boolean startUpload() {
+        return uploading.compareAndSet(false, true);
+    }
+
+    /**
+     * Libera la subida reservada con {@link #startUpload()}.
+     */
+    void endUpload() {
+        uploading.set(false);
+    }
+
+    /**
+     * Marca el archivo como subido por completo.
+     *
+     * @return verdadero solo la primera vez, para avisar al destinatario una sola vez.
+     */
+    boolean markUploaded() {
+        return uploaded.compareAndSet(false, true);
+    }
+
+    /**
+     * @return verdadero si el archivo ya se subió por completo y se puede descargar.
+     */
+    boolean isUploaded() {
+        return uploaded.get();
+    }
+
+    /**
+     * Marca el archivo como descargado por completo; ya no se vuelve a ofrecer al destinatario.
+     */
+    void markDownloaded() {
+        downloaded = true;
+    }
+
+    /**
+     * @return verdadero si el destinatario ya descargó el archivo por completo.
+     */
+    boolean isDownloaded() {
+        return downloaded;
+    }
+
+    /**
+     * Crea el aviso que recibe el destinatario cuando el archivo está listo, con todo lo necesario para descargarlo:
+     * "File offer id token puerto tamaño emisor nombre".
+     *
+     * @param port el puerto de transferencias.
+     * @return el aviso.
+     */
+    OutboundMessage offer(int port) {
+        return OutboundMessage.line("File offer " + id + " " + downloadToken + " " + port + " " + size + " "
+                + sender + " " + fileName);
+    }
+}
\ No newline at end of file
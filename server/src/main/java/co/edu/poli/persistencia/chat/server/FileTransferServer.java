@@ -0,0 +1,436 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * La clase FileTransferServer transfiere archivos entre usuarios por un puerto propio, separado del chat: un archivo
+ * grande nunca ocupa la conexión del chat ni los hilos que enrutan sus mensajes.
+ * <p>
+ * El emisor pide la transferencia por el chat ({@code /send}) y recibe un identificador y un token de subida. Luego
+ * abre una conexión al puerto de transferencias y envía la línea "PUT id token"; el servidor responde "OK n", donde
+ * n son los bytes que ya tiene, y el emisor envía el resto del archivo. El archivo se guarda en un archivo de paso
+ * con {@link FileChannel#transferFrom}, por partes, sin copiarlo a la memoria de la JVM. Cuando está completo, el
+ * destinatario recibe por el chat el aviso con su token de descarga ({@link FileTransfer#offer}), o lo recibe al
+ * conectarse si no estaba conectado. Para descargarlo envía "GET id token desde"; el servidor responde "OK tamaño"
+ * y envía el archivo desde el byte indicado con {@link FileChannel#transferTo}, que en Linux usa
+ * {@code sendfile}. Los errores se responden con "ERR motivo". Así tanto la subida como la descarga se reanudan
+ * tras una interrupción.
+ * <p>
+ * Cada conexión de transferencia tiene su propio hilo y hay un máximo de transferencias simultáneas. Todas comparten
+ * un {@link TokenBucket} que limita el ancho de banda total, y las conexiones que dejan de avanzar se cierran. Los
+ * archivos se borran cuando vence su tiempo de vida.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class FileTransferServer {
+
+    private static final Logger logger = LogManager.getLogger(FileTransferServer.class);
+
+    private static final String SUFFIX = ".part";
+
+    // Tamaño máximo de cada parte de una transferencia
+    private static final int CHUNK_BYTES = 256 * 1024;
+
+    // Tamaño máximo de la línea con la que empieza cada conexión
+    private static final int MAX_REQUEST_BYTES = 256;
+
+    // Una conexión que no avanza durante este tiempo se cierra
+    private static final long STALL_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long SWEEP_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Una conexión de transferencia abierta, con el momento de su último avance.
+     */
+    private static final class Connection {
+
+        private final SocketChannel channel;
+
+        private volatile long lastProgressMillis = System.currentTimeMillis();
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        private void progressed() {
+            lastProgressMillis = System.currentTimeMillis();
+        }
+    }
+
+    private final ServerSocketChannel serverChannel;
+
+    private final int port;
+
+    private final Path directory;
+
+    private final long maxBytes;
+
+    private final long ttlMillis;
+
+    private final ServerMetrics metrics;
+
+    // Se invoca una vez por transferencia, cuando el archivo está completo
+    private final Consumer<FileTransfer> onUploaded;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final ConcurrentHashMap<String, FileTransfer> transfers = new ConcurrentHashMap<>();
+
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    // Las transferencias simultáneas que quedan disponibles
+    private final Semaphore slots;
+
+    // Limita el ancho de banda de todas las transferencias juntas, o null si no se limita; protegido por sí mismo
+    private final TokenBucket bandwidth;
+
+    private final long bandwidthBytesPerSecond;
+
+    private final int chunkBytes;
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    private final ExecutorService transferExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "file-transfer-" + threadCount.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "file-transfer-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Abre el puerto de transferencias y empieza a aceptar conexiones.
+     *
+     * @param port el puerto de transferencias.
+     * @param directory el directorio de los archivos de paso; se crea si no existe y se borran los archivos que
+     *                  quedaron de una ejecución anterior.
+     * @param maxBytes el tamaño máximo de un archivo.
+     * @param bandwidthBytesPerSecond los bytes por segundo de todas las transferencias juntas, o 0 para no limitarlos.
+     * @param maxTransfers las transferencias simultáneas permitidas.
+     * @param ttlMillis los milisegundos que se conserva un archivo desde que se pide su transferencia.
+     * @param metrics las métricas del servidor.
+     * @param onUploaded se invoca, desde el hilo de la transferencia, cuando un archivo termina de subirse.
+     * @throws IOException si no se puede crear el directorio o abrir el puerto.
+     */
+    FileTransferServer(int port, Path directory, long maxBytes, long bandwidthBytesPerSecond, int maxTransfers,
+                       long ttlMillis, ServerMetrics metrics, Consumer<FileTransfer> onUploaded) throws IOException {
+        this.port = port;
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+        this.metrics = metrics;
+        this.onUploaded = onUploaded;
+        this.slots = new Semaphore(maxTransfers);
+        this.bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+        this.bandwidth = bandwidthBytesPerSecond > 0
+                ? new TokenBucket(bandwidthBytesPerSecond, bandwidthBytesPerSecond, System.nanoTime()) : null;
+        // Con un límite bajo, partes más pequeñas reparten mejor el ancho de banda entre las transferencias
+        this.chunkBytes = bandwidthBytesPerSecond > 0
+                ? (int) Math.max(1, Math.min(CHUNK_BYTES, bandwidthBytesPerSecond / 10)) : CHUNK_BYTES;
+        Files.createDirectories(directory);
+        deleteOrphanSpools();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        Thread acceptor = new Thread(this::acceptConnections, "file-transfer-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_MILLIS, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+        logger.info("File transfers listening on port {}", port);
+    }
+
+    // Las transferencias solo viven en memoria: los archivos de una ejecución anterior ya no tienen dueño
+    private void deleteOrphanSpools() throws IOException {
+        try (DirectoryStream<Path> spools = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path spool : spools) {
+                Files.deleteIfExists(spool);
+            }
+        }
+    }
+
+    /**
+     * @return el puerto de transferencias.
+     */
+    int getPort() {
+        return port;
+    }
+
+    /**
+     * @return el tamaño máximo de un archivo.
+     */
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Crea una transferencia; el emisor la sube luego con su identificador y su token de subida.
+     *
+     * @param sender el apodo del emisor.
+     * @param recipient el apodo del destinatario.
+     * @param fileName el nombre del archivo.
+     * @param size el tamaño del archivo; no puede superar a {@link #getMaxBytes()}.
+     * @return la transferencia.
+     */
+    FileTransfer create(String sender, String recipient, String fileName, long size) {
+        String id = randomToken();
+        FileTransfer transfer = new FileTransfer(id, randomToken(), randomToken(), sender, recipient, fileName, size,
+                directory.resolve(id + SUFFIX), System.currentTimeMillis());
+        transfers.put(id, transfer);
+        return transfer;
+    }
+
+    /**
+     * Busca los archivos listos que un usuario aún no descarga, para avisarle al conectarse.
+     *
+     * @param nickname el apodo del usuario.
+     * @return las transferencias, en cualquier orden.
+     */
+    List<FileTransfer> pendingFor(String nickname) {
+        String key = SessionRegistry.keyOf(nickname);
+        List<FileTransfer> pending = new ArrayList<>();
+        for (FileTransfer transfer : transfers.values()) {
+            if (transfer.isUploaded() && !transfer.isDownloaded()
+                    && SessionRegistry.keyOf(transfer.getRecipient()).equals(key)) {
+                pending.add(transfer);
+            }
+        }
+        return pending;
+    }
+
+    private String randomToken() {
+        return Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong());
+    }
+
+    private void acceptConnections() {
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                if (!slots.tryAcquire()) {
+                    reply(channel, "ERR Too many transfers. Try again later.");
+                    channel.close();
+                    continue;
+                }
+                transferExecutor.execute(() -> {
+                    try {
+                        serve(channel);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            } catch (IOException e) {
+                logger.info("File transfer accept error: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        Connection connection = new Connection(channel);
+        connections.add(connection);
+        try (channel) {
+            String[] request = readRequest(channel).split(" ");
+            if (request.length == 3 && request[0].equals("PUT")) {
+                upload(connection, request[1], request[2]);
+            } else if (request.length == 4 && request[0].equals("GET")) {
+                download(connection, request[1], request[2], request[3]);
+            } else {
+                reply(channel, "ERR Usage: PUT id token | GET id token offset");
+            }
+        } catch (IOException e) {
+            logger.info("File transfer interrupted: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    // Lee la línea de la petición byte a byte, así los bytes del archivo que la siguen quedan en el canal
+    private static String readRequest(SocketChannel channel) throws IOException {
+        ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+        ByteBuffer single = ByteBuffer.allocate(1);
+        while (true) {
+            single.clear();
+            if (channel.read(single) < 0) {
+                throw new IOException("Connection closed before the request");
+            }
+            byte b = single.get(0);
+            if (b == '\n') {
+                break;
+            }
+            if (!request.hasRemaining()) {
+                throw new IOException("Request too long");
+            }
+            request.put(b);
+        }
+        request.flip();
+        return StandardCharsets.US_ASCII.decode(request).toString().trim();
+    }
+
+    private static void reply(SocketChannel channel, String line) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.US_ASCII));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    private FileTransfer find(String id, String token, boolean upload) {
+        FileTransfer transfer = transfers.get(id);
+        if (transfer == null) {
+            return null;
+        }
+        String expected = upload ? transfer.getUploadToken() : transfer.getDownloadToken();
+        // Comparación en tiempo constante, así el tiempo de respuesta no revela el token
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII),
+                token.getBytes(StandardCharsets.US_ASCII)) ? transfer : null;
+    }
+
+    // Recibe el archivo del emisor desde donde quedó la subida anterior, si la hubo
+    private void upload(Connection connection, String id, String token) throws IOException, InterruptedException {
+        SocketChannel channel = connection.channel;
+        FileTransfer transfer = find(id, token, true);
+        if (transfer == null) {
+            reply(channel, "ERR Unknown transfer");
+            return;
+        }
+        long size = transfer.getSize();
+        if (transfer.isUploaded()) {
+            reply(channel, "OK " + size);
+            return;
+        }
+        if (!transfer.startUpload()) {
+            reply(channel, "ERR Upload already in progress");
+            return;
+        }
+        long position;
+        try (FileChannel spool = FileChannel.open(transfer.getSpool(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            position = Math.min(spool.size(), size);
+            reply(channel, "OK " + position);
+            while (position < size) {
+                long chunk = Math.min(chunkBytes, size - position);
+                throttle(chunk);
+                long received = spool.transferFrom(channel, position, chunk);
+                if (received == 0) {
+                    // El emisor cerró la conexión; la subida se reanuda en su próxima conexión
+                    break;
+                }
+                position += received;
+                connection.progressed();
+                metrics.onFileBytesReceived(received);
+            }
+        } finally {
+            transfer.endUpload();
+        }
+        if (position == size && transfer.markUploaded()) {
+            logger.info("File {} from [{}] to [{}] uploaded ({} bytes)", transfer.getId(), transfer.getSender(),
+                    transfer.getRecipient(), size);
+            onUploaded.accept(transfer);
+        }
+    }
+
+    // Envía el archivo al destinatario desde el byte que pidió
+    private void download(Connection connection, String id, String token, String from)
+            throws IOException, InterruptedException {
+        SocketChannel channel = connection.channel;
+        FileTransfer transfer = find(id, token, false);
+        if (transfer == null) {
+            reply(channel, "ERR Unknown transfer");
+            return;
+        }
+        if (!transfer.isUploaded()) {
+            reply(channel, "ERR File is not ready");
+            return;
+        }
+        long size = transfer.getSize();
+        long position;
+        try {
+            position = Long.parseLong(from);
+        } catch (NumberFormatException e) {
+            position = -1;
+        }
+        if (position < 0 || position > size) {
+            reply(channel, "ERR Invalid offset");
+            return;
+        }
+        try (FileChannel spool = FileChannel.open(transfer.getSpool(), StandardOpenOption.READ)) {
+            reply(channel, "OK " + size);
+            while (position < size) {
+                long chunk = Math.min(chunkBytes, size - position);
+                throttle(chunk);
+                long sent = spool.transferTo(position, chunk, channel);
+                position += sent;
+                connection.progressed();
+                metrics.onFileBytesSent(sent);
+            }
+        }
+        transfer.markDownloaded();
+        metrics.onFileTransferCompleted();
+        logger.info("File {} downloaded by [{}]", transfer.getId(), transfer.getRecipient());
+    }
+
+    // Espera hasta que el límite de ancho de banda permita transferir la parte
+    private void throttle(long bytes) throws InterruptedException {
+        if (bandwidth == null) {
+            return;
+        }
+        synchronized (bandwidth) {
+            while (!bandwidth.tryConsume(bytes, System.nanoTime())) {
+                Thread.sleep(Math.max(1, Math.min(100, bytes * 1000 / bandwidthBytesPerSecond)));
+            }
+        }
+    }
+
+    // Cierra las conexiones que dejaron de avanzar y borra los archivos vencidos
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        for (Connection connection : connections) {
+            if (now - connection.lastProgressMillis > STALL_TIMEOUT_MILLIS) {
+                try {
+                    connection.channel.close();
+                } catch (IOException e) {
+                    logger.info("Error closing a stalled transfer: {}", e.getMessage());
+                }
+            }
+        }
+        for (FileTransfer transfer : transfers.values()) {
+            if (now - transfer.getCreatedAtMillis() > ttlMillis && transfers.remove(transfer.getId(), transfer)) {
+                try {
+                    Files.deleteIfExists(transfer.getSpool());
+                } catch (IOException e) {
+                    logger.error("Could not delete {}: {}", transfer.getSpool(), e.getMessage());
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
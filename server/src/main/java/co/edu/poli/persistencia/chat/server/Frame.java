@@ -0,0 +1,270 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * La clase Frame representa una trama del protocolo binario. Cada trama tiene el formato:
+ * <pre>
+ * int32   longitud del resto de la trama
+ * uint8   tipo ({@link FrameType})
+ * uint16  longitud del remitente, seguida del remitente en UTF-8
+ * uint16  longitud del destinatario, seguida del destinatario en UTF-8
+ * bytes   cuerpo en UTF-8 (lo que queda de la trama)
+ * </pre>
+ * Al decodificar solo se leen la cabecera; el cuerpo queda como una vista sobre los bytes recibidos para que el
+ * servidor pueda enrutarlo sin decodificarlo.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+final class Frame {
+
+    /**
+     * Versión del protocolo binario.
+     */
+    static final byte VERSION = 1;
+
+    /**
+     * Bytes con los que el cliente pide el protocolo binario y con los que el servidor lo confirma. Empiezan con
+     * un byte nulo, que nunca es el inicio de un apodo en el protocolo de texto.
+     */
+    static final byte[] PREAMBLE = {0, 'C', 'H', 'T', VERSION};
+
+    /**
+     * Longitud máxima de una trama, sin contar el prefijo de longitud.
+     */
+    static final int MAX_LENGTH = 64 * 1024;
+
+    // Tipo (1) y las dos longitudes de remitente y destinatario (2 + 2)
+    private static final int MIN_LENGTH = 5;
+
+    // Longitud máxima del remitente o del destinatario, que se escriben con una longitud de dos bytes
+    private static final int MAX_NAME_LENGTH = 0xFFFF;
+
+    private final FrameType type;
+
+    private final String sender;
+
+    private final String recipient;
+
+    private final byte[] data;
+
+    private final int bodyOffset;
+
+    private final int bodyLength;
+
+    private Frame(FrameType type, String sender, String recipient, byte[] data, int bodyOffset, int bodyLength) {
+        this.type = type;
+        this.sender = sender;
+        this.recipient = recipient;
+        this.data = data;
+        this.bodyOffset = bodyOffset;
+        this.bodyLength = bodyLength;
+    }
+
+    /**
+     * Decodifica la cabecera de una trama.
+     *
+     * @param data los bytes recibidos; la trama conserva una referencia a ellos para el cuerpo.
+     * @param offset la posición donde empieza la trama, después del prefijo de longitud.
+     * @param length la longitud de la trama, sin contar el prefijo de longitud.
+     * @return la trama decodificada.
+     * @throws IOException si la trama está mal formada o su tipo es desconocido.
+     */
+    static Frame decode(byte[] data, int offset, int length) throws IOException {
+        int end = offset + length;
+        if (length < MIN_LENGTH) {
+            throw new IOException("Malformed frame: " + length + " bytes");
+        }
+        FrameType type = FrameType.fromCode(data[offset]);
+        if (type == null) {
+            throw new IOException("Unknown frame type: " + (data[offset] & 0xFF));
+        }
+        int position = offset + 1;
+
+        int senderLength = readUnsignedShort(data, position);
+        position += 2;
+        if (position + senderLength + 2 > end) {
+            throw new IOException("Malformed frame: sender exceeds frame");
+        }
+        String sender = new String(data, position, senderLength, StandardCharsets.UTF_8);
+        position += senderLength;
+
+        int recipientLength = readUnsignedShort(data, position);
+        position += 2;
+        if (position + recipientLength > end) {
+            throw new IOException("Malformed frame: recipient exceeds frame");
+        }
+        String recipient = new String(data, position, recipientLength, StandardCharsets.UTF_8);
+        position += recipientLength;
+
+        return new Frame(type, sender, recipient, data, position, end - position);
+    }
+
+    /**
+     * Codifica una trama completa, incluyendo su prefijo de longitud.
+     *
+     * @param type el tipo de la trama.
+     * @param sender el remitente, o null si no aplica.
+     * @param recipient el destinatario, o null si no aplica.
+     * @param body los bytes del cuerpo, ya en UTF-8; se copian sin volver a codificarlos.
+     * @param bodyOffset la posición donde empieza el cuerpo.
+     * @param bodyLength la longitud del cuerpo.
+     * @return los bytes de la trama.
+     * @throws IllegalArgumentException si el remitente o el destinatario no caben en su campo, o la trama supera
+     * {@link #MAX_LENGTH}.
+     */
+    static byte[] encode(FrameType type, String sender, String recipient, byte[] body, int bodyOffset, int bodyLength) {
+        byte[] senderBytes = sender == null ? new byte[0] : sender.getBytes(StandardCharsets.UTF_8);
+        byte[] recipientBytes = recipient == null ? new byte[0] : recipient.getBytes(StandardCharsets.UTF_8);
+        if (senderBytes.length > MAX_NAME_LENGTH || recipientBytes.length > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Frame sender or recipient exceeds " + MAX_NAME_LENGTH + " bytes");
+        }
+        // En long, para que un cuerpo enorme no desborde la suma
+        long length = (long) MIN_LENGTH + senderBytes.length + recipientBytes.length + bodyLength;
+        if (length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Frame length " + length + " exceeds " + MAX_LENGTH + " bytes");
+        }
+
+        byte[] frame = new byte[4 + (int) length];
+        writeInt(frame, 0, (int) length);
+        frame[4] = type.getCode();
+        int position = 5;
+        writeUnsignedShort(frame, position, senderBytes.length);
+        position += 2;
+        System.arraycopy(senderBytes, 0, frame, position, senderBytes.length);
+        position += senderBytes.length;
+        writeUnsignedShort(frame, position, recipientBytes.length);
+        position += 2;
+        System.arraycopy(recipientBytes, 0, frame, position, recipientBytes.length);
+        position += recipientBytes.length;
+        System.arraycopy(body, bodyOffset, frame, position, bodyLength);
+        return frame;
+    }
+
+    /**
+     * Calcula la longitud de una trama sin su cuerpo ni su prefijo de longitud.
+     *
+     * @param sender el remitente, o null si no aplica.
+     * @param recipient el destinatario, o null si no aplica.
+     * @return la longitud del tipo, el remitente y el destinatario.
+     */
+    static int headerLength(String sender, String recipient) {
+        return MIN_LENGTH + utf8Length(sender) + utf8Length(recipient);
+    }
+
+    /**
+     * Lee el prefijo de longitud de una trama.
+     *
+     * @param data los bytes recibidos.
+     * @param offset la posición del prefijo.
+     * @return la longitud de la trama, sin contar el prefijo.
+     * @throws IOException si la longitud es inválida o supera {@link #MAX_LENGTH}.
+     */
+    static int readLength(byte[] data, int offset) throws IOException {
+        int length = ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+        checkLength(length);
+        return length;
+    }
+
+    /**
+     * Verifica la longitud anunciada por una trama.
+     *
+     * @param length la longitud leída.
+     * @throws IOException si la longitud es inválida o supera {@link #MAX_LENGTH}.
+     */
+    static void checkLength(int length) throws IOException {
+        if (length < MIN_LENGTH || length > MAX_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+    }
+
+    /**
+     * Verifica que los bytes recibidos sean el preámbulo de la versión soportada.
+     *
+     * @param data los bytes recibidos.
+     * @param offset la posición donde empieza el preámbulo.
+     * @throws IOException si el preámbulo no corresponde a esta versión del protocolo.
+     */
+    static void checkPreamble(byte[] data, int offset) throws IOException {
+        for (int i = 0; i < PREAMBLE.length; i++) {
+            if (data[offset + i] != PREAMBLE[i]) {
+                throw new IOException("Unsupported binary protocol preamble");
+            }
+        }
+    }
+
+    private static int utf8Length(String text) {
+        return text == null ? 0 : text.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static int readUnsignedShort(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    private static void writeUnsignedShort(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    private static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    /**
+     * @return el tipo de la trama.
+     */
+    FrameType getType() {
+        return type;
+    }
+
+    /**
+     * @return el remitente, o una cadena vacía si la trama no lo tiene.
+     */
+    String getSender() {
+        return sender;
+    }
+
+    /**
+     * @return el destinatario, o una cadena vacía si la trama no lo tiene.
+     */
+    String getRecipient() {
+        return recipient;
+    }
+
+    /**
+     * @return los bytes sobre los que está el cuerpo de la trama.
+     */
+    byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return la posición donde empieza el cuerpo dentro de {@link #getData()}.
+     */
+    int getBodyOffset() {
+        return bodyOffset;
+    }
+
+    /**
+     * @return la longitud del cuerpo.
+     */
+    int getBodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * Decodifica el cuerpo. Solo se usa para las tramas que el servidor debe interpretar, no para las que reenvía.
+     *
+     * @return el cuerpo como texto.
+     */
+    String getBodyAsString() {
+        return new String(data, bodyOffset, bodyLength, StandardCharsets.UTF_8);
+    }
+}
\ No newline at end of file
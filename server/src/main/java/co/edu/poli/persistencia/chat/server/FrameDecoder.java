@@ -0,0 +1,86 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * La clase FrameDecoder separa en tramas binarias ({@link Frame}) los bytes leídos de un canal no bloqueante.
+ * Es el equivalente de {@link LineDecoder} para los clientes que negociaron el protocolo binario: primero espera
+ * el preámbulo y luego entrega cada trama completa.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class FrameDecoder {
+
+    /**
+     * Recibe cada trama decodificada.
+     */
+    interface FrameConsumer {
+        /**
+         * @param frame la trama recibida.
+         * @return falso si se debe dejar de decodificar; verdadero en caso contrario.
+         * @throws IOException si la trama no se puede procesar.
+         */
+        boolean accept(Frame frame) throws IOException;
+    }
+
+    // Bytes recibidos que todavía no forman una trama completa
+    private byte[] pending = new byte[256];
+    private int pendingLength;
+
+    private boolean preambleRead;
+
+    /**
+     * Consume los bytes disponibles en el búfer y entrega cada trama completa al consumidor.
+     * El búfer debe estar en modo lectura (después de flip) y quedará completamente consumido.
+     *
+     * @param buffer el búfer con los bytes leídos del canal.
+     * @param frameConsumer recibe cada trama; si devuelve falso se deja de decodificar.
+     * @return falso si el consumidor pidió detener la decodificación; verdadero en caso contrario.
+     * @throws IOException si el preámbulo o alguna trama están mal formados.
+     */
+    boolean decode(ByteBuffer buffer, FrameConsumer frameConsumer) throws IOException {
+        append(buffer);
+
+        int position = 0;
+        try {
+            if (!preambleRead) {
+                if (pendingLength < Frame.PREAMBLE.length) {
+                    return true;
+                }
+                Frame.checkPreamble(pending, 0);
+                preambleRead = true;
+                position = Frame.PREAMBLE.length;
+            }
+            while (pendingLength - position >= 4) {
+                int length = Frame.readLength(pending, position);
+                if (pendingLength - position - 4 < length) {
+                    break;
+                }
+                // Cada trama recibe sus propios bytes, porque el búfer pendiente se reutiliza
+                byte[] frameBytes = Arrays.copyOfRange(pending, position + 4, position + 4 + length);
+                position += 4 + length;
+                if (!frameConsumer.accept(Frame.decode(frameBytes, 0, length))) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            // Se conservan solo los bytes de la trama incompleta
+            System.arraycopy(pending, position, pending, 0, pendingLength - position);
+            pendingLength -= position;
+        }
+    }
+
+    private void append(ByteBuffer buffer) {
+        int length = buffer.remaining();
+        if (pendingLength + length > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pendingLength + length, pending.length * 2));
+        }
+        buffer.get(pending, pendingLength, length);
+        pendingLength += length;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,131 @@
+package co.edu.poli.persistencia.chat.server;
+
+/**
+ * Los tipos de trama del protocolo binario. El código de cada tipo es el byte que lo identifica en la trama.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+enum FrameType {
+
+    /**
+     * Cliente a servidor: primera trama de la conexión; el remitente es el apodo solicitado.
+     */
+    HELLO(1),
+
+    /**
+     * En ambos sentidos: una línea del protocolo de texto, para los comandos que no tienen una trama propia.
+     */
+    LINE(2),
+
+    /**
+     * En ambos sentidos: un mensaje privado; el cuerpo se reenvía sin volver a codificarlo.
+     */
+    PRIVATE(3),
+
+    /**
+     * Servidor a cliente: la lista completa de usuarios activos, un apodo por línea.
+     */
+    PRESENCE_SNAPSHOT(4),
+
+    /**
+     * Servidor a cliente: cambios en la lista de usuarios activos, un "+apodo" o "-apodo" por línea.
+     */
+    PRESENCE_CHANGES(5),
+
+    /**
+     * Cliente a servidor: termina la conexión, igual que "chao" en el protocolo de texto.
+     */
+    BYE(6),
+
+    /**
+     * En ambos sentidos: un mensaje a una sala; el destinatario es el nombre de la sala.
+     */
+    ROOM(7),
+
+    /**
+     * Servidor a cliente: un mensaje del historial. El destinatario es el apodo del destinatario original o
+     * "#sala"; el cuerpo empieza con la secuencia (int64) y la marca de tiempo (int64) del mensaje.
+     */
+    HISTORY(8),
+
+    /**
+     * En ambos sentidos: pide al otro extremo que responda con {@link #PONG} para comprobar que la conexión sigue
+     * viva. El servidor lo envía a los clientes inactivos.
+     */
+    PING(9),
+
+    /**
+     * En ambos sentidos: la respuesta a un {@link #PING}.
+     */
+    PONG(10),
+
+    /**
+     * Servidor a cliente: un error, por ejemplo un mensaje rechazado por superar el límite de tráfico; el cuerpo es
+     * el motivo.
+     */
+    ERROR(11),
+
+    /**
+     * Servidor a cliente: la sesión que se reanuda al reconectarse; el cuerpo es "token secuencia", donde secuencia
+     * es el último mensaje que el servidor da por recibido. El cliente cuenta desde ahí los mensajes reanudables.
+     */
+    SESSION(12),
+
+    /**
+     * Servidor a cliente: un mensaje que coincide con una búsqueda; el destinatario y el cuerpo tienen el mismo
+     * formato que en {@link #HISTORY}.
+     */
+    SEARCH(13),
+
+    /**
+     * Solo entre nodos del clúster: pide al nodo que guarda el buzón de un usuario que se lo entregue. El remitente
+     * es el apodo del usuario y el destinatario, el nodo donde se conectó.
+     */
+    MAILBOX(14),
+    /**
+     * Solo entre nodos del clúster: una parte del buzón de un usuario, que el nodo donde está conectado debe
+     * confirmar con {@link #MAILBOX_ACK}. El remitente es el apodo del usuario y el destinatario, el nodo que guarda
+     * el buzón; el cuerpo empieza con el número de la parte (int64) y sigue con los mensajes, cada uno como una
+     * trama completa con su prefijo de longitud.
+     */
+    MAILBOX_CHUNK(15),
+    /**
+     * Solo entre nodos del clúster: la confirmación de un {@link #MAILBOX_CHUNK}. El remitente es el apodo del
+     * usuario; el cuerpo es el número de la parte (int64), la cantidad de sus mensajes, desde el primero, que quedaron
+     * en la cola del usuario (int32) y un byte que vale 1 si esa cola tiene espacio para otra parte.
+     */
+    MAILBOX_ACK(16);
+
+    private static final FrameType[] BY_CODE = new FrameType[256];
+
+    static {
+        for (FrameType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    private final int code;
+
+    FrameType(int code) {
+        this.code = code;
+    }
+
+    /**
+     * @return el byte que identifica al tipo en la trama.
+     */
+    byte getCode() {
+        return (byte) code;
+    }
+
+    /**
+     * Obtiene el tipo de trama a partir de su código.
+     *
+     * @param code el byte leído de la trama.
+     * @return el tipo correspondiente, o null si el código es desconocido.
+     */
+    static FrameType fromCode(byte code) {
+        return BY_CODE[code & 0xFF];
+    }
+}
@@ -0,0 +1,140 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * La clase HeartbeatMonitor detecta las conexiones muertas: a un cliente que no envía nada durante el intervalo de
+ * ping se le envía un ping ({@link FrameType#PING}, o la línea "Ping" en el protocolo de texto), y si sigue sin enviar
+ * nada hasta el tiempo máximo de inactividad se cierra su conexión. Cualquier byte recibido cuenta como actividad;
+ * la respuesta al ping solo la produce.
+ * <p>
+ * Todas las conexiones comparten una {@link TimingWheel}. Leer del socket solo actualiza el tic de la última
+ * actividad, sin tocar la rueda; cada conexión tiene a lo sumo una revisión programada, que al vencer compara ese
+ * tic con el reloj de la rueda y se vuelve a programar para el siguiente plazo. Así el costo es una revisión por
+ * conexión por intervalo, no por cada lectura ni por cada tic.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+final class HeartbeatMonitor {
+
+    private static final Logger logger = LogManager.getLogger(HeartbeatMonitor.class);
+
+    // Duración de un tic de la rueda y cantidad de casillas: una vuelta de 51,2 segundos
+    private static final long TICK_MILLIS = 100;
+    private static final int WHEEL_SIZE = 512;
+
+    private static final OutboundMessage PING = OutboundMessage.ping();
+
+    /**
+     * El latido de una conexión.
+     */
+    final class Heartbeat {
+
+        private final OutboundQueue clientOutputQueue;
+
+        private final Runnable closer;
+
+        // El tic de la rueda en el que se recibió algo del cliente por última vez
+        private volatile long lastActivityTick;
+
+        private volatile TimingWheel.Timeout check;
+
+        private volatile boolean stopped;
+
+        private Heartbeat(OutboundQueue clientOutputQueue, Runnable closer) {
+            this.clientOutputQueue = clientOutputQueue;
+            this.closer = closer;
+        }
+
+        /**
+         * Registra que se recibieron datos del cliente. Se llama en cada lectura del socket, así que solo escribe un
+         * campo.
+         */
+        void touch() {
+            if (wheel != null) {
+                lastActivityTick = wheel.currentTick();
+            }
+        }
+
+        /**
+         * Deja de vigilar la conexión. Se llama al cerrarla.
+         */
+        void stop() {
+            stopped = true;
+            TimingWheel.Timeout pendingCheck = check;
+            if (pendingCheck != null) {
+                pendingCheck.cancel();
+            }
+        }
+
+        // Se ejecuta en el hilo de la rueda
+        private void check() {
+            if (stopped) {
+                return;
+            }
+            long idleTicks = wheel.currentTick() - lastActivityTick;
+            if (idleTicks >= idleTimeoutTicks) {
+                stopped = true;
+                metrics.onIdleDisconnect();
+                logger.info("Closing a connection idle for {} ms", idleTicks * TICK_MILLIS);
+                closer.run();
+                return;
+            }
+            if (idleTicks >= pingIntervalTicks) {
+                clientOutputQueue.offer(PING);
+                metrics.onPingSent();
+                // Si el cliente responde, la siguiente revisión lo vuelve a pingear tras otro intervalo
+                schedule(Math.min(pingIntervalTicks, idleTimeoutTicks - idleTicks));
+            } else {
+                schedule(pingIntervalTicks - idleTicks);
+            }
+        }
+
+        private void schedule(long delayTicks) {
+            check = wheel.schedule(this::check, delayTicks);
+        }
+    }
+
+    // La rueda de las revisiones, o null si no se cierran las conexiones inactivas
+    private final TimingWheel wheel;
+
+    private final long pingIntervalTicks;
+
+    private final long idleTimeoutTicks;
+
+    private final ServerMetrics metrics;
+
+    /**
+     * Inicializa una nueva instancia de la clase HeartbeatMonitor.
+     *
+     * @param pingIntervalMillis los milisegundos sin actividad tras los que se envía un ping.
+     * @param idleTimeoutMillis los milisegundos sin actividad tras los que se cierra la conexión, o 0 para no
+     *                          vigilar las conexiones.
+     * @param metrics las métricas del servidor, donde se cuentan los pings y las conexiones cerradas.
+     */
+    HeartbeatMonitor(long pingIntervalMillis, long idleTimeoutMillis, ServerMetrics metrics) {
+        this.wheel = idleTimeoutMillis > 0 ? new TimingWheel("heartbeat-wheel", TICK_MILLIS, WHEEL_SIZE) : null;
+        this.pingIntervalTicks = Math.max(1, pingIntervalMillis / TICK_MILLIS);
+        this.idleTimeoutTicks = Math.max(pingIntervalTicks + 1, idleTimeoutMillis / TICK_MILLIS);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Empieza a vigilar una conexión recién aceptada; aún no necesita tener un apodo.
+     *
+     * @param clientOutputQueue la cola de salida del cliente, que recibe los pings.
+     * @param closer cierra la conexión; se ejecuta en el hilo de la rueda y no debe bloquearse.
+     * @return el latido de la conexión.
+     */
+    Heartbeat watch(OutboundQueue clientOutputQueue, Runnable closer) {
+        Heartbeat heartbeat = new Heartbeat(clientOutputQueue, closer);
+        if (wheel != null) {
+            heartbeat.touch();
+            heartbeat.schedule(pingIntervalTicks);
+        }
+        return heartbeat;
+    }
+}
\ No newline at end of file
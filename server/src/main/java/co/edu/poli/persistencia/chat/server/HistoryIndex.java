@@ -0,0 +1,309 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * La clase HistoryIndex es el índice en disco del historial de cada conversación (un par de usuarios o una sala).
+ * Cada conversación tiene un archivo con una entrada de tamaño fijo por mensaje, en orden de secuencia:
+ * <pre>
+ * int64   secuencia del mensaje
+ * int64   marca de tiempo
+ * int64   secuencia base del segmento del registro donde está el mensaje
+ * int32   posición del mensaje dentro del segmento
+ * </pre>
+ * Como las entradas están ordenadas y tienen tamaño fijo, una página se obtiene con una búsqueda binaria y la lectura
+ * de las entradas de la página: su costo depende del tamaño de la página y no del historial completo.
+ * <p>
+ * El índice lo actualiza solo el hilo de sincronización de {@link MessageLog}, con los mensajes que ya llegaron al
+ * disco; las lecturas pueden hacerse desde cualquier hilo.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class HistoryIndex {
+
+    /**
+     * Una entrada del índice.
+     */
+    static final class Entry {
+        final long sequence;
+        final long timestamp;
+        final long segmentBaseSequence;
+        final int position;
+
+        Entry(long sequence, long timestamp, long segmentBaseSequence, int position) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.segmentBaseSequence = segmentBaseSequence;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Longitud de cada entrada del índice.
+     */
+    static final int ENTRY_LENGTH = 28;
+
+    private static final String SUFFIX = ".idx";
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private static final String VERSION_FILE = "version";
+
+    // Versión 2: las conversaciones privadas se identifican con los apodos sin distinguir mayúsculas
+    private static final int INDEX_VERSION = 2;
+
+    private final Path directory;
+
+    // Entradas pendientes por escribir, agrupadas por conversación
+    private final Map<String, ByteBuffer> pendingEntries = new HashMap<>();
+
+    // Secuencia del último mensaje indexado
+    private long checkpoint;
+
+    private long pendingCheckpoint;
+
+    /**
+     * Abre el índice en el directorio indicado. Un índice de una versión anterior se borra, y el registro lo
+     * reconstruye desde sus segmentos.
+     *
+     * @param directory el directorio del índice; se crea si no existe.
+     * @throws IOException si no se puede crear el directorio o leer el punto de control.
+     */
+    HistoryIndex(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        upgrade();
+        Path checkpointFile = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpointFile)) {
+            checkpoint = Long.parseLong(new String(Files.readAllBytes(checkpointFile), StandardCharsets.US_ASCII).trim());
+        }
+        pendingCheckpoint = checkpoint;
+    }
+
+    private void upgrade() throws IOException {
+        Path versionFile = directory.resolve(VERSION_FILE);
+        if (Files.exists(versionFile) && Integer.parseInt(
+                new String(Files.readAllBytes(versionFile), StandardCharsets.US_ASCII).trim()) == INDEX_VERSION) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX) || name.equals(CHECKPOINT_FILE)) {
+                    Files.delete(file);
+                }
+            }
+        }
+        Files.write(versionFile, Integer.toString(INDEX_VERSION).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Obtiene la conversación privada entre dos usuarios; es la misma sin importar quién envía el mensaje ni cómo
+     * escribe los apodos, porque los apodos no distinguen mayúsculas.
+     *
+     * @param firstNickname el apodo de uno de los usuarios.
+     * @param secondNickname el apodo del otro usuario.
+     * @return la clave de la conversación.
+     */
+    static String privateConversation(String firstNickname, String secondNickname) {
+        String firstKey = SessionRegistry.keyOf(firstNickname);
+        String secondKey = SessionRegistry.keyOf(secondNickname);
+        return firstKey.compareTo(secondKey) <= 0
+                ? "@" + firstKey + "\n" + secondKey
+                : "@" + secondKey + "\n" + firstKey;
+    }
+
+    /**
+     * @param roomName el nombre de la sala.
+     * @return la clave de la conversación de la sala.
+     */
+    static String roomConversation(String roomName) {
+        return "#" + roomName;
+    }
+
+    /**
+     * Obtiene la conversación a la que pertenece un mensaje registrado.
+     *
+     * @param type el tipo del mensaje.
+     * @param sender el remitente.
+     * @param recipient el destinatario o la sala.
+     * @return la clave de la conversación, o null si el mensaje no pertenece a ninguna.
+     */
+    static String conversationOf(FrameType type, String sender, String recipient) {
+        switch (type) {
+            case PRIVATE:
+                return privateConversation(sender, recipient);
+            case ROOM:
+                return roomConversation(recipient);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return la secuencia del último mensaje indexado.
+     */
+    long getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Agrega un mensaje al índice. La entrada se escribe en el disco en el siguiente {@link #commit()}.
+     *
+     * @param sequence la secuencia del mensaje.
+     * @param timestamp la marca de tiempo del mensaje.
+     * @param type el tipo del mensaje.
+     * @param sender el remitente.
+     * @param recipient el destinatario o la sala.
+     * @param segmentBaseSequence la secuencia base del segmento donde está el mensaje.
+     * @param position la posición del mensaje dentro del segmento.
+     */
+    void add(long sequence, long timestamp, FrameType type, String sender, String recipient,
+             long segmentBaseSequence, int position) {
+        if (sequence <= checkpoint) {
+            return;
+        }
+        pendingCheckpoint = Math.max(pendingCheckpoint, sequence);
+        String conversation = conversationOf(type, sender, recipient);
+        if (conversation == null) {
+            return;
+        }
+        ByteBuffer entries = pendingEntries.computeIfAbsent(conversation, key -> ByteBuffer.allocate(ENTRY_LENGTH * 16));
+        if (entries.remaining() < ENTRY_LENGTH) {
+            ByteBuffer larger = ByteBuffer.allocate(entries.capacity() * 2);
+            entries.flip();
+            larger.put(entries);
+            entries = larger;
+            pendingEntries.put(conversation, entries);
+        }
+        entries.putLong(sequence).putLong(timestamp).putLong(segmentBaseSequence).putInt(position);
+    }
+
+    /**
+     * Escribe en el disco las entradas agregadas y actualiza el punto de control.
+     *
+     * @throws IOException si no se puede escribir el índice.
+     */
+    void commit() throws IOException {
+        for (Map.Entry<String, ByteBuffer> pending : pendingEntries.entrySet()) {
+            ByteBuffer entries = pending.getValue();
+            entries.flip();
+            append(fileOf(pending.getKey()), entries);
+        }
+        pendingEntries.clear();
+        if (pendingCheckpoint != checkpoint) {
+            Path temporary = directory.resolve(CHECKPOINT_FILE + ".tmp");
+            Files.write(temporary, Long.toString(pendingCheckpoint).getBytes(StandardCharsets.US_ASCII));
+            Files.move(temporary, directory.resolve(CHECKPOINT_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            checkpoint = pendingCheckpoint;
+        }
+    }
+
+    private static void append(Path file, ByteBuffer entries) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Tras una caída entre escribir las entradas y el punto de control, las entradas se vuelven a agregar:
+            // se omiten las que ya están y se descarta una entrada incompleta al final
+            long size = channel.size() - channel.size() % ENTRY_LENGTH;
+            long lastSequence = size == 0 ? 0 : readSequence(channel, size / ENTRY_LENGTH - 1);
+            while (entries.hasRemaining() && entries.getLong(entries.position()) <= lastSequence) {
+                entries.position(entries.position() + ENTRY_LENGTH);
+            }
+            long position = size;
+            while (entries.hasRemaining()) {
+                position += channel.write(entries, position);
+            }
+        }
+    }
+
+    /**
+     * Obtiene una página del historial de una conversación, en orden cronológico.
+     *
+     * @param conversation la clave de la conversación.
+     * @param beforeSequence la página termina antes de este mensaje; 0 o un valor negativo para la página más reciente.
+     * @param limit la cantidad máxima de entradas.
+     * @return las entradas de la página, de la más antigua a la más reciente.
+     * @throws IOException si no se puede leer el índice.
+     */
+    List<Entry> page(String conversation, long beforeSequence, int limit) throws IOException {
+        Path file = fileOf(conversation);
+        if (!Files.exists(file)) {
+            return Collections.emptyList();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long count = channel.size() / ENTRY_LENGTH;
+            long end = beforeSequence <= 0 ? count : lowerBound(channel, count, beforeSequence);
+            long start = Math.max(0, end - limit);
+            int length = (int) (end - start) * ENTRY_LENGTH;
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start * ENTRY_LENGTH + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            List<Entry> entries = new ArrayList<>(length / ENTRY_LENGTH);
+            while (buffer.remaining() >= ENTRY_LENGTH) {
+                entries.add(new Entry(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getInt()));
+            }
+            return entries;
+        }
+    }
+
+    // Índice de la primera entrada con secuencia mayor o igual a la indicada
+    private static long lowerBound(FileChannel channel, long count, long sequence) throws IOException {
+        long low = 0;
+        long high = count;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (readSequence(channel, middle) < sequence) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static long readSequence(FileChannel channel, long index) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, index * ENTRY_LENGTH + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of history index");
+            }
+        }
+        return buffer.getLong(0);
+    }
+
+    // Las claves se resumen con SHA-256 para que cualquier apodo o sala sea un nombre de archivo válido y corto
+    private Path fileOf(String conversation) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(conversation.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest) {
+                name.append(String.format("%02x", b));
+            }
+            return directory.resolve(name.append(SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,101 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * La clase LatencyHistogram es un histograma de duraciones (en nanosegundos) que se puede actualizar desde muchos
+ * hilos sin que compitan entre sí: cada intervalo es un {@link LongAdder}. Los intervalos son logarítmicos con
+ * cuatro subdivisiones por potencia de dos, así que un percentil tiene un error relativo de a lo sumo 25% sin
+ * importar la magnitud, con un arreglo fijo de 248 contadores.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+final class LatencyHistogram {
+
+    // Bits de subdivisión de cada potencia de dos
+    private static final int SUB_BUCKET_BITS = 2;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+
+    /**
+     * Inicializa un histograma vacío.
+     */
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Registra una duración.
+     *
+     * @param nanos la duración en nanosegundos; los valores negativos se cuentan como 0.
+     */
+    void record(long nanos) {
+        counts[indexOf(nanos)].increment();
+    }
+
+    /**
+     * @return una copia de los contadores de cada intervalo.
+     */
+    long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sum();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Calcula un percentil a partir de los contadores de los intervalos.
+     *
+     * @param bucketCounts los contadores de cada intervalo, por ejemplo la diferencia entre dos {@link #snapshot()}.
+     * @param percentile el percentil, entre 0 y 100.
+     * @return el límite superior del intervalo que contiene el percentil, en nanosegundos, o 0 si no hay valores.
+     */
+    static long percentile(long[] bucketCounts, double percentile) {
+        long total = 0;
+        for (long count : bucketCounts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            seen += bucketCounts[i];
+            if (seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(bucketCounts.length - 1);
+    }
+
+    // Intervalo de un valor: los primeros son exactos y luego hay cuatro por cada potencia de dos
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    // Mayor valor que cae en un intervalo
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        int subBucket = index & (SUB_BUCKETS - 1);
+        long lowerBound = (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
\ No newline at end of file
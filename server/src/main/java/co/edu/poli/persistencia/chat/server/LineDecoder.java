@@ -0,0 +1,109 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * La clase LineDecoder separa en líneas de texto UTF-8 los bytes leídos de un canal no bloqueante.
+ * <p>
+ * Reemplaza al BufferedReader de cada cliente en el motor NIO: las líneas completas se decodifican directamente
+ * desde el búfer de lectura y solo las líneas partidas entre dos lecturas se copian a un búfer auxiliar. Los motores
+ * bloqueantes también lo usan, para no acumular en memoria una línea sin límite.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class LineDecoder {
+
+    /**
+     * La longitud máxima por defecto de una línea del protocolo de texto, en bytes.
+     */
+    static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /**
+     * Recibe las líneas decodificadas.
+     */
+    @FunctionalInterface
+    interface LineConsumer {
+        /**
+         * @param line la línea sin el separador.
+         * @param length los bytes de la línea en UTF-8, sin el separador.
+         * @return falso para dejar de decodificar; verdadero en caso contrario.
+         */
+        boolean accept(String line, int length);
+    }
+
+    private final int maxLineLength;
+
+    // Bytes de una línea que todavía no ha llegado completa
+    private byte[] partial = new byte[0];
+    private int partialLength;
+
+    /**
+     * Inicializa una nueva instancia de la clase LineDecoder.
+     *
+     * @param maxLineLength la cantidad máxima de bytes que puede tener una línea.
+     */
+    LineDecoder(int maxLineLength) {
+        this.maxLineLength = maxLineLength;
+    }
+
+    /**
+     * Consume los bytes disponibles en el búfer y entrega cada línea completa al consumidor.
+     * El búfer debe estar en modo lectura (después de flip) y quedará completamente consumido.
+     *
+     * @param buffer el búfer con los bytes leídos del canal; debe tener un arreglo accesible.
+     * @param lineConsumer recibe cada línea sin el separador y su longitud en bytes; si devuelve falso se deja de
+     *                     decodificar.
+     * @return falso si el consumidor pidió detener la decodificación; verdadero en caso contrario.
+     * @throws IOException si una línea supera la longitud máxima permitida.
+     */
+    boolean decode(ByteBuffer buffer, LineConsumer lineConsumer) throws IOException {
+        byte[] bytes = buffer.array();
+        int start = buffer.arrayOffset() + buffer.position();
+        int end = buffer.arrayOffset() + buffer.limit();
+        buffer.position(buffer.limit());
+
+        for (int i = start; i < end; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            boolean keepDecoding;
+            if (partialLength == 0) {
+                keepDecoding = emit(bytes, start, i - start, lineConsumer);
+            } else {
+                append(bytes, start, i - start);
+                keepDecoding = emit(partial, 0, partialLength, lineConsumer);
+                partialLength = 0;
+            }
+            start = i + 1;
+            if (!keepDecoding) {
+                return false;
+            }
+        }
+        append(bytes, start, end - start);
+        return true;
+    }
+
+    private void append(byte[] bytes, int offset, int length) throws IOException {
+        if (partialLength + length > maxLineLength) {
+            throw new IOException("Line exceeds " + maxLineLength + " bytes");
+        }
+        if (partialLength + length > partial.length) {
+            partial = Arrays.copyOf(partial, Math.max(partialLength + length, partial.length * 2));
+        }
+        System.arraycopy(bytes, offset, partial, partialLength, length);
+        partialLength += length;
+    }
+
+    private static boolean emit(byte[] bytes, int offset, int length, LineConsumer lineConsumer) {
+        // Igual que BufferedReader.readLine(), se acepta "\r\n" como separador
+        if (length > 0 && bytes[offset + length - 1] == '\r') {
+            length--;
+        }
+        return lineConsumer.accept(new String(bytes, offset, length, StandardCharsets.UTF_8), length);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,140 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * La clase LocalClusterBus es un {@link ClusterBus} para nodos que corren en la misma JVM, pensado para probar y
+ * medir el clúster en una sola máquina.
+ * <p>
+ * El directorio es un mapa concurrente. Cada nodo recibe sus tramas en su propio hilo, en orden, como si llegaran
+ * por la red; las tramas se pasan como bytes para que cada nodo las decodifique igual que con un transporte real.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+public class LocalClusterBus implements ClusterBus {
+
+    private static final Logger logger = LogManager.getLogger(LocalClusterBus.class);
+
+    // Un apodo reclamado: el nodo que lo tiene y el apodo tal como lo escribió el usuario
+    private static final class Claim {
+        final String nodeId;
+        final String nickname;
+
+        Claim(String nodeId, String nickname) {
+            this.nodeId = nodeId;
+            this.nickname = nickname;
+        }
+    }
+
+    // Un nodo del clúster con el hilo que le entrega sus tramas
+    private static final class Node {
+        final Listener listener;
+        final ExecutorService inbox;
+
+        Node(String nodeId, Listener listener) {
+            this.listener = listener;
+            this.inbox = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "cluster-inbox-" + nodeId);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Claim> directory = new ConcurrentHashMap<>();
+
+    @Override
+    public void join(String nodeId, Listener listener) {
+        if (nodes.putIfAbsent(nodeId, new Node(nodeId, listener)) != null) {
+            throw new IllegalArgumentException("Node already in the cluster: " + nodeId);
+        }
+    }
+
+    @Override
+    public void leave(String nodeId) {
+        Node node = nodes.remove(nodeId);
+        if (node == null) {
+            return;
+        }
+        node.inbox.shutdown();
+        List<String> released = new ArrayList<>();
+        directory.forEach((key, claim) -> {
+            if (claim.nodeId.equals(nodeId) && directory.remove(key, claim)) {
+                released.add(claim.nickname);
+            }
+        });
+        for (String nickname : released) {
+            broadcast(nodeId, ClusterNode.presenceFrame(nickname));
+        }
+        logger.info("Node {} left the cluster, releasing {} nicknames", nodeId, released.size());
+    }
+
+    @Override
+    public Collection<String> nodeIds() {
+        return new ArrayList<>(nodes.keySet());
+    }
+
+    @Override
+    public boolean claim(String key, String nickname, String nodeId) {
+        return directory.putIfAbsent(key, new Claim(nodeId, nickname)) == null;
+    }
+
+    @Override
+    public void release(String key, String nodeId) {
+        directory.computeIfPresent(key, (ignored, claim) -> claim.nodeId.equals(nodeId) ? null : claim);
+    }
+
+    @Override
+    public String ownerOf(String key) {
+        Claim claim = directory.get(key);
+        return claim == null ? null : claim.nodeId;
+    }
+
+    @Override
+    public Collection<String> nicknames() {
+        List<String> nicknames = new ArrayList<>(directory.size());
+        for (Claim claim : directory.values()) {
+            nicknames.add(claim.nickname);
+        }
+        return nicknames;
+    }
+
+    @Override
+    public void send(String nodeId, byte[] frame) {
+        Node node = nodes.get(nodeId);
+        if (node != null) {
+            deliver(node, frame);
+        }
+    }
+
+    @Override
+    public void broadcast(String fromNodeId, byte[] frame) {
+        nodes.forEach((nodeId, node) -> {
+            if (!nodeId.equals(fromNodeId)) {
+                deliver(node, frame);
+            }
+        });
+    }
+
+    private static void deliver(Node node, byte[] frame) {
+        try {
+            node.inbox.execute(() -> node.listener.onFrame(frame));
+        } catch (RejectedExecutionException ignored) {
+            // El nodo salió del clúster mientras se le enviaba la trama
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,513 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * La clase LogSegment es un archivo del registro de mensajes ({@link MessageLog}), mapeado en memoria con un tamaño
+ * fijo. Los registros se agregan uno tras otro con el formato:
+ * <pre>
+ * int32   longitud de los datos del registro
+ * int32   CRC32 de los datos
+ * int64   secuencia
+ * int64   marca de tiempo (milisegundos desde la época)
+ * uint8   tipo ({@link FrameType})
+ * uint16  longitud del remitente, seguida del remitente en UTF-8
+ * uint16  longitud del destinatario, seguida del destinatario en UTF-8
+ * bytes   cuerpo en UTF-8 (lo que queda del registro)
+ * </pre>
+ * Un registro con longitud cero marca el final de los datos; al abrir un segmento existente se descarta cualquier
+ * registro incompleto o con un CRC inválido, como el que deja una caída a mitad de una escritura.
+ * <p>
+ * El segmento no es seguro para hilos: {@link MessageLog} serializa las escrituras y las sincronizaciones.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class LogSegment {
+
+    /**
+     * Recibe los registros que se recorren con {@link #forEachRecord(int, int, RecordConsumer)}.
+     */
+    interface RecordConsumer {
+        /**
+         * @param sequence la secuencia del registro.
+         * @param timestamp la marca de tiempo del registro.
+         * @param type el tipo del mensaje registrado.
+         * @param sender el remitente.
+         * @param recipient el destinatario o la sala.
+         * @param position la posición del registro dentro del segmento.
+         */
+        void accept(long sequence, long timestamp, FrameType type, String sender, String recipient, int position);
+    }
+
+    /**
+     * Un registro leído de un segmento.
+     */
+    static final class LogRecord {
+        final long sequence;
+        final long timestamp;
+        final FrameType type;
+        final String sender;
+        final String recipient;
+        final byte[] body;
+
+        LogRecord(long sequence, long timestamp, FrameType type, String sender, String recipient, byte[] body) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.type = type;
+            this.sender = sender;
+            this.recipient = recipient;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Longitud del encabezado de cada registro: la longitud de los datos y su CRC32.
+     */
+    static final int RECORD_HEADER_LENGTH = 8;
+
+    // Secuencia (8), marca de tiempo (8), tipo (1) y las dos longitudes de remitente y destinatario (2 + 2)
+    private static final int MIN_DATA_LENGTH = 21;
+
+    // El apodo del remitente y el mensaje vienen cada uno de una trama o línea de a lo sumo Frame.MAX_LENGTH bytes
+    private static final int MAX_DATA_LENGTH = MIN_DATA_LENGTH + 2 * Frame.MAX_LENGTH;
+
+    private static final String SUFFIX = ".log";
+
+    // Los archivos de los segmentos preparados de antemano, que se renombran cuando reciben su secuencia base
+    private static final String SPARE_PREFIX = "next";
+    private static final String SPARE_SUFFIX = ".log.tmp";
+
+    // El tamaño de página con el que se tocan las páginas de un segmento preparado
+    private static final int PAGE_SIZE = 4096;
+
+    // Cambia una sola vez, cuando el segmento preparado se renombra según su secuencia base
+    private volatile Path path;
+
+    private final long baseSequence;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer buffer;
+
+    // Posición donde se escribirá el siguiente registro
+    private int writePosition;
+
+    // Posición hasta la que los datos ya se sincronizaron con el disco
+    private int flushedPosition;
+
+    // Posición hasta la que los registros ya se agregaron al índice del historial
+    private int indexedPosition;
+
+    private long lastSequence;
+
+    private LogSegment(Path path, long baseSequence, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.baseSequence = baseSequence;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.lastSequence = baseSequence - 1;
+    }
+
+    /**
+     * Crea un segmento vacío.
+     *
+     * @param directory el directorio del registro.
+     * @param baseSequence la secuencia del primer registro del segmento, que forma el nombre del archivo.
+     * @param size el tamaño del segmento en bytes.
+     * @return el segmento.
+     * @throws IOException si no se puede crear o mapear el archivo.
+     */
+    static LogSegment create(Path directory, long baseSequence, int size) throws IOException {
+        return map(pathOf(directory, baseSequence), baseSequence, size);
+    }
+
+    /**
+     * Crea un segmento vacío que todavía no tiene secuencia base y toca cada una de sus páginas, para que el costo de
+     * crear el archivo, mapearlo y reservar su memoria no lo pague quien agrega el primer registro. Antes de usarlo
+     * hay que asignarle la secuencia base con {@link #assignBaseSequence(long)}.
+     *
+     * @param directory el directorio del registro.
+     * @param id distingue a los segmentos preparados que esperan a la vez.
+     * @param size el tamaño del segmento en bytes.
+     * @return el segmento preparado.
+     * @throws IOException si no se puede crear o mapear el archivo.
+     */
+    static LogSegment createSpare(Path directory, long id, int size) throws IOException {
+        LogSegment segment = map(directory.resolve(SPARE_PREFIX + "-" + id + SPARE_SUFFIX), 0, size);
+        for (int position = 0; position < size; position += PAGE_SIZE) {
+            segment.buffer.put(position, (byte) 0);
+        }
+        return segment;
+    }
+
+    /**
+     * @param path un archivo del directorio del registro.
+     * @return verdadero si el archivo es un segmento preparado de antemano.
+     */
+    static boolean isSpareFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(SPARE_PREFIX) && name.endsWith(SPARE_SUFFIX);
+    }
+
+    /**
+     * Recupera un segmento preparado que quedó de una ejecución anterior. Si alcanzó a recibir registros antes de una
+     * caída, se renombra según la secuencia de su primer registro; si no, se borra.
+     *
+     * @param directory el directorio del registro.
+     * @param spare el archivo del segmento preparado.
+     * @throws IOException si no se puede leer, renombrar o borrar el archivo.
+     */
+    static void recoverSpare(Path directory, Path spare) throws IOException {
+        LogSegment segment = open(spare, 0, 0);
+        long firstSequence = segment.writePosition == 0 ? -1 : segment.buffer.getLong(RECORD_HEADER_LENGTH);
+        segment.close();
+        if (firstSequence < 0) {
+            Files.delete(spare);
+        } else {
+            Files.move(spare, pathOf(directory, firstSequence), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Asigna la secuencia base a un segmento preparado con {@link #createSpare(Path, long, int)}. No toca el disco:
+     * el archivo conserva su nombre provisional hasta {@link #moveToBaseName(Path)}. El segmento devuelto comparte el
+     * archivo y la memoria mapeada del preparado, que deja de usarse.
+     *
+     * @param baseSequence la secuencia del primer registro del segmento.
+     * @return el segmento, listo para agregar registros.
+     */
+    LogSegment assignBaseSequence(long baseSequence) {
+        return new LogSegment(path, baseSequence, channel, buffer);
+    }
+
+    /**
+     * Renombra el archivo de un segmento preparado según su secuencia base, si aún tiene el nombre provisional.
+     *
+     * @param directory el directorio del registro.
+     * @throws IOException si no se puede renombrar el archivo.
+     */
+    void moveToBaseName(Path directory) throws IOException {
+        Path target = pathOf(directory, baseSequence);
+        if (!path.equals(target)) {
+            Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+            path = target;
+        }
+    }
+
+    /**
+     * @param directory el directorio del registro.
+     * @param baseSequence la secuencia del primer registro del segmento.
+     * @return el archivo del segmento.
+     */
+    static Path pathOf(Path directory, long baseSequence) {
+        return directory.resolve(String.format("%020d%s", baseSequence, SUFFIX));
+    }
+
+    /**
+     * Abre un segmento existente y busca el final de sus registros válidos.
+     *
+     * @param path el archivo del segmento.
+     * @param size el tamaño con el que se mapea el segmento; si el archivo es más grande se usa su tamaño.
+     * @return el segmento, listo para seguir agregando registros.
+     * @throws IOException si no se puede abrir o mapear el archivo.
+     */
+    static LogSegment open(Path path, int size) throws IOException {
+        return open(path, parseBaseSequence(path), size);
+    }
+
+    private static LogSegment open(Path path, long baseSequence, int size) throws IOException {
+        int fileSize = (int) Math.min(Integer.MAX_VALUE, Files.size(path));
+        LogSegment segment = map(path, baseSequence, Math.max(size, fileSize));
+        segment.recover();
+        return segment;
+    }
+
+    private static LogSegment map(Path path, long baseSequence, int size) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new LogSegment(path, baseSequence, channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param path un archivo del directorio del registro.
+     * @return verdadero si el archivo es un segmento.
+     */
+    static boolean isSegmentFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(SUFFIX) && name.length() == 20 + SUFFIX.length()
+                && name.chars().limit(20).allMatch(Character::isDigit);
+    }
+
+    /**
+     * @param path el archivo de un segmento.
+     * @return la secuencia del primer registro del segmento.
+     */
+    static long parseBaseSequence(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    private void recover() {
+        CRC32 crc = new CRC32();
+        int position = 0;
+        while (position + RECORD_HEADER_LENGTH + MIN_DATA_LENGTH <= buffer.capacity()) {
+            int dataLength = buffer.getInt(position);
+            if (dataLength < MIN_DATA_LENGTH || position + RECORD_HEADER_LENGTH + dataLength > buffer.capacity()) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.slice(position + RECORD_HEADER_LENGTH, dataLength));
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            lastSequence = buffer.getLong(position + RECORD_HEADER_LENGTH);
+            position += RECORD_HEADER_LENGTH + dataLength;
+        }
+        writePosition = position;
+        flushedPosition = position;
+        // Se borra el encabezado del registro incompleto, si lo hay, para que no se confunda con datos válidos
+        if (position + RECORD_HEADER_LENGTH <= buffer.capacity()) {
+            buffer.putLong(position, 0L);
+        }
+    }
+
+    /**
+     * Agrega un registro al final del segmento. Solo copia bytes en la memoria mapeada; no espera al disco.
+     *
+     * @param sequence la secuencia del registro.
+     * @param timestamp la marca de tiempo del registro.
+     * @param message el mensaje a registrar.
+     * @return falso si el registro no cabe en el segmento; verdadero en caso contrario.
+     */
+    boolean append(long sequence, long timestamp, OutboundMessage message) {
+        byte[] sender = toBytes(message.getSender());
+        byte[] recipient = toBytes(message.getRecipient());
+        int dataLength = MIN_DATA_LENGTH + sender.length + recipient.length + message.getBodyLength();
+        if (writePosition + RECORD_HEADER_LENGTH + dataLength > buffer.capacity()) {
+            return false;
+        }
+
+        int dataStart = writePosition + RECORD_HEADER_LENGTH;
+        int position = dataStart;
+        buffer.putLong(position, sequence);
+        position += 8;
+        buffer.putLong(position, timestamp);
+        position += 8;
+        buffer.put(position, message.getType().getCode());
+        position += 1;
+        buffer.putShort(position, (short) sender.length);
+        position += 2;
+        buffer.put(position, sender);
+        position += sender.length;
+        buffer.putShort(position, (short) recipient.length);
+        position += 2;
+        buffer.put(position, recipient);
+        position += recipient.length;
+        buffer.put(position, message.getBody(), message.getBodyOffset(), message.getBodyLength());
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(dataStart, dataLength));
+        buffer.putInt(writePosition + 4, (int) crc.getValue());
+        // La longitud se escribe al final: hasta entonces el registro no existe para quien lea el segmento
+        buffer.putInt(writePosition, dataLength);
+
+        writePosition += RECORD_HEADER_LENGTH + dataLength;
+        lastSequence = sequence;
+        return true;
+    }
+
+    private static byte[] toBytes(String value) {
+        return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Recorre los registros que empiezan entre dos posiciones del segmento, leyendo solo su cabecera.
+     *
+     * @param from la posición del primer registro.
+     * @param to la posición donde termina el último registro.
+     * @param consumer recibe cada registro.
+     */
+    void forEachRecord(int from, int to, RecordConsumer consumer) {
+        int position = from;
+        while (position < to) {
+            int dataLength = buffer.getInt(position);
+            int data = position + RECORD_HEADER_LENGTH;
+            long sequence = buffer.getLong(data);
+            long timestamp = buffer.getLong(data + 8);
+            FrameType type = FrameType.fromCode(buffer.get(data + 16));
+            int senderLength = buffer.getShort(data + 17) & 0xFFFF;
+            String sender = getString(data + 19, senderLength);
+            int recipientLength = buffer.getShort(data + 19 + senderLength) & 0xFFFF;
+            String recipient = getString(data + 21 + senderLength, recipientLength);
+            consumer.accept(sequence, timestamp, type, sender, recipient, position);
+            position = data + dataLength;
+        }
+    }
+
+    /**
+     * Lee el cuerpo de un registro del segmento.
+     *
+     * @param position la posición del registro, como la recibe {@link RecordConsumer}.
+     * @return el cuerpo en UTF-8.
+     */
+    byte[] readBody(int position) {
+        int dataLength = buffer.getInt(position);
+        int data = position + RECORD_HEADER_LENGTH;
+        int senderLength = buffer.getShort(data + 17) & 0xFFFF;
+        int recipientLength = buffer.getShort(data + 19 + senderLength) & 0xFFFF;
+        int bodyStart = 21 + senderLength + recipientLength;
+        byte[] body = new byte[dataLength - bodyStart];
+        buffer.get(data + bodyStart, body);
+        return body;
+    }
+
+    private String getString(int position, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lee un registro completo de un segmento sin mapearlo.
+     *
+     * @param channel el archivo del segmento, abierto para lectura.
+     * @param position la posición del registro.
+     * @return el registro, o null si en esa posición no hay un registro válido.
+     * @throws IOException si no se puede leer el archivo.
+     */
+    static LogRecord readRecord(FileChannel channel, int position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+        if (!readFully(channel, header, position)) {
+            return null;
+        }
+        int dataLength = header.getInt(0);
+        if (dataLength < MIN_DATA_LENGTH || dataLength > MAX_DATA_LENGTH) {
+            return null;
+        }
+        ByteBuffer data = ByteBuffer.allocate(dataLength);
+        if (!readFully(channel, data, position + RECORD_HEADER_LENGTH)) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data.array());
+        if ((int) crc.getValue() != header.getInt(4)) {
+            return null;
+        }
+        byte[] bytes = data.array();
+        int senderLength = data.getShort(17) & 0xFFFF;
+        String sender = new String(bytes, 19, senderLength, StandardCharsets.UTF_8);
+        int recipientLength = data.getShort(19 + senderLength) & 0xFFFF;
+        String recipient = new String(bytes, 21 + senderLength, recipientLength, StandardCharsets.UTF_8);
+        int bodyStart = 21 + senderLength + recipientLength;
+        byte[] body = new byte[dataLength - bodyStart];
+        System.arraycopy(bytes, bodyStart, body, 0, body.length);
+        return new LogRecord(data.getLong(0), data.getLong(8), FrameType.fromCode(bytes[16]), sender, recipient, body);
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sincroniza con el disco los registros escritos hasta la posición indicada.
+     *
+     * @param position la posición hasta la que se sincroniza.
+     */
+    void flush(int position) {
+        if (position > flushedPosition) {
+            buffer.force(flushedPosition, position - flushedPosition);
+            flushedPosition = position;
+        }
+    }
+
+    /**
+     * @return el archivo del segmento.
+     */
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return la secuencia del primer registro del segmento.
+     */
+    long getBaseSequence() {
+        return baseSequence;
+    }
+
+    /**
+     * @return la secuencia del último registro, o una menos que la secuencia base si el segmento está vacío.
+     */
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * @return la posición hasta la que los registros ya se sincronizaron con el disco.
+     */
+    int getFlushedPosition() {
+        return flushedPosition;
+    }
+
+    /**
+     * @return la posición hasta la que los registros ya se agregaron al índice del historial.
+     */
+    int getIndexedPosition() {
+        return indexedPosition;
+    }
+
+    /**
+     * @param indexedPosition la posición hasta la que los registros ya se agregaron al índice del historial.
+     */
+    void setIndexedPosition(int indexedPosition) {
+        this.indexedPosition = indexedPosition;
+    }
+
+    /**
+     * @return la posición donde se escribirá el siguiente registro.
+     */
+    int getWritePosition() {
+        return writePosition;
+    }
+
+    /**
+     * Cierra el archivo del segmento. La memoria mapeada se libera cuando deja de usarse.
+     */
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Cierra el segmento y borra su archivo, como se hace con un segmento preparado que no llegó a usarse.
+     *
+     * @throws IOException si no se puede borrar el archivo.
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+}
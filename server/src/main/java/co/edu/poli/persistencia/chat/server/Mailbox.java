@@ -0,0 +1,318 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * La clase Mailbox es el buzón en disco de un usuario desconectado: un archivo de solo agregado con los mensajes
+ * privados que recibió mientras no estaba. Cada mensaje se guarda con el formato:
+ * <pre>
+ * int32   longitud de los datos del mensaje
+ * int32   CRC32 de los datos
+ * int64   marca de tiempo (milisegundos desde la época)
+ * uint16  longitud del remitente, seguida del remitente en UTF-8
+ * bytes   cuerpo en UTF-8 (lo que queda del mensaje)
+ * </pre>
+ * El buzón se lee por partes desde una posición, así la entrega nunca carga todo el buzón en memoria.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class Mailbox {
+
+    /**
+     * Un mensaje leído del buzón.
+     */
+    static final class StoredMessage {
+        final long timestamp;
+        final String sender;
+        final byte[] body;
+        // Posición del buzón donde empieza el siguiente mensaje
+        final long nextOffset;
+
+        StoredMessage(long timestamp, String sender, byte[] body, long nextOffset) {
+            this.timestamp = timestamp;
+            this.sender = sender;
+            this.body = body;
+            this.nextOffset = nextOffset;
+        }
+    }
+
+    private static final int HEADER_LENGTH = 8;
+
+    // Marca de tiempo (8) y longitud del remitente (2)
+    private static final int MIN_DATA_LENGTH = 10;
+
+    private final String nickname;
+
+    private final Path path;
+
+    // Protege el archivo, el contador y el estado de la entrega
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Mensajes guardados, o -1 si aún no se ha contado el archivo
+    private int messageCount = -1;
+
+    private boolean delivering;
+
+    /**
+     * Inicializa una nueva instancia de la clase Mailbox.
+     *
+     * @param nickname el apodo del dueño del buzón, en la forma de {@link SessionRegistry#keyOf(String)}.
+     * @param path el archivo del buzón; puede no existir todavía.
+     */
+    Mailbox(String nickname, Path path) {
+        this.nickname = nickname;
+        this.path = path;
+    }
+
+    /**
+     * @return el apodo del dueño del buzón, en la forma de {@link SessionRegistry#keyOf(String)}.
+     */
+    String getNickname() {
+        return nickname;
+    }
+
+    /**
+     * Guarda un mensaje al final del buzón.
+     *
+     * @param timestamp la marca de tiempo del mensaje.
+     * @param message el mensaje privado.
+     * @param maxMessages la cantidad máxima de mensajes del buzón.
+     * @param sync verdadero para sincronizar el archivo con el disco antes de volver.
+     * @return falso si el buzón está lleno; verdadero si el mensaje quedó guardado.
+     * @throws IOException si no se puede escribir el archivo.
+     */
+    boolean append(long timestamp, OutboundMessage message, int maxMessages, boolean sync) throws IOException {
+        byte[] sender = message.getSender().getBytes(StandardCharsets.UTF_8);
+        int dataLength = MIN_DATA_LENGTH + sender.length + message.getBodyLength();
+        ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + dataLength);
+        record.putInt(dataLength);
+        record.putInt(0);
+        record.putLong(timestamp);
+        record.putShort((short) sender.length);
+        record.put(sender);
+        record.put(message.getBody(), message.getBodyOffset(), message.getBodyLength());
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_LENGTH, dataLength);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+
+        lock.lock();
+        try {
+            if (count() >= maxMessages) {
+                return false;
+            }
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+                if (sync) {
+                    channel.force(false);
+                }
+            }
+            messageCount++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marca el inicio de una entrega. Solo puede haber una entrega a la vez por buzón.
+     *
+     * @return verdadero si el buzón tiene mensajes y no había otra entrega en curso.
+     */
+    boolean startDelivery() {
+        lock.lock();
+        try {
+            if (delivering || !Files.exists(path)) {
+                return false;
+            }
+            delivering = true;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lee los mensajes siguientes desde una posición del buzón.
+     *
+     * @param offset la posición del primer mensaje a leer.
+     * @param maxMessages la cantidad máxima de mensajes a leer.
+     * @param maxBytes la cantidad aproximada de bytes a leer; siempre se lee al menos un mensaje.
+     * @return los mensajes leídos; vacío si no hay más mensajes válidos.
+     * @throws IOException si no se puede leer el archivo.
+     */
+    List<StoredMessage> read(long offset, int maxMessages, int maxBytes) throws IOException {
+        List<StoredMessage> messages = new ArrayList<>();
+        lock.lock();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long position = offset;
+            long size = channel.size();
+            int readBytes = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            CRC32 crc = new CRC32();
+            while (messages.size() < maxMessages && (messages.isEmpty() || readBytes < maxBytes)
+                    && position + HEADER_LENGTH <= size) {
+                header.clear();
+                readFully(channel, header, position);
+                int dataLength = header.getInt(0);
+                if (dataLength < MIN_DATA_LENGTH || position + HEADER_LENGTH + dataLength > size) {
+                    break;
+                }
+                ByteBuffer data = ByteBuffer.allocate(dataLength);
+                readFully(channel, data, position + HEADER_LENGTH);
+                crc.reset();
+                crc.update(data.array());
+                if ((int) crc.getValue() != header.getInt(4)) {
+                    break;
+                }
+                long timestamp = data.getLong(0);
+                int senderLength = data.getShort(8) & 0xFFFF;
+                String sender = new String(data.array(), MIN_DATA_LENGTH, senderLength, StandardCharsets.UTF_8);
+                int bodyStart = MIN_DATA_LENGTH + senderLength;
+                byte[] body = new byte[dataLength - bodyStart];
+                System.arraycopy(data.array(), bodyStart, body, 0, body.length);
+                position += HEADER_LENGTH + dataLength;
+                readBytes += HEADER_LENGTH + dataLength;
+                messages.add(new StoredMessage(timestamp, sender, body, position));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return messages;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of mailbox");
+            }
+        }
+    }
+
+    /**
+     * Termina la entrega y borra el archivo. Se invoca cuando ya no quedan mensajes válidos desde la posición indicada.
+     *
+     * @param offset la posición hasta la que se entregaron los mensajes.
+     * @return verdadero si después de esa posición quedaban bytes que no forman un mensaje válido.
+     * @throws IOException si no se puede borrar el archivo.
+     */
+    boolean finishDelivery(long offset) throws IOException {
+        lock.lock();
+        try {
+            boolean corruptTail = Files.exists(path) && Files.size(path) > offset;
+            Files.deleteIfExists(path);
+            messageCount = 0;
+            delivering = false;
+            return corruptTail;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Interrumpe la entrega, por ejemplo porque el usuario se desconectó, y quita del buzón los mensajes ya
+     * entregados. Los demás se entregarán en la siguiente conexión.
+     *
+     * @param offset la posición hasta la que se entregaron los mensajes.
+     * @throws IOException si no se puede reescribir el archivo.
+     */
+    void abortDelivery(long offset) throws IOException {
+        lock.lock();
+        try {
+            delivering = false;
+            messageCount = -1;
+            if (offset == 0 || !Files.exists(path)) {
+                return;
+            }
+            Path remaining = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel source = FileChannel.open(path, StandardOpenOption.READ);
+                 FileChannel target = FileChannel.open(remaining, StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long position = offset;
+                long size = source.size();
+                while (position < size) {
+                    position += source.transferTo(position, size - position, target);
+                }
+            }
+            Files.move(remaining, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Borra el buzón si su último mensaje es anterior al límite y no hay una entrega en curso.
+     *
+     * @param cutoff la marca de tiempo límite.
+     * @return verdadero si el buzón se borró.
+     * @throws IOException si no se puede borrar el archivo.
+     */
+    boolean deleteIfExpired(long cutoff) throws IOException {
+        lock.lock();
+        try {
+            if (delivering || !Files.exists(path) || Files.getLastModifiedTime(path).toMillis() >= cutoff) {
+                return false;
+            }
+            Files.delete(path);
+            messageCount = 0;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return la cantidad de mensajes guardados en el buzón.
+     * @throws IOException si no se puede leer el archivo.
+     */
+    int count() throws IOException {
+        lock.lock();
+        try {
+            if (messageCount < 0) {
+                messageCount = countMessages();
+            }
+            return messageCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int countMessages() throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long position = 0;
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            while (position + HEADER_LENGTH <= size) {
+                header.clear();
+                readFully(channel, header, position);
+                int dataLength = header.getInt(0);
+                if (dataLength < MIN_DATA_LENGTH || position + HEADER_LENGTH + dataLength > size) {
+                    break;
+                }
+                position += HEADER_LENGTH + dataLength;
+                count++;
+            }
+        }
+        return count;
+    }
+}
\ No newline at end of file
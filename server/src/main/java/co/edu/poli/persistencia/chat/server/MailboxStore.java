@@ -0,0 +1,372 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+
+/**
+ * La clase MailboxStore guarda los mensajes privados dirigidos a usuarios desconectados y se los entrega cuando
+ * vuelven a conectarse (store-and-forward). Cada usuario tiene un buzón en disco ({@link Mailbox}) con un límite de
+ * mensajes; los mensajes más antiguos que el tiempo de expiración se descartan. Los buzones se identifican con
+ * {@link SessionRegistry#keyOf(String)}, porque los apodos no distinguen mayúsculas.
+ * <p>
+ * Todo el acceso a disco lo hace un único hilo, así los hilos que enrutan los mensajes nunca esperan al disco y un
+ * buzón nunca recibe mensajes nuevos entre la lectura de una parte y el fin de su entrega. La entrega se hace por
+ * partes: cada parte se encola solo cuando la cola de salida del usuario tiene espacio para ella, de modo que un
+ * buzón grande nunca se carga completo en memoria ni desborda la cola, y la siguiente parte se lee solo cuando se sabe
+ * cuántos mensajes de la anterior se aceptaron. Si alguno se rechaza, el buzón conserva ese mensaje y los siguientes.
+ * <p>
+ * En un clúster, el buzón de cada usuario lo guarda un solo nodo (ver {@link ClusterNode#remoteMailboxNodeOf}), que
+ * se lo entrega por el bus al nodo donde se conecte.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class MailboxStore {
+
+    private static final Logger logger = LogManager.getLogger(MailboxStore.class);
+
+    /**
+     * Quien recibe la entrega de un buzón: la cola de salida de un usuario local o, en un clúster, el nodo donde está
+     * conectado el usuario.
+     */
+    interface Recipient {
+        /**
+         * @return verdadero si el usuario ya no puede recibir la entrega, por ejemplo porque se desconectó.
+         */
+        boolean isClosed();
+
+        /**
+         * @param messageCount la cantidad de mensajes que se quieren entregar.
+         * @param byteCount la cantidad aproximada de bytes que se quieren entregar.
+         * @return verdadero si se pueden entregar sin desbordar la cola del usuario.
+         */
+        boolean hasCapacityFor(int messageCount, long byteCount);
+
+        /**
+         * Entrega una parte del buzón, en orden. Después del primer mensaje rechazado no se entrega ninguno más.
+         *
+         * @param messages los mensajes a entregar.
+         * @param accepted recibe, desde cualquier hilo, la cantidad de mensajes aceptados desde el principio de la
+         * parte. Si no se invoca antes de {@link #ACK_TIMEOUT_MILLIS}, la entrega se suspende sin acortar el buzón.
+         */
+        void offer(List<OutboundMessage> messages, IntConsumer accepted);
+    }
+
+    /**
+     * La cola de salida de un usuario conectado en este servidor.
+     */
+    static final class QueueRecipient implements Recipient {
+        private final OutboundQueue queue;
+
+        QueueRecipient(OutboundQueue queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return queue.isClosed();
+        }
+
+        @Override
+        public boolean hasCapacityFor(int messageCount, long byteCount) {
+            return queue.hasCapacityFor(messageCount, byteCount);
+        }
+
+        @Override
+        public void offer(List<OutboundMessage> messages, IntConsumer accepted) {
+            offerFrom(messages, 0, accepted);
+        }
+
+        // Cada mensaje se encola cuando se sabe que el anterior quedó en la cola. En una conexión no bloqueante solo
+        // el primero pasa por el buzón del bucle: el resultado llega en el hilo del bucle, que encola los demás
+        private void offerFrom(List<OutboundMessage> messages, int index, IntConsumer accepted) {
+            if (index == messages.size()) {
+                accepted.accept(index);
+                return;
+            }
+            queue.offer(messages.get(index), queued -> {
+                if (queued) {
+                    offerFrom(messages, index + 1, accepted);
+                } else {
+                    accepted.accept(index);
+                }
+            });
+        }
+    }
+
+    private static final String SUFFIX = ".mbox";
+
+    /**
+     * Cantidad máxima de mensajes de cada parte de la entrega.
+     */
+    static final int CHUNK_MESSAGES = 64;
+
+    /**
+     * Cantidad máxima de bytes de cada parte de la entrega.
+     */
+    static final int CHUNK_BYTES = 64 * 1024;
+
+    // Espera antes de reintentar una parte cuando la cola del usuario no tiene espacio
+    private static final long BACKPRESSURE_DELAY_MILLIS = 20;
+
+    /**
+     * Espera máxima por la cantidad de mensajes aceptados de una parte, por ejemplo si el nodo donde se conectó el
+     * usuario sale del clúster. Los mensajes de esa parte se vuelven a entregar en la siguiente conexión, aunque
+     * alguno ya hubiera llegado.
+     */
+    static final long ACK_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final Path directory;
+
+    private final int maxMessages;
+
+    private final long ttlMillis;
+
+    private final boolean sync;
+
+    private final ConcurrentHashMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mailbox-store");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Inicializa una nueva instancia de la clase MailboxStore.
+     *
+     * @param directory el directorio de los buzones; se crea si no existe.
+     * @param maxMessages la cantidad máxima de mensajes de cada buzón.
+     * @param ttlMillis los milisegundos que se conserva un mensaje antes de descartarlo.
+     * @param sync verdadero para sincronizar cada mensaje guardado con el disco.
+     * @throws IOException si no se puede crear el directorio.
+     */
+    MailboxStore(Path directory, int maxMessages, long ttlMillis, boolean sync) throws IOException {
+        this.directory = directory;
+        this.maxMessages = maxMessages;
+        this.ttlMillis = ttlMillis;
+        this.sync = sync;
+        Files.createDirectories(directory);
+        mergeMixedCaseMailboxes();
+        long sweepMillis = Math.max(TimeUnit.MINUTES.toMillis(1), Math.min(ttlMillis, TimeUnit.HOURS.toMillis(1)));
+        executor.scheduleWithFixedDelay(this::deleteExpired, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Guarda un mensaje privado en el buzón de su destinatario y le informa el resultado al emisor.
+     *
+     * @param message el mensaje privado.
+     * @param senderReply envía al emisor, que puede estar conectado en otro nodo del clúster, el resultado.
+     * @param onStored se invoca después de guardar el mensaje, por si el destinatario se conectó mientras tanto.
+     */
+    void store(OutboundMessage message, Consumer<String> senderReply, Runnable onStored) {
+        long timestamp = System.currentTimeMillis();
+        String recipientNickname = message.getRecipient();
+        executor.execute(() -> {
+            try {
+                if (mailbox(SessionRegistry.keyOf(recipientNickname)).append(timestamp, message, maxMessages, sync)) {
+                    senderReply.accept("User " + recipientNickname
+                            + " is offline; the message will be delivered when they connect.");
+                    onStored.run();
+                } else {
+                    senderReply.accept("Mailbox of " + recipientNickname + " is full; the message was not saved.");
+                }
+            } catch (IOException e) {
+                logger.error("Could not store message for {}: {}", recipientNickname, e.getMessage());
+                senderReply.accept("Could not save the message for " + recipientNickname + ".");
+            }
+        });
+    }
+
+    /**
+     * Entrega al usuario los mensajes de su buzón, si tiene alguno. La entrega continúa en segundo plano.
+     *
+     * @param clientNickname el apodo del usuario que se acaba de conectar.
+     * @param clientOutputQueue la cola de salida del usuario.
+     */
+    void deliver(String clientNickname, OutboundQueue clientOutputQueue) {
+        deliver(clientNickname, new QueueRecipient(clientOutputQueue));
+    }
+
+    /**
+     * Entrega los mensajes del buzón de un usuario, si tiene alguno, a quien los recibe en su nombre. La entrega
+     * continúa en segundo plano.
+     *
+     * @param clientNickname el apodo del usuario.
+     * @param recipient recibe los mensajes, por ejemplo el nodo del clúster donde se conectó el usuario.
+     */
+    void deliver(String clientNickname, Recipient recipient) {
+        executor.execute(() -> {
+            Mailbox mailbox = mailbox(SessionRegistry.keyOf(clientNickname));
+            if (!mailbox.startDelivery()) {
+                return;
+            }
+            try {
+                recipient.offer(List.of(OutboundMessage.line("You have " + mailbox.count() + " offline messages.")),
+                        accepted -> { });
+            } catch (IOException e) {
+                logger.error("Could not read mailbox of {}: {}", clientNickname, e.getMessage());
+            }
+            deliverChunk(mailbox, clientNickname, recipient, 0);
+        });
+    }
+
+    private void deliverChunk(Mailbox mailbox, String clientNickname, Recipient recipient, long offset) {
+        long delivered = offset;
+        try {
+            if (recipient.isClosed()) {
+                mailbox.abortDelivery(delivered);
+                return;
+            }
+            if (!recipient.hasCapacityFor(CHUNK_MESSAGES, CHUNK_BYTES)) {
+                // La cola del usuario está ocupada: se reintenta cuando su escritor haya avanzado
+                executor.schedule(() -> deliverChunk(mailbox, clientNickname, recipient, offset),
+                        BACKPRESSURE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            long cutoff = System.currentTimeMillis() - ttlMillis;
+            List<Mailbox.StoredMessage> chunk = mailbox.read(offset, CHUNK_MESSAGES, CHUNK_BYTES);
+            if (chunk.isEmpty()) {
+                if (mailbox.finishDelivery(delivered)) {
+                    logger.error("Discarded a corrupt tail in the mailbox of {}", mailbox.getNickname());
+                }
+                mailboxes.remove(mailbox.getNickname(), mailbox);
+                return;
+            }
+
+            // ends.get(k) es la posición del buzón hasta la que se entregó cuando se aceptan los primeros k mensajes;
+            // los mensajes expirados cuentan como entregados
+            List<OutboundMessage> messages = new ArrayList<>(chunk.size());
+            List<Long> ends = new ArrayList<>(chunk.size() + 1);
+            ends.add(offset);
+            for (Mailbox.StoredMessage stored : chunk) {
+                if (stored.timestamp >= cutoff) {
+                    messages.add(OutboundMessage.privateMessage(stored.sender, clientNickname, stored.body));
+                    ends.add(stored.nextOffset);
+                } else {
+                    ends.set(ends.size() - 1, stored.nextOffset);
+                }
+            }
+            AtomicBoolean answered = new AtomicBoolean();
+            ScheduledFuture<?> timeout = executor.schedule(() -> {
+                if (answered.compareAndSet(false, true)) {
+                    logger.warn("No confirmation for a part of the mailbox of {}", mailbox.getNickname());
+                    chunkDelivered(mailbox, clientNickname, recipient, offset, false);
+                }
+            }, ACK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            recipient.offer(messages, accepted -> {
+                if (answered.compareAndSet(false, true)) {
+                    timeout.cancel(false);
+                    executor.execute(() -> chunkDelivered(mailbox, clientNickname, recipient, ends.get(accepted),
+                            accepted == messages.size()));
+                }
+            });
+        } catch (IOException e) {
+            logger.error("Could not deliver mailbox of {}: {}", mailbox.getNickname(), e.getMessage());
+            try {
+                mailbox.abortDelivery(delivered);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // Continúa la entrega cuando se acepta toda una parte, o la suspende en el primer mensaje rechazado
+    private void chunkDelivered(Mailbox mailbox, String clientNickname, Recipient recipient, long delivered,
+                                boolean complete) {
+        if (complete) {
+            deliverChunk(mailbox, clientNickname, recipient, delivered);
+            return;
+        }
+        try {
+            mailbox.abortDelivery(delivered);
+        } catch (IOException e) {
+            logger.error("Could not deliver mailbox of {}: {}", mailbox.getNickname(), e.getMessage());
+        }
+    }
+
+    private Mailbox mailbox(String key) {
+        return mailboxes.computeIfAbsent(key, mailboxKey -> new Mailbox(mailboxKey,
+                directory.resolve(fileName(mailboxKey))));
+    }
+
+    // Los buzones guardados antes de que los apodos dejaran de distinguir mayúsculas se unen al buzón de su clave.
+    // El archivo no tiene encabezado, así que basta con agregar sus mensajes al final del otro
+    private void mergeMixedCaseMailboxes() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                if (!path.getFileName().toString().endsWith(SUFFIX)) {
+                    continue;
+                }
+                String key = SessionRegistry.keyOf(nicknameOf(path));
+                Path target = directory.resolve(fileName(key));
+                if (target.equals(path)) {
+                    continue;
+                }
+                if (Files.exists(target)) {
+                    Files.write(target, Files.readAllBytes(path), StandardOpenOption.APPEND);
+                    Files.delete(path);
+                } else {
+                    Files.move(path, target);
+                }
+                logger.info("Merged mailbox {} into the mailbox of {}", path.getFileName(), key);
+            }
+        }
+    }
+
+    // El apodo se codifica en hexadecimal para que cualquier apodo sea un nombre de archivo válido
+    private static String fileName(String nickname) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : nickname.getBytes(StandardCharsets.UTF_8)) {
+            name.append(String.format("%02x", b));
+        }
+        return name.append(SUFFIX).toString();
+    }
+
+    private static String nicknameOf(Path path) {
+        String name = path.getFileName().toString();
+        String hex = name.substring(0, name.length() - SUFFIX.length());
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void deleteExpired() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).forEach(path -> {
+                try {
+                    Mailbox mailbox = mailbox(SessionRegistry.keyOf(nicknameOf(path)));
+                    if (mailbox.deleteIfExpired(cutoff)) {
+                        mailboxes.remove(mailbox.getNickname(), mailbox);
+                        logger.info("Deleted expired mailbox of {}", mailbox.getNickname());
+                    }
+                } catch (IOException | IllegalArgumentException e) {
+                    logger.error("Could not expire mailbox {}: {}", path.getFileName(), e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            logger.error("Could not list mailboxes: {}", e.getMessage());
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,101 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * La clase MessageAudit escribe en la bitácora de auditoría los mensajes que enruta el servidor.
+ * <p>
+ * Se llama en el hilo que enruta cada mensaje, así que no arma cadenas: los datos se pasan como parámetros al
+ * logger {@value #LOGGER_NAME}, que los formatea en su propio hilo. Según el {@link Level} se registran solo los
+ * datos del mensaje o también el cuerpo, y con la muestra se audita en promedio uno de cada N mensajes.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+final class MessageAudit {
+
+    /**
+     * Nombre del logger de la bitácora de auditoría.
+     */
+    static final String LOGGER_NAME = "co.edu.poli.persistencia.chat.audit";
+
+    /**
+     * Qué se escribe por cada mensaje auditado.
+     */
+    enum Level {
+        /**
+         * No se audita ningún mensaje.
+         */
+        OFF,
+        /**
+         * El remitente, el destino y el tamaño del cuerpo.
+         */
+        METADATA,
+        /**
+         * Los datos del mensaje y el cuerpo.
+         */
+        FULL;
+
+        /**
+         * Obtiene el nivel a partir de su nombre en la línea de comandos.
+         *
+         * @param name el nombre del nivel, sin importar mayúsculas.
+         * @return el nivel.
+         * @throws IllegalArgumentException si el nombre no corresponde a ningún nivel.
+         */
+        static Level fromName(String name) {
+            for (Level level : values()) {
+                if (level.name().equalsIgnoreCase(name)) {
+                    return level;
+                }
+            }
+            throw new IllegalArgumentException("Unknown message audit level: " + name);
+        }
+    }
+
+    private static final Logger logger = LogManager.getLogger(LOGGER_NAME);
+
+    private final Level level;
+
+    private final int sample;
+
+    /**
+     * Crea la auditoría de mensajes.
+     *
+     * @param level qué se escribe por cada mensaje.
+     * @param sample se audita en promedio uno de cada tantos mensajes; 1 para auditarlos todos.
+     */
+    MessageAudit(Level level, int sample) {
+        this.level = level;
+        this.sample = sample;
+    }
+
+    /**
+     * Audita un mensaje privado o de sala, si le corresponde según el nivel y la muestra.
+     *
+     * @param message el mensaje enrutado.
+     */
+    void record(OutboundMessage message) {
+        if (level == Level.OFF || !logger.isInfoEnabled()) {
+            return;
+        }
+        if (sample > 1 && ThreadLocalRandom.current().nextInt(sample) != 0) {
+            return;
+        }
+        String target = message.getType() == FrameType.ROOM ? "#" : "@";
+        if (level == Level.FULL) {
+            logger.info("{} -> {}{} ({} bytes): {}", message.getSender(), target, message.getRecipient(),
+                    Unbox.box(message.getBodyLength()), new String(message.getBody(), message.getBodyOffset(),
+                            message.getBodyLength(), StandardCharsets.UTF_8));
+        } else {
+            logger.info("{} -> {}{} ({} bytes)", message.getSender(), target, message.getRecipient(),
+                    Unbox.box(message.getBodyLength()));
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,671 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * La clase MessageLog es el registro durable, de solo agregado, de los mensajes que enruta el servidor. Los
+ * registros se escriben en segmentos mapeados en memoria ({@link LogSegment}); cuando un segmento se llena se pasa
+ * al siguiente, que el hilo de sincronización ya preparó, y los segmentos más antiguos se borran según la política de
+ * retención.
+ * <p>
+ * Agregar un registro solo copia bytes en la memoria mapeada. Un único hilo sincroniza con el disco todo lo que se
+ * agregó desde la última sincronización (group commit), así el costo de cada sincronización se reparte entre todos
+ * los mensajes que llegaron mientras tanto. La {@link Durability} define cuándo se sincroniza y cuándo se entrega
+ * el mensaje.
+ * <p>
+ * Después de cada sincronización, el mismo hilo agrega los mensajes sincronizados al índice del historial
+ * ({@link HistoryIndex}), que permite leer el historial de una conversación por páginas, y los entrega al índice de
+ * búsqueda ({@link SearchIndex}), que los indexa en su propio hilo.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class MessageLog {
+
+    private static final Logger logger = LogManager.getLogger(MessageLog.class);
+
+    /**
+     * Cuándo se sincronizan los registros con el disco.
+     */
+    enum Durability {
+        /**
+         * Cada mensaje se entrega solo después de sincronizarse con el disco. El hilo de sincronización trabaja
+         * sin pausa, agrupando los mensajes que llegan mientras sincroniza.
+         */
+        PER_MESSAGE,
+
+        /**
+         * Los mensajes se entregan de inmediato y se sincronizan en lotes, a intervalos fijos. Una caída puede
+         * perder los mensajes del último intervalo.
+         */
+        BATCHED,
+
+        /**
+         * Los mensajes se entregan de inmediato y el sistema operativo decide cuándo escribirlos en el disco. Una
+         * caída del proceso no pierde mensajes, pero una caída del equipo sí.
+         */
+        OS;
+
+        /**
+         * Obtiene el modo a partir de su nombre ("per-message", "batched" u "os").
+         *
+         * @param name el nombre del modo.
+         * @return el modo correspondiente.
+         * @throws IllegalArgumentException si el nombre no corresponde a ningún modo.
+         */
+        static Durability fromName(String name) {
+            for (Durability durability : values()) {
+                if (durability.name().replace('_', '-').equalsIgnoreCase(name)) {
+                    return durability;
+                }
+            }
+            throw new IllegalArgumentException("Unknown log durability: " + name);
+        }
+    }
+
+    /**
+     * Una página de resultados de una búsqueda.
+     */
+    static final class SearchPage {
+        final List<LogSegment.LogRecord> records;
+        // El valor de beforeSequence para pedir la página siguiente, o 0 si no hay más resultados
+        final long nextBeforeSequence;
+
+        SearchPage(List<LogSegment.LogRecord> records, long nextBeforeSequence) {
+            this.records = records;
+            this.nextBeforeSequence = nextBeforeSequence;
+        }
+    }
+
+    // Un mensaje que espera ser sincronizado para entregarse (solo en PER_MESSAGE)
+    private static final class PendingDelivery {
+        final long sequence;
+        final Runnable delivery;
+
+        PendingDelivery(long sequence, Runnable delivery) {
+            this.sequence = sequence;
+            this.delivery = delivery;
+        }
+    }
+
+    // Segmentos que el hilo de sincronización mantiene preparados, para que quien agrega nunca tenga que esperarlo
+    private static final int SPARE_SEGMENTS = 2;
+
+    private final Path directory;
+
+    private final HistoryIndex historyIndex;
+
+    // El índice de las palabras de los mensajes, o null si no se indexan
+    private final SearchIndex searchIndex;
+
+    private final Durability durability;
+
+    private final int segmentBytes;
+
+    private final long flushIntervalMillis;
+
+    private final long retentionMillis;
+
+    private final long retentionBytes;
+
+    // Protege el segmento actual, la secuencia y las listas de pendientes
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pendingFlush = lock.newCondition();
+
+    private LogSegment currentSegment;
+
+    // Los segmentos que reemplazan al actual cuando se llena, preparados por el hilo de sincronización
+    private final ArrayDeque<LogSegment> spareSegments = new ArrayDeque<>();
+
+    // Verdadero desde que se rechazó un mensaje por no tener un segmento preparado hasta que vuelve a haber uno, para
+    // registrar el error una sola vez
+    private boolean rollFailing;
+
+    // Distingue los archivos de los segmentos preparados; lo usa solo quien los prepara
+    private long nextSpareId;
+
+    private long nextSequence;
+
+    // Segmentos llenos que el hilo de sincronización debe sincronizar y cerrar
+    private final List<LogSegment> sealedSegments = new ArrayList<>();
+
+    // Entregas que esperan la sincronización, en orden de secuencia
+    private final ArrayDeque<PendingDelivery> pendingDeliveries = new ArrayDeque<>();
+
+    // Segmentos cerrados, del más antiguo al más reciente; solo los usa el hilo de sincronización
+    private final ArrayDeque<Path> closedSegments = new ArrayDeque<>();
+
+    private volatile long durableSequence;
+
+    private volatile boolean running = true;
+
+    private final Thread flusher;
+
+    /**
+     * Abre el registro en el directorio indicado, recuperando los segmentos existentes, e inicia el hilo de
+     * sincronización.
+     *
+     * @param directory el directorio de los segmentos; se crea si no existe.
+     * @param durability cuándo se sincronizan los registros con el disco.
+     * @param segmentBytes el tamaño de cada segmento.
+     * @param flushIntervalMillis el intervalo entre sincronizaciones en el modo {@link Durability#BATCHED}.
+     * @param retentionMillis la antigüedad máxima de un segmento cerrado, o 0 para no borrar por antigüedad.
+     * @param retentionBytes el tamaño máximo del registro, o 0 para no borrar por tamaño.
+     * @param searchEnabled si se indexan las palabras de los mensajes para buscarlos con {@link #search}.
+     * @throws IOException si no se puede crear el directorio o abrir los segmentos.
+     */
+    MessageLog(Path directory, Durability durability, int segmentBytes, long flushIntervalMillis,
+               long retentionMillis, long retentionBytes, boolean searchEnabled) throws IOException {
+        this.directory = directory;
+        this.durability = durability;
+        this.segmentBytes = segmentBytes;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.retentionMillis = retentionMillis;
+        this.retentionBytes = retentionBytes;
+
+        Files.createDirectories(directory);
+        recoverSpareSegments();
+        historyIndex = new HistoryIndex(directory.resolve("index"));
+        searchIndex = searchEnabled ? new SearchIndex(directory.resolve("search")) : null;
+        List<Path> segmentFiles = listSegmentFiles();
+        if (segmentFiles.isEmpty()) {
+            currentSegment = LogSegment.create(directory, 1, segmentBytes);
+        } else {
+            closedSegments.addAll(segmentFiles.subList(0, segmentFiles.size() - 1));
+            currentSegment = LogSegment.open(segmentFiles.get(segmentFiles.size() - 1), segmentBytes);
+        }
+        recoverHistoryIndex(segmentFiles);
+        nextSequence = currentSegment.getLastSequence() + 1;
+        durableSequence = nextSequence - 1;
+        prepareSpareSegments();
+        logger.info("Message log opened at {} ({}), next sequence {}", directory,
+                durability.name().toLowerCase().replace('_', '-'), nextSequence);
+
+        flusher = new Thread(this::runFlusher, "message-log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Agrega al índice del historial y al de búsqueda los mensajes registrados después de su punto de control, por
+     * ejemplo los que se sincronizaron justo antes de una caída. Cada índice omite los mensajes que ya tiene.
+     */
+    private void recoverHistoryIndex(List<Path> segmentFiles) throws IOException {
+        long checkpoint = searchIndex == null
+                ? historyIndex.getCheckpoint()
+                : Math.min(historyIndex.getCheckpoint(), searchIndex.getCheckpoint());
+        for (int i = 0; i < segmentFiles.size() - 1; i++) {
+            long nextBaseSequence = LogSegment.parseBaseSequence(segmentFiles.get(i + 1));
+            if (nextBaseSequence - 1 <= checkpoint) {
+                continue;
+            }
+            LogSegment closedSegment = LogSegment.open(segmentFiles.get(i), 0);
+            try {
+                index(closedSegment, closedSegment.getWritePosition());
+            } finally {
+                closedSegment.close();
+            }
+        }
+        index(currentSegment, currentSegment.getWritePosition());
+        historyIndex.commit();
+        if (searchIndex != null) {
+            searchIndex.commit();
+        }
+    }
+
+    private void index(LogSegment segment, int position) {
+        long baseSequence = segment.getBaseSequence();
+        segment.forEachRecord(segment.getIndexedPosition(), position,
+                (sequence, timestamp, type, sender, recipient, recordPosition) -> {
+                    historyIndex.add(sequence, timestamp, type, sender, recipient, baseSequence, recordPosition);
+                    if (searchIndex != null && searchIndex.isMissing(sequence, type)) {
+                        searchIndex.add(sequence, type, sender, recipient, segment.readBody(recordPosition));
+                    }
+                });
+        segment.setIndexedPosition(position);
+    }
+
+    // Un segmento preparado que recibió registros antes de una caída aún no tenía el nombre de su secuencia base
+    private void recoverSpareSegments() throws IOException {
+        List<Path> spares;
+        try (Stream<Path> files = Files.list(directory)) {
+            spares = files.filter(LogSegment::isSpareFile).collect(Collectors.toList());
+        }
+        for (Path spare : spares) {
+            LogSegment.recoverSpare(directory, spare);
+            logger.info("Recovered message log segment {}", spare.getFileName());
+        }
+    }
+
+    private List<Path> listSegmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(LogSegment::isSegmentFile)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Agrega un mensaje al registro y lo entrega según la durabilidad configurada: en {@link Durability#PER_MESSAGE}
+     * la entrega la hace el hilo de sincronización después de sincronizar el mensaje; en los demás modos se hace de
+     * inmediato en el hilo que llama. El hilo que llama nunca espera al disco.
+     * <p>
+     * Si el mensaje no se puede registrar, porque el segmento actual está lleno y el hilo de sincronización aún no
+     * preparó el siguiente, el mensaje se rechaza: no se entrega ni consume una secuencia.
+     *
+     * @param message el mensaje a registrar.
+     * @param delivery entrega el mensaje a sus destinatarios.
+     * @return la secuencia asignada al mensaje, o -1 si el mensaje se rechazó.
+     */
+    long append(OutboundMessage message, Runnable delivery) {
+        long sequence;
+        lock.lock();
+        try {
+            while (true) {
+                sequence = nextSequence;
+                if (currentSegment.append(sequence, System.currentTimeMillis(), message)) {
+                    break;
+                }
+                if (currentSegment.getWritePosition() == 0) {
+                    logger.error("Message {} does not fit in an empty log segment", sequence);
+                    return -1;
+                }
+                if (!rollSegment()) {
+                    return -1;
+                }
+            }
+            nextSequence++;
+            if (durability == Durability.PER_MESSAGE) {
+                pendingDeliveries.add(new PendingDelivery(sequence, delivery));
+                pendingFlush.signal();
+                return sequence;
+            }
+        } finally {
+            lock.unlock();
+        }
+        delivery.run();
+        return sequence;
+    }
+
+    // Pasa a un segmento que ya preparó el hilo de sincronización, sin tocar el disco: crear el segmento o esperar
+    // a que esté listo detendría a quien agrega, que puede ser un bucle de eventos. Si no queda ninguno preparado,
+    // el mensaje se rechaza y el hilo de sincronización se pone al día
+    private boolean rollSegment() {
+        pendingFlush.signal();
+        LogSegment spare = spareSegments.poll();
+        if (spare == null) {
+            if (!rollFailing) {
+                rollFailing = true;
+                logger.error("Could not roll the message log: the next segment is not ready; rejecting messages");
+            }
+            return false;
+        }
+        rollFailing = false;
+        sealedSegments.add(currentSegment);
+        currentSegment = spare.assignBaseSequence(nextSequence);
+        return true;
+    }
+
+    // Prepara, fuera del bloqueo, los segmentos que faltan para tener SPARE_SEGMENTS listos
+    private void prepareSpareSegments() {
+        while (true) {
+            lock.lock();
+            try {
+                if (spareSegments.size() >= SPARE_SEGMENTS) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            try {
+                LogSegment spare = LogSegment.createSpare(directory, nextSpareId++, segmentBytes);
+                lock.lock();
+                try {
+                    spareSegments.add(spare);
+                } finally {
+                    lock.unlock();
+                }
+            } catch (IOException e) {
+                logger.error("Could not prepare the next message log segment: {}", e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return la secuencia del último mensaje agregado.
+     */
+    long getLastSequence() {
+        lock.lock();
+        try {
+            return nextSequence - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lee una página del historial de una conversación. Los mensajes cuyo segmento ya se borró por la retención
+     * se omiten.
+     *
+     * @param conversation la clave de la conversación (ver {@link HistoryIndex}).
+     * @param beforeSequence la página termina antes de este mensaje; 0 para la página más reciente.
+     * @param limit la cantidad máxima de mensajes.
+     * @return los mensajes de la página, del más antiguo al más reciente.
+     * @throws IOException si no se puede leer el índice o el registro.
+     */
+    List<LogSegment.LogRecord> readHistory(String conversation, long beforeSequence, int limit) throws IOException {
+        return read(historyIndex.page(conversation, beforeSequence, limit));
+    }
+
+    /**
+     * Busca los mensajes que contienen todas las palabras de una búsqueda en las conversaciones de un usuario. Los
+     * mensajes se indexan en segundo plano, así que los más recientes pueden tardar un momento en aparecer.
+     *
+     * @param nickname el apodo del usuario; se busca en sus conversaciones privadas y en las salas donde escribió.
+     * @param roomNames las salas de las que el usuario es miembro, donde también se busca.
+     * @param terms las palabras de la búsqueda (ver {@link SearchIndex#terms(String)}).
+     * @param beforeSequence solo se buscan mensajes anteriores a este; 0 para buscar desde el más reciente.
+     * @param limit la cantidad máxima de mensajes.
+     * @return los mensajes encontrados, del más reciente al más antiguo, o una página vacía si la búsqueda no está
+     *         habilitada. Los mensajes cuyo segmento ya se borró se omiten, así que la página puede tener menos
+     *         mensajes que el límite y aun así no ser la última.
+     * @throws IOException si no se puede leer el índice del historial o el registro.
+     */
+    SearchPage search(String nickname, Collection<String> roomNames, Collection<String> terms,
+                      long beforeSequence, int limit) throws IOException {
+        if (searchIndex == null) {
+            return new SearchPage(Collections.emptyList(), 0);
+        }
+        List<String> rooms = new ArrayList<>(roomNames.size());
+        for (String roomName : roomNames) {
+            rooms.add(HistoryIndex.roomConversation(roomName));
+        }
+        // La entrada de cada mensaje es la última de la página del historial que termina justo después de él
+        List<HistoryIndex.Entry> entries = new ArrayList<>();
+        List<SearchIndex.Match> matches = searchIndex.search(nickname, rooms, terms, beforeSequence, limit);
+        for (SearchIndex.Match match : matches) {
+            List<HistoryIndex.Entry> page = historyIndex.page(match.conversation, match.sequence + 1, 1);
+            if (!page.isEmpty() && page.get(0).sequence == match.sequence) {
+                entries.add(page.get(0));
+            }
+        }
+        // La siguiente página sigue al último resultado del índice, aunque su mensaje ya no esté en el registro
+        long nextBeforeSequence = matches.size() < limit ? 0 : matches.get(matches.size() - 1).sequence;
+        return new SearchPage(read(entries), nextBeforeSequence);
+    }
+
+    // Lee los registros de las entradas, reutilizando el archivo abierto mientras sean del mismo segmento
+    private List<LogSegment.LogRecord> read(List<HistoryIndex.Entry> entries) throws IOException {
+        List<LogSegment.LogRecord> records = new ArrayList<>();
+        FileChannel channel = null;
+        long channelBaseSequence = -1;
+        try {
+            for (HistoryIndex.Entry entry : entries) {
+                if (entry.segmentBaseSequence != channelBaseSequence) {
+                    if (channel != null) {
+                        channel.close();
+                        channel = null;
+                    }
+                    channelBaseSequence = entry.segmentBaseSequence;
+                    Path segmentFile = LogSegment.pathOf(directory, channelBaseSequence);
+                    if (Files.exists(segmentFile)) {
+                        channel = FileChannel.open(segmentFile, StandardOpenOption.READ);
+                    }
+                }
+                if (channel != null) {
+                    LogSegment.LogRecord record = LogSegment.readRecord(channel, entry.position);
+                    if (record != null && record.sequence == entry.sequence) {
+                        records.add(record);
+                    }
+                }
+            }
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @return la secuencia del último mensaje sincronizado con el disco.
+     */
+    long getDurableSequence() {
+        return durableSequence;
+    }
+
+    private void runFlusher() {
+        long lastRetentionCheck = System.currentTimeMillis();
+        while (running) {
+            // Antes de esperar y antes de sincronizar, que puede tardar, para que nadie espere el siguiente segmento
+            prepareSpareSegments();
+            LogSegment segment;
+            int flushPosition;
+            long flushSequence;
+            List<LogSegment> sealed;
+            lock.lock();
+            try {
+                if (durability == Durability.PER_MESSAGE) {
+                    while (running && pendingDeliveries.isEmpty() && sealedSegments.isEmpty()) {
+                        pendingFlush.await(1, TimeUnit.SECONDS);
+                    }
+                } else {
+                    pendingFlush.await(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                }
+                segment = currentSegment;
+                flushPosition = segment.getWritePosition();
+                flushSequence = nextSequence - 1;
+                sealed = new ArrayList<>(sealedSegments);
+                sealedSegments.clear();
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                lock.unlock();
+            }
+
+            prepareSpareSegments();
+            try {
+                flush(sealed, segment, flushPosition, flushSequence);
+            } catch (RuntimeException e) {
+                logger.error("Could not flush the message log: {}", e.getMessage());
+            }
+
+            long now = System.currentTimeMillis();
+            if (!sealed.isEmpty() || now - lastRetentionCheck > TimeUnit.MINUTES.toMillis(1)) {
+                applyRetention(now);
+                lastRetentionCheck = now;
+            }
+        }
+    }
+
+    private void flush(List<LogSegment> sealed, LogSegment segment, int flushPosition, long flushSequence) {
+        // Los segmentos preparados toman el nombre de su secuencia base antes de indexarse, porque el índice ubica
+        // los registros por ese nombre
+        for (LogSegment sealedSegment : sealed) {
+            moveToBaseName(sealedSegment);
+        }
+        moveToBaseName(segment);
+        for (LogSegment sealedSegment : sealed) {
+            if (durability != Durability.OS) {
+                sealedSegment.flush(sealedSegment.getWritePosition());
+            }
+            index(sealedSegment, sealedSegment.getWritePosition());
+            sealedSegment.close();
+            closedSegments.add(sealedSegment.getPath());
+        }
+        if (durability != Durability.OS) {
+            segment.flush(flushPosition);
+        }
+        durableSequence = flushSequence;
+
+        index(segment, flushPosition);
+        try {
+            historyIndex.commit();
+        } catch (IOException e) {
+            logger.error("Could not update the history index: {}", e.getMessage());
+        }
+        if (searchIndex != null) {
+            searchIndex.commit();
+        }
+
+        if (durability == Durability.PER_MESSAGE) {
+            deliverFlushed(flushSequence);
+        }
+    }
+
+    private void moveToBaseName(LogSegment segment) {
+        try {
+            segment.moveToBaseName(directory);
+        } catch (IOException e) {
+            logger.error("Could not rename message log segment {}: {}", segment.getPath().getFileName(),
+                    e.getMessage());
+        }
+    }
+
+    private void deliverFlushed(long flushSequence) {
+        while (true) {
+            PendingDelivery pending;
+            lock.lock();
+            try {
+                pending = pendingDeliveries.peek();
+                if (pending == null || pending.sequence > flushSequence) {
+                    return;
+                }
+                pendingDeliveries.poll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                pending.delivery.run();
+            } catch (RuntimeException e) {
+                logger.error("Could not deliver message {}: {}", pending.sequence, e.getMessage());
+            }
+        }
+    }
+
+    private void applyRetention(long now) {
+        long totalBytes = 0;
+        for (Path closedSegment : closedSegments) {
+            totalBytes += sizeOf(closedSegment);
+        }
+        while (!closedSegments.isEmpty()) {
+            Path oldest = closedSegments.peek();
+            boolean expired = retentionMillis > 0 && now - lastModified(oldest) > retentionMillis;
+            boolean oversized = retentionBytes > 0 && totalBytes + segmentBytes > retentionBytes;
+            if (!expired && !oversized) {
+                break;
+            }
+            closedSegments.poll();
+            totalBytes -= sizeOf(oldest);
+            try {
+                Files.deleteIfExists(oldest);
+                logger.info("Deleted message log segment {}", oldest.getFileName());
+            } catch (IOException e) {
+                logger.error("Could not delete message log segment {}: {}", oldest.getFileName(), e.getMessage());
+            }
+        }
+        if (searchIndex != null) {
+            searchIndex.prune(oldestRetainedSequence());
+        }
+    }
+
+    // La secuencia base del segmento más antiguo que se conserva; los segmentos sellados aún no están en la lista
+    // de cerrados
+    private long oldestRetainedSequence() {
+        if (!closedSegments.isEmpty()) {
+            return LogSegment.parseBaseSequence(closedSegments.peek());
+        }
+        lock.lock();
+        try {
+            return sealedSegments.isEmpty()
+                    ? currentSegment.getBaseSequence()
+                    : sealedSegments.get(0).getBaseSequence();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Detiene el hilo de sincronización y luego sincroniza e indexa los registros pendientes, entrega los mensajes
+     * que esperaban la sincronización y guarda el índice de búsqueda.
+     */
+    void close() {
+        running = false;
+        lock.lock();
+        try {
+            pendingFlush.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        LogSegment segment;
+        int flushPosition;
+        long flushSequence;
+        List<LogSegment> sealed;
+        List<LogSegment> spares;
+        lock.lock();
+        try {
+            segment = currentSegment;
+            flushPosition = segment.getWritePosition();
+            flushSequence = nextSequence - 1;
+            sealed = new ArrayList<>(sealedSegments);
+            sealedSegments.clear();
+            spares = new ArrayList<>(spareSegments);
+            spareSegments.clear();
+        } finally {
+            lock.unlock();
+        }
+        flush(sealed, segment, flushPosition, flushSequence);
+        segment.close();
+        for (LogSegment spare : spares) {
+            try {
+                spare.delete();
+            } catch (IOException e) {
+                logger.error("Could not delete the next message log segment: {}", e.getMessage());
+            }
+        }
+        if (searchIndex != null) {
+            searchIndex.close();
+        }
+    }
+}
\ No newline at end of file
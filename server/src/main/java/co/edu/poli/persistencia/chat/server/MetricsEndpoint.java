@@ -0,0 +1,61 @@
+package co.edu.poli.persistencia.chat.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * La clase MetricsEndpoint publica las métricas del servidor por HTTP en {@code /metrics}, como texto plano con una
+ * métrica por línea ({@code nombre valor}). Solo escucha en la interfaz local.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class MetricsEndpoint {
+
+    private static final Logger logger = LogManager.getLogger(MetricsEndpoint.class);
+
+    private final HttpServer server;
+
+    /**
+     * Inicia el servidor HTTP de las métricas.
+     *
+     * @param port el puerto en la interfaz local.
+     * @param metrics las métricas a publicar.
+     * @throws IOException si no se puede abrir el puerto.
+     */
+    MetricsEndpoint(int port, ServerMetrics metrics) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> respond(exchange, metrics));
+        server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-endpoint");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        logger.info("Metrics available at http://{}:{}/metrics", server.getAddress().getHostString(), port);
+    }
+
+    private static void respond(HttpExchange exchange, ServerMetrics metrics) throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (Map.Entry<String, Number> metric : metrics.toMap().entrySet()) {
+            body.append(metric.getKey()).append(' ').append(metric.getValue()).append('\n');
+        }
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,159 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * La clase NioChatServer representa un servidor de chat no bloqueante: en lugar de un hilo por cliente,
+ * reparte las conexiones entre un grupo pequeño de {@link NioEventLoop}.
+ * <p>
+ * Con un solo fragmento ({@code --shards=1}) un hilo acepta todas las conexiones y las asigna a los bucles en orden
+ * circular. Con varios, cada bucle es un fragmento con su propio canal de escucha en el mismo puerto
+ * ({@code SO_REUSEPORT}): el sistema operativo reparte las conexiones entre los fragmentos y ningún hilo aceptador
+ * limita una avalancha de reconexiones. Si la plataforma no soporta {@code SO_REUSEPORT}, todos los fragmentos
+ * aceptan del mismo canal.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+public class NioChatServer {
+
+    private static final Logger logger = LogManager.getLogger(NioChatServer.class);
+
+    private final ChatRouter router;
+
+    // El canal del hilo aceptador, o null en el modo por fragmentos
+    private final ServerSocketChannel serverChannel;
+
+    private final NioEventLoop[] eventLoops;
+
+    // Los canales de escucha de cada fragmento; vacío si hay un solo fragmento
+    private final ServerSocketChannel[] shardChannels;
+
+    /**
+     * Constructor de la clase NioChatServer.
+     *
+     * @param port El número de puerto en el que el servidor escucha las conexiones entrantes.
+     * @param options Las opciones del servidor, entre ellas la cantidad de bucles de eventos que atienden a los
+     *                clientes y la cantidad de fragmentos.
+     * @throws IOException Si ocurre un error de entrada/salida al abrir el canal del servidor o los selectores.
+     */
+    public NioChatServer(int port, ServerOptions options) throws IOException {
+        this(port, options, null, null);
+    }
+
+    /**
+     * Constructor de la clase NioChatServer para un nodo de un clúster.
+     *
+     * @param port El número de puerto en el que el servidor escucha las conexiones entrantes.
+     * @param options Las opciones del servidor.
+     * @param clusterBus El bus del clúster, o null si el servidor no es parte de un clúster.
+     * @param nodeId El identificador del nodo, único en el clúster.
+     * @throws IOException Si ocurre un error de entrada/salida al abrir el canal del servidor o los selectores.
+     */
+    public NioChatServer(int port, ServerOptions options, ClusterBus clusterBus, String nodeId) throws IOException {
+        int shards = options.getShards();
+        int eventLoopCount = shards > 1 ? shards : options.getEventLoops();
+        router = new ChatRouter(options, clusterBus, nodeId);
+        eventLoops = new NioEventLoop[eventLoopCount];
+        for (int i = 0; i < eventLoopCount; i++) {
+            eventLoops[i] = new NioEventLoop(router);
+        }
+        if (shards > 1) {
+            serverChannel = null;
+            shardChannels = openShardChannels(port, shards);
+            logger.info("Server is running with {} shards on port {}{}...", shards, port,
+                    shardChannels.length == 1 ? " (shared listener, SO_REUSEPORT is not supported)" : "");
+        } else {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            shardChannels = new ServerSocketChannel[0];
+            logger.info("Server is running with {} event loops...", eventLoopCount);
+        }
+    }
+
+    // Un canal por fragmento con SO_REUSEPORT o, si la plataforma no lo soporta, un solo canal para todos
+    private static ServerSocketChannel[] openShardChannels(int port, int shards) throws IOException {
+        ServerSocketChannel first = ServerSocketChannel.open();
+        if (!first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            first.bind(new InetSocketAddress(port));
+            return new ServerSocketChannel[]{first};
+        }
+        ServerSocketChannel[] channels = new ServerSocketChannel[shards];
+        channels[0] = first;
+        for (int i = 1; i < shards; i++) {
+            channels[i] = ServerSocketChannel.open();
+        }
+        for (ServerSocketChannel channel : channels) {
+            channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            channel.bind(new InetSocketAddress(port));
+        }
+        return channels;
+    }
+
+    /**
+     * Este método inicia los bucles de eventos y luego acepta las conexiones entrantes, asignándolas
+     * a los bucles en orden circular. En el modo por fragmentos cada bucle acepta sus propias conexiones y este
+     * método espera a que terminen.
+     *
+     * @throws IOException si ocurre un error de entrada/salida al aceptar las conexiones de clientes
+     */
+    public void serveClients() throws IOException {
+        Thread[] eventLoopThreads = new Thread[eventLoops.length];
+        for (int i = 0; i < eventLoops.length; i++) {
+            if (serverChannel == null) {
+                eventLoops[i].listen(shardChannels[i % shardChannels.length]);
+            }
+            String name = serverChannel == null ? "nio-shard-" + i : "nio-event-loop-" + i;
+            eventLoopThreads[i] = new Thread(eventLoops[i], name);
+            eventLoopThreads[i].setDaemon(true);
+            eventLoopThreads[i].start();
+        }
+        if (serverChannel == null) {
+            awaitShards(eventLoopThreads);
+            return;
+        }
+
+        int next = 0;
+        try {
+            while (serverChannel.isOpen()) {
+                try {
+                    SocketChannel clientChannel = serverChannel.accept();
+                    if (!router.admitConnection()) {
+                        NioEventLoop.rejectConnection(clientChannel, router);
+                        continue;
+                    }
+                    eventLoops[next].register(clientChannel);
+                    next = (next + 1) % eventLoops.length;
+                } catch (IOException e) {
+                    if (!serverChannel.isOpen()) {
+                        break;
+                    }
+                    logger.info("Client error: {}", e.getMessage());
+                }
+            }
+        } finally {
+            for (NioEventLoop eventLoop : eventLoops) {
+                eventLoop.shutdown();
+            }
+            router.leaveCluster();
+        }
+    }
+
+    private static void awaitShards(Thread[] shardThreads) {
+        try {
+            for (Thread shardThread : shardThreads) {
+                shardThread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
\ No newline at end of file
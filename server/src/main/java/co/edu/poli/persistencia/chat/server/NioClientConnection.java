@@ -0,0 +1,250 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * La clase NioClientConnection maneja la comunicación entre el servidor y un solo cliente dentro de un
+ * {@link NioEventLoop}. Implementa los mismos protocolos que {@link ClientThread}: en el de texto la primera línea
+ * es el apodo, las siguientes son mensajes ("@usuario: mensaje") y "chao" termina la conexión; en el binario el
+ * cliente envía el preámbulo {@link Frame#PREAMBLE} y luego tramas, la primera de ellas el saludo con su apodo.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class NioClientConnection {
+
+    private static final Logger logger = LogManager.getLogger(NioClientConnection.class);
+
+    private static final int READ_BUFFER_SIZE = 4 * 1024;
+
+    private final SocketChannel channel;
+
+    private final SelectionKey key;
+
+    private final NioEventLoop eventLoop;
+
+    private final ChatRouter router;
+
+    // Búfer de lectura propio de la conexión y el decodificador que lo consume, según el protocolo del cliente
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private LineDecoder lineDecoder;
+    private FrameDecoder frameDecoder;
+
+    // Mensajes pendientes por escribir en el canal; cualquier hilo puede encolar, solo el bucle escribe
+    private final OutboundQueue clientOutputQueue;
+
+    // Registra la actividad de la conexión; si el cliente deja de enviar datos, la rueda de tiempo la cierra
+    private final HeartbeatMonitor.Heartbeat heartbeat;
+
+    // Limita los mensajes del cliente; solo lo usa el hilo del bucle
+    private final RateLimiter rateLimiter;
+
+    // El mensaje que se está escribiendo cuando el canal no aceptó todos sus bytes
+    private ByteBuffer currentWrite;
+
+    private String clientNickname;
+
+    // La sesión del cliente, o null mientras no se haya registrado con un apodo libre
+    private ClientSession session;
+
+    private boolean closing;
+
+    private volatile boolean closed;
+
+    /**
+     * Inicializa una nueva instancia de la clase NioClientConnection.
+     *
+     * @param channel El canal no bloqueante del cliente.
+     * @param key La llave con la que el canal quedó registrado en el selector del bucle.
+     * @param eventLoop El bucle de eventos que atiende la conexión.
+     * @param router El enrutador que mantiene a los clientes activos.
+     */
+    NioClientConnection(SocketChannel channel, SelectionKey key, NioEventLoop eventLoop, ChatRouter router) {
+        this.channel = channel;
+        this.key = key;
+        this.eventLoop = eventLoop;
+        this.router = router;
+        this.clientOutputQueue = router.createOutboundQueue(
+                () -> eventLoop.execute(this::writePendingData),
+                () -> eventLoop.execute(this::close));
+        this.clientOutputQueue.setEventLoop(eventLoop);
+        this.heartbeat = router.watchConnection(clientOutputQueue, () -> eventLoop.execute(this::close));
+        this.rateLimiter = router.createRateLimiter(clientOutputQueue);
+    }
+
+    /**
+     * Lee los bytes disponibles en el canal y procesa cada línea o trama completa. Se ejecuta en el hilo del bucle.
+     */
+    void onReadable() {
+        try {
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                close();
+                return;
+            }
+            router.getMetrics().onBytesIn(read);
+            heartbeat.touch();
+            readBuffer.flip();
+            if (lineDecoder == null && frameDecoder == null && readBuffer.hasRemaining()) {
+                // El primer byte indica el protocolo que usa el cliente
+                if (readBuffer.get(0) == Frame.PREAMBLE[0]) {
+                    frameDecoder = new FrameDecoder();
+                } else {
+                    lineDecoder = new LineDecoder(LineDecoder.MAX_LINE_LENGTH);
+                }
+            }
+            boolean keepReading = frameDecoder != null
+                    ? frameDecoder.decode(readBuffer, this::handleFrame)
+                    : lineDecoder == null || lineDecoder.decode(readBuffer, this::handleLine);
+            readBuffer.clear();
+            if (!keepReading && key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            logger.info("An error occurred: {}", e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Continúa escribiendo los bytes pendientes cuando el canal vuelve a aceptar datos. Se ejecuta en el hilo del bucle.
+     */
+    void onWritable() {
+        writePendingData();
+    }
+
+    /**
+     * Procesa una línea del cliente.
+     *
+     * @param clientMessage la línea recibida.
+     * @param length los bytes de la línea en UTF-8.
+     * @return falso si la conexión debe terminar; verdadero en caso contrario.
+     */
+    private boolean handleLine(String clientMessage, int length) {
+        if (closing || closed) {
+            return false;
+        }
+        if (clientNickname == null) {
+            // La primera línea es el nickname del cliente, o la sesión que quiere reanudar
+            ClientHello hello = ClientHello.fromLine(clientMessage);
+            clientNickname = hello.getNickname();
+            session = router.registerClient(hello, clientOutputQueue, () -> eventLoop.execute(this::close));
+            if (session == null) {
+                closeAfterFlush();
+                return false;
+            }
+            logger.info("A client has successfully connected");
+            return true;
+        }
+        if (!rateLimiter.tryAcquire(clientMessage, length)) {
+            return true; // el mensaje se descarta; el limitador ya avisó al cliente
+        }
+        if (!router.handleClientMessage(session, clientMessage)) {
+            closeAfterFlush();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Procesa una trama del cliente.
+     *
+     * @param frame la trama recibida.
+     * @return falso si la conexión debe terminar; verdadero en caso contrario.
+     * @throws IOException si la primera trama no es el saludo.
+     */
+    private boolean handleFrame(Frame frame) throws IOException {
+        if (closing || closed) {
+            return false;
+        }
+        if (clientNickname == null) {
+            // La primera trama es el saludo con el nickname del cliente
+            if (frame.getType() != FrameType.HELLO) {
+                throw new IOException("Expected HELLO frame but got " + frame.getType());
+            }
+            ClientHello hello = ClientHello.fromFrame(frame);
+            clientNickname = hello.getNickname();
+            clientOutputQueue.setWireFormat(WireFormat.BINARY);
+            clientOutputQueue.offer(OutboundMessage.handshake());
+            session = router.registerClient(hello, clientOutputQueue, () -> eventLoop.execute(this::close));
+            if (session == null) {
+                closeAfterFlush();
+                return false;
+            }
+            logger.info("A client has successfully connected");
+            return true;
+        }
+        if (!rateLimiter.tryAcquire(frame)) {
+            return true; // la trama se descarta; el limitador ya avisó al cliente
+        }
+        if (!router.handleClientFrame(session, frame)) {
+            closeAfterFlush();
+            return false;
+        }
+        return true;
+    }
+
+    private void writePendingData() {
+        if (closed) {
+            return;
+        }
+        try {
+            while (true) {
+                if (currentWrite == null) {
+                    OutboundMessage message = clientOutputQueue.poll();
+                    if (message == null) {
+                        break;
+                    }
+                    // Los bytes del mensaje se comparten entre clientes; cada conexión solo envuelve el arreglo
+                    currentWrite = ByteBuffer.wrap(message.getBytes(clientOutputQueue.getWireFormat()));
+                }
+                router.getMetrics().onBytesOut(channel.write(currentWrite));
+                if (currentWrite.hasRemaining()) {
+                    // El canal está lleno: se espera a que el selector indique que se puede escribir de nuevo
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                currentWrite = null;
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (closing) {
+                close();
+            }
+        } catch (IOException e) {
+            logger.info("An error occurred: {}", e.getMessage());
+            close();
+        }
+    }
+
+    private void closeAfterFlush() {
+        closing = true;
+        clientOutputQueue.close();
+        writePendingData();
+    }
+
+    /**
+     * Cierra la conexión y notifica a los demás clientes. Se ejecuta en el hilo del bucle.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        heartbeat.stop();
+        clientOutputQueue.discard();
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        router.removeClient(session);
+        router.connectionClosed();
+    }
+}
\ No newline at end of file
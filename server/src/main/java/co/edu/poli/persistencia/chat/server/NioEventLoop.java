@@ -0,0 +1,247 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * La clase NioEventLoop representa un bucle de eventos que atiende, desde un único hilo, a todas las conexiones
+ * que le fueron asignadas por medio de un {@link Selector}.
+ * <p>
+ * Las operaciones sobre el selector y sus canales solo se ejecutan en el hilo del bucle; los demás hilos deben
+ * encolarlas con {@link #execute(Runnable)}. La cola de tareas no usa candados y es el buzón por el que los demás
+ * hilos le entregan mensajes a sus conexiones: {@link OutboundQueue#offer(OutboundMessage)} encola cada mensaje
+ * como una tarea, de modo que solo el hilo del bucle toma el candado de las colas de sus conexiones. Varias tareas
+ * encoladas mientras el bucle está ocupado se atienden con un solo despertar del selector, y en cada vuelta se
+ * atiende un número limitado de ellas para que una ráfaga de mensajes no posponga la lectura y escritura de los
+ * sockets.
+ * <p>
+ * En el modo por fragmentos ({@code --shards}) el bucle además acepta conexiones de su propio canal de escucha; las
+ * conexiones que acepta se quedan en el bucle.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class NioEventLoop implements Runnable {
+
+    private static final Logger logger = LogManager.getLogger(NioEventLoop.class);
+
+    // Conexiones aceptadas como máximo en cada vuelta del bucle, para no postergar a las conexiones existentes
+    private static final int MAX_ACCEPTS_PER_SELECT = 64;
+
+    // Tareas ejecutadas como máximo en cada vuelta del bucle; las restantes esperan a la siguiente vuelta
+    private static final int MAX_TASKS_PER_ITERATION = 1024;
+
+    private final Selector selector;
+
+    private final ChatRouter router;
+
+    // Tareas enviadas desde otros hilos para ejecutarse en el hilo del bucle
+    private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+
+    // Verdadero si ya se pidió despertar al selector y el bucle aún no atiende las tareas pendientes
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    // El hilo del bucle, una vez que empieza a correr
+    private volatile Thread loopThread;
+
+    private volatile boolean running = true;
+
+    /**
+     * Inicializa una nueva instancia de la clase NioEventLoop.
+     *
+     * @param router El enrutador que mantiene a los clientes activos.
+     * @throws IOException si no se puede abrir el selector.
+     */
+    NioEventLoop(ChatRouter router) throws IOException {
+        this.selector = Selector.open();
+        this.router = router;
+    }
+
+    /**
+     * Asigna una conexión recién aceptada a este bucle.
+     *
+     * @param channel el canal del cliente.
+     */
+    void register(SocketChannel channel) {
+        execute(() -> registerNow(channel));
+    }
+
+    /**
+     * Hace que el bucle acepte las conexiones de un canal de escucha. El canal puede estar registrado también en
+     * otros bucles.
+     *
+     * @param serverChannel el canal de escucha.
+     */
+    void listen(ServerSocketChannel serverChannel) {
+        execute(() -> {
+            try {
+                serverChannel.configureBlocking(false);
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT, serverChannel);
+            } catch (IOException e) {
+                logger.error("Could not listen for connections: {}", e.getMessage());
+            }
+        });
+    }
+
+    private void registerNow(SocketChannel channel) {
+        try {
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new NioClientConnection(channel, key, this, router));
+        } catch (IOException e) {
+            logger.info("Client error: {}", e.getMessage());
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            router.connectionClosed();
+        }
+    }
+
+    /**
+     * Encola una tarea para ejecutarla en el hilo del bucle y lo despierta si está esperando eventos. Desde el propio
+     * hilo del bucle, o si ya hay un despertar pendiente, no se vuelve a despertar al selector.
+     *
+     * @param task la tarea a ejecutar.
+     */
+    void execute(Runnable task) {
+        pendingTasks.add(task);
+        if (!inEventLoop() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * @return verdadero si quien llama es el hilo del bucle.
+     */
+    boolean inEventLoop() {
+        return Thread.currentThread() == loopThread;
+    }
+
+    /**
+     * Detiene el bucle y cierra el selector.
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Atiende los eventos de lectura y escritura de las conexiones hasta que el bucle se detiene.
+     */
+    @Override
+    public void run() {
+        loopThread = Thread.currentThread();
+        try {
+            while (running) {
+                // Las tareas encoladas desde el propio hilo no despiertan al selector, y las que quedaron de la vuelta
+                // anterior tampoco: si hay alguna, no se espera
+                if (pendingTasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                wakeupPending.set(false);
+                runPendingTasks();
+                processSelectedKeys();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            logger.info("Event loop error: {}", e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof NioClientConnection) {
+                    ((NioClientConnection) key.attachment()).close();
+                } else if (key.attachment() instanceof ServerSocketChannel) {
+                    try {
+                        ((ServerSocketChannel) key.attachment()).close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void runPendingTasks() {
+        Runnable task;
+        for (int i = 0; i < MAX_TASKS_PER_ITERATION && (task = pendingTasks.poll()) != null; i++) {
+            task.run();
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+        while (selectedKeys.hasNext()) {
+            SelectionKey key = selectedKeys.next();
+            selectedKeys.remove();
+
+            if (key.attachment() instanceof ServerSocketChannel) {
+                if (key.isValid() && key.isAcceptable()) {
+                    acceptConnections((ServerSocketChannel) key.attachment());
+                }
+                continue;
+            }
+            NioClientConnection connection = (NioClientConnection) key.attachment();
+            if (!key.isValid()) {
+                connection.close();
+                continue;
+            }
+            if (key.isWritable()) {
+                connection.onWritable();
+            }
+            if (key.isValid() && key.isReadable()) {
+                connection.onReadable();
+            }
+        }
+    }
+
+    /**
+     * Responde que el servidor está lleno y cierra una conexión recién aceptada. El canal aún está en modo
+     * bloqueante y la respuesta cabe en el búfer del socket, así que la escritura no espera.
+     *
+     * @param channel el canal recién aceptado.
+     * @param router el enrutador, que tiene la respuesta.
+     */
+    static void rejectConnection(SocketChannel channel, ChatRouter router) {
+        try (SocketChannel rejected = channel) {
+            rejected.write(ByteBuffer.wrap(router.getServerFullReply()));
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void acceptConnections(ServerSocketChannel serverChannel) {
+        for (int i = 0; i < MAX_ACCEPTS_PER_SELECT; i++) {
+            try {
+                // Con un canal compartido entre bucles, otro bucle pudo aceptar la conexión primero
+                SocketChannel channel = serverChannel.accept();
+                if (channel == null) {
+                    return;
+                }
+                if (!router.admitConnection()) {
+                    rejectConnection(channel, router);
+                    continue;
+                }
+                registerNow(channel);
+            } catch (IOException e) {
+                logger.info("Client error: {}", e.getMessage());
+                return;
+            }
+        }
+    }
+}
\ No newline at end of file
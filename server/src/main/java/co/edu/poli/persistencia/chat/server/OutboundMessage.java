@@ -0,0 +1,391 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+
+/**
+ * La clase OutboundMessage representa un mensaje que el servidor va a enviar a uno o varios clientes.
+ * Es inmutable, por lo que la misma instancia puede encolarse en las colas de salida de muchos clientes.
+ * <p>
+ * El mensaje se codifica a lo sumo una vez por cada {@link WireFormat}: la primera cola que lo necesita en un
+ * formato lo codifica y las demás reutilizan esos bytes.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+final class OutboundMessage {
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] EMPTY = new byte[0];
+
+    // La secuencia (int64) y la marca de tiempo (int64) con que empieza el cuerpo de un mensaje del historial
+    private static final int HISTORY_HEADER_LENGTH = 16;
+
+    private static final DateTimeFormatter HISTORY_TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+
+    private final FrameType type;
+
+    private final String sender;
+
+    private final String recipient;
+
+    // El cuerpo en UTF-8; en los mensajes reenviados es una vista sobre la trama recibida
+    private final byte[] body;
+    private final int bodyOffset;
+    private final int bodyLength;
+
+    // Codificaciones ya calculadas; se comparten entre todas las colas
+    private volatile byte[] textBytes;
+    private volatile byte[] binaryBytes;
+
+    private OutboundMessage(FrameType type, String sender, String recipient, byte[] body, int bodyOffset, int bodyLength) {
+        this.type = type;
+        this.sender = sender;
+        this.recipient = recipient;
+        this.body = body;
+        this.bodyOffset = bodyOffset;
+        this.bodyLength = bodyLength;
+    }
+
+    private OutboundMessage(FrameType type, String sender, String recipient, String body) {
+        this(type, sender, recipient, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private OutboundMessage(FrameType type, String sender, String recipient, byte[] body) {
+        this(type, sender, recipient, body, 0, body.length);
+    }
+
+    /**
+     * Crea un mensaje con una línea del protocolo de texto, como las respuestas del servidor.
+     *
+     * @param line la línea a enviar, sin separador.
+     * @return el mensaje.
+     */
+    static OutboundMessage line(String line) {
+        return new OutboundMessage(FrameType.LINE, null, null, line);
+    }
+
+    /**
+     * Crea un mensaje privado cuyo cuerpo viene de una trama binaria; el cuerpo no se vuelve a codificar.
+     *
+     * @param sender el apodo del emisor.
+     * @param recipient el apodo del destinatario.
+     * @param frame la trama recibida, con el cuerpo en UTF-8.
+     * @return el mensaje.
+     */
+    static OutboundMessage privateMessage(String sender, String recipient, Frame frame) {
+        return new OutboundMessage(FrameType.PRIVATE, sender, recipient,
+                frame.getData(), frame.getBodyOffset(), frame.getBodyLength());
+    }
+
+    /**
+     * Crea un mensaje privado a partir de texto.
+     *
+     * @param sender el apodo del emisor.
+     * @param recipient el apodo del destinatario.
+     * @param text el cuerpo del mensaje.
+     * @return el mensaje.
+     */
+    static OutboundMessage privateMessage(String sender, String recipient, String text) {
+        return new OutboundMessage(FrameType.PRIVATE, sender, recipient, text);
+    }
+
+    /**
+     * Crea un mensaje privado a partir de un cuerpo ya codificado, como los que se guardan en los buzones.
+     *
+     * @param sender el apodo del emisor.
+     * @param recipient el apodo del destinatario.
+     * @param body el cuerpo en UTF-8; no debe modificarse después.
+     * @return el mensaje.
+     */
+    static OutboundMessage privateMessage(String sender, String recipient, byte[] body) {
+        return new OutboundMessage(FrameType.PRIVATE, sender, recipient, body);
+    }
+
+    /**
+     * Crea un mensaje para una sala cuyo cuerpo viene de una trama binaria; el cuerpo no se vuelve a codificar.
+     *
+     * @param sender el apodo del emisor.
+     * @param room el nombre de la sala.
+     * @param frame la trama recibida, con el cuerpo en UTF-8.
+     * @return el mensaje.
+     */
+    static OutboundMessage roomMessage(String sender, String room, Frame frame) {
+        return new OutboundMessage(FrameType.ROOM, sender, room,
+                frame.getData(), frame.getBodyOffset(), frame.getBodyLength());
+    }
+
+    /**
+     * Crea un mensaje para una sala a partir de texto.
+     *
+     * @param sender el apodo del emisor.
+     * @param room el nombre de la sala.
+     * @param text el cuerpo del mensaje.
+     * @return el mensaje.
+     */
+    static OutboundMessage roomMessage(String sender, String room, String text) {
+        return new OutboundMessage(FrameType.ROOM, sender, room, text);
+    }
+
+    /**
+     * Crea un mensaje con una entrada del historial.
+     *
+     * @param record el mensaje leído del registro.
+     * @return el mensaje.
+     */
+    static OutboundMessage history(LogSegment.LogRecord record) {
+        String recipient = record.type == FrameType.ROOM ? "#" + record.recipient : record.recipient;
+        ByteBuffer body = ByteBuffer.allocate(HISTORY_HEADER_LENGTH + record.body.length);
+        body.putLong(record.sequence).putLong(record.timestamp).put(record.body);
+        return new OutboundMessage(FrameType.HISTORY, record.sender, recipient, body.array());
+    }
+
+    /**
+     * Crea un mensaje con un resultado de una búsqueda.
+     *
+     * @param record el mensaje leído del registro.
+     * @return el mensaje.
+     */
+    static OutboundMessage searchResult(LogSegment.LogRecord record) {
+        String recipient = record.type == FrameType.ROOM ? "#" + record.recipient : record.recipient;
+        ByteBuffer body = ByteBuffer.allocate(HISTORY_HEADER_LENGTH + record.body.length);
+        body.putLong(record.sequence).putLong(record.timestamp).put(record.body);
+        return new OutboundMessage(FrameType.SEARCH, record.sender, recipient, body.array());
+    }
+
+    /**
+     * Crea un mensaje con la lista completa de usuarios activos.
+     *
+     * @param nicknames los apodos de los usuarios activos.
+     * @return el mensaje.
+     */
+    static OutboundMessage presenceSnapshot(Collection<String> nicknames) {
+        return new OutboundMessage(FrameType.PRESENCE_SNAPSHOT, null, null, String.join("\n", nicknames));
+    }
+
+    /**
+     * Crea un mensaje con cambios en la lista de usuarios activos.
+     *
+     * @param changes los cambios, cada uno "+apodo" o "-apodo".
+     * @return el mensaje.
+     */
+    static OutboundMessage presenceChanges(Collection<String> changes) {
+        return new OutboundMessage(FrameType.PRESENCE_CHANGES, null, null, String.join("\n", changes));
+    }
+
+    /**
+     * Crea el mensaje con el que el servidor confirma el protocolo binario. En el protocolo de texto no tiene bytes.
+     *
+     * @return el mensaje.
+     */
+    static OutboundMessage handshake() {
+        return new OutboundMessage(FrameType.HELLO, null, null, EMPTY);
+    }
+
+    /**
+     * Crea el ping con el que el servidor comprueba que un cliente inactivo sigue conectado. En el protocolo de
+     * texto es la línea "Ping", a la que el cliente responde "/pong".
+     *
+     * @return el mensaje.
+     */
+    static OutboundMessage ping() {
+        return new OutboundMessage(FrameType.PING, null, null, EMPTY);
+    }
+
+    /**
+     * Crea la respuesta a un ping del cliente. En el protocolo de texto es la línea "Pong".
+     *
+     * @return el mensaje.
+     */
+    static OutboundMessage pong() {
+        return new OutboundMessage(FrameType.PONG, null, null, EMPTY);
+    }
+
+    /**
+     * Crea un error para el cliente. En el protocolo de texto es la línea "Error: motivo".
+     *
+     * @param reason el motivo del error.
+     * @return el mensaje.
+     */
+    static OutboundMessage error(String reason) {
+        return new OutboundMessage(FrameType.ERROR, null, null, reason);
+    }
+
+    /**
+     * Crea el aviso de la sesión del cliente, con el que puede reanudarla si se reconecta. En el protocolo de texto
+     * es la línea "Session token secuencia".
+     *
+     * @param token el token de la sesión.
+     * @param sequence el último mensaje reanudable que el servidor da por recibido.
+     * @return el mensaje.
+     */
+    static OutboundMessage session(String token, long sequence) {
+        return new OutboundMessage(FrameType.SESSION, null, null, token + " " + sequence);
+    }
+
+    /**
+     * @return el tipo del mensaje.
+     */
+    FrameType getType() {
+        return type;
+    }
+
+    /**
+     * @return el apodo del emisor, o null si el mensaje lo genera el servidor.
+     */
+    String getSender() {
+        return sender;
+    }
+
+    /**
+     * @return el apodo del destinatario o el nombre de la sala, o null si el mensaje no tiene destinatario.
+     */
+    String getRecipient() {
+        return recipient;
+    }
+
+    /**
+     * @return los bytes sobre los que está el cuerpo del mensaje; no deben modificarse.
+     */
+    byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return la posición donde empieza el cuerpo dentro de {@link #getBody()}.
+     */
+    int getBodyOffset() {
+        return bodyOffset;
+    }
+
+    /**
+     * @return la longitud del cuerpo en bytes.
+     */
+    int getBodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * @return verdadero si el mensaje es una actualización de la lista de usuarios activos.
+     */
+    boolean isPresence() {
+        return type == FrameType.PRESENCE_SNAPSHOT || type == FrameType.PRESENCE_CHANGES;
+    }
+
+    /**
+     * Indica si el mensaje lleva número de secuencia en la sesión del cliente y se reenvía al reanudarla. Los pings,
+     * la presencia y los avisos de la conexión no cuentan: se regeneran en cada conexión.
+     *
+     * @return verdadero si el mensaje es reanudable.
+     */
+    boolean isResumable() {
+        switch (type) {
+            case HELLO:
+            case PING:
+            case PONG:
+            case PRESENCE_SNAPSHOT:
+            case PRESENCE_CHANGES:
+            case SESSION:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Indica si un mensaje de un cliente cabe en una trama del protocolo binario, también cuando se reenvía desde el
+     * historial o en una búsqueda, con su secuencia, su marca de tiempo y el '#' de las salas.
+     *
+     * @return verdadero si el mensaje se puede enrutar y registrar.
+     */
+    boolean fitsInFrame() {
+        return (long) Frame.headerLength(sender, recipient) + 1 + HISTORY_HEADER_LENGTH + bodyLength
+                <= Frame.MAX_LENGTH;
+    }
+
+    /**
+     * @return verdadero si el mensaje es la lista completa de usuarios activos.
+     */
+    boolean isPresenceSnapshot() {
+        return type == FrameType.PRESENCE_SNAPSHOT;
+    }
+
+    /**
+     * Obtiene los bytes del mensaje en el formato de un cliente, codificándolo si aún no se había hecho.
+     *
+     * @param format el formato del cliente.
+     * @return los bytes a escribir en el socket; no deben modificarse porque se comparten entre clientes.
+     */
+    byte[] getBytes(WireFormat format) {
+        if (format == WireFormat.BINARY) {
+            byte[] bytes = binaryBytes;
+            if (bytes == null) {
+                bytes = type == FrameType.HELLO
+                        ? Frame.PREAMBLE
+                        : Frame.encode(type, sender, recipient, body, bodyOffset, bodyLength);
+                binaryBytes = bytes;
+            }
+            return bytes;
+        }
+        byte[] bytes = textBytes;
+        if (bytes == null) {
+            bytes = type == FrameType.HELLO ? EMPTY : encodeLine(toTextLine());
+            textBytes = bytes;
+        }
+        return bytes;
+    }
+
+    private String toTextLine() {
+        String text = new String(body, bodyOffset, bodyLength, StandardCharsets.UTF_8);
+        switch (type) {
+            case PRIVATE:
+                // Un salto de línea en el cuerpo cortaría el mensaje en el protocolo de texto
+                return "[" + sender + "(Private)]: " + text.replace('\r', ' ').replace('\n', ' ');
+            case ROOM:
+                return "[#" + recipient + "] " + sender + ": " + text.replace('\r', ' ').replace('\n', ' ');
+            case HISTORY:
+                return toRecordLine("History");
+            case SEARCH:
+                return toRecordLine("Search");
+            case PRESENCE_SNAPSHOT:
+                return "Active Users: " + text.replace("\n", ", ");
+            case PRESENCE_CHANGES:
+                return "Presence: " + text.replace("\n", ", ");
+            case ERROR:
+                return "Error: " + text;
+            case PING:
+                return "Ping";
+            case PONG:
+                return "Pong";
+            case SESSION:
+                return "Session " + text;
+            default:
+                return text;
+        }
+    }
+
+    // "History #id [fecha] remitente -> destinatario: mensaje", o "Search #id ..." para los resultados de búsqueda
+    private String toRecordLine(String prefix) {
+        ByteBuffer header = ByteBuffer.wrap(body, bodyOffset, 16);
+        long sequence = header.getLong();
+        long timestamp = header.getLong();
+        String text = new String(body, bodyOffset + 16, bodyLength - 16, StandardCharsets.UTF_8);
+        return prefix + " #" + sequence + " [" + HISTORY_TIME_FORMAT.format(Instant.ofEpochMilli(timestamp)) + "] "
+                + sender + " -> " + recipient + ": " + text.replace('\r', ' ').replace('\n', ' ');
+    }
+
+    private static byte[] encodeLine(String line) {
+        byte[] text = line.getBytes(StandardCharsets.UTF_8);
+        byte[] encoded = new byte[text.length + LINE_SEPARATOR.length];
+        System.arraycopy(text, 0, encoded, 0, text.length);
+        System.arraycopy(LINE_SEPARATOR, 0, encoded, text.length, LINE_SEPARATOR.length);
+        return encoded;
+    }
+}
\ No newline at end of file
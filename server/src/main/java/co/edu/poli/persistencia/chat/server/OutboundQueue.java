@@ -0,0 +1,568 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * La clase OutboundQueue es la cola de salida acotada de un cliente. Cualquier hilo puede encolar mensajes sin
+ * bloquearse y solo el escritor propio del cliente los escribe en el socket, de modo que un cliente lento no
+ * detiene a quienes le envían mensajes.
+ * <p>
+ * Cuando la cola supera su límite de mensajes o de bytes se aplica la {@link OverflowPolicy} configurada. Un mensaje
+ * que por sí solo supera el límite de bytes se rechaza sin descartar ninguno de los que esperan.
+ * <p>
+ * La cola de una conexión no bloqueante pertenece a un {@link NioEventLoop}: los mensajes que encolan otros hilos
+ * pasan por el buzón de ese bucle, que no usa candados, y solo el hilo del bucle toma el candado de la cola. Mientras
+ * esperan en el buzón, los mensajes cuentan para {@link #hasCapacityFor(int, long)}, y quien necesita saber si el
+ * bucle aceptó un mensaje lo encola con {@link #offer(OutboundMessage, Consumer)}.
+ * <p>
+ * Si la sesión del cliente se puede reanudar, cada mensaje que sale de la cola, o que queda en ella al descartarla,
+ * se numera en su {@link ReplayBuffer}.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class OutboundQueue {
+
+    /**
+     * Lo que se hace cuando la cola de un cliente está llena.
+     */
+    enum OverflowPolicy {
+        /**
+         * Descarta los mensajes más antiguos hasta que el nuevo quepa.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Descarta primero las actualizaciones de usuarios activos y, si no alcanza, los mensajes más antiguos.
+         * El cliente recibe luego la lista completa para recuperar los cambios descartados.
+         */
+        DROP_PRESENCE,
+
+        /**
+         * Desconecta al cliente lento.
+         */
+        DISCONNECT;
+
+        /**
+         * Obtiene la política a partir de su nombre ("drop-oldest", "drop-presence" o "disconnect").
+         *
+         * @param name el nombre de la política.
+         * @return la política correspondiente.
+         * @throws IllegalArgumentException si el nombre no corresponde a ninguna política.
+         */
+        static OverflowPolicy fromName(String name) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.name().replace('_', '-').equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("Unknown overflow policy: " + name);
+        }
+    }
+
+    private final int maxMessages;
+
+    private final long maxBytes;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final OutboundStats stats;
+
+    // Se invoca cuando la cola pasa de vacía a no vacía, para despertar a un escritor no bloqueante
+    private final Runnable onAvailable;
+
+    // Se invoca, fuera del candado, cuando la política DISCONNECT decide cerrar al cliente
+    private final Runnable onSlowConsumer;
+
+    // Se invoca, fuera del candado, cuando se descartó una actualización de usuarios activos
+    private final Consumer<OutboundQueue> onPresenceDropped;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final ArrayDeque<OutboundMessage> messages = new ArrayDeque<>();
+
+    // Se fija en el saludo, antes de encolar cualquier mensaje
+    private volatile WireFormat wireFormat = WireFormat.TEXT;
+
+    // El bucle de eventos dueño de la cola, o null si cualquier hilo encola directamente
+    private volatile NioEventLoop eventLoop;
+
+    // Los mensajes, y sus bytes, que esperan en el buzón del bucle para encolarse
+    private final AtomicInteger inFlightMessages = new AtomicInteger();
+    private final AtomicLong inFlightBytes = new AtomicLong();
+
+    // Numera los mensajes de la sesión, o null si la sesión no se puede reanudar
+    private volatile ReplayBuffer replayBuffer;
+
+    private long bytes;
+    private long droppedMessages;
+    private boolean presenceChangesDropped;
+    // Verdadero mientras se prepara la sesión: la cola acepta mensajes, pero el escritor no los recibe
+    private boolean held;
+    // Se escribe con el candado; se lee sin él para rechazar de inmediato lo que se envía a una cola cerrada
+    private volatile boolean closed;
+
+    /**
+     * Inicializa una nueva instancia de la clase OutboundQueue.
+     *
+     * @param maxMessages la cantidad máxima de mensajes en espera.
+     * @param maxBytes la cantidad máxima de bytes en espera.
+     * @param overflowPolicy lo que se hace cuando la cola está llena.
+     * @param stats los contadores agregados del servidor.
+     * @param onAvailable se invoca cuando la cola deja de estar vacía.
+     * @param onSlowConsumer se invoca cuando el cliente debe desconectarse por no leer a tiempo.
+     * @param onPresenceDropped se invoca cuando se descartó una actualización de usuarios activos, para que el
+     *                          cliente reciba de nuevo la lista completa.
+     */
+    OutboundQueue(int maxMessages, long maxBytes, OverflowPolicy overflowPolicy, OutboundStats stats,
+                  Runnable onAvailable, Runnable onSlowConsumer, Consumer<OutboundQueue> onPresenceDropped) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.overflowPolicy = overflowPolicy;
+        this.stats = stats;
+        this.onAvailable = onAvailable;
+        this.onSlowConsumer = onSlowConsumer;
+        this.onPresenceDropped = onPresenceDropped;
+    }
+
+    /**
+     * Fija el formato en que el cliente recibe los mensajes. Debe llamarse antes de encolar el primer mensaje.
+     *
+     * @param wireFormat el formato negociado en el saludo.
+     */
+    void setWireFormat(WireFormat wireFormat) {
+        this.wireFormat = wireFormat;
+    }
+
+    /**
+     * Fija el bucle de eventos dueño de la cola. Debe llamarse antes de encolar el primer mensaje.
+     *
+     * @param eventLoop el bucle que atiende la conexión del cliente.
+     */
+    void setEventLoop(NioEventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+    }
+
+    /**
+     * Fija el búfer que numera los mensajes de la sesión. Debe llamarse antes de encolar el primer mensaje
+     * reanudable.
+     *
+     * @param replayBuffer el búfer de la sesión.
+     */
+    void setReplayBuffer(ReplayBuffer replayBuffer) {
+        this.replayBuffer = replayBuffer;
+    }
+
+    /**
+     * @return el búfer que numera los mensajes de la sesión, o null si la sesión no se puede reanudar.
+     */
+    ReplayBuffer getReplayBuffer() {
+        return replayBuffer;
+    }
+
+    /**
+     * @return el formato en que el cliente recibe los mensajes.
+     */
+    WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    /**
+     * Encola un mensaje para el cliente sin bloquear al hilo que lo envía. Si la cola pertenece a un bucle de eventos
+     * y quien llama es otro hilo, el mensaje se entrega por el buzón del bucle, que lo encola en su propio hilo; en
+     * ese caso el resultado solo refleja lo que se sabe al enviarlo (ver {@link #offer(OutboundMessage, Consumer)}).
+     *
+     * @param message el mensaje a encolar.
+     * @return verdadero si el mensaje quedó en la cola, o en el buzón de su bucle; falso si se descartó o la cola
+     * está cerrada.
+     */
+    boolean offer(OutboundMessage message) {
+        NioEventLoop owner = eventLoop;
+        if (owner == null || owner.inEventLoop()) {
+            return enqueue(message);
+        }
+        return handOff(owner, message, null);
+    }
+
+    /**
+     * Encola un mensaje e informa si la cola lo aceptó. Si la cola pertenece a un bucle de eventos y quien llama es
+     * otro hilo, el resultado se informa desde el hilo del bucle, después de que el mensaje salga de su buzón.
+     *
+     * @param message el mensaje a encolar.
+     * @param outcome recibe verdadero si el mensaje quedó en la cola; falso si se descartó o la cola está cerrada.
+     */
+    void offer(OutboundMessage message, Consumer<Boolean> outcome) {
+        NioEventLoop owner = eventLoop;
+        if (owner == null || owner.inEventLoop()) {
+            outcome.accept(enqueue(message));
+        } else if (!handOff(owner, message, outcome)) {
+            outcome.accept(false);
+        }
+    }
+
+    // Pasa el mensaje al buzón del bucle, reservando su lugar para hasCapacityFor. Devuelve falso, sin pasarlo, si
+    // ya se sabe que la cola lo rechazará
+    private boolean handOff(NioEventLoop owner, OutboundMessage message, Consumer<Boolean> outcome) {
+        if (closed) {
+            return false;
+        }
+        int length = encodedLength(message);
+        if (length > maxBytes) {
+            // El bucle cuenta el descarte, como si el mensaje se hubiera encolado en su hilo
+            owner.execute(() -> enqueue(message));
+            return false;
+        }
+        inFlightMessages.incrementAndGet();
+        inFlightBytes.addAndGet(length);
+        owner.execute(() -> {
+            inFlightMessages.decrementAndGet();
+            inFlightBytes.addAndGet(-length);
+            boolean accepted = enqueue(message);
+            if (outcome != null) {
+                outcome.accept(accepted);
+            }
+        });
+        return true;
+    }
+
+    private boolean enqueue(OutboundMessage message) {
+        boolean becameAvailable;
+        boolean disconnect = false;
+        boolean accepted = true;
+        boolean resyncPresence = false;
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (message.isPresenceSnapshot()) {
+                // La lista completa reemplaza a todas las actualizaciones que aún no se han enviado
+                removeSupersededPresence();
+            }
+            if (encodedLength(message) > maxBytes) {
+                // El mensaje no cabe ni con la cola vacía: se rechaza sin descartar los mensajes que esperan
+                drop(message);
+                if (message.isPresenceSnapshot()) {
+                    // Reenviar la lista completa no sirve: se rechazaría otra vez en cada ventana
+                    presenceChangesDropped = false;
+                }
+                return false;
+            }
+            while (!fits(message) && accepted && !disconnect) {
+                switch (overflowPolicy) {
+                    case DISCONNECT:
+                        disconnect = true;
+                        break;
+                    case DROP_PRESENCE:
+                        if (!removeFirstPresence()) {
+                            accepted = dropOldestOrReject(message);
+                        }
+                        break;
+                    default:
+                        accepted = dropOldestOrReject(message);
+                        break;
+                }
+            }
+            if (disconnect) {
+                closed = true;
+                clear();
+                stats.onSlowConsumerDisconnect();
+                return false;
+            }
+            if (!accepted) {
+                return false;
+            }
+            becameAvailable = messages.isEmpty();
+            messages.add(message);
+            bytes += message.getBytes(wireFormat).length;
+            stats.onEnqueued(message.getBytes(wireFormat).length);
+            notEmpty.signal();
+        } finally {
+            if (presenceChangesDropped && !closed) {
+                presenceChangesDropped = false;
+                resyncPresence = true;
+            }
+            lock.unlock();
+            if (disconnect) {
+                onSlowConsumer.run();
+            }
+            if (resyncPresence) {
+                onPresenceDropped.accept(this);
+            }
+        }
+        if (becameAvailable) {
+            onAvailable.run();
+        }
+        return true;
+    }
+
+    /**
+     * Retiene los mensajes de la cola hasta {@link #release(List)}: se siguen aceptando, pero el escritor no los
+     * recibe. Se usa mientras se registra la sesión, para que el token de la sesión y los mensajes reenviados salgan
+     * antes que los mensajes que lleguen mientras tanto.
+     */
+    void hold() {
+        lock.lock();
+        try {
+            held = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deja de retener los mensajes de la cola y pone otros delante de ellos. Los mensajes que se ponen delante no
+     * están sujetos a los límites de la cola: son pocos y el cliente ya debía recibirlos.
+     *
+     * @param first los mensajes que salen primero, en orden.
+     */
+    void release(List<OutboundMessage> first) {
+        boolean available;
+        lock.lock();
+        try {
+            held = false;
+            if (!closed) {
+                for (int i = first.size() - 1; i >= 0; i--) {
+                    OutboundMessage message = first.get(i);
+                    messages.addFirst(message);
+                    bytes += message.getBytes(wireFormat).length;
+                    stats.onEnqueued(message.getBytes(wireFormat).length);
+                }
+            }
+            available = !messages.isEmpty();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (available) {
+            onAvailable.run();
+        }
+    }
+
+    /**
+     * Obtiene el siguiente mensaje sin bloquear.
+     *
+     * @return el siguiente mensaje, o null si la cola está vacía o retenida.
+     */
+    OutboundMessage poll() {
+        lock.lock();
+        try {
+            return held ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Obtiene el siguiente mensaje, esperando a que haya uno disponible.
+     *
+     * @return el siguiente mensaje, o null si la cola se cerró y ya no quedan mensajes.
+     * @throws InterruptedException si el hilo es interrumpido mientras espera.
+     */
+    OutboundMessage take() throws InterruptedException {
+        lock.lock();
+        try {
+            while ((messages.isEmpty() || held) && !closed) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cierra la cola: no se aceptan más mensajes, pero el escritor puede terminar de enviar los que quedan.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cierra la cola y descarta los mensajes que quedaban sin enviar.
+     */
+    void discard() {
+        lock.lock();
+        try {
+            closed = true;
+            clear();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return verdadero si no hay mensajes en espera.
+     */
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return messages.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return verdadero si la cola está cerrada y ya no acepta mensajes.
+     */
+    boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Indica si la cola puede recibir más mensajes sin desbordarse. Lo usan los productores que pueden esperar,
+     * como la entrega de los buzones, para no provocar descartes.
+     *
+     * @param messageCount la cantidad de mensajes que se quieren encolar.
+     * @param byteCount la cantidad aproximada de bytes que se quieren encolar.
+     * @return verdadero si la cola está abierta y caben los mensajes.
+     */
+    boolean hasCapacityFor(int messageCount, long byteCount) {
+        lock.lock();
+        try {
+            return !closed && messages.size() + inFlightMessages.get() + messageCount <= maxMessages
+                    && bytes + inFlightBytes.get() + byteCount <= maxBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return la cantidad de mensajes en espera.
+     */
+    int getDepth() {
+        lock.lock();
+        try {
+            return messages.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return la cantidad de bytes en espera.
+     */
+    long getQueuedBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return la cantidad de mensajes de este cliente descartados por desborde.
+     */
+    long getDroppedMessages() {
+        lock.lock();
+        try {
+            return droppedMessages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Los bytes del mensaje en el formato del cliente. Un mensaje que no cabe en una trama se trata como uno que no
+    // cabe en la cola; los demás usos de getBytes vienen después de esta revisión y reciben la codificación guardada
+    private int encodedLength(OutboundMessage message) {
+        try {
+            return message.getBytes(wireFormat).length;
+        } catch (IllegalArgumentException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    private boolean fits(OutboundMessage message) {
+        return messages.size() < maxMessages && bytes + message.getBytes(wireFormat).length <= maxBytes;
+    }
+
+    private boolean dropOldestOrReject(OutboundMessage message) {
+        if (messages.isEmpty()) {
+            drop(message);
+            return false;
+        }
+        OutboundMessage oldest = messages.poll();
+        bytes -= oldest.getBytes(wireFormat).length;
+        stats.onDequeued(oldest.getBytes(wireFormat).length);
+        drop(oldest);
+        return true;
+    }
+
+    private boolean removeFirstPresence() {
+        Iterator<OutboundMessage> iterator = messages.iterator();
+        while (iterator.hasNext()) {
+            OutboundMessage queued = iterator.next();
+            if (queued.isPresence()) {
+                iterator.remove();
+                bytes -= queued.getBytes(wireFormat).length;
+                stats.onDequeued(queued.getBytes(wireFormat).length);
+                drop(queued);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void removeSupersededPresence() {
+        Iterator<OutboundMessage> iterator = messages.iterator();
+        while (iterator.hasNext()) {
+            OutboundMessage queued = iterator.next();
+            if (queued.isPresence()) {
+                iterator.remove();
+                bytes -= queued.getBytes(wireFormat).length;
+                stats.onDequeued(queued.getBytes(wireFormat).length);
+            }
+        }
+        presenceChangesDropped = false;
+    }
+
+    private void drop(OutboundMessage message) {
+        if (message.isPresence()) {
+            presenceChangesDropped = true;
+        }
+        droppedMessages++;
+        stats.onDropped(message);
+    }
+
+    private OutboundMessage dequeue() {
+        OutboundMessage message = messages.poll();
+        if (message != null) {
+            bytes -= message.getBytes(wireFormat).length;
+            stats.onDequeued(message.getBytes(wireFormat).length);
+            ReplayBuffer sessionBuffer = replayBuffer;
+            if (sessionBuffer != null) {
+                sessionBuffer.record(message);
+            }
+        }
+        return message;
+    }
+
+    private void clear() {
+        OutboundMessage message;
+        while ((message = dequeue()) != null) {
+            drop(message);
+        }
+    }
+}
\ No newline at end of file
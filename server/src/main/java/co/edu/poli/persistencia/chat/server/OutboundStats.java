@@ -0,0 +1,75 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores agregados de todas las colas de salida ({@link OutboundQueue}) del servidor.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+public class OutboundStats {
+
+    private final LongAdder queuedMessages = new LongAdder();
+    private final LongAdder queuedBytes = new LongAdder();
+    private final LongAdder droppedMessages = new LongAdder();
+    private final LongAdder droppedPresenceUpdates = new LongAdder();
+    private final LongAdder slowConsumerDisconnects = new LongAdder();
+
+    void onEnqueued(int bytes) {
+        queuedMessages.increment();
+        queuedBytes.add(bytes);
+    }
+
+    void onDequeued(int bytes) {
+        queuedMessages.decrement();
+        queuedBytes.add(-bytes);
+    }
+
+    void onDropped(OutboundMessage message) {
+        droppedMessages.increment();
+        if (message.isPresence()) {
+            droppedPresenceUpdates.increment();
+        }
+    }
+
+    void onSlowConsumerDisconnect() {
+        slowConsumerDisconnects.increment();
+    }
+
+    /**
+     * @return la cantidad de mensajes que esperan en todas las colas de salida.
+     */
+    public long getQueuedMessages() {
+        return queuedMessages.sum();
+    }
+
+    /**
+     * @return la cantidad de bytes que esperan en todas las colas de salida.
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.sum();
+    }
+
+    /**
+     * @return la cantidad total de mensajes descartados por desborde.
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    /**
+     * @return la cantidad de actualizaciones de usuarios activos descartadas por desborde.
+     */
+    public long getDroppedPresenceUpdates() {
+        return droppedPresenceUpdates.sum();
+    }
+
+    /**
+     * @return la cantidad de clientes desconectados por no leer sus mensajes a tiempo.
+     */
+    public long getSlowConsumerDisconnects() {
+        return slowConsumerDisconnects.sum();
+    }
+}
\ No newline at end of file
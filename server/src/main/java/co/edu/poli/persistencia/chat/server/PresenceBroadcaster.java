@@ -0,0 +1,244 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * La clase PresenceBroadcaster envía a los clientes los cambios en la lista de usuarios activos.
+ * <p>
+ * En lugar de reenviar la lista completa en cada conexión o desconexión, acumula los cambios durante una ventana
+ * corta y envía un único mensaje incremental a todos los clientes ({@code Presence: +ana, -luis}). Solo los clientes
+ * que acaban de conectarse reciben la lista completa ({@code Active Users: ana, pedro}).
+ * <p>
+ * Todos los envíos los hace un único hilo, así la lista completa de un cliente nuevo nunca llega después de un
+ * cambio más reciente. Los clientes deben aplicar los cambios como operaciones de conjunto idempotentes.
+ * <p>
+ * Una lista completa grande se envía en partes para que cada mensaje quepa en la cola de salida del cliente: la
+ * primera parte reemplaza la lista del cliente y las demás llegan como cambios ({@code Presence: +ana, +pedro}).
+ * Entre todas las partes ocupan a lo sumo la mitad de la cola; los usuarios que no caben se omiten, porque una lista
+ * que no cabe en la cola vacía se descartaría y se reenviaría en cada ventana.
+ * <p>
+ * En un clúster la lista completa incluye a los usuarios de todos los nodos, y los cambios de los usuarios de otros
+ * nodos llegan con {@link #clientChanged(String, boolean)}.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class PresenceBroadcaster {
+
+    // Tamaño máximo de cada parte de la lista completa
+    private static final int MAX_SNAPSHOT_CHUNK_BYTES = 16 * 1024;
+
+    private final SessionRegistry sessionRegistry;
+
+    // Los apodos de la lista completa: los del nodo o, en un clúster, los de todos los nodos
+    private final Supplier<Collection<String>> nicknames;
+
+    private final long windowMillis;
+
+    private final int snapshotChunkBytes;
+
+    private final long snapshotMaxBytes;
+
+    private final int snapshotMaxChunks;
+
+    private final ServerMetrics metrics;
+
+    // Último estado conocido de cada apodo que cambió durante la ventana: verdadero si se conectó
+    private final ConcurrentHashMap<String, Boolean> pendingChanges = new ConcurrentHashMap<>();
+
+    // Clientes registrados durante la ventana (o que perdieron cambios), que deben recibir la lista completa
+    private final Queue<OutboundQueue> pendingSnapshots = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "presence-broadcaster");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Inicializa una nueva instancia de la clase PresenceBroadcaster.
+     *
+     * @param sessionRegistry las sesiones de los clientes activos, que reciben los avisos.
+     * @param nicknames los apodos que forman la lista completa de usuarios activos.
+     * @param windowMillis los milisegundos durante los que se acumulan los cambios antes de enviarlos.
+     * @param outboundMaxMessages los mensajes que puede acumular la cola de salida de un cliente.
+     * @param outboundMaxBytes los bytes que puede acumular la cola de salida de un cliente.
+     * @param metrics las métricas del servidor, donde se registra el tamaño y la duración de cada difusión.
+     */
+    PresenceBroadcaster(SessionRegistry sessionRegistry, Supplier<Collection<String>> nicknames, long windowMillis,
+                        int outboundMaxMessages, long outboundMaxBytes, ServerMetrics metrics) {
+        this.sessionRegistry = sessionRegistry;
+        this.nicknames = nicknames;
+        this.windowMillis = windowMillis;
+        this.snapshotChunkBytes = (int) Math.max(1, Math.min(MAX_SNAPSHOT_CHUNK_BYTES, outboundMaxBytes / 4));
+        this.snapshotMaxBytes = Math.max(1, outboundMaxBytes / 2);
+        this.snapshotMaxChunks = Math.max(1, outboundMaxMessages / 2);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Registra que un cliente se conectó. El cliente ya debe estar en la lista de clientes activos.
+     *
+     * @param clientNickname el apodo del cliente.
+     * @param clientOutputQueue la cola de salida del cliente, que recibirá la lista completa.
+     */
+    void clientJoined(String clientNickname, OutboundQueue clientOutputQueue) {
+        pendingSnapshots.add(clientOutputQueue);
+        pendingChanges.put(clientNickname, Boolean.TRUE);
+        scheduleFlush();
+    }
+
+    /**
+     * Pide que un cliente reciba de nuevo la lista completa, por ejemplo porque su cola de salida descartó cambios.
+     *
+     * @param clientOutputQueue la cola de salida del cliente.
+     */
+    void resendSnapshot(OutboundQueue clientOutputQueue) {
+        pendingSnapshots.add(clientOutputQueue);
+        scheduleFlush();
+    }
+
+    /**
+     * Registra que un cliente se desconectó. El cliente ya no debe estar en la lista de clientes activos.
+     *
+     * @param clientNickname el apodo del cliente.
+     */
+    void clientLeft(String clientNickname) {
+        pendingChanges.put(clientNickname, Boolean.FALSE);
+        scheduleFlush();
+    }
+
+    /**
+     * Registra que un usuario de otro nodo del clúster se conectó o se desconectó.
+     *
+     * @param clientNickname el apodo del usuario.
+     * @param connected verdadero si el usuario está conectado.
+     */
+    void clientChanged(String clientNickname, boolean connected) {
+        pendingChanges.put(clientNickname, connected);
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Envía los cambios acumulados durante la ventana. Se ejecuta en el hilo del planificador.
+     */
+    private void flush() {
+        // Los cambios que lleguen desde aquí programan una nueva ventana
+        flushScheduled.set(false);
+        long start = metrics.startTimer();
+
+        Set<OutboundQueue> newClients = Collections.newSetFromMap(new IdentityHashMap<>());
+        OutboundQueue newClient;
+        while ((newClient = pendingSnapshots.poll()) != null) {
+            newClients.add(newClient);
+        }
+
+        OutboundMessage changesMessage = buildChangesMessage();
+        List<OutboundMessage> snapshotMessages = newClients.isEmpty() ? List.of() : buildSnapshotMessages();
+        if (changesMessage == null && snapshotMessages.isEmpty()) {
+            return;
+        }
+
+        // Cada mensaje se codifica una sola vez y se encola para todos los clientes que lo necesitan
+        int recipients = 0;
+        for (ClientSession session : sessionRegistry.sessions()) {
+            OutboundQueue clientQueue = session.getOutboundQueue();
+            if (newClients.contains(clientQueue)) {
+                for (OutboundMessage snapshotMessage : snapshotMessages) {
+                    clientQueue.offer(snapshotMessage);
+                }
+                recipients++;
+            } else if (changesMessage != null) {
+                clientQueue.offer(changesMessage);
+                recipients++;
+            }
+        }
+        if (metrics.isEnabled()) {
+            int snapshotBytes = 0;
+            for (OutboundMessage snapshotMessage : snapshotMessages) {
+                snapshotBytes += sizeOf(snapshotMessage);
+            }
+            int bytes = Math.max(snapshotBytes, sizeOf(changesMessage));
+            metrics.onPresenceBroadcast(recipients, bytes, start);
+        }
+    }
+
+    // Tamaño del cuerpo del mensaje; no obliga a codificarlo en un formato que quizá ningún cliente usa
+    private static int sizeOf(OutboundMessage message) {
+        return message == null ? 0 : message.getBodyLength();
+    }
+
+    private OutboundMessage buildChangesMessage() {
+        List<String> changes = new ArrayList<>();
+        for (String nickname : pendingChanges.keySet()) {
+            Boolean joined = pendingChanges.remove(nickname);
+            if (joined != null) {
+                changes.add((joined ? "+" : "-") + nickname);
+            }
+        }
+        return changes.isEmpty() ? null : OutboundMessage.presenceChanges(changes);
+    }
+
+    private List<OutboundMessage> buildSnapshotMessages() {
+        List<OutboundMessage> snapshotMessages = new ArrayList<>();
+        List<String> chunk = new ArrayList<>();
+        int chunkBytes = 0;
+        long totalBytes = 0;
+        for (String nickname : nicknames.get()) {
+            int nicknameBytes = nickname.getBytes(StandardCharsets.UTF_8).length + 2;
+            totalBytes += nicknameBytes;
+            if (totalBytes > snapshotMaxBytes) {
+                break;
+            }
+            if (!chunk.isEmpty() && chunkBytes + nicknameBytes > snapshotChunkBytes) {
+                if (snapshotMessages.size() + 1 == snapshotMaxChunks) {
+                    break;
+                }
+                snapshotMessages.add(buildSnapshotChunk(chunk, snapshotMessages.isEmpty()));
+                chunk = new ArrayList<>();
+                chunkBytes = 0;
+            }
+            chunk.add(nickname);
+            chunkBytes += nicknameBytes;
+        }
+        if (!chunk.isEmpty() || snapshotMessages.isEmpty()) {
+            snapshotMessages.add(buildSnapshotChunk(chunk, snapshotMessages.isEmpty()));
+        }
+        return snapshotMessages;
+    }
+
+    // La primera parte reemplaza la lista del cliente; las siguientes le agregan usuarios
+    private static OutboundMessage buildSnapshotChunk(List<String> chunk, boolean first) {
+        if (first) {
+            return OutboundMessage.presenceSnapshot(chunk);
+        }
+        List<String> changes = new ArrayList<>(chunk.size());
+        for (String nickname : chunk) {
+            changes.add("+" + nickname);
+        }
+        return OutboundMessage.presenceChanges(changes);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,122 @@
+package co.edu.poli.persistencia.chat.server;
+
+/**
+ * La clase RateLimiter limita los mensajes y los bytes que un cliente puede enviar, con un {@link TokenBucket} para
+ * cada cosa. Los mensajes que superan el límite se descartan antes de enrutarlos o registrarlos, y el cliente recibe
+ * un error ({@link FrameType#ERROR}) una sola vez por cada ráfaga rechazada, así una inundación no se convierte en
+ * otra inundación de errores.
+ * <p>
+ * Los mensajes de control ("chao", {@link FrameType#BYE}, y los ping y pong en ambos protocolos) no se limitan: son
+ * pequeños, y rechazarlos impediría cerrar la conexión o responder al monitor de actividad durante una ráfaga.
+ * <p>
+ * Cada conexión tiene su propio limitador y solo lo usa el hilo que lee sus mensajes: no hay contención entre
+ * clientes ni se reserva memoria por mensaje.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+final class RateLimiter {
+
+    private static final OutboundMessage RATE_LIMITED =
+            OutboundMessage.error("Rate limit exceeded. Messages are being dropped.");
+
+    private final OutboundQueue clientOutputQueue;
+
+    private final ServerMetrics metrics;
+
+    // Los baldes de mensajes y de bytes, o null si ese límite está desactivado
+    private final TokenBucket messages;
+    private final TokenBucket bytes;
+
+    // Verdadero desde que se rechaza un mensaje hasta que se acepta el siguiente
+    private boolean limited;
+
+    /**
+     * Inicializa una nueva instancia de la clase RateLimiter.
+     *
+     * @param messagesPerSecond los mensajes por segundo permitidos, o 0 para no limitarlos.
+     * @param bytesPerSecond los bytes por segundo permitidos, o 0 para no limitarlos.
+     * @param burstSeconds los segundos de tráfico a la tasa máxima que se permiten en una ráfaga.
+     * @param clientOutputQueue la cola de salida del cliente, que recibe el error.
+     * @param metrics las métricas del servidor, donde se cuentan los mensajes rechazados.
+     */
+    RateLimiter(long messagesPerSecond, long bytesPerSecond, long burstSeconds, OutboundQueue clientOutputQueue,
+                ServerMetrics metrics) {
+        long now = System.nanoTime();
+        this.messages = messagesPerSecond > 0
+                ? new TokenBucket(messagesPerSecond, messagesPerSecond * burstSeconds, now) : null;
+        this.bytes = bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond, bytesPerSecond * burstSeconds, now) : null;
+        this.clientOutputQueue = clientOutputQueue;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Decide si se procesa una línea del protocolo de texto.
+     *
+     * @param line la línea recibida.
+     * @param length los bytes de la línea en UTF-8, sin el separador.
+     * @return verdadero si la línea está dentro del límite, o es de control, y debe procesarse.
+     */
+    boolean tryAcquire(String line, int length) {
+        return isControl(line) || tryAcquire(length);
+    }
+
+    /**
+     * Decide si se procesa una trama del protocolo binario.
+     *
+     * @param frame la trama recibida.
+     * @return verdadero si la trama está dentro del límite, o es de control, y debe procesarse.
+     */
+    boolean tryAcquire(Frame frame) {
+        switch (frame.getType()) {
+            case BYE:
+            case PING:
+            case PONG:
+                return true;
+            case LINE:
+                return tryAcquire(frame.getBodyAsString(), frame.getBodyLength());
+            default:
+                return tryAcquire(frame.getBodyLength());
+        }
+    }
+
+    // Las líneas que terminan la conexión o responden a la revisión de actividad
+    private static boolean isControl(String line) {
+        String command = line.trim();
+        return command.equalsIgnoreCase("chao") || command.equalsIgnoreCase("/ping")
+                || command.equalsIgnoreCase("/pong");
+    }
+
+    /**
+     * Decide si se procesa un mensaje que no es de control. Si se rechaza, avisa al cliente al inicio de la ráfaga.
+     *
+     * @param length el tamaño del mensaje en bytes: el cuerpo de la trama, o la línea en UTF-8.
+     * @return verdadero si el mensaje está dentro del límite y debe procesarse.
+     */
+    boolean tryAcquire(int length) {
+        if (messages == null && bytes == null) {
+            return true;
+        }
+        long now = System.nanoTime();
+        // Se revisan los dos baldes antes de consumir: un mensaje rechazado por uno no gasta fichas del otro
+        boolean allowed = (messages == null || messages.canConsume(1, now))
+                && (bytes == null || bytes.canConsume(length, now));
+        if (allowed) {
+            if (messages != null) {
+                messages.consume(1);
+            }
+            if (bytes != null) {
+                bytes.consume(length);
+            }
+            limited = false;
+            return true;
+        }
+        metrics.onMessageRateLimited();
+        if (!limited) {
+            limited = true;
+            clientOutputQueue.offer(RATE_LIMITED);
+        }
+        return false;
+    }
+}
\ No newline at end of file
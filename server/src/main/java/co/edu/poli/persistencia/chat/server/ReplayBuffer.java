@@ -0,0 +1,158 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * La clase ReplayBuffer numera los mensajes que el servidor envía a la sesión de un usuario y conserva los últimos,
+ * para reenviar los que el cliente no alcanzó a recibir si pierde la conexión y la reanuda.
+ * <p>
+ * Un mensaje recibe su número de secuencia cuando el escritor lo saca de la cola de salida
+ * ({@link OutboundQueue#setReplayBuffer}), o cuando la cola se descarta con el mensaje aún dentro; los que la política
+ * de desborde descarta nunca se numeran. Así las secuencias coinciden con el orden en que el cliente recibe los
+ * mensajes, y el cliente solo tiene que contar los mensajes reanudables ({@link OutboundMessage#isResumable()}) que
+ * procesó para saber hasta dónde llegó.
+ * <p>
+ * Al reanudar, los mensajes que el cliente ya recibió se olvidan y los demás se vuelven a encolar en la nueva
+ * conexión, donde reciben otra vez las mismas secuencias.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+final class ReplayBuffer {
+
+    private final String token;
+
+    private final int capacity;
+
+    // Los últimos mensajes numerados; el último tiene la secuencia lastSequence
+    private final ArrayDeque<OutboundMessage> messages = new ArrayDeque<>();
+
+    private long lastSequence;
+
+    // La cola de la conexión que alimenta el búfer: la actual o, si la sesión está desconectada, la última
+    private OutboundQueue queue;
+
+    // Las salas de la sesión al desconectarse, para volver a unirla al reanudar
+    private List<String> rooms = Collections.emptyList();
+
+    // El momento en que la sesión se desconectó, o 0 mientras tiene una conexión
+    private long detachedAtMillis;
+
+    /**
+     * Crea el búfer de una sesión nueva.
+     *
+     * @param token el token con el que el cliente reanuda la sesión.
+     * @param capacity la cantidad de mensajes que se conservan para reenviar.
+     * @param queue la cola de salida de la conexión que inicia la sesión.
+     */
+    ReplayBuffer(String token, int capacity, OutboundQueue queue) {
+        this.token = token;
+        this.capacity = capacity;
+        this.queue = queue;
+    }
+
+    /**
+     * @return el token con el que el cliente reanuda la sesión.
+     */
+    String getToken() {
+        return token;
+    }
+
+    /**
+     * @return la secuencia del último mensaje numerado.
+     */
+    synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Numera un mensaje que sale de la cola de salida. Se invoca con el candado de la cola tomado.
+     *
+     * @param message el mensaje; si no es reanudable no se numera.
+     */
+    synchronized void record(OutboundMessage message) {
+        if (!message.isResumable()) {
+            return;
+        }
+        lastSequence++;
+        messages.add(message);
+        if (messages.size() > capacity) {
+            messages.poll();
+        }
+    }
+
+    /**
+     * Marca la sesión como desconectada. La cola de la conexión sigue numerando los mensajes que le quedaban. Si la
+     * sesión ya pasó a otra conexión, no se modifica.
+     *
+     * @param detachedQueue la cola de salida de la conexión que se cerró.
+     * @param rooms las salas de las que salió la sesión.
+     * @param nowMillis el momento de la desconexión.
+     * @return verdadero si la sesión quedó desconectada.
+     */
+    synchronized boolean detach(OutboundQueue detachedQueue, List<String> rooms, long nowMillis) {
+        if (queue != detachedQueue) {
+            return false;
+        }
+        this.rooms = rooms;
+        this.detachedAtMillis = nowMillis;
+        return true;
+    }
+
+    /**
+     * @param cutoffMillis el momento límite.
+     * @return verdadero si la sesión está desconectada desde antes del momento indicado.
+     */
+    synchronized boolean isDetachedSince(long cutoffMillis) {
+        return detachedAtMillis > 0 && detachedAtMillis <= cutoffMillis;
+    }
+
+    /**
+     * Pasa la sesión a una nueva conexión. La cola de la conexión anterior se descarta, así los mensajes que aún
+     * tenía quedan numerados y ya no llegan más; luego se olvidan los mensajes que el cliente confirmó.
+     *
+     * @param newQueue la cola de salida de la nueva conexión.
+     * @param acknowledged la secuencia del último mensaje que el cliente recibió.
+     * @return los mensajes por reenviar, del más antiguo al más reciente, o null si la secuencia no es válida.
+     * Después de esta llamada, {@link #getLastSequence()} es la secuencia desde la que el cliente debe contar; es
+     * mayor que la confirmada si los mensajes intermedios ya no estaban en el búfer.
+     */
+    List<OutboundMessage> attach(OutboundQueue newQueue, long acknowledged) {
+        OutboundQueue previous;
+        synchronized (this) {
+            previous = queue;
+            queue = null;
+        }
+        // Fuera del candado del búfer: descartar la cola toma su candado, y la cola toma el del búfer al numerar
+        if (previous != null) {
+            previous.discard();
+        }
+        synchronized (this) {
+            if (acknowledged < 0 || acknowledged > lastSequence) {
+                return null;
+            }
+            long oldest = lastSequence - messages.size() + 1;
+            long resumeFrom = Math.max(acknowledged, oldest - 1);
+            List<OutboundMessage> replay = new ArrayList<>(messages);
+            replay = replay.subList((int) (resumeFrom - (oldest - 1)), replay.size());
+            messages.clear();
+            lastSequence = resumeFrom;
+            queue = newQueue;
+            detachedAtMillis = 0;
+            return replay;
+        }
+    }
+
+    /**
+     * @return las salas de la sesión al desconectarse; se entregan una sola vez.
+     */
+    synchronized List<String> takeRooms() {
+        List<String> taken = rooms;
+        rooms = Collections.emptyList();
+        return taken;
+    }
+}
\ No newline at end of file
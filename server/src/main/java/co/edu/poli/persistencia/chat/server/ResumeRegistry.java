@@ -0,0 +1,106 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * La clase ResumeRegistry guarda el {@link ReplayBuffer} de cada sesión, por la clave de su apodo, para que el
+ * cliente pueda reanudarla con su token. El búfer de una sesión desconectada se conserva durante la ventana de
+ * reanudación y luego se olvida.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+final class ResumeRegistry {
+
+    private final int bufferMessages;
+
+    private final long windowMillis;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final ConcurrentHashMap<String, ReplayBuffer> buffers = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService expiryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "session-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Inicializa una nueva instancia de la clase ResumeRegistry.
+     *
+     * @param bufferMessages los mensajes que se conservan por sesión para reenviar, o 0 para no reanudar sesiones.
+     * @param windowMillis los milisegundos durante los que se puede reanudar una sesión desconectada.
+     */
+    ResumeRegistry(int bufferMessages, long windowMillis) {
+        this.bufferMessages = bufferMessages;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @return verdadero si las sesiones se pueden reanudar.
+     */
+    boolean isEnabled() {
+        return bufferMessages > 0;
+    }
+
+    /**
+     * Busca la sesión que un cliente quiere reanudar.
+     *
+     * @param key la clave del apodo.
+     * @param token el token que presentó el cliente.
+     * @return el búfer de la sesión, o null si no existe o ya expiró.
+     */
+    ReplayBuffer find(String key, String token) {
+        ReplayBuffer buffer = buffers.get(key);
+        return buffer != null && buffer.getToken().equals(token) ? buffer : null;
+    }
+
+    /**
+     * Crea el búfer de una sesión nueva, con un token aleatorio. No queda registrado hasta {@link #attached}.
+     *
+     * @param queue la cola de salida de la conexión que inicia la sesión.
+     * @return el búfer.
+     */
+    ReplayBuffer create(OutboundQueue queue) {
+        return new ReplayBuffer(Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong()),
+                bufferMessages, queue);
+    }
+
+    /**
+     * Registra el búfer de una sesión que acaba de obtener su apodo; reemplaza al de una sesión anterior.
+     *
+     * @param key la clave del apodo.
+     * @param buffer el búfer de la sesión.
+     */
+    void attached(String key, ReplayBuffer buffer) {
+        buffers.put(key, buffer);
+    }
+
+    /**
+     * Marca una sesión como desconectada y programa el fin de su ventana de reanudación. Si la sesión ya se reanudó
+     * en otra conexión, no se modifica.
+     *
+     * @param key la clave del apodo.
+     * @param buffer el búfer de la sesión.
+     * @param detachedQueue la cola de salida de la conexión que se cerró.
+     * @param rooms las salas de las que salió la sesión.
+     */
+    void detached(String key, ReplayBuffer buffer, OutboundQueue detachedQueue, List<String> rooms) {
+        if (!buffer.detach(detachedQueue, rooms, System.currentTimeMillis())) {
+            return;
+        }
+        expiryExecutor.schedule(() -> {
+            // Si la sesión se reanudó y volvió a desconectarse, la tarea de esa desconexión la olvidará
+            if (buffer.isDetachedSince(System.currentTimeMillis() - windowMillis)) {
+                buffers.remove(key, buffer);
+            }
+        }, windowMillis, TimeUnit.MILLISECONDS);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,93 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * La clase Room representa una sala del chat con sus miembros. Los miembros se guardan en un mapa concurrente,
+ * de modo que una publicación recorre a los miembros sin copiar el conjunto mientras otros clientes entran o salen.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class Room {
+
+    private final String name;
+
+    // Los miembros de la sala, por su sesión, con su cola de salida
+    private final ConcurrentHashMap<ClientSession, OutboundQueue> members = new ConcurrentHashMap<>();
+
+    /**
+     * Inicializa una nueva instancia de la clase Room.
+     *
+     * @param name el nombre de la sala.
+     */
+    Room(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return el nombre de la sala.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Agrega un miembro a la sala.
+     *
+     * @param session la sesión del cliente.
+     * @return verdadero si el cliente no era miembro de la sala.
+     */
+    boolean addMember(ClientSession session) {
+        return members.put(session, session.getOutboundQueue()) == null;
+    }
+
+    /**
+     * Quita un miembro de la sala.
+     *
+     * @param session la sesión del cliente.
+     * @return verdadero si el cliente era miembro de la sala.
+     */
+    boolean removeMember(ClientSession session) {
+        return members.remove(session) != null;
+    }
+
+    /**
+     * @param session la sesión del cliente.
+     * @return verdadero si el cliente es miembro de la sala.
+     */
+    boolean isMember(ClientSession session) {
+        return members.containsKey(session);
+    }
+
+    /**
+     * @return la cantidad de miembros de la sala.
+     */
+    int size() {
+        return members.size();
+    }
+
+    /**
+     * @return verdadero si la sala no tiene miembros.
+     */
+    boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    /**
+     * Encola el mismo mensaje para todos los miembros. El mensaje se codifica a lo sumo una vez por formato y sus
+     * bytes se comparten entre todas las colas.
+     *
+     * @param message el mensaje a publicar.
+     * @return la cantidad de miembros a los que se encoló el mensaje.
+     */
+    int publish(OutboundMessage message) {
+        int delivered = 0;
+        for (OutboundQueue memberQueue : members.values()) {
+            memberQueue.offer(message);
+            delivered++;
+        }
+        return delivered;
+    }
+}
\ No newline at end of file
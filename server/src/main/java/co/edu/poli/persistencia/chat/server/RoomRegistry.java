@@ -0,0 +1,155 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * La clase RoomRegistry mantiene el índice concurrente de salas y sus miembros. Una sala se crea cuando entra su
+ * primer miembro y se elimina cuando sale el último; ambas operaciones se hacen con {@code compute} sobre el mapa de
+ * salas, así una entrada nunca queda en una sala que otro hilo acaba de eliminar.
+ * <p>
+ * Los miembros se identifican por su sesión y no por su apodo: cuando una sesión se reanuda en otra conexión, la
+ * salida tardía de la conexión anterior no saca de sus salas a la nueva.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class RoomRegistry {
+
+    /**
+     * Longitud máxima del nombre de una sala.
+     */
+    static final int MAX_NAME_LENGTH = 64;
+
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+
+    // Las salas de cada sesión, para sacarla de todas cuando se desconecta
+    private final ConcurrentHashMap<ClientSession, Set<String>> roomsByClient = new ConcurrentHashMap<>();
+
+    /**
+     * Verifica que un nombre de sala sea válido: letras, dígitos, '-' o '_', hasta {@link #MAX_NAME_LENGTH} caracteres.
+     *
+     * @param roomName el nombre a verificar.
+     * @return verdadero si el nombre es válido.
+     */
+    static boolean isValidName(String roomName) {
+        if (roomName.isEmpty() || roomName.length() > MAX_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < roomName.length(); i++) {
+            char c = roomName.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '-' && c != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Agrega un cliente a una sala, creándola si no existe.
+     *
+     * @param session la sesión del cliente.
+     * @param roomName el nombre de la sala.
+     * @return la cantidad de miembros de la sala después de la entrada.
+     */
+    int join(ClientSession session, String roomName) {
+        Room room = rooms.compute(roomName, (name, existing) -> {
+            Room joined = existing != null ? existing : new Room(name);
+            joined.addMember(session);
+            return joined;
+        });
+        roomsByClient.computeIfAbsent(session, key -> ConcurrentHashMap.newKeySet()).add(roomName);
+        return room.size();
+    }
+
+    /**
+     * Saca a un cliente de una sala; la sala se elimina si queda vacía.
+     *
+     * @param session la sesión del cliente.
+     * @param roomName el nombre de la sala.
+     * @return verdadero si el cliente era miembro de la sala.
+     */
+    boolean leave(ClientSession session, String roomName) {
+        boolean[] removed = new boolean[1];
+        rooms.computeIfPresent(roomName, (name, room) -> {
+            removed[0] = room.removeMember(session);
+            return room.isEmpty() ? null : room;
+        });
+        Set<String> clientRooms = roomsByClient.get(session);
+        if (clientRooms != null) {
+            clientRooms.remove(roomName);
+        }
+        return removed[0];
+    }
+
+    /**
+     * Saca a un cliente de todas sus salas. Se usa cuando el cliente se desconecta.
+     *
+     * @param session la sesión del cliente.
+     * @return los nombres de las salas de las que salió.
+     */
+    List<String> leaveAll(ClientSession session) {
+        Set<String> clientRooms = roomsByClient.remove(session);
+        if (clientRooms == null) {
+            return Collections.emptyList();
+        }
+        for (String roomName : clientRooms) {
+            rooms.computeIfPresent(roomName, (name, room) -> {
+                room.removeMember(session);
+                return room.isEmpty() ? null : room;
+            });
+        }
+        return new ArrayList<>(clientRooms);
+    }
+
+    /**
+     * @param session la sesión del cliente.
+     * @param roomName el nombre de la sala.
+     * @return verdadero si el cliente es miembro de la sala.
+     */
+    boolean isMember(ClientSession session, String roomName) {
+        Room room = rooms.get(roomName);
+        return room != null && room.isMember(session);
+    }
+
+    /**
+     * @param session la sesión del cliente.
+     * @return los nombres de las salas de las que el cliente es miembro.
+     */
+    List<String> roomsOf(ClientSession session) {
+        Set<String> clientRooms = roomsByClient.get(session);
+        return clientRooms == null ? Collections.emptyList() : new ArrayList<>(clientRooms);
+    }
+
+    /**
+     * Publica un mensaje en una sala. Solo los miembros pueden publicar.
+     *
+     * @param session la sesión del emisor.
+     * @param roomName el nombre de la sala.
+     * @param message el mensaje, que se comparte entre todos los miembros.
+     * @return la cantidad de miembros que recibieron el mensaje, o -1 si el emisor no es miembro de la sala.
+     */
+    int publish(ClientSession session, String roomName, OutboundMessage message) {
+        Room room = rooms.get(roomName);
+        if (room == null || !room.isMember(session)) {
+            return -1;
+        }
+        return room.publish(message);
+    }
+
+    /**
+     * @return las salas existentes con su cantidad de miembros ("sala (3)"), ordenadas por nombre.
+     */
+    List<String> list() {
+        List<String> roomList = new ArrayList<>();
+        for (Room room : rooms.values()) {
+            roomList.add(room.getName() + " (" + room.size() + ")");
+        }
+        Collections.sort(roomList);
+        return roomList;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,580 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * La clase SearchIndex es el índice invertido de las palabras de los mensajes registrados, para buscar en las
+ * conversaciones de un usuario sin recorrer el registro.
+ * <p>
+ * Por cada conversación y palabra hay una lista de las secuencias de los mensajes que la contienen, en orden
+ * creciente. Cada secuencia se guarda como la diferencia con la anterior en un entero de longitud variable (7 bits
+ * por byte), así un mensaje cuesta uno o dos bytes por palabra distinta. Las palabras se normalizan: minúsculas y
+ * sin tildes, de modo que "Canción" y "cancion" son la misma palabra.
+ * <p>
+ * El hilo de sincronización de {@link MessageLog} agrega los mensajes que ya llegaron al disco; un hilo propio los
+ * divide en palabras y actualiza el índice, así el registro no espera al índice. El índice se guarda completo en el
+ * disco a lo sumo una vez por minuto y al cerrarse; al abrirse, {@link MessageLog} vuelve a agregar los mensajes
+ * registrados después del último guardado. Cuando el registro borra sus segmentos más antiguos, las secuencias de
+ * esos mensajes se quitan del índice ({@link #prune(long)}).
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class SearchIndex {
+
+    private static final Logger logger = LogManager.getLogger(SearchIndex.class);
+
+    /**
+     * Un mensaje que coincide con una búsqueda.
+     */
+    static final class Match {
+        final long sequence;
+        final String conversation;
+
+        Match(long sequence, String conversation) {
+            this.sequence = sequence;
+            this.conversation = conversation;
+        }
+    }
+
+    /**
+     * Cantidad máxima de palabras de una búsqueda.
+     */
+    static final int MAX_QUERY_TERMS = 8;
+
+    // Las palabras más largas se cortan; ninguna búsqueda razonable las necesita completas
+    private static final int MAX_TERM_LENGTH = 64;
+
+    private static final String SNAPSHOT_FILE = "search.idx";
+
+    // Versión 3: los participantes y las conversaciones privadas se identifican con los apodos sin distinguir
+    // mayúsculas
+    private static final int SNAPSHOT_VERSION = 3;
+
+    private static final long SNAPSHOT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Las secuencias de los mensajes que contienen una palabra, como diferencias codificadas en enteros variables.
+     * Solo la usa el hilo del índice, o quien tiene el candado del índice.
+     */
+    static final class PostingList {
+        byte[] bytes = new byte[8];
+        int length;
+        int count;
+        long lastSequence;
+
+        void add(long sequence) {
+            if (length + 10 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            long delta = sequence - lastSequence;
+            while ((delta & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            bytes[length++] = (byte) delta;
+            lastSequence = sequence;
+            count++;
+        }
+
+        // Quita las secuencias menores que la indicada. La primera que queda pasa a guardarse completa y las
+        // diferencias de las siguientes no cambian
+        void removeBefore(long oldestSequence) {
+            long sequence = 0;
+            int position = 0;
+            int removed = 0;
+            while (position < length) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[position++];
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                sequence += delta;
+                if (sequence >= oldestSequence) {
+                    break;
+                }
+                removed++;
+            }
+            if (removed == 0) {
+                return;
+            }
+            if (removed == count) {
+                length = 0;
+                count = 0;
+                return;
+            }
+            byte[] kept = new byte[Math.max(8, length - position + 10)];
+            int keptLength = 0;
+            long first = sequence;
+            while ((first & ~0x7FL) != 0) {
+                kept[keptLength++] = (byte) ((first & 0x7F) | 0x80);
+                first >>>= 7;
+            }
+            kept[keptLength++] = (byte) first;
+            System.arraycopy(bytes, position, kept, keptLength, length - position);
+            bytes = kept;
+            length = keptLength + length - position;
+            count -= removed;
+        }
+
+        // Las secuencias menores que la indicada, en orden creciente
+        long[] decodeBefore(long beforeSequence) {
+            long[] sequences = new long[count];
+            int decoded = 0;
+            long sequence = 0;
+            int position = 0;
+            while (position < length) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = bytes[position++];
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                sequence += delta;
+                if (sequence >= beforeSequence) {
+                    break;
+                }
+                sequences[decoded++] = sequence;
+            }
+            return decoded == sequences.length ? sequences : Arrays.copyOf(sequences, decoded);
+        }
+    }
+
+    // Un mensaje por indexar
+    private static final class Pending {
+        final long sequence;
+        final String conversation;
+        final String sender;
+        final String recipient;
+        final String text;
+
+        Pending(long sequence, String conversation, String sender, String recipient, String text) {
+            this.sequence = sequence;
+            this.conversation = conversation;
+            this.sender = sender;
+            this.recipient = recipient;
+            this.text = text;
+        }
+    }
+
+    private final Path directory;
+
+    // Las listas de cada conversación, por palabra
+    private final Map<String, Map<String, PostingList>> postings = new HashMap<>();
+
+    // Las conversaciones en las que participó cada usuario: las privadas y las salas donde escribió
+    private final Map<String, Set<String>> conversationsByNickname = new HashMap<>();
+
+    // Protege las listas y las conversaciones; solo el hilo del índice las modifica
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final ExecutorService indexer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "search-indexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Secuencia del último mensaje indexado; solo la usa el hilo del índice
+    private long checkpoint;
+
+    private volatile long savedCheckpoint;
+
+    private long lastSaveMillis = System.currentTimeMillis();
+
+    // Las secuencias menores que esta ya se quitaron del índice; solo la usa el hilo del índice
+    private long prunedSequence;
+
+    // Verdadero si se quitaron secuencias después del último guardado; solo la usa el hilo del índice
+    private boolean prunedSinceSave;
+
+    // Secuencia del último mensaje agregado y mensajes del lote actual; solo los usa el hilo de sincronización
+    private long submittedSequence;
+
+    private List<Pending> pending = new ArrayList<>();
+
+    /**
+     * Abre el índice en el directorio indicado y carga el último guardado, si existe.
+     *
+     * @param directory el directorio del índice; se crea si no existe.
+     * @throws IOException si no se puede crear el directorio.
+     */
+    SearchIndex(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            try {
+                load(snapshot);
+            } catch (IOException e) {
+                // El índice se reconstruye con los mensajes que aún conserva el registro
+                logger.warn("Could not load the search index, rebuilding it: {}", e.getMessage());
+                postings.clear();
+                conversationsByNickname.clear();
+                checkpoint = 0;
+            }
+        }
+        savedCheckpoint = checkpoint;
+        submittedSequence = checkpoint;
+    }
+
+    /**
+     * @return la secuencia del último mensaje guardado en el índice; los posteriores se deben volver a agregar.
+     */
+    long getCheckpoint() {
+        return savedCheckpoint;
+    }
+
+    /**
+     * Indica si un mensaje registrado falta en el índice, para no leer su cuerpo si no hace falta.
+     *
+     * @param sequence la secuencia del mensaje.
+     * @param type el tipo del mensaje.
+     * @return verdadero si el mensaje pertenece a una conversación y no se ha agregado.
+     */
+    boolean isMissing(long sequence, FrameType type) {
+        return sequence > submittedSequence && (type == FrameType.PRIVATE || type == FrameType.ROOM);
+    }
+
+    /**
+     * Agrega un mensaje al índice. El mensaje se indexa en el hilo del índice después del siguiente
+     * {@link #commit()}.
+     *
+     * @param sequence la secuencia del mensaje.
+     * @param type el tipo del mensaje.
+     * @param sender el remitente.
+     * @param recipient el destinatario o la sala.
+     * @param body el cuerpo del mensaje en UTF-8.
+     */
+    void add(long sequence, FrameType type, String sender, String recipient, byte[] body) {
+        String conversation = HistoryIndex.conversationOf(type, sender, recipient);
+        if (sequence <= submittedSequence || conversation == null) {
+            return;
+        }
+        submittedSequence = sequence;
+        pending.add(new Pending(sequence, conversation, sender, type == FrameType.PRIVATE ? recipient : null,
+                new String(body, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Entrega al hilo del índice los mensajes agregados desde el último commit.
+     */
+    void commit() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Pending> batch = pending;
+        pending = new ArrayList<>();
+        indexer.execute(() -> index(batch));
+    }
+
+    private void index(List<Pending> batch) {
+        // Las palabras se separan antes de tomar el candado, así las búsquedas esperan lo mínimo
+        List<Set<String>> batchTerms = new ArrayList<>(batch.size());
+        for (Pending message : batch) {
+            batchTerms.add(terms(message.text));
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                Pending message = batch.get(i);
+                if (message.sequence <= checkpoint) {
+                    continue;
+                }
+                Map<String, PostingList> conversationPostings =
+                        postings.computeIfAbsent(message.conversation, key -> new HashMap<>());
+                for (String term : batchTerms.get(i)) {
+                    conversationPostings.computeIfAbsent(term, key -> new PostingList()).add(message.sequence);
+                }
+                addParticipant(message.sender, message.conversation);
+                if (message.recipient != null) {
+                    addParticipant(message.recipient, message.conversation);
+                }
+                checkpoint = message.sequence;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        saveIfDue();
+    }
+
+    private void saveIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - lastSaveMillis >= SNAPSHOT_INTERVAL_MILLIS) {
+            save();
+            lastSaveMillis = now;
+        }
+    }
+
+    private void addParticipant(String nickname, String conversation) {
+        conversationsByNickname.computeIfAbsent(SessionRegistry.keyOf(nickname), key -> new HashSet<>())
+                .add(conversation);
+    }
+
+    /**
+     * Quita del índice los mensajes anteriores a una secuencia, porque el registro ya borró el segmento donde
+     * estaban. Las listas que quedan vacías se eliminan, así el índice no crece más que el registro. Se hace en el
+     * hilo del índice.
+     *
+     * @param oldestSequence la secuencia del mensaje más antiguo que conserva el registro.
+     */
+    void prune(long oldestSequence) {
+        indexer.execute(() -> {
+            if (oldestSequence <= prunedSequence) {
+                return;
+            }
+            lock.writeLock().lock();
+            try {
+                Set<String> emptyConversations = new HashSet<>();
+                postings.entrySet().removeIf(conversation -> {
+                    conversation.getValue().values().removeIf(list -> {
+                        list.removeBefore(oldestSequence);
+                        return list.count == 0;
+                    });
+                    if (conversation.getValue().isEmpty()) {
+                        emptyConversations.add(conversation.getKey());
+                        return true;
+                    }
+                    return false;
+                });
+                if (!emptyConversations.isEmpty()) {
+                    conversationsByNickname.values().removeIf(conversations -> {
+                        conversations.removeAll(emptyConversations);
+                        return conversations.isEmpty();
+                    });
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            prunedSequence = oldestSequence;
+            prunedSinceSave = true;
+            saveIfDue();
+        });
+    }
+
+    /**
+     * Divide un texto en palabras normalizadas: minúsculas, sin tildes y sin repetir.
+     *
+     * @param text el texto.
+     * @return las palabras, en orden de aparición.
+     */
+    static Set<String> terms(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}+", "")
+                .toLowerCase(Locale.ROOT);
+        Set<String> terms = new LinkedHashSet<>();
+        for (String term : normalized.split("[^\\p{L}\\p{Nd}]+")) {
+            if (!term.isEmpty()) {
+                terms.add(term.length() > MAX_TERM_LENGTH ? term.substring(0, MAX_TERM_LENGTH) : term);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Busca los mensajes que contienen todas las palabras de la búsqueda en las conversaciones de un usuario.
+     *
+     * @param nickname el apodo del usuario; se busca en las conversaciones en las que participó.
+     * @param extraConversations otras conversaciones donde buscar, por ejemplo las salas de las que es miembro.
+     * @param terms las palabras de la búsqueda, ya normalizadas con {@link #terms(String)}.
+     * @param beforeSequence solo se buscan mensajes anteriores a este; 0 o un valor negativo para buscar desde el
+     *                       más reciente.
+     * @param limit la cantidad máxima de mensajes.
+     * @return los mensajes encontrados, del más reciente al más antiguo.
+     */
+    List<Match> search(String nickname, Collection<String> extraConversations, Collection<String> terms,
+                       long beforeSequence, int limit) {
+        long before = beforeSequence <= 0 ? Long.MAX_VALUE : beforeSequence;
+        List<Match> matches = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            Set<String> conversations = new HashSet<>(extraConversations);
+            conversations.addAll(conversationsByNickname.getOrDefault(SessionRegistry.keyOf(nickname), Set.of()));
+            for (String conversation : conversations) {
+                long[] sequences = search(postings.get(conversation), terms, before);
+                for (int i = Math.max(0, sequences.length - limit); i < sequences.length; i++) {
+                    matches.add(new Match(sequences[i], conversation));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        matches.sort((first, second) -> Long.compare(second.sequence, first.sequence));
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    // Intersección de las listas de las palabras en una conversación, empezando por la más corta
+    private static long[] search(Map<String, PostingList> conversationPostings, Collection<String> terms,
+                                 long before) {
+        if (conversationPostings == null || terms.isEmpty()) {
+            return new long[0];
+        }
+        List<PostingList> lists = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            PostingList list = conversationPostings.get(term);
+            if (list == null) {
+                return new long[0];
+            }
+            lists.add(list);
+        }
+        lists.sort((first, second) -> Integer.compare(first.count, second.count));
+        long[] result = lists.get(0).decodeBefore(before);
+        for (int i = 1; i < lists.size() && result.length > 0; i++) {
+            result = intersect(result, lists.get(i).decodeBefore(before));
+        }
+        return result;
+    }
+
+    private static long[] intersect(long[] first, long[] second) {
+        long[] result = new long[Math.min(first.length, second.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                result[count++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Indexa los mensajes pendientes, guarda el índice en el disco y detiene el hilo del índice.
+     */
+    void close() {
+        commit();
+        indexer.execute(this::save);
+        indexer.shutdown();
+        try {
+            if (!indexer.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("The search index did not finish saving");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Se guarda en un archivo temporal que luego reemplaza al anterior, así una caída no deja un índice a medias
+    private void save() {
+        if (checkpoint == savedCheckpoint && !prunedSinceSave) {
+            return;
+        }
+        Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        lock.readLock().lock();
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            output.writeInt(SNAPSHOT_VERSION);
+            output.writeLong(checkpoint);
+            output.writeInt(conversationsByNickname.size());
+            for (Map.Entry<String, Set<String>> participant : conversationsByNickname.entrySet()) {
+                output.writeUTF(participant.getKey());
+                output.writeInt(participant.getValue().size());
+                for (String conversation : participant.getValue()) {
+                    output.writeUTF(conversation);
+                }
+            }
+            output.writeInt(postings.size());
+            for (Map.Entry<String, Map<String, PostingList>> conversation : postings.entrySet()) {
+                output.writeUTF(conversation.getKey());
+                output.writeInt(conversation.getValue().size());
+                for (Map.Entry<String, PostingList> term : conversation.getValue().entrySet()) {
+                    PostingList list = term.getValue();
+                    output.writeUTF(term.getKey());
+                    output.writeInt(list.count);
+                    output.writeLong(list.lastSequence);
+                    output.writeInt(list.length);
+                    output.write(list.bytes, 0, list.length);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Could not save the search index: {}", e.getMessage());
+            return;
+        } finally {
+            lock.readLock().unlock();
+        }
+        try {
+            Files.move(temporary, directory.resolve(SNAPSHOT_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            savedCheckpoint = checkpoint;
+            prunedSinceSave = false;
+        } catch (IOException e) {
+            logger.error("Could not save the search index: {}", e.getMessage());
+        }
+    }
+
+    private void load(Path snapshot) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            int version = input.readInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported search index version " + version);
+            }
+            checkpoint = input.readLong();
+            int nicknames = input.readInt();
+            for (int i = 0; i < nicknames; i++) {
+                String nickname = input.readUTF();
+                int count = input.readInt();
+                Set<String> conversations = new HashSet<>();
+                for (int j = 0; j < count; j++) {
+                    conversations.add(input.readUTF());
+                }
+                conversationsByNickname.put(nickname, conversations);
+            }
+            int conversations = input.readInt();
+            for (int i = 0; i < conversations; i++) {
+                String conversation = input.readUTF();
+                int termCount = input.readInt();
+                Map<String, PostingList> conversationPostings = new HashMap<>();
+                for (int j = 0; j < termCount; j++) {
+                    String term = input.readUTF();
+                    PostingList list = new PostingList();
+                    list.count = input.readInt();
+                    list.lastSequence = input.readLong();
+                    list.length = input.readInt();
+                    if (list.count < 0 || list.length < 0 || list.length > 10L * list.count) {
+                        throw new IOException("Corrupt posting list for " + term);
+                    }
+                    list.bytes = new byte[Math.max(8, list.length)];
+                    input.readFully(list.bytes, 0, list.length);
+                    conversationPostings.put(term, list);
+                }
+                postings.put(conversation, conversationPostings);
+            }
+        }
+    }
+}
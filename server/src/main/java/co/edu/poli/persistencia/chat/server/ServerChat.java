@@ -1,15 +1,28 @@
 package co.edu.poli.persistencia.chat.server;
 
-import org.apache.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.concurrent.ConcurrentHashMap;
+import java.net.StandardSocketOptions;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * La clase ServerChat representa un servidor de chat que espera por conexiones de clientes.
+ * <p>
+ * Con varios fragmentos ({@code --shards}) cada hilo aceptador tiene su propio socket en el mismo puerto
+ * ({@code SO_REUSEPORT}) y el sistema operativo reparte las conexiones entre ellos; si la plataforma no lo soporta,
+ * los hilos aceptan del mismo socket.
  *
  * @author Autor
  * @version 1.0
@@ -17,54 +30,197 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class ServerChat {
 
-    private static final Logger logger = Logger.getLogger(ServerChat.class);
+    private static final Logger logger = LogManager.getLogger(ServerChat.class);
 
-    private static final int PORT = 8888;
+    // El estado compartido del chat con los PrintWriter de cada cliente conectado
+    private final ChatRouter router;
 
-    // Una lista de los PrintWriter para cada cliente conectado
-    private final ConcurrentHashMap<String, PrintWriter> clientWriters = new ConcurrentHashMap<>();
+    // Los sockets de escucha: uno por fragmento, o uno compartido por todos los hilos aceptadores
+    private final ServerSocket[] serverSockets;
 
-    private final ServerSocket serverSocket;
+    private final int shards;
+
+    // Ejecutor que crea un hilo (de plataforma o virtual) por cada cliente
+    private final ExecutorService clientExecutor;
 
     /**
-     * Constructor de la clase ServerChat.
+     * Constructor de la clase ServerChat que atiende a cada cliente en un hilo de plataforma.
      *
      * @param port El número de puerto en el que el servidor escucha las conexiones entrantes.
      * @throws IOException Si ocurre un error de entrada/salida al abrir el socket del servidor
      */
     public ServerChat(int port) throws IOException {
-        serverSocket = new ServerSocket(port);
-        logger.info("Server is running...");
+        this(port, new ServerOptions());
     }
 
     /**
-     * Este método espera por conexiones entrantes de clientes y las atiende en sus propios hilos.
+     * Constructor de la clase ServerChat.
+     *
+     * @param port El número de puerto en el que el servidor escucha las conexiones entrantes.
+     * @param options Las opciones del servidor; su motor debe ser {@link ServerEngine#BLOCKING} para usar hilos de
+     *                plataforma o {@link ServerEngine#VIRTUAL} para usar hilos virtuales.
+     * @throws IOException Si ocurre un error de entrada/salida al abrir el socket del servidor
+     */
+    public ServerChat(int port, ServerOptions options) throws IOException {
+        this(port, options, null, null);
+    }
+
+    /**
+     * Constructor de la clase ServerChat para un nodo de un clúster.
+     *
+     * @param port El número de puerto en el que el servidor escucha las conexiones entrantes.
+     * @param options Las opciones del servidor; su motor debe ser {@link ServerEngine#BLOCKING} o
+     *                {@link ServerEngine#VIRTUAL}.
+     * @param clusterBus El bus del clúster, o null si el servidor no es parte de un clúster.
+     * @param nodeId El identificador del nodo, único en el clúster.
+     * @throws IOException Si ocurre un error de entrada/salida al abrir el socket del servidor
+     */
+    public ServerChat(int port, ServerOptions options, ClusterBus clusterBus, String nodeId) throws IOException {
+        ServerEngine engine = options.getEngine();
+        if (engine == ServerEngine.NIO) {
+            throw new IllegalArgumentException("Use NioChatServer for the NIO engine");
+        }
+        ThreadFactory clientThreadFactory = engine == ServerEngine.VIRTUAL
+                ? Thread.ofVirtual().name("client-", 0).factory()
+                : Thread.ofPlatform().name("client-", 0).factory();
+        clientExecutor = Executors.newThreadPerTaskExecutor(clientThreadFactory);
+        router = new ChatRouter(options, clusterBus, nodeId);
+        shards = options.getShards();
+        serverSockets = shards > 1 ? openShardSockets(port, shards) : new ServerSocket[]{new ServerSocket(port)};
+        logger.info("Server is running with {} threads and {} acceptors...", engine.name().toLowerCase(), shards);
+    }
+
+    // Un socket por fragmento con SO_REUSEPORT o, si la plataforma no lo soporta, un solo socket para todos
+    private static ServerSocket[] openShardSockets(int port, int shards) throws IOException {
+        ServerSocket first = new ServerSocket();
+        if (!first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            first.bind(new InetSocketAddress(port));
+            logger.info("SO_REUSEPORT is not supported; acceptors share one listener");
+            return new ServerSocket[]{first};
+        }
+        ServerSocket[] sockets = new ServerSocket[shards];
+        sockets[0] = first;
+        for (int i = 1; i < shards; i++) {
+            sockets[i] = new ServerSocket();
+        }
+        for (ServerSocket socket : sockets) {
+            socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            socket.bind(new InetSocketAddress(port));
+        }
+        return sockets;
+    }
+
+    /**
+     * Este método espera por conexiones entrantes de clientes y las atiende en sus propios hilos. Con varios
+     * fragmentos, los demás hilos aceptadores se inician aquí y el hilo que invoca es el primero de ellos.
      *
      * @throws IOException si ocurre un error de entrada/salida al aceptar las conexiones de clientes
      */
     public void serveClients() throws IOException {
+        for (int i = 1; i < shards; i++) {
+            ServerSocket serverSocket = serverSockets[i % serverSockets.length];
+            Thread acceptor = new Thread(() -> acceptClients(serverSocket), "acceptor-" + i);
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+        acceptClients(serverSockets[0]);
+    }
+
+    private void acceptClients(ServerSocket serverSocket) {
         while (true) {
             try {
                 Socket clientSocket = serverSocket.accept();
-                new ClientThread(clientSocket, clientWriters).start();
+                if (!router.admitConnection()) {
+                    rejectConnection(clientSocket);
+                    continue;
+                }
+                clientExecutor.execute(new ClientThread(clientSocket, router, clientExecutor));
                 logger.info("A client has successfully connected");
             } catch (IOException e) {
-                logger.info("Client error: " + e.getMessage());
+                logger.info("Client error: {}", e.getMessage());
             }
         }
     }
 
+    // Responde que el servidor está lleno y cierra la conexión; la respuesta cabe en el búfer de un socket nuevo
+    private void rejectConnection(Socket clientSocket) {
+        try (Socket socket = clientSocket) {
+            socket.getOutputStream().write(router.getServerFullReply());
+        } catch (IOException ignored) {
+        }
+    }
+
     /**
      * Método principal que inicializa el servidor e inicia a atender a los clientes
      *
-     * @param args cualquier argumento de línea de comando pasado al programa
+     * @param args las opciones de arranque del servidor (ver {@link ServerOptions})
      */
     public static void main(String[] args) {
         try {
-            ServerChat server = new ServerChat(PORT);
+            ServerOptions options = ServerOptions.parse(args);
+            if (options.getClusterNodes() > 1) {
+                serveLocalCluster(args, options);
+            } else {
+                createServer(options, null, null).call();
+            }
+        } catch (Exception e) {
+            logger.info("Server error: {}", e.getMessage());
+        }
+    }
+
+    // Crea el servidor del motor indicado en las opciones; la tarea devuelta atiende a sus clientes
+    private static Callable<Void> createServer(ServerOptions options, ClusterBus clusterBus, String nodeId)
+            throws IOException {
+        if (options.getEngine() == ServerEngine.NIO) {
+            NioChatServer server = new NioChatServer(options.getPort(), options, clusterBus, nodeId);
+            return () -> {
+                server.serveClients();
+                return null;
+            };
+        }
+        ServerChat server = new ServerChat(options.getPort(), options, clusterBus, nodeId);
+        return () -> {
             server.serveClients();
-        } catch (IOException e) {
-            logger.info("Server error: " + e.getMessage());
+            return null;
+        };
+    }
+
+    // Inicia los nodos de un clúster local, cada uno en su puerto y con sus propios directorios de datos
+    private static void serveLocalCluster(String[] args, ServerOptions options) throws Exception {
+        ClusterBus clusterBus = new LocalClusterBus();
+        List<Thread> nodeThreads = new ArrayList<>();
+        for (int i = 0; i < options.getClusterNodes(); i++) {
+            String nodeId = "node-" + i;
+            List<String> nodeArgs = new ArrayList<>(Arrays.asList(args));
+            nodeArgs.add("--port=" + (options.getPort() + i));
+            if (!options.getLogDirectory().isEmpty()) {
+                nodeArgs.add("--log-dir=" + Paths.get(options.getLogDirectory(), nodeId));
+            }
+            if (!options.getMailboxDirectory().isEmpty()) {
+                nodeArgs.add("--mailbox-dir=" + Paths.get(options.getMailboxDirectory(), nodeId));
+            }
+            if (options.getMetricsPort() > 0) {
+                nodeArgs.add("--metrics-port=" + (options.getMetricsPort() + i));
+            }
+            if (options.getFilePort() > 0) {
+                nodeArgs.add("--file-port=" + (options.getFilePort() + i));
+                nodeArgs.add("--file-dir=" + Paths.get(options.getFileDirectory(), nodeId));
+            }
+            Callable<Void> server = createServer(ServerOptions.parse(nodeArgs.toArray(new String[0])),
+                    clusterBus, nodeId);
+            logger.info("Cluster node {} listening on port {}", nodeId, options.getPort() + i);
+            Thread nodeThread = new Thread(() -> {
+                try {
+                    server.call();
+                } catch (Exception e) {
+                    logger.info("Server error on {}: {}", nodeId, e.getMessage());
+                }
+            }, nodeId);
+            nodeThread.start();
+            nodeThreads.add(nodeThread);
+        }
+        for (Thread nodeThread : nodeThreads) {
+            nodeThread.join();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+package co.edu.poli.persistencia.chat.server;
+
+/**
+ * Los motores disponibles para atender las conexiones de los clientes.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+public enum ServerEngine {
+
+    /**
+     * Un hilo bloqueante ({@link ClientThread}) por cada cliente conectado.
+     */
+    BLOCKING,
+
+    /**
+     * La misma lógica bloqueante de {@link ClientThread}, pero ejecutada en hilos virtuales.
+     */
+    VIRTUAL,
+
+    /**
+     * Un grupo pequeño de bucles de eventos basados en {@link java.nio.channels.Selector}.
+     */
+    NIO;
+
+    /**
+     * Obtiene el motor a partir de su nombre, sin distinguir mayúsculas de minúsculas.
+     *
+     * @param name el nombre del motor ("blocking", "virtual" o "nio").
+     * @return el motor correspondiente.
+     * @throws IllegalArgumentException si el nombre no corresponde a ningún motor.
+     */
+    public static ServerEngine fromName(String name) {
+        for (ServerEngine engine : values()) {
+            if (engine.name().equalsIgnoreCase(name)) {
+                return engine;
+            }
+        }
+        throw new IllegalArgumentException("Unknown server engine: " + name);
+    }
+}
@@ -0,0 +1,481 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * La clase ServerMetrics reúne las métricas del servidor: conexiones, mensajes enrutados, bytes recibidos y
+ * enviados, latencia de enrutado, difusión de la lista de usuarios activos y apodos repetidos.
+ * <p>
+ * Los hilos que atienden a los clientes solo incrementan contadores {@link LongAdder} y los intervalos de
+ * {@link LatencyHistogram}, que no compiten entre sí. Un hilo de muestreo calcula cada {@link #SAMPLE_SECONDS}
+ * segundos las tasas y los percentiles de la última ventana. Las métricas se publican por JMX y, si se configura
+ * un puerto, en {@link MetricsEndpoint}.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+
+    private static final Logger logger = LogManager.getLogger(ServerMetrics.class);
+
+    /**
+     * Nombre con el que se registran las métricas en JMX.
+     */
+    static final String OBJECT_NAME = "co.edu.poli.persistencia.chat:type=ServerMetrics";
+
+    /**
+     * Duración de la ventana de muestreo de las tasas y los percentiles.
+     */
+    static final long SAMPLE_SECONDS = 10;
+
+    private final boolean enabled;
+
+    private final OutboundStats outboundStats;
+
+    private final IntSupplier activeUsers;
+
+    private final LongAdder acceptedConnections = new LongAdder();
+    private final LongAdder closedConnections = new LongAdder();
+    private final LongAdder routedMessages = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder presenceBroadcasts = new LongAdder();
+    private final LongAdder presenceRecipients = new LongAdder();
+    private final LongAdder nicknameCollisions = new LongAdder();
+    private final LongAdder pingsSent = new LongAdder();
+    private final LongAdder idleDisconnects = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder rateLimitedMessages = new LongAdder();
+    private final LongAdder resumedSessions = new LongAdder();
+    private final LongAdder replayedMessages = new LongAdder();
+    private final LongAdder fileBytesReceived = new LongAdder();
+    private final LongAdder fileBytesSent = new LongAdder();
+    private final LongAdder completedFileTransfers = new LongAdder();
+
+    private final LatencyHistogram routingLatency = new LatencyHistogram();
+
+    private final LatencyHistogram presenceBroadcastTime = new LatencyHistogram();
+
+    private volatile long lastPresenceBroadcastBytes;
+
+    // Valores de la ventana anterior y resultados de la última ventana; solo los escribe el hilo de muestreo
+    private long previousAccepted;
+    private long previousRouted;
+    private long previousBytesIn;
+    private long previousBytesOut;
+    private long[] previousRoutingLatency;
+    private long[] previousPresenceBroadcastTime;
+
+    private volatile double acceptsPerSecond;
+    private volatile double messagesPerSecond;
+    private volatile double bytesInPerSecond;
+    private volatile double bytesOutPerSecond;
+    private volatile double routingLatencyP50Micros;
+    private volatile double routingLatencyP99Micros;
+    private volatile double routingLatencyP999Micros;
+    private volatile double presenceBroadcastP99Micros;
+
+    /**
+     * Inicializa las métricas. Si están habilitadas, se registran en JMX y se inicia el hilo de muestreo.
+     *
+     * @param enabled falso para no registrar ninguna métrica, por ejemplo para medir su costo.
+     * @param outboundStats los contadores de las colas de salida, que se publican junto con las métricas.
+     * @param activeUsers la cantidad de usuarios registrados.
+     */
+    ServerMetrics(boolean enabled, OutboundStats outboundStats, IntSupplier activeUsers) {
+        this.enabled = enabled;
+        this.outboundStats = outboundStats;
+        this.activeUsers = activeUsers;
+        this.previousRoutingLatency = routingLatency.snapshot();
+        this.previousPresenceBroadcastTime = presenceBroadcastTime.snapshot();
+        if (enabled) {
+            ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-sampler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sampler.scheduleAtFixedRate(this::sample, SAMPLE_SECONDS, SAMPLE_SECONDS, TimeUnit.SECONDS);
+            registerMBean();
+        }
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                // Otro servidor en la misma JVM, por ejemplo en los benchmarks: se publica el más reciente
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            logger.warn("Could not register metrics in JMX: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return falso si las métricas están deshabilitadas.
+     */
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return el instante actual para medir una duración, o 0 si las métricas están deshabilitadas.
+     */
+    long startTimer() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void onConnectionAccepted() {
+        if (enabled) {
+            acceptedConnections.increment();
+        }
+    }
+
+    void onConnectionClosed() {
+        if (enabled) {
+            closedConnections.increment();
+        }
+    }
+
+    void onBytesIn(int bytes) {
+        if (enabled) {
+            bytesIn.add(bytes);
+        }
+    }
+
+    void onBytesOut(int bytes) {
+        if (enabled) {
+            bytesOut.add(bytes);
+        }
+    }
+
+    /**
+     * Registra un mensaje privado o de sala enrutado.
+     *
+     * @param startNanos el valor de {@link #startTimer()} al recibir el mensaje.
+     */
+    void onMessageRouted(long startNanos) {
+        if (enabled) {
+            routedMessages.increment();
+            routingLatency.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Registra una difusión de la lista de usuarios activos.
+     *
+     * @param recipients la cantidad de clientes a los que se encoló.
+     * @param bytes el tamaño del cuerpo del mensaje más grande de la difusión.
+     * @param startNanos el valor de {@link #startTimer()} al empezar la difusión.
+     */
+    void onPresenceBroadcast(int recipients, int bytes, long startNanos) {
+        if (enabled) {
+            presenceBroadcasts.increment();
+            presenceRecipients.add(recipients);
+            lastPresenceBroadcastBytes = bytes;
+            presenceBroadcastTime.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    void onNicknameCollision() {
+        if (enabled) {
+            nicknameCollisions.increment();
+        }
+    }
+
+    void onPingSent() {
+        if (enabled) {
+            pingsSent.increment();
+        }
+    }
+
+    void onIdleDisconnect() {
+        if (enabled) {
+            idleDisconnects.increment();
+        }
+    }
+
+    void onConnectionRejected() {
+        if (enabled) {
+            rejectedConnections.increment();
+        }
+    }
+
+    void onMessageRateLimited() {
+        if (enabled) {
+            rateLimitedMessages.increment();
+        }
+    }
+
+    void onSessionResumed(int replayed) {
+        if (enabled) {
+            resumedSessions.increment();
+            replayedMessages.add(replayed);
+        }
+    }
+
+    void onFileBytesReceived(long bytes) {
+        if (enabled) {
+            fileBytesReceived.add(bytes);
+        }
+    }
+
+    void onFileBytesSent(long bytes) {
+        if (enabled) {
+            fileBytesSent.add(bytes);
+        }
+    }
+
+    void onFileTransferCompleted() {
+        if (enabled) {
+            completedFileTransfers.increment();
+        }
+    }
+
+    private void sample() {
+        long accepted = acceptedConnections.sum();
+        long routed = routedMessages.sum();
+        long in = bytesIn.sum();
+        long out = bytesOut.sum();
+        acceptsPerSecond = (accepted - previousAccepted) / (double) SAMPLE_SECONDS;
+        messagesPerSecond = (routed - previousRouted) / (double) SAMPLE_SECONDS;
+        bytesInPerSecond = (in - previousBytesIn) / (double) SAMPLE_SECONDS;
+        bytesOutPerSecond = (out - previousBytesOut) / (double) SAMPLE_SECONDS;
+        previousAccepted = accepted;
+        previousRouted = routed;
+        previousBytesIn = in;
+        previousBytesOut = out;
+
+        long[] routing = routingLatency.snapshot();
+        long[] routingWindow = difference(routing, previousRoutingLatency);
+        routingLatencyP50Micros = LatencyHistogram.percentile(routingWindow, 50) / 1000.0;
+        routingLatencyP99Micros = LatencyHistogram.percentile(routingWindow, 99) / 1000.0;
+        routingLatencyP999Micros = LatencyHistogram.percentile(routingWindow, 99.9) / 1000.0;
+        previousRoutingLatency = routing;
+
+        long[] presence = presenceBroadcastTime.snapshot();
+        long[] presenceWindow = difference(presence, previousPresenceBroadcastTime);
+        presenceBroadcastP99Micros = LatencyHistogram.percentile(presenceWindow, 99) / 1000.0;
+        previousPresenceBroadcastTime = presence;
+    }
+
+    private static long[] difference(long[] current, long[] previous) {
+        long[] difference = new long[current.length];
+        for (int i = 0; i < current.length; i++) {
+            difference[i] = current[i] - previous[i];
+        }
+        return difference;
+    }
+
+    /**
+     * Obtiene todas las métricas con los nombres que usa {@link MetricsEndpoint}.
+     *
+     * @return las métricas, en orden.
+     */
+    Map<String, Number> toMap() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("chat_active_connections", getActiveConnections());
+        metrics.put("chat_active_users", getActiveUsers());
+        metrics.put("chat_accepted_connections_total", getAcceptedConnections());
+        metrics.put("chat_accepts_per_second", getAcceptsPerSecond());
+        metrics.put("chat_routed_messages_total", getRoutedMessages());
+        metrics.put("chat_messages_per_second", getMessagesPerSecond());
+        metrics.put("chat_bytes_in_total", getBytesIn());
+        metrics.put("chat_bytes_out_total", getBytesOut());
+        metrics.put("chat_bytes_in_per_second", getBytesInPerSecond());
+        metrics.put("chat_bytes_out_per_second", getBytesOutPerSecond());
+        metrics.put("chat_routing_latency_p50_micros", getRoutingLatencyP50Micros());
+        metrics.put("chat_routing_latency_p99_micros", getRoutingLatencyP99Micros());
+        metrics.put("chat_routing_latency_p999_micros", getRoutingLatencyP999Micros());
+        metrics.put("chat_presence_broadcasts_total", getPresenceBroadcasts());
+        metrics.put("chat_presence_recipients_total", getPresenceRecipients());
+        metrics.put("chat_presence_last_broadcast_bytes", getLastPresenceBroadcastBytes());
+        metrics.put("chat_presence_broadcast_p99_micros", getPresenceBroadcastP99Micros());
+        metrics.put("chat_nickname_collisions_total", getNicknameCollisions());
+        metrics.put("chat_pings_sent_total", getPingsSent());
+        metrics.put("chat_idle_disconnects_total", getIdleDisconnects());
+        metrics.put("chat_rejected_connections_total", getRejectedConnections());
+        metrics.put("chat_rate_limited_messages_total", getRateLimitedMessages());
+        metrics.put("chat_resumed_sessions_total", getResumedSessions());
+        metrics.put("chat_replayed_messages_total", getReplayedMessages());
+        metrics.put("chat_file_bytes_received_total", getFileBytesReceived());
+        metrics.put("chat_file_bytes_sent_total", getFileBytesSent());
+        metrics.put("chat_file_transfers_completed_total", getCompletedFileTransfers());
+        metrics.put("chat_outbound_queued_messages", getQueuedMessages());
+        metrics.put("chat_outbound_queued_bytes", getQueuedBytes());
+        metrics.put("chat_outbound_dropped_messages_total", getDroppedMessages());
+        metrics.put("chat_outbound_slow_consumer_disconnects_total", getSlowConsumerDisconnects());
+        return metrics;
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return acceptedConnections.sum() - closedConnections.sum();
+    }
+
+    @Override
+    public int getActiveUsers() {
+        return activeUsers.getAsInt();
+    }
+
+    @Override
+    public long getAcceptedConnections() {
+        return acceptedConnections.sum();
+    }
+
+    @Override
+    public double getAcceptsPerSecond() {
+        return acceptsPerSecond;
+    }
+
+    @Override
+    public long getRoutedMessages() {
+        return routedMessages.sum();
+    }
+
+    @Override
+    public double getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public double getBytesInPerSecond() {
+        return bytesInPerSecond;
+    }
+
+    @Override
+    public double getBytesOutPerSecond() {
+        return bytesOutPerSecond;
+    }
+
+    @Override
+    public double getRoutingLatencyP50Micros() {
+        return routingLatencyP50Micros;
+    }
+
+    @Override
+    public double getRoutingLatencyP99Micros() {
+        return routingLatencyP99Micros;
+    }
+
+    @Override
+    public double getRoutingLatencyP999Micros() {
+        return routingLatencyP999Micros;
+    }
+
+    @Override
+    public long getPresenceBroadcasts() {
+        return presenceBroadcasts.sum();
+    }
+
+    @Override
+    public long getPresenceRecipients() {
+        return presenceRecipients.sum();
+    }
+
+    @Override
+    public long getLastPresenceBroadcastBytes() {
+        return lastPresenceBroadcastBytes;
+    }
+
+    @Override
+    public double getPresenceBroadcastP99Micros() {
+        return presenceBroadcastP99Micros;
+    }
+
+    @Override
+    public long getNicknameCollisions() {
+        return nicknameCollisions.sum();
+    }
+
+    @Override
+    public long getPingsSent() {
+        return pingsSent.sum();
+    }
+
+    @Override
+    public long getIdleDisconnects() {
+        return idleDisconnects.sum();
+    }
+
+    @Override
+    public long getRejectedConnections() {
+        return rejectedConnections.sum();
+    }
+
+    @Override
+    public long getRateLimitedMessages() {
+        return rateLimitedMessages.sum();
+    }
+
+    @Override
+    public long getResumedSessions() {
+        return resumedSessions.sum();
+    }
+
+    @Override
+    public long getReplayedMessages() {
+        return replayedMessages.sum();
+    }
+
+    @Override
+    public long getFileBytesReceived() {
+        return fileBytesReceived.sum();
+    }
+
+    @Override
+    public long getFileBytesSent() {
+        return fileBytesSent.sum();
+    }
+
+    @Override
+    public long getCompletedFileTransfers() {
+        return completedFileTransfers.sum();
+    }
+
+    @Override
+    public long getQueuedMessages() {
+        return outboundStats.getQueuedMessages();
+    }
+
+    @Override
+    public long getQueuedBytes() {
+        return outboundStats.getQueuedBytes();
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        return outboundStats.getDroppedMessages();
+    }
+
+    @Override
+    public long getSlowConsumerDisconnects() {
+        return outboundStats.getSlowConsumerDisconnects();
+    }
+}
\ No newline at end of file
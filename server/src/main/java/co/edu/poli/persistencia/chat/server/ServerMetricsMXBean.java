@@ -0,0 +1,167 @@
+package co.edu.poli.persistencia.chat.server;
+
+/**
+ * Las métricas del servidor que se publican por JMX. Los contadores son acumulados desde el arranque; las tasas y
+ * los percentiles corresponden a la última ventana de muestreo de {@link ServerMetrics}.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+public interface ServerMetricsMXBean {
+
+    /**
+     * @return la cantidad de conexiones abiertas, registradas o no.
+     */
+    long getActiveConnections();
+
+    /**
+     * @return la cantidad de usuarios registrados.
+     */
+    int getActiveUsers();
+
+    /**
+     * @return la cantidad de conexiones aceptadas desde el arranque.
+     */
+    long getAcceptedConnections();
+
+    /**
+     * @return las conexiones aceptadas por segundo en la última ventana.
+     */
+    double getAcceptsPerSecond();
+
+    /**
+     * @return la cantidad de mensajes privados y de sala enrutados desde el arranque.
+     */
+    long getRoutedMessages();
+
+    /**
+     * @return los mensajes enrutados por segundo en la última ventana.
+     */
+    double getMessagesPerSecond();
+
+    /**
+     * @return los bytes recibidos de los clientes desde el arranque.
+     */
+    long getBytesIn();
+
+    /**
+     * @return los bytes enviados a los clientes desde el arranque.
+     */
+    long getBytesOut();
+
+    /**
+     * @return los bytes recibidos por segundo en la última ventana.
+     */
+    double getBytesInPerSecond();
+
+    /**
+     * @return los bytes enviados por segundo en la última ventana.
+     */
+    double getBytesOutPerSecond();
+
+    /**
+     * @return la mediana de la latencia de enrutado en la última ventana, en microsegundos.
+     */
+    double getRoutingLatencyP50Micros();
+
+    /**
+     * @return el percentil 99 de la latencia de enrutado en la última ventana, en microsegundos.
+     */
+    double getRoutingLatencyP99Micros();
+
+    /**
+     * @return el percentil 99.9 de la latencia de enrutado en la última ventana, en microsegundos.
+     */
+    double getRoutingLatencyP999Micros();
+
+    /**
+     * @return la cantidad de difusiones de la lista de usuarios activos desde el arranque.
+     */
+    long getPresenceBroadcasts();
+
+    /**
+     * @return la cantidad de mensajes de presencia encolados desde el arranque.
+     */
+    long getPresenceRecipients();
+
+    /**
+     * @return el tamaño del cuerpo del mensaje más grande de la última difusión de presencia.
+     */
+    long getLastPresenceBroadcastBytes();
+
+    /**
+     * @return el percentil 99 de la duración de las difusiones de presencia en la última ventana, en microsegundos.
+     */
+    double getPresenceBroadcastP99Micros();
+
+    /**
+     * @return la cantidad de conexiones rechazadas por un apodo en uso.
+     */
+    long getNicknameCollisions();
+
+    /**
+     * @return la cantidad de pings enviados a clientes inactivos.
+     */
+    long getPingsSent();
+
+    /**
+     * @return la cantidad de conexiones cerradas por inactividad.
+     */
+    long getIdleDisconnects();
+
+    /**
+     * @return la cantidad de conexiones rechazadas por el límite de conexiones simultáneas.
+     */
+    long getRejectedConnections();
+
+    /**
+     * @return la cantidad de mensajes descartados por superar el límite de tráfico de su cliente.
+     */
+    long getRateLimitedMessages();
+
+    /**
+     * @return la cantidad de sesiones reanudadas por clientes que se reconectaron.
+     */
+    long getResumedSessions();
+
+    /**
+     * @return la cantidad de mensajes reenviados al reanudar sesiones.
+     */
+    long getReplayedMessages();
+
+    /**
+     * @return los bytes de archivos que los usuarios subieron al servidor.
+     */
+    long getFileBytesReceived();
+
+    /**
+     * @return los bytes de archivos que el servidor envió a sus destinatarios.
+     */
+    long getFileBytesSent();
+
+    /**
+     * @return la cantidad de archivos que sus destinatarios descargaron por completo.
+     */
+    long getCompletedFileTransfers();
+
+    /**
+     * @return la cantidad de mensajes que esperan en las colas de salida.
+     */
+    long getQueuedMessages();
+
+    /**
+     * @return la cantidad de bytes que esperan en las colas de salida.
+     */
+    long getQueuedBytes();
+
+    /**
+     * @return la cantidad de mensajes descartados por desborde de las colas de salida.
+     */
+    long getDroppedMessages();
+
+    /**
+     * @return la cantidad de clientes desconectados por no leer a tiempo.
+     */
+    long getSlowConsumerDisconnects();
+}
\ No newline at end of file
@@ -0,0 +1,605 @@
+package co.edu.poli.persistencia.chat.server;
+
+/**
+ * Las opciones de arranque del servidor, leídas desde la línea de comandos con el formato {@code --opcion=valor}.
+ * <p>
+ * Opciones soportadas:
+ * <ul>
+ *     <li>{@code --port=N}: el puerto en el que el servidor escucha las conexiones (por defecto 8888).</li>
+ *     <li>{@code --shards=N}: la cantidad de fragmentos que aceptan conexiones en el mismo puerto con
+ *     {@code SO_REUSEPORT}, así el sistema operativo las reparte entre ellos (por defecto 1). En el motor NIO
+ *     cada fragmento es un bucle de eventos que atiende las conexiones que acepta y reemplaza a
+ *     {@code --event-loops}; en los demás motores es un hilo aceptador.</li>
+ *     <li>{@code --cluster-nodes=N}: inicia N nodos de un clúster en la misma JVM, conectados con
+ *     {@link LocalClusterBus}, en los puertos consecutivos desde {@code --port}; cada nodo guarda sus datos en un
+ *     subdirectorio {@code node-i} de {@code --log-dir}, {@code --mailbox-dir} y {@code --file-dir}, y el buzón de
+ *     cada usuario lo guarda uno solo de los nodos (por defecto 1, sin clúster).</li>
+ *     <li>{@code --engine=blocking|virtual|nio}: el motor que atiende a los clientes (por defecto {@code blocking}).</li>
+ *     <li>{@code --event-loops=N}: la cantidad de bucles de eventos del motor NIO (por defecto, uno por procesador).</li>
+ *     <li>{@code --outbound-max-messages=N}: los mensajes que puede acumular la cola de salida de un cliente (por defecto 1024).</li>
+ *     <li>{@code --outbound-max-bytes=N}: los bytes que puede acumular la cola de salida de un cliente (por defecto 1 MiB).</li>
+ *     <li>{@code --outbound-overflow=drop-oldest|drop-presence|disconnect}: lo que se hace cuando la cola de un cliente
+ *     se llena (por defecto {@code drop-presence}).</li>
+ *     <li>{@code --presence-window-ms=N}: los milisegundos durante los que se agrupan las conexiones y desconexiones
+ *     antes de notificarlas (por defecto 100).</li>
+ *     <li>{@code --ping-interval-ms=N}: los milisegundos sin recibir nada de un cliente tras los que el servidor le
+ *     envía un ping (por defecto 30000).</li>
+ *     <li>{@code --idle-timeout-ms=N}: los milisegundos sin recibir nada de un cliente, ni siquiera la respuesta al
+ *     ping, tras los que el servidor cierra la conexión, o 0 para no cerrarlas (por defecto 90000). Debe ser mayor
+ *     que {@code --ping-interval-ms}.</li>
+ *     <li>{@code --max-connections=N}: las conexiones simultáneas que admite el servidor, o 0 para no limitarlas
+ *     (por defecto 10000); las demás reciben un error y se cierran.</li>
+ *     <li>{@code --rate-limit-messages=N}: los mensajes por segundo que puede enviar un cliente, o 0 para no
+ *     limitarlos (por defecto 20).</li>
+ *     <li>{@code --rate-limit-bytes=N}: los bytes por segundo que puede enviar un cliente, o 0 para no limitarlos
+ *     (por defecto 64 KiB).</li>
+ *     <li>{@code --rate-limit-burst-seconds=N}: los segundos de tráfico a la tasa máxima que un cliente puede enviar
+ *     de una vez (por defecto 2).</li>
+ *     <li>{@code --resume-buffer-messages=N}: los últimos mensajes enviados a cada sesión que se conservan para
+ *     reenviarlos si el cliente se reconecta y la reanuda, o 0 para no reanudar sesiones (por defecto 256). No puede
+ *     superar a {@code --outbound-max-messages}.</li>
+ *     <li>{@code --resume-window-ms=N}: los milisegundos durante los que se puede reanudar la sesión de un cliente
+ *     desconectado (por defecto 60000).</li>
+ *     <li>{@code --log-dir=DIR}: el directorio del registro de mensajes (por defecto {@code data/log}); vacío para
+ *     no registrar los mensajes.</li>
+ *     <li>{@code --log-durability=per-message|batched|os}: cuándo se sincroniza el registro con el disco
+ *     (por defecto {@code batched}).</li>
+ *     <li>{@code --log-flush-interval-ms=N}: el intervalo entre sincronizaciones del modo {@code batched}
+ *     (por defecto 50).</li>
+ *     <li>{@code --log-segment-bytes=N}: el tamaño de cada segmento del registro (por defecto 64 MiB).</li>
+ *     <li>{@code --log-retention-hours=N}: la antigüedad máxima de un segmento cerrado, o 0 para conservarlos
+ *     (por defecto 168).</li>
+ *     <li>{@code --log-retention-bytes=N}: el tamaño máximo del registro, o 0 para no limitarlo (por defecto 0).</li>
+ *     <li>{@code --search=on|off}: si se indexan las palabras de los mensajes registrados para buscarlos con
+ *     {@code /search} (por defecto {@code on}); requiere el registro de mensajes.</li>
+ *     <li>{@code --mailbox-dir=DIR}: el directorio de los buzones de los usuarios desconectados (por defecto
+ *     {@code data/mailboxes}); vacío para no guardar los mensajes a usuarios desconectados.</li>
+ *     <li>{@code --mailbox-max-messages=N}: los mensajes que puede guardar el buzón de un usuario (por defecto 1000).</li>
+ *     <li>{@code --mailbox-ttl-hours=N}: las horas que se conserva un mensaje en un buzón (por defecto 72).</li>
+ *     <li>{@code --file-port=N}: el puerto por el que los usuarios suben y descargan los archivos que se envían con
+ *     {@code /send}, o 0 para no transferir archivos (por defecto 0).</li>
+ *     <li>{@code --file-dir=DIR}: el directorio de los archivos en tránsito (por defecto {@code data/files}).</li>
+ *     <li>{@code --file-max-bytes=N}: el tamaño máximo de un archivo (por defecto 1 GiB).</li>
+ *     <li>{@code --file-bandwidth-bytes=N}: los bytes por segundo de todas las transferencias juntas, o 0 para no
+ *     limitarlos (por defecto 0).</li>
+ *     <li>{@code --file-max-transfers=N}: las transferencias simultáneas (por defecto 16).</li>
+ *     <li>{@code --file-ttl-hours=N}: las horas que se conserva un archivo para que el destinatario lo descargue
+ *     (por defecto 24).</li>
+ *     <li>{@code --metrics=on|off}: si se registran las métricas del servidor (por defecto {@code on}); se publican
+ *     por JMX.</li>
+ *     <li>{@code --metrics-port=N}: el puerto de la interfaz local donde se publican las métricas por HTTP en
+ *     {@code /metrics}, o 0 para no publicarlas (por defecto 0).</li>
+ *     <li>{@code --message-audit=off|metadata|full}: qué se escribe en la bitácora de auditoría por cada mensaje
+ *     enrutado: nada, el remitente, el destino y el tamaño, o además el cuerpo (por defecto {@code metadata}).</li>
+ *     <li>{@code --message-audit-sample=N}: se audita en promedio uno de cada N mensajes (por defecto 1).</li>
+ * </ul>
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+public class ServerOptions {
+
+    /**
+     * El puerto por defecto del servidor.
+     */
+    public static final int DEFAULT_PORT = 8888;
+
+    private int port = DEFAULT_PORT;
+
+    private int shards = 1;
+
+    private int clusterNodes = 1;
+
+    private ServerEngine engine = ServerEngine.BLOCKING;
+
+    private int eventLoops = Runtime.getRuntime().availableProcessors();
+
+    private int outboundMaxMessages = 1024;
+
+    private long outboundMaxBytes = 1024 * 1024;
+
+    private OutboundQueue.OverflowPolicy outboundOverflowPolicy = OutboundQueue.OverflowPolicy.DROP_PRESENCE;
+
+    private long presenceWindowMillis = 100;
+
+    private long pingIntervalMillis = 30_000;
+
+    private long idleTimeoutMillis = 90_000;
+
+    private int maxConnections = 10_000;
+
+    private long rateLimitMessages = 20;
+
+    private long rateLimitBytes = 64 * 1024;
+
+    private long rateLimitBurstSeconds = 2;
+
+    private int resumeBufferMessages = 256;
+
+    private long resumeWindowMillis = 60_000;
+
+    private String logDirectory = "data/log";
+
+    private MessageLog.Durability logDurability = MessageLog.Durability.BATCHED;
+
+    private long logFlushIntervalMillis = 50;
+
+    private int logSegmentBytes = 64 * 1024 * 1024;
+
+    private long logRetentionHours = 168;
+
+    private long logRetentionBytes = 0;
+
+    private boolean searchEnabled = true;
+
+    private String mailboxDirectory = "data/mailboxes";
+
+    private int mailboxMaxMessages = 1000;
+
+    private long mailboxTtlHours = 72;
+
+    private int filePort = 0;
+
+    private String fileDirectory = "data/files";
+
+    private long fileMaxBytes = 1024L * 1024 * 1024;
+
+    private long fileBandwidthBytes = 0;
+
+    private int fileMaxTransfers = 16;
+
+    private long fileTtlHours = 24;
+
+    private boolean metricsEnabled = true;
+
+    private int metricsPort = 0;
+
+    private MessageAudit.Level messageAuditLevel = MessageAudit.Level.METADATA;
+
+    private int messageAuditSample = 1;
+
+    /**
+     * Construye las opciones a partir de los argumentos de la línea de comandos.
+     *
+     * @param args los argumentos pasados al programa.
+     * @return las opciones leídas.
+     * @throws IllegalArgumentException si alguna opción es desconocida o tiene un valor inválido.
+     */
+    public static ServerOptions parse(String[] args) {
+        ServerOptions options = new ServerOptions();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Invalid option: " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch (name) {
+                case "port":
+                    options.port = parsePositive(name, value);
+                    if (options.port > 65535) {
+                        throw new IllegalArgumentException("Option " + name + " is not a valid port: " + value);
+                    }
+                    break;
+                case "shards":
+                    options.shards = parsePositive(name, value);
+                    break;
+                case "cluster-nodes":
+                    options.clusterNodes = parsePositive(name, value);
+                    break;
+                case "engine":
+                    options.engine = ServerEngine.fromName(value);
+                    break;
+                case "event-loops":
+                    options.eventLoops = parsePositive(name, value);
+                    break;
+                case "outbound-max-messages":
+                    options.outboundMaxMessages = parsePositive(name, value);
+                    break;
+                case "outbound-max-bytes":
+                    options.outboundMaxBytes = parsePositiveLong(name, value);
+                    break;
+                case "outbound-overflow":
+                    options.outboundOverflowPolicy = OutboundQueue.OverflowPolicy.fromName(value);
+                    break;
+                case "presence-window-ms":
+                    options.presenceWindowMillis = parsePositiveLong(name, value);
+                    break;
+                case "ping-interval-ms":
+                    options.pingIntervalMillis = parsePositiveLong(name, value);
+                    break;
+                case "idle-timeout-ms":
+                    options.idleTimeoutMillis = parseNonNegativeLong(name, value);
+                    break;
+                case "max-connections":
+                    options.maxConnections = (int) Math.min(Integer.MAX_VALUE, parseNonNegativeLong(name, value));
+                    break;
+                case "rate-limit-messages":
+                    options.rateLimitMessages = parseNonNegativeLong(name, value);
+                    break;
+                case "rate-limit-bytes":
+                    options.rateLimitBytes = parseNonNegativeLong(name, value);
+                    break;
+                case "rate-limit-burst-seconds":
+                    options.rateLimitBurstSeconds = parsePositiveLong(name, value);
+                    break;
+                case "resume-buffer-messages":
+                    options.resumeBufferMessages =
+                            (int) Math.min(Integer.MAX_VALUE, parseNonNegativeLong(name, value));
+                    break;
+                case "resume-window-ms":
+                    options.resumeWindowMillis = parsePositiveLong(name, value);
+                    break;
+                case "log-dir":
+                    options.logDirectory = value;
+                    break;
+                case "log-durability":
+                    options.logDurability = MessageLog.Durability.fromName(value);
+                    break;
+                case "log-flush-interval-ms":
+                    options.logFlushIntervalMillis = parsePositiveLong(name, value);
+                    break;
+                case "log-segment-bytes":
+                    options.logSegmentBytes = parsePositive(name, value);
+                    if (options.logSegmentBytes < 2 * Frame.MAX_LENGTH) {
+                        throw new IllegalArgumentException("Option " + name + " must be at least "
+                                + 2 * Frame.MAX_LENGTH + ": " + value);
+                    }
+                    break;
+                case "log-retention-hours":
+                    options.logRetentionHours = parseNonNegativeLong(name, value);
+                    break;
+                case "log-retention-bytes":
+                    options.logRetentionBytes = parseNonNegativeLong(name, value);
+                    break;
+                case "search":
+                    if (!value.equals("on") && !value.equals("off")) {
+                        throw new IllegalArgumentException("Option " + name + " must be on or off: " + value);
+                    }
+                    options.searchEnabled = value.equals("on");
+                    break;
+                case "mailbox-dir":
+                    options.mailboxDirectory = value;
+                    break;
+                case "mailbox-max-messages":
+                    options.mailboxMaxMessages = parsePositive(name, value);
+                    break;
+                case "mailbox-ttl-hours":
+                    options.mailboxTtlHours = parsePositiveLong(name, value);
+                    break;
+                case "file-port":
+                    options.filePort = (int) parseNonNegativeLong(name, value);
+                    if (options.filePort > 65535) {
+                        throw new IllegalArgumentException("Option " + name + " is not a valid port: " + value);
+                    }
+                    break;
+                case "file-dir":
+                    options.fileDirectory = value;
+                    break;
+                case "file-max-bytes":
+                    options.fileMaxBytes = parsePositiveLong(name, value);
+                    break;
+                case "file-bandwidth-bytes":
+                    options.fileBandwidthBytes = parseNonNegativeLong(name, value);
+                    break;
+                case "file-max-transfers":
+                    options.fileMaxTransfers = parsePositive(name, value);
+                    break;
+                case "file-ttl-hours":
+                    options.fileTtlHours = parsePositiveLong(name, value);
+                    break;
+                case "metrics":
+                    if (!value.equals("on") && !value.equals("off")) {
+                        throw new IllegalArgumentException("Option " + name + " must be on or off: " + value);
+                    }
+                    options.metricsEnabled = value.equals("on");
+                    break;
+                case "metrics-port":
+                    options.metricsPort = (int) parseNonNegativeLong(name, value);
+                    if (options.metricsPort > 65535) {
+                        throw new IllegalArgumentException("Option " + name + " is not a valid port: " + value);
+                    }
+                    break;
+                case "message-audit":
+                    options.messageAuditLevel = MessageAudit.Level.fromName(value);
+                    break;
+                case "message-audit-sample":
+                    options.messageAuditSample = parsePositive(name, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (options.idleTimeoutMillis > 0 && options.idleTimeoutMillis <= options.pingIntervalMillis) {
+            throw new IllegalArgumentException("Option idle-timeout-ms must be greater than ping-interval-ms");
+        }
+        if (options.resumeBufferMessages > options.outboundMaxMessages) {
+            // Los mensajes reenviados deben caber en la cola de salida de la nueva conexión
+            throw new IllegalArgumentException(
+                    "Option resume-buffer-messages must not exceed outbound-max-messages");
+        }
+        return options;
+    }
+
+    private static int parsePositive(String name, String value) {
+        long number = parsePositiveLong(name, value);
+        if (number > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Option " + name + " is too large: " + value);
+        }
+        return (int) number;
+    }
+
+    private static long parsePositiveLong(String name, String value) {
+        try {
+            long number = Long.parseLong(value);
+            if (number > 0) {
+                return number;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Option " + name + " must be a positive number: " + value);
+    }
+
+    private static long parseNonNegativeLong(String name, String value) {
+        return "0".equals(value) ? 0 : parsePositiveLong(name, value);
+    }
+
+    /**
+     * @return el puerto en el que el servidor escucha las conexiones.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return la cantidad de fragmentos que aceptan conexiones en el mismo puerto.
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * @return la cantidad de nodos del clúster local que se inician en la JVM; 1 si no hay clúster.
+     */
+    public int getClusterNodes() {
+        return clusterNodes;
+    }
+
+    /**
+     * @return el motor que atiende a los clientes.
+     */
+    public ServerEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * @return la cantidad de bucles de eventos del motor NIO.
+     */
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    /**
+     * @return los mensajes que puede acumular la cola de salida de un cliente.
+     */
+    public int getOutboundMaxMessages() {
+        return outboundMaxMessages;
+    }
+
+    /**
+     * @return los bytes que puede acumular la cola de salida de un cliente.
+     */
+    public long getOutboundMaxBytes() {
+        return outboundMaxBytes;
+    }
+
+    /**
+     * @return lo que se hace cuando la cola de salida de un cliente se llena.
+     */
+    OutboundQueue.OverflowPolicy getOutboundOverflowPolicy() {
+        return outboundOverflowPolicy;
+    }
+
+    /**
+     * @return los milisegundos durante los que se agrupan los cambios de la lista de usuarios activos.
+     */
+    public long getPresenceWindowMillis() {
+        return presenceWindowMillis;
+    }
+
+    /**
+     * @return los milisegundos sin actividad de un cliente tras los que se le envía un ping.
+     */
+    public long getPingIntervalMillis() {
+        return pingIntervalMillis;
+    }
+
+    /**
+     * @return los milisegundos sin actividad tras los que se cierra la conexión de un cliente, o 0 si no se cierran.
+     */
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * @return las conexiones simultáneas que admite el servidor, o 0 si no se limitan.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return los mensajes por segundo que puede enviar un cliente, o 0 si no se limitan.
+     */
+    public long getRateLimitMessages() {
+        return rateLimitMessages;
+    }
+
+    /**
+     * @return los bytes por segundo que puede enviar un cliente, o 0 si no se limitan.
+     */
+    public long getRateLimitBytes() {
+        return rateLimitBytes;
+    }
+
+    /**
+     * @return los segundos de tráfico a la tasa máxima que un cliente puede enviar de una vez.
+     */
+    public long getRateLimitBurstSeconds() {
+        return rateLimitBurstSeconds;
+    }
+
+    /**
+     * @return los mensajes que se conservan por sesión para reenviarlos al reanudarla, o 0 si no se reanudan.
+     */
+    public int getResumeBufferMessages() {
+        return resumeBufferMessages;
+    }
+
+    /**
+     * @return los milisegundos durante los que se puede reanudar la sesión de un cliente desconectado.
+     */
+    public long getResumeWindowMillis() {
+        return resumeWindowMillis;
+    }
+
+    /**
+     * @return el directorio del registro de mensajes, o una cadena vacía si no se registran los mensajes.
+     */
+    public String getLogDirectory() {
+        return logDirectory;
+    }
+
+    /**
+     * @return cuándo se sincroniza el registro de mensajes con el disco.
+     */
+    MessageLog.Durability getLogDurability() {
+        return logDurability;
+    }
+
+    /**
+     * @return los milisegundos entre sincronizaciones del registro en el modo por lotes.
+     */
+    public long getLogFlushIntervalMillis() {
+        return logFlushIntervalMillis;
+    }
+
+    /**
+     * @return el tamaño de cada segmento del registro de mensajes.
+     */
+    public int getLogSegmentBytes() {
+        return logSegmentBytes;
+    }
+
+    /**
+     * @return la antigüedad máxima, en horas, de un segmento cerrado del registro; 0 si no se borran por antigüedad.
+     */
+    public long getLogRetentionHours() {
+        return logRetentionHours;
+    }
+
+    /**
+     * @return el tamaño máximo del registro de mensajes; 0 si no se limita.
+     */
+    public long getLogRetentionBytes() {
+        return logRetentionBytes;
+    }
+
+    /**
+     * @return verdadero si se indexan las palabras de los mensajes registrados para buscarlos.
+     */
+    public boolean isSearchEnabled() {
+        return searchEnabled;
+    }
+
+    /**
+     * @return el directorio de los buzones, o una cadena vacía si no se guardan los mensajes a usuarios desconectados.
+     */
+    public String getMailboxDirectory() {
+        return mailboxDirectory;
+    }
+
+    /**
+     * @return los mensajes que puede guardar el buzón de un usuario.
+     */
+    public int getMailboxMaxMessages() {
+        return mailboxMaxMessages;
+    }
+
+    /**
+     * @return las horas que se conserva un mensaje en un buzón.
+     */
+    public long getMailboxTtlHours() {
+        return mailboxTtlHours;
+    }
+
+    /**
+     * @return el puerto de las transferencias de archivos, o 0 si no se transfieren archivos.
+     */
+    public int getFilePort() {
+        return filePort;
+    }
+
+    /**
+     * @return el directorio de los archivos en tránsito.
+     */
+    public String getFileDirectory() {
+        return fileDirectory;
+    }
+
+    /**
+     * @return el tamaño máximo de un archivo.
+     */
+    public long getFileMaxBytes() {
+        return fileMaxBytes;
+    }
+
+    /**
+     * @return los bytes por segundo de todas las transferencias de archivos juntas, o 0 si no se limitan.
+     */
+    public long getFileBandwidthBytes() {
+        return fileBandwidthBytes;
+    }
+
+    /**
+     * @return las transferencias de archivos simultáneas.
+     */
+    public int getFileMaxTransfers() {
+        return fileMaxTransfers;
+    }
+
+    /**
+     * @return las horas que se conserva un archivo para que el destinatario lo descargue.
+     */
+    public long getFileTtlHours() {
+        return fileTtlHours;
+    }
+
+    /**
+     * @return verdadero si se registran las métricas del servidor.
+     */
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * @return el puerto HTTP de las métricas, o 0 si no se publican por HTTP.
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * @return qué se escribe en la bitácora de auditoría por cada mensaje enrutado.
+     */
+    MessageAudit.Level getMessageAuditLevel() {
+        return messageAuditLevel;
+    }
+
+    /**
+     * @return se audita en promedio uno de cada tantos mensajes.
+     */
+    public int getMessageAuditSample() {
+        return messageAuditSample;
+    }
+}
\ No newline at end of file
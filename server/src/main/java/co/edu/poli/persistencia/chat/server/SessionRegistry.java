@@ -0,0 +1,110 @@
+package co.edu.poli.persistencia.chat.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * La clase SessionRegistry es el registro de los apodos en uso, con la sesión de cada usuario conectado.
+ * <p>
+ * No usa candados: un apodo se reclama con {@link ConcurrentHashMap#putIfAbsent} y se libera con
+ * {@link ConcurrentHashMap#remove(Object, Object)}, que solo lo borra si sigue siendo de la misma sesión. Los apodos
+ * no distinguen mayúsculas: {@code Ana} y {@code ana} son el mismo usuario, y se muestra el apodo con el que se
+ * registró.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class SessionRegistry {
+
+    /**
+     * Longitud máxima de un apodo, en bytes UTF-8. Con ella el remitente y el destinatario de una trama siempre caben
+     * en sus campos y dejan lugar para el cuerpo.
+     */
+    static final int MAX_NICKNAME_LENGTH = 64;
+
+    // Las sesiones activas, por la clave de su apodo
+    private final ConcurrentHashMap<String, ClientSession> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Obtiene la clave de un apodo en el registro, sin distinguir mayúsculas.
+     *
+     * @param nickname el apodo.
+     * @return la clave del apodo.
+     */
+    static String keyOf(String nickname) {
+        return nickname.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Verifica que un apodo sea válido: no vacío y de hasta {@link #MAX_NICKNAME_LENGTH} bytes en UTF-8.
+     *
+     * @param nickname el apodo a verificar.
+     * @return verdadero si el apodo es válido.
+     */
+    static boolean isValidNickname(String nickname) {
+        return !nickname.isEmpty() && nickname.getBytes(StandardCharsets.UTF_8).length <= MAX_NICKNAME_LENGTH;
+    }
+
+    /**
+     * Reclama un apodo para un nuevo usuario.
+     *
+     * @param nickname el apodo solicitado.
+     * @param outboundQueue la cola de salida del usuario.
+     * @param closer cierra la conexión del usuario sin bloquearse.
+     * @return la sesión del usuario, o null si el apodo ya está en uso.
+     */
+    ClientSession register(String nickname, OutboundQueue outboundQueue, Runnable closer) {
+        ClientSession session = new ClientSession(nickname, keyOf(nickname), outboundQueue, closer);
+        return sessions.putIfAbsent(session.getKey(), session) == null ? session : null;
+    }
+
+    /**
+     * Libera el apodo de una sesión. Si el apodo ya pertenece a otra sesión, no se modifica.
+     *
+     * @param session la sesión que termina.
+     * @return verdadero si se liberó el apodo.
+     */
+    boolean unregister(ClientSession session) {
+        return sessions.remove(session.getKey(), session);
+    }
+
+    /**
+     * Busca la sesión del usuario con el apodo indicado.
+     *
+     * @param nickname el apodo, sin importar mayúsculas.
+     * @return la sesión del usuario, o null si no está conectado.
+     */
+    ClientSession get(String nickname) {
+        return sessions.get(keyOf(nickname));
+    }
+
+    /**
+     * @return las sesiones activas; la vista refleja los cambios posteriores.
+     */
+    Collection<ClientSession> sessions() {
+        return sessions.values();
+    }
+
+    /**
+     * @return los apodos de los usuarios conectados.
+     */
+    List<String> nicknames() {
+        List<String> nicknames = new ArrayList<>(sessions.size());
+        for (ClientSession session : sessions.values()) {
+            nicknames.add(session.getNickname());
+        }
+        return nicknames;
+    }
+
+    /**
+     * @return la cantidad de usuarios conectados.
+     */
+    int size() {
+        return sessions.size();
+    }
+}
\ No newline at end of file
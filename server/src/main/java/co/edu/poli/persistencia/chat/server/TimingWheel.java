@@ -0,0 +1,160 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * La clase TimingWheel es una rueda de tiempo con hash (Varghese y Lauck): un arreglo circular de casillas que un
+ * único hilo recorre, una casilla por tic. Cada tarea se ubica en la casilla de su plazo, con la cantidad de vueltas
+ * que faltan para que venza.
+ * <p>
+ * Programar o cancelar una tarea cuesta O(1) y cada tic solo recorre las tareas de su casilla, sin importar
+ * cuántas haya en total. A cambio, los plazos se redondean al tic siguiente. Las tareas se ejecutan en el hilo de
+ * la rueda y deben ser cortas.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+final class TimingWheel {
+
+    private static final Logger logger = LogManager.getLogger(TimingWheel.class);
+
+    /**
+     * Una tarea programada en la rueda.
+     */
+    static final class Timeout {
+
+        private final Runnable task;
+
+        private final long deadlineTick;
+
+        // Vueltas completas que faltan; solo la modifica el hilo de la rueda
+        private long remainingRounds;
+
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * Cancela la tarea. La rueda la descarta cuando llega a su casilla.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private final long tickMillis;
+
+    private final Queue<Timeout>[] buckets;
+
+    private final int mask;
+
+    // Tareas programadas desde cualquier hilo que aún no se ubican en su casilla
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+
+    // El tic que se está procesando o el siguiente; lo escribe solo el hilo de la rueda
+    private volatile long currentTick;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Crea la rueda e inicia su hilo.
+     *
+     * @param threadName el nombre del hilo de la rueda.
+     * @param tickMillis la duración de un tic en milisegundos.
+     * @param wheelSize la cantidad de casillas; se redondea a una potencia de dos.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimingWheel(String threadName, long tickMillis, int wheelSize) {
+        this.tickMillis = tickMillis;
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.buckets = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.mask = size - 1;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return la duración de un tic en milisegundos.
+     */
+    long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * @return el tic actual de la rueda; sirve como reloj de baja resolución que no consulta al sistema.
+     */
+    long currentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Programa una tarea. Se puede llamar desde cualquier hilo, incluso desde una tarea de la rueda.
+     *
+     * @param task la tarea.
+     * @param delayTicks los tics que deben pasar antes de ejecutarla; al menos uno.
+     * @return la tarea programada, que se puede cancelar.
+     */
+    Timeout schedule(Runnable task, long delayTicks) {
+        Timeout timeout = new Timeout(task, currentTick + Math.max(1, delayTicks));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Detiene el hilo de la rueda; las tareas pendientes no se ejecutan.
+     */
+    void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void tick() {
+        long tick = currentTick;
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (!timeout.cancelled) {
+                long deadline = Math.max(timeout.deadlineTick, tick);
+                timeout.remainingRounds = (deadline - tick) / buckets.length;
+                buckets[(int) (deadline & mask)].add(timeout);
+            }
+        }
+
+        Queue<Timeout> bucket = buckets[(int) (tick & mask)];
+        for (int i = bucket.size(); i > 0; i--) {
+            timeout = bucket.poll();
+            if (timeout.cancelled) {
+                continue;
+            }
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                bucket.add(timeout);
+                continue;
+            }
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                // Una tarea que falla no debe detener a la rueda ni a las demás tareas
+                logger.error("Timing wheel task failed", e);
+            }
+        }
+        currentTick = tick + 1;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,76 @@
+package co.edu.poli.persistencia.chat.server;
+
+/**
+ * La clase TokenBucket es un balde de fichas: se llena a una tasa constante hasta su capacidad y cada operación
+ * consume fichas, así permite ráfagas cortas pero limita la tasa promedio.
+ * <p>
+ * No es segura entre hilos: cada conexión tiene sus propios baldes y solo los usa el hilo que lee sus mensajes, y el
+ * balde que comparten las transferencias de archivos se usa con su candado ({@link FileTransferServer}). Consumir no
+ * reserva memoria.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+final class TokenBucket {
+
+    private final double tokensPerNano;
+
+    private final double capacity;
+
+    private double tokens;
+
+    private long lastRefillNanos;
+
+    /**
+     * Crea un balde lleno.
+     *
+     * @param ratePerSecond las fichas que se agregan por segundo.
+     * @param capacity las fichas que caben en el balde, es decir, la ráfaga máxima.
+     * @param nowNanos el instante actual, según {@link System#nanoTime()}.
+     */
+    TokenBucket(long ratePerSecond, long capacity, long nowNanos) {
+        this.tokensPerNano = ratePerSecond / 1e9;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefillNanos = nowNanos;
+    }
+
+    /**
+     * Intenta consumir fichas. Una operación más grande que la capacidad pasa si el balde está lleno y lo deja en
+     * deuda, así nunca queda bloqueada para siempre.
+     *
+     * @param amount las fichas a consumir.
+     * @param nowNanos el instante actual, según {@link System#nanoTime()}.
+     * @return verdadero si había fichas suficientes y se consumieron.
+     */
+    boolean tryConsume(long amount, long nowNanos) {
+        if (!canConsume(amount, nowNanos)) {
+            return false;
+        }
+        consume(amount);
+        return true;
+    }
+
+    /**
+     * Indica si hay fichas suficientes sin consumirlas, para revisar varios baldes antes de consumir de alguno.
+     *
+     * @param amount las fichas a consumir.
+     * @param nowNanos el instante actual, según {@link System#nanoTime()}.
+     * @return verdadero si {@link #consume(long)} puede consumirlas.
+     */
+    boolean canConsume(long amount, long nowNanos) {
+        tokens = Math.min(capacity, tokens + (nowNanos - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = nowNanos;
+        return tokens >= Math.min(amount, capacity);
+    }
+
+    /**
+     * Consume fichas después de comprobar con {@link #canConsume(long, long)} que había suficientes.
+     *
+     * @param amount las fichas a consumir.
+     */
+    void consume(long amount) {
+        tokens -= amount;
+    }
+}
\ No newline at end of file
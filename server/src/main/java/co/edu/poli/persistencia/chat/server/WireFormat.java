@@ -0,0 +1,22 @@
+package co.edu.poli.persistencia.chat.server;
+
+/**
+ * Los formatos en que un cliente puede intercambiar mensajes con el servidor. Se negocia en el saludo inicial:
+ * si los primeros bytes son {@link Frame#PREAMBLE} el cliente usa tramas binarias; si no, la primera línea es el apodo.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+enum WireFormat {
+
+    /**
+     * El protocolo original de líneas de texto ("@usuario: mensaje").
+     */
+    TEXT,
+
+    /**
+     * Tramas binarias con prefijo de longitud (ver {@link Frame}).
+     */
+    BINARY
+}
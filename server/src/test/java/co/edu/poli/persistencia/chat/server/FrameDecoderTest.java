@@ -0,0 +1,118 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pruebas de {@link FrameDecoder} y {@link Frame#encode}: las tramas codificadas se decodifican iguales aunque
+ * lleguen partidas en lecturas arbitrarias, el preámbulo se verifica antes de la primera trama y las tramas que
+ * superan {@link Frame#MAX_LENGTH} se rechazan al codificarlas y al decodificarlas.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class FrameDecoderTest {
+
+    @Test
+    void framesSplitAcrossReadsDecodeAsEncoded() throws IOException {
+        byte[] body = "hola, ¿cómo vas?".getBytes(StandardCharsets.UTF_8);
+        byte[] largeBody = new byte[Frame.MAX_LENGTH - Frame.headerLength("ana", "#sala")];
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(Frame.PREAMBLE);
+        stream.write(Frame.encode(FrameType.HELLO, "ana", null, new byte[0], 0, 0));
+        stream.write(Frame.encode(FrameType.PRIVATE, "ana", "bob", body, 0, body.length));
+        stream.write(Frame.encode(FrameType.ROOM, "ana", "#sala", largeBody, 0, largeBody.length));
+        stream.write(Frame.encode(FrameType.BYE, null, null, new byte[0], 0, 0));
+        byte[] bytes = stream.toByteArray();
+
+        // Lecturas de 1, 2, 3... bytes, para partir el preámbulo, los prefijos de longitud y los cuerpos
+        FrameDecoder decoder = new FrameDecoder();
+        List<Frame> frames = new ArrayList<>();
+        int position = 0;
+        for (int read = 1; position < bytes.length; read++) {
+            int length = Math.min(read, bytes.length - position);
+            assertTrue(decoder.decode(ByteBuffer.wrap(bytes, position, length), frames::add));
+            position += length;
+        }
+
+        assertEquals(4, frames.size());
+        assertEquals(FrameType.HELLO, frames.get(0).getType());
+        assertEquals("ana", frames.get(0).getSender());
+        assertEquals(FrameType.PRIVATE, frames.get(1).getType());
+        assertEquals("ana", frames.get(1).getSender());
+        assertEquals("bob", frames.get(1).getRecipient());
+        assertEquals("hola, ¿cómo vas?", frames.get(1).getBodyAsString());
+        assertEquals(FrameType.ROOM, frames.get(2).getType());
+        assertEquals("#sala", frames.get(2).getRecipient());
+        assertEquals(largeBody.length, frames.get(2).getBodyLength());
+        assertEquals(FrameType.BYE, frames.get(3).getType());
+        assertEquals("", frames.get(3).getSender());
+    }
+
+    @Test
+    void decodingStopsWhenTheConsumerAsksTo() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(Frame.PREAMBLE);
+        stream.write(Frame.encode(FrameType.PING, null, null, new byte[0], 0, 0));
+        stream.write(Frame.encode(FrameType.PONG, null, null, new byte[0], 0, 0));
+
+        FrameDecoder decoder = new FrameDecoder();
+        List<Frame> frames = new ArrayList<>();
+        assertFalse(decoder.decode(ByteBuffer.wrap(stream.toByteArray()), frame -> {
+            frames.add(frame);
+            return false;
+        }));
+        assertEquals(1, frames.size());
+        assertEquals(FrameType.PING, frames.get(0).getType());
+    }
+
+    @Test
+    void aWrongPreambleIsRejected() {
+        byte[] preamble = Frame.PREAMBLE.clone();
+        preamble[preamble.length - 1]++;
+        FrameDecoder decoder = new FrameDecoder();
+        assertThrows(IOException.class, () -> decoder.decode(ByteBuffer.wrap(preamble), frame -> true));
+    }
+
+    @Test
+    void anAnnouncedLengthAboveTheMaximumIsRejectedBeforeItsBytesArrive() throws IOException {
+        FrameDecoder decoder = new FrameDecoder();
+        assertTrue(decoder.decode(ByteBuffer.wrap(Frame.PREAMBLE), frame -> true));
+        ByteBuffer length = ByteBuffer.allocate(4).putInt(Frame.MAX_LENGTH + 1).flip();
+        assertThrows(IOException.class, () -> decoder.decode(length, frame -> true));
+    }
+
+    @Test
+    void encodingRejectsFramesThatDoNotFit() {
+        byte[] body = new byte[Frame.MAX_LENGTH - Frame.headerLength("ana", "bob") + 1];
+        assertThrows(IllegalArgumentException.class,
+                () -> Frame.encode(FrameType.PRIVATE, "ana", "bob", body, 0, body.length));
+
+        String longName = "a".repeat(0x10000);
+        assertThrows(IllegalArgumentException.class,
+                () -> Frame.encode(FrameType.PRIVATE, longName, "bob", new byte[0], 0, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> Frame.encode(FrameType.PRIVATE, "ana", longName, new byte[0], 0, 0));
+    }
+
+    @Test
+    void nicknamesMustFitTheirLimitInUtf8Bytes() {
+        assertFalse(SessionRegistry.isValidNickname(""));
+        assertTrue(SessionRegistry.isValidNickname("a".repeat(SessionRegistry.MAX_NICKNAME_LENGTH)));
+        assertFalse(SessionRegistry.isValidNickname("a".repeat(SessionRegistry.MAX_NICKNAME_LENGTH + 1)));
+        // Cada 'ñ' ocupa dos bytes en UTF-8
+        assertFalse(SessionRegistry.isValidNickname("ñ".repeat(SessionRegistry.MAX_NICKNAME_LENGTH / 2 + 1)));
+    }
+}
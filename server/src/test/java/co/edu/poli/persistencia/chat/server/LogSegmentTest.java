@@ -0,0 +1,140 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pruebas de {@link LogSegment}: la recuperación de un segmento cuyo último registro quedó incompleto o corrupto, y
+ * el renombre de los segmentos preparados.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class LogSegmentTest {
+
+    private static final int SEGMENT_BYTES = 64 * 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void reopeningATruncatedSegmentDropsTheIncompleteRecord() throws IOException {
+        LogSegment segment = LogSegment.create(directory, 1, SEGMENT_BYTES);
+        for (long sequence = 1; sequence <= 3; sequence++) {
+            assertTrue(segment.append(sequence, sequence, message(sequence)));
+        }
+        int thirdRecordStart = positionOf(segment, 3);
+        int end = segment.getWritePosition();
+        segment.close();
+
+        // La caída cortó el archivo a mitad del tercer registro
+        try (FileChannel channel = FileChannel.open(segment.getPath(), StandardOpenOption.WRITE)) {
+            channel.truncate((thirdRecordStart + end) / 2);
+        }
+
+        LogSegment reopened = LogSegment.open(segment.getPath(), SEGMENT_BYTES);
+        assertEquals(2, reopened.getLastSequence());
+        assertEquals(thirdRecordStart, reopened.getWritePosition());
+        assertTrue(reopened.append(3, 3, message(3)));
+        assertEquals(List.of(1L, 2L, 3L), sequencesOf(reopened));
+        reopened.close();
+    }
+
+    @Test
+    void reopeningASegmentWithACorruptRecordDropsItAndWhatFollows() throws IOException {
+        LogSegment segment = LogSegment.create(directory, 1, SEGMENT_BYTES);
+        for (long sequence = 1; sequence <= 3; sequence++) {
+            assertTrue(segment.append(sequence, sequence, message(sequence)));
+        }
+        int secondRecordStart = positionOf(segment, 2);
+        segment.close();
+
+        // Un byte del cuerpo del segundo registro no coincide con su CRC
+        try (FileChannel channel = FileChannel.open(segment.getPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            int bodyByte = secondRecordStart + LogSegment.RECORD_HEADER_LENGTH + 30;
+            ByteBuffer original = ByteBuffer.allocate(1);
+            channel.read(original, bodyByte);
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) (original.get(0) ^ 0x55)}), bodyByte);
+        }
+
+        LogSegment reopened = LogSegment.open(segment.getPath(), SEGMENT_BYTES);
+        assertEquals(1, reopened.getLastSequence());
+        assertEquals(secondRecordStart, reopened.getWritePosition());
+        assertEquals(List.of(1L), sequencesOf(reopened));
+        reopened.close();
+    }
+
+    @Test
+    void aSpareSegmentTakesTheNameOfItsBaseSequence() throws IOException {
+        LogSegment spare = LogSegment.createSpare(directory, 0, SEGMENT_BYTES);
+        assertTrue(LogSegment.isSpareFile(spare.getPath()));
+
+        LogSegment segment = spare.assignBaseSequence(42);
+        assertTrue(segment.append(42, 42, message(42)));
+        segment.moveToBaseName(directory);
+        assertEquals(LogSegment.pathOf(directory, 42), segment.getPath());
+        assertFalse(Files.exists(spare.getPath()));
+        segment.close();
+
+        LogSegment reopened = LogSegment.open(LogSegment.pathOf(directory, 42), SEGMENT_BYTES);
+        assertEquals(42, reopened.getBaseSequence());
+        assertEquals(42, reopened.getLastSequence());
+        reopened.close();
+    }
+
+    @Test
+    void aSpareSegmentLeftByACrashIsRecoveredUnderItsFirstSequence() throws IOException {
+        LogSegment segment = LogSegment.createSpare(directory, 0, SEGMENT_BYTES).assignBaseSequence(7);
+        assertTrue(segment.append(7, 7, message(7)));
+        assertTrue(segment.append(8, 8, message(8)));
+        segment.close();
+        LogSegment empty = LogSegment.createSpare(directory, 1, SEGMENT_BYTES);
+        empty.close();
+
+        LogSegment.recoverSpare(directory, segment.getPath());
+        LogSegment.recoverSpare(directory, empty.getPath());
+
+        assertFalse(Files.exists(segment.getPath()));
+        assertFalse(Files.exists(empty.getPath()));
+        LogSegment recovered = LogSegment.open(LogSegment.pathOf(directory, 7), SEGMENT_BYTES);
+        assertEquals(List.of(7L, 8L), sequencesOf(recovered));
+        recovered.close();
+    }
+
+    private static OutboundMessage message(long sequence) {
+        return OutboundMessage.privateMessage("ana", "bob", "mensaje número " + sequence);
+    }
+
+    private static int positionOf(LogSegment segment, long wanted) {
+        int[] found = {-1};
+        segment.forEachRecord(0, segment.getWritePosition(),
+                (sequence, timestamp, type, sender, recipient, position) -> {
+                    if (sequence == wanted) {
+                        found[0] = position;
+                    }
+                });
+        return found[0];
+    }
+
+    private static List<Long> sequencesOf(LogSegment segment) {
+        List<Long> sequences = new ArrayList<>();
+        segment.forEachRecord(0, segment.getWritePosition(),
+                (sequence, timestamp, type, sender, recipient, position) -> sequences.add(sequence));
+        return sequences;
+    }
+}
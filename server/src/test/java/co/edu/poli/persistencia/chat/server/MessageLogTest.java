@@ -0,0 +1,85 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pruebas de {@link MessageLog}: los mensajes que pasan de un segmento al siguiente se conservan, en orden, al volver
+ * a abrir el registro.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class MessageLogTest {
+
+    // Segmentos pequeños, para que unos pocos mensajes llenen más de uno
+    private static final int SEGMENT_BYTES = 4 * 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void messagesWrittenPastASegmentBoundarySurviveAReopen() throws IOException {
+        MessageLog log = open();
+        // Cada registro ocupa unos 80 bytes: 120 mensajes llenan dos segmentos y parte de un tercero, el último de los
+        // que el registro prepara al abrirse
+        int count = 120;
+        long[] delivered = new long[count + 1];
+        for (int i = 1; i <= count; i++) {
+            int index = i;
+            long sequence = log.append(message(i), () -> delivered[index]++);
+            assertEquals(i, sequence);
+        }
+        log.close();
+        for (int i = 1; i <= count; i++) {
+            assertEquals(1, delivered[i], "deliveries of message " + i);
+        }
+        assertEquals(3, segmentFiles().size(), "segments: " + segmentFiles());
+        assertTrue(spareFiles().isEmpty(), "spare segments left: " + spareFiles());
+
+        MessageLog reopened = open();
+        assertEquals(count, reopened.getLastSequence());
+        List<LogSegment.LogRecord> history =
+                reopened.readHistory(HistoryIndex.privateConversation("ana", "bob"), 0, count);
+        assertEquals(count, history.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i + 1, history.get(i).sequence);
+            assertEquals("mensaje número " + (i + 1) + " de la prueba del registro",
+                    new String(history.get(i).body, StandardCharsets.UTF_8));
+        }
+        assertEquals(count + 1, reopened.append(message(count + 1), () -> { }));
+        reopened.close();
+    }
+
+    private MessageLog open() throws IOException {
+        return new MessageLog(directory, MessageLog.Durability.OS, SEGMENT_BYTES, 10, 0, 0, false);
+    }
+
+    private static OutboundMessage message(int i) {
+        return OutboundMessage.privateMessage("ana", "bob", "mensaje número " + i + " de la prueba del registro");
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(LogSegment::isSegmentFile).collect(Collectors.toList());
+        }
+    }
+
+    private List<Path> spareFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(LogSegment::isSpareFile).collect(Collectors.toList());
+        }
+    }
+}
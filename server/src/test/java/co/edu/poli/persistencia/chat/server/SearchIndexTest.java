@@ -0,0 +1,119 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Pruebas de {@link SearchIndex}: la codificación de las listas de secuencias en enteros variables, la poda de las
+ * secuencias que el registro ya borró y que el índice guardado conserva la poda.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class SearchIndexTest {
+
+    // Diferencias en los bordes de cada tamaño del entero variable, de uno a nueve bytes
+    private static final long[] DELTAS = {
+            1, 0x7F, 0x80, 0x3FFF, 0x4000, 1L << 21, 1L << 28, 1L << 35, 1L << 42, 1L << 49, 1L << 56, 1L << 62
+    };
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void postingListsDecodeTheSequencesTheyEncode() {
+        long[] sequences = new long[DELTAS.length];
+        long sequence = 0;
+        for (int i = 0; i < DELTAS.length; i++) {
+            sequence += DELTAS[i];
+            sequences[i] = sequence;
+        }
+        SearchIndex.PostingList list = postingList(sequences);
+        assertEquals(sequences.length, list.count);
+        assertEquals(sequence, list.lastSequence);
+        assertArrayEquals(sequences, list.decodeBefore(Long.MAX_VALUE));
+        // Las secuencias se devuelven hasta la anterior a la indicada, sin incluirla
+        assertArrayEquals(new long[]{1, 0x80, 0x100}, list.decodeBefore(sequences[3]));
+        assertArrayEquals(new long[0], list.decodeBefore(1));
+    }
+
+    @Test
+    void removeBeforeKeepsTheLaterSequencesAndFurtherAdditions() {
+        SearchIndex.PostingList list = postingList(1, 5, 200, 201, 70_000, 70_128);
+
+        list.removeBefore(1);
+        assertArrayEquals(new long[]{1, 5, 200, 201, 70_000, 70_128}, list.decodeBefore(Long.MAX_VALUE));
+
+        // La primera secuencia que queda pasa a guardarse completa, en más bytes que su diferencia anterior
+        list.removeBefore(150);
+        assertEquals(4, list.count);
+        assertArrayEquals(new long[]{200, 201, 70_000, 70_128}, list.decodeBefore(Long.MAX_VALUE));
+
+        list.add(70_129);
+        list.add(5_000_000_000L);
+        assertArrayEquals(new long[]{200, 201, 70_000, 70_128, 70_129, 5_000_000_000L},
+                list.decodeBefore(Long.MAX_VALUE));
+
+        list.removeBefore(5_000_000_001L);
+        assertEquals(0, list.count);
+        assertArrayEquals(new long[0], list.decodeBefore(Long.MAX_VALUE));
+    }
+
+    @Test
+    void pruningDropsOldMessagesAndEmptyConversations() throws IOException {
+        SearchIndex index = new SearchIndex(directory);
+        for (long sequence = 1; sequence <= 10; sequence++) {
+            add(index, sequence, FrameType.PRIVATE, "ana", "Bob", "hola número " + sequence);
+        }
+        for (long sequence = 11; sequence <= 13; sequence++) {
+            add(index, sequence, FrameType.ROOM, "ana", "sala", "hola sala");
+        }
+        index.commit();
+        index.prune(6);
+        index.close();
+
+        // El índice guardado al cerrar ya no tiene los mensajes podados
+        SearchIndex reopened = new SearchIndex(directory);
+        assertEquals(13, reopened.getCheckpoint());
+        List<SearchIndex.Match> matches = reopened.search("BOB", Set.of(), SearchIndex.terms("Hola"), 0, 100);
+        assertArrayEquals(new long[]{10, 9, 8, 7, 6}, sequencesOf(matches));
+        assertEquals(HistoryIndex.privateConversation("ana", "bob"), matches.get(0).conversation);
+        assertArrayEquals(new long[]{13, 12, 11}, sequencesOf(reopened.search("ana", Set.of(),
+                SearchIndex.terms("hola sala"), 0, 100)));
+
+        // La poda no pasa del último mensaje: la sala y la conversación privada quedan vacías y se eliminan
+        reopened.prune(14);
+        reopened.close();
+        SearchIndex pruned = new SearchIndex(directory);
+        assertArrayEquals(new long[0], sequencesOf(pruned.search("ana",
+                Set.of(HistoryIndex.roomConversation("sala")), SearchIndex.terms("hola"), 0, 100)));
+        pruned.close();
+    }
+
+    private static SearchIndex.PostingList postingList(long... sequences) {
+        SearchIndex.PostingList list = new SearchIndex.PostingList();
+        for (long sequence : sequences) {
+            list.add(sequence);
+        }
+        return list;
+    }
+
+    private static void add(SearchIndex index, long sequence, FrameType type, String sender, String recipient,
+                            String text) {
+        index.add(sequence, type, sender, recipient, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long[] sequencesOf(List<SearchIndex.Match> matches) {
+        return matches.stream().mapToLong(match -> match.sequence).toArray();
+    }
+}
@@ -0,0 +1,62 @@
+package co.edu.poli.persistencia.chat.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pruebas de {@link TimingWheel}: las tareas con plazos de varias vueltas vencen en el tic exacto de su plazo,
+ * también cuando su casilla es la que la rueda está procesando al ubicarlas, y las canceladas no se ejecutan.
+ *
+ * @author Autor
+ * @version 1.0
+ * @since 2023.11.06
+ */
+class TimingWheelTest {
+
+    private static final int WHEEL_SIZE = 4;
+
+    // Plazos de menos de una vuelta, de una y de dos; los de 5 y 9 tics caen en la casilla que se procesa cuando
+    // la rueda los ubica, en el tic siguiente al que se programan
+    private static final long[] DELAYS = {2, 5, 6, 9, 10};
+
+    @Test
+    void tasksSpanningSeveralRotationsRunAtTheirDeadlineTick() throws InterruptedException {
+        TimingWheel wheel = new TimingWheel("test-wheel", 2, WHEEL_SIZE);
+        try {
+            long[] scheduledTick = new long[1];
+            long[] firedTicks = new long[DELAYS.length];
+            boolean[] cancelledRan = new boolean[1];
+            CountDownLatch done = new CountDownLatch(DELAYS.length + 1);
+
+            // Se programan desde una tarea de la rueda, así el tic actual no cambia mientras tanto
+            wheel.schedule(() -> {
+                scheduledTick[0] = wheel.currentTick();
+                for (int i = 0; i < DELAYS.length; i++) {
+                    int index = i;
+                    wheel.schedule(() -> {
+                        firedTicks[index] = wheel.currentTick();
+                        done.countDown();
+                    }, DELAYS[i]);
+                }
+                wheel.schedule(() -> cancelledRan[0] = true, 6).cancel();
+                wheel.schedule(done::countDown, 3 * WHEEL_SIZE);
+            }, 1);
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            long[] expected = new long[DELAYS.length];
+            for (int i = 0; i < DELAYS.length; i++) {
+                expected[i] = scheduledTick[0] + DELAYS[i];
+            }
+            assertArrayEquals(expected, firedTicks);
+            assertFalse(cancelledRan[0]);
+        } finally {
+            wheel.stop();
+        }
+    }
+}